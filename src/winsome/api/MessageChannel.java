@@ -0,0 +1,219 @@
+package winsome.api;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.StandardCharsets;
+import java.util.Objects;
+
+/**
+ * The TCP connection of a client with the Winsome Server, exchanging length-prefixed UTF-8 messages.
+ * <p>
+ * The connection is a single non-blocking {@link SocketChannel}, waited on through selectors to honour the timeouts.
+ * Messages are encoded into and decoded from direct buffers owned by the connection, which are only
+ * reallocated (doubling them) when a message does not fit; bytes read past the end of a message are kept
+ * for the next one.
+ * <p>
+ * A thread may receive while another one sends, but at most one thread may receive (or send) at any time.
+ */
+class MessageChannel implements Closeable {
+    /** Initial size in bytes of the buffers */
+    private static final int INITIAL_BUFFER = 1 << 14;
+    /** Maximum length in bytes of a received message */
+    private static final int MAX_MESSAGE = 1 << 26;
+
+    /** The connection with the server */
+    private final SocketChannel channel;
+    /** Selector waiting for the channel to be readable */
+    private final Selector readSelector;
+    /** Selector waiting for the channel to be writable */
+    private final Selector writeSelector;
+
+    /** Bytes read and not decoded yet (in writing mode) */
+    private ByteBuffer readBuffer = ByteBuffer.allocateDirect(INITIAL_BUFFER);
+    /** Encoded message being sent (in writing mode) */
+    private ByteBuffer writeBuffer = ByteBuffer.allocateDirect(INITIAL_BUFFER);
+    /** Decoder of the received messages */
+    private final CharsetDecoder decoder = StandardCharsets.UTF_8.newDecoder();
+    /** Encoder of the sent messages */
+    private final CharsetEncoder encoder = StandardCharsets.UTF_8.newEncoder();
+    /** Lock of the receiving side */
+    private final Object readLock = new Object();
+    /** Lock of the sending side */
+    private final Object writeLock = new Object();
+
+    /**
+     * Connects to the server.
+     * @param addr the server address
+     * @param port the server port
+     * @throws IOException if the connection could not be established
+     */
+    MessageChannel(String addr, int port) throws IOException {
+        Objects.requireNonNull(addr, "null address");
+
+        channel = SocketChannel.open(new InetSocketAddress(addr, port));
+        try {
+            channel.setOption(StandardSocketOptions.TCP_NODELAY, true); // every message is written at once
+            channel.configureBlocking(false);
+            readSelector = Selector.open();
+            writeSelector = Selector.open();
+            channel.register(readSelector, SelectionKey.OP_READ);
+            channel.register(writeSelector, SelectionKey.OP_WRITE);
+        } catch (IOException ex){
+            channel.close();
+            throw ex;
+        }
+    }
+
+    /**
+     * Sends a message.
+     * @param msg the message
+     * @param timeout the maximum time (in milliseconds) to wait for the server to accept the message, or 0 to wait forever
+     * @throws SocketTimeoutException if the timeout expires before the whole message is sent
+     * @throws IOException if some other IO error occurs
+     */
+    void send(String msg, long timeout) throws IOException {
+        Objects.requireNonNull(msg, "attempting to send an empty message");
+
+        synchronized(writeLock){
+            // encoding the message after room for its length
+            writeBuffer.clear().position(Integer.BYTES);
+            CharBuffer chars = CharBuffer.wrap(msg);
+            encoder.reset();
+            CoderResult result;
+            while((result = encoder.encode(chars, writeBuffer, true)).isOverflow()) writeBuffer = grow(writeBuffer, writeBuffer.capacity() * 2);
+            if(result.isError()) result.throwException();
+            while((result = encoder.flush(writeBuffer)).isOverflow()) writeBuffer = grow(writeBuffer, writeBuffer.capacity() * 2);
+
+            writeBuffer.flip();
+            writeBuffer.putInt(0, writeBuffer.limit() - Integer.BYTES);
+
+            long deadline = deadline(timeout);
+            while(writeBuffer.hasRemaining()){
+                if(channel.write(writeBuffer) == 0) await(writeSelector, deadline, "sending the request");
+            }
+        }
+    }
+
+    /**
+     * Receives a message.
+     * @param timeout the maximum time (in milliseconds) to wait for the message, or 0 to wait forever
+     * @return the message
+     * @throws SocketTimeoutException if the timeout expires before the whole message is received
+     * @throws EOFException if the server closed the connection
+     * @throws IOException if some other IO error occurs or the message is not valid
+     */
+    String receive(long timeout) throws IOException {
+        synchronized(readLock){
+            long deadline = deadline(timeout);
+            while(true){
+                String msg = decode();
+                if(msg != null) return msg;
+
+                int read = channel.read(readBuffer);
+                if(read == -1) throw new EOFException("connection closed by the server");
+                if(read == 0) await(readSelector, deadline, "waiting for the response");
+            }
+        }
+    }
+
+    /** Closes the connection, waking up the threads waiting on it. */
+    @Override
+    public void close() throws IOException {
+        try { channel.close(); }
+        finally {
+            readSelector.wakeup(); writeSelector.wakeup();
+            readSelector.close(); writeSelector.close();
+        }
+    }
+
+    /**
+     * Decodes the first message in the read buffer, if it has been read completely.
+     * @return the message, or null if it has not been read completely
+     * @throws IOException if the message length or the message are not valid
+     */
+    private String decode() throws IOException {
+        if(readBuffer.position() < Integer.BYTES) return null;
+
+        int len = readBuffer.getInt(0);
+        if(len <= 0 || len > MAX_MESSAGE) throw new IOException("received invalid message length " + len);
+
+        int frame = Integer.BYTES + len;
+        if(readBuffer.position() < frame){
+            // making room for the whole message
+            if(readBuffer.capacity() < frame) readBuffer = grow(readBuffer, Math.max(frame, readBuffer.capacity() * 2));
+            return null;
+        }
+
+        readBuffer.flip();
+        ByteBuffer bytes = readBuffer.duplicate();
+        bytes.position(Integer.BYTES).limit(frame);
+        String msg;
+        try { msg = decoder.reset().decode(bytes).toString(); }
+        catch (CharacterCodingException ex){ throw new IOException("received message is not valid UTF-8", ex); }
+
+        // keeping the bytes of the following messages
+        readBuffer.position(frame);
+        readBuffer.compact();
+        return msg;
+    }
+
+    /**
+     * Waits for the channel to be ready.
+     * @param selector the selector waiting for the required operation
+     * @param deadline the time (as in {@link System#nanoTime()}) at which the wait times out, or 0 to wait forever
+     * @param action the action waiting, used in the timeout message
+     * @throws SocketTimeoutException if the deadline is reached
+     * @throws IOException if the channel is closed or some other IO error occurs
+     */
+    private void await(Selector selector, long deadline, String action) throws IOException {
+        if(!channel.isOpen()) throw new EOFException("connection closed");
+
+        long wait = 0;
+        if(deadline != 0){
+            wait = (deadline - System.nanoTime()) / 1000000;
+            if(wait <= 0) throw new SocketTimeoutException("timed out while " + action);
+        }
+        try {
+            selector.select(wait);
+            selector.selectedKeys().clear();
+        } catch (ClosedSelectorException ex){ throw new EOFException("connection closed"); }
+    }
+
+    /**
+     * Computes the deadline of an operation.
+     * @param timeout the timeout (in milliseconds), or 0 for no timeout
+     * @return the deadline, as in {@link System#nanoTime()}, or 0 if there is no timeout
+     */
+    private static long deadline(long timeout){
+        if(timeout <= 0) return 0;
+        long deadline = System.nanoTime() + timeout * 1000000;
+        return (deadline == 0) ? 1 : deadline;
+    }
+
+    /**
+     * Returns a larger direct buffer with the same contents and position.
+     * @param buf the buffer, in writing mode
+     * @param capacity the new capacity
+     * @return the new buffer, in writing mode
+     */
+    private static ByteBuffer grow(ByteBuffer buf, int capacity){
+        ByteBuffer larger = ByteBuffer.allocateDirect(capacity);
+        buf.flip();
+        larger.put(buf);
+        return larger;
+    }
+}
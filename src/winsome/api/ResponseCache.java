@@ -0,0 +1,118 @@
+package winsome.api;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+
+import com.google.gson.JsonObject;
+
+/**
+ * A bounded cache of the responses of the server to the requests for posts, blogs and feeds.
+ * <p>
+ * Every response is kept with the tag the server computed on its contents: a response younger than
+ * the time-to-live is used without contacting the server, while an older one is revalidated by sending its tag,
+ * so that the server only sends the contents again if they changed.
+ * When the cache is full, the least recently used response is discarded.
+ */
+class ResponseCache {
+    /** A cached response */
+    static class Entry {
+        /** The response */
+        final JsonObject response;
+        /** The tag of the response */
+        final String tag;
+        /** Time at which the response was last validated by the server, in nanoseconds */
+        private long validatedAt;
+
+        private Entry(JsonObject response, String tag){
+            this.response = response;
+            this.tag = tag;
+            this.validatedAt = System.nanoTime();
+        }
+    }
+
+    /** Maximum number of cached responses (0 disables the cache) */
+    private int maxEntries;
+    /** Time (in nanoseconds) during which a response is used without revalidating it */
+    private long ttl;
+    /** The cached responses, in order of access */
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true){
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest){ return size() > maxEntries; }
+    };
+
+    /**
+     * Creates a new cache.
+     * @param maxEntries the maximum number of cached responses (0 disables the cache)
+     * @param ttl the time (in milliseconds) during which a response is used without revalidating it
+     * @throws IllegalArgumentException if either argument is negative
+     */
+    ResponseCache(int maxEntries, long ttl){ setLimits(maxEntries, ttl); }
+
+    /**
+     * Changes the bounds of this cache, discarding the responses in excess.
+     * @param maxEntries the maximum number of cached responses (0 disables the cache)
+     * @param ttl the time (in milliseconds) during which a response is used without revalidating it
+     * @throws IllegalArgumentException if either argument is negative
+     */
+    synchronized void setLimits(int maxEntries, long ttl){
+        if(maxEntries < 0 || ttl < 0) throw new IllegalArgumentException("cache limits must not be negative");
+        this.maxEntries = maxEntries;
+        this.ttl = TimeUnit.MILLISECONDS.toNanos(ttl);
+
+        Iterator<String> iter = entries.keySet().iterator();
+        while(entries.size() > maxEntries && iter.hasNext()){ iter.next(); iter.remove(); }
+    }
+
+    /**
+     * Returns a cached response.
+     * @param key the key of the request
+     * @return the cached response, or null if there is none
+     */
+    synchronized Entry get(String key){ return entries.get(Objects.requireNonNull(key, "null key")); }
+
+    /**
+     * Checks whether a cached response can be used without revalidating it.
+     * @param entry the cached response
+     * @return true if and only if the response is younger than the time-to-live
+     */
+    synchronized boolean isFresh(Entry entry){ return System.nanoTime() - entry.validatedAt < ttl; }
+
+    /**
+     * Caches a response.
+     * @param key the key of the request
+     * @param response the response
+     * @param tag the tag of the response
+     */
+    synchronized void put(String key, JsonObject response, String tag){
+        Objects.requireNonNull(key, "null key");
+        if(maxEntries == 0) return;
+        entries.put(key, new Entry(Objects.requireNonNull(response, "null response"), Objects.requireNonNull(tag, "null tag")));
+    }
+
+    /**
+     * Records that the server confirmed that a cached response has not changed.
+     * @param entry the cached response
+     */
+    synchronized void revalidated(Entry entry){ entry.validatedAt = System.nanoTime(); }
+
+    /**
+     * Discards a cached response.
+     * @param key the key of the request
+     */
+    synchronized void invalidate(String key){ entries.remove(Objects.requireNonNull(key, "null key")); }
+
+    /**
+     * Discards every cached response whose key starts with the given prefix.
+     * @param prefix the given prefix
+     */
+    synchronized void invalidatePrefix(String prefix){
+        Objects.requireNonNull(prefix, "null prefix");
+        entries.keySet().removeIf(key -> key.startsWith(prefix));
+    }
+
+    /** Discards every cached response. */
+    synchronized void clear(){ entries.clear(); }
+}
@@ -2,7 +2,12 @@ package winsome.api;
 
 import java.io.*;
 import java.net.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.MembershipKey;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 
 import java.rmi.*;
 import java.rmi.registry.LocateRegistry;
@@ -36,46 +41,88 @@ import winsome.utils.cryptography.Hash;
 
 /** The API interface to communicate with the Winsome Social Network Server. */
 public class WinsomeAPI extends RemoteObject implements RemoteClient {
-    /** Reads and registers the server updates on the Multicast Socket */
+    /** 
+     * Reads and registers the server updates on the Multicast Group.
+     * <p>
+     * Datagrams are received in a single reused buffer and only their actual length is decoded.
+     * Consecutive reward notifications are coalesced into the latest one,
+     * so that a client which does not read its messages keeps at most one of them pending.
+     */
     private class WalletUpdatesWorker implements Callable<Void> {
-        /** The multicast socket */
-        private MulticastSocket mcastSocket;
-        /** The multicast address */
-        private InetAddress mcastAddress;
-        /** A blocking queue containing the server messages */
-        private BlockingQueue<String> messages;
+        /** Maximum size of a datagram */
+        private static final int MAX_DATAGRAM = 1 << 16;
+        /** Maximum number of pending messages; the oldest ones are discarded */
+        private static final int MAX_PENDING = 64;
+        /** Prefix of the notifications of the rewards computation */
+        private static final String REWARDS_PREFIX = "Updated rewards!";
+
+        /** The channel joined to the multicast group */
+        private final DatagramChannel channel;
+        /** The membership of the channel in the multicast group */
+        private final MembershipKey membership;
+        /** Buffer receiving the datagrams */
+        private final ByteBuffer buffer = ByteBuffer.allocateDirect(MAX_DATAGRAM);
+        /** The pending server messages */
+        private final Deque<String> messages = new ArrayDeque<>();
 
         /**
-         * Initializes this worker.
+         * Initializes this worker, joining the multicast group.
          * @param addr the multicast address
-         * @param sock the multicast socket
+         * @param port the multicast port
+         * @throws IOException if the group could not be joined
          */
-        public WalletUpdatesWorker(InetAddress addr, MulticastSocket sock) throws IOException {
-            mcastAddress = addr;
-            mcastSocket = sock;
-            mcastSocket.joinGroup(mcastAddress);
-            messages = new LinkedBlockingQueue<>();
+        public WalletUpdatesWorker(InetAddress addr, int port) throws IOException {
+            ProtocolFamily family = (addr instanceof Inet6Address) ? StandardProtocolFamily.INET6 : StandardProtocolFamily.INET;
+            channel = DatagramChannel.open(family);
+            try {
+                channel.setOption(StandardSocketOptions.SO_REUSEADDR, true);
+                channel.bind(new InetSocketAddress(port));
+                membership = channel.join(addr, multicastInterface(addr, port));
+            } catch (IOException ex){
+                channel.close();
+                throw ex;
+            }
         }
 
         /**
          * Empties the message queue.
          */
-        public void clear() throws IOException {
-            messages.clear();
+        public void clear(){
+            synchronized(messages){ messages.clear(); }
         }
 
         /** Receives server messages and saves them. */
         @Override
         public Void call() throws IOException {
             while(true) {
-                byte[] buf = new byte[2048];
-                DatagramPacket packet = new DatagramPacket(buf, buf.length);
-                mcastSocket.receive(packet);
-                // adds the message to the queue
-                if(isLogged())
-                    messages.offer(
-                        new String(packet.getData(), StandardCharsets.UTF_8)
-                    );
+                buffer.clear();
+                channel.receive(buffer);
+                buffer.flip();
+
+                if(isLogged()) offer(StandardCharsets.UTF_8.decode(buffer).toString());
+            }
+        }
+
+        /**
+         * Leaves the multicast group and closes the channel, stopping the worker.
+         * @throws IOException if some IO error occurs
+         */
+        public void close() throws IOException {
+            try { membership.drop(); }
+            finally { channel.close(); }
+        }
+
+        /**
+         * Adds a message to the queue, coalescing it with the previous one if both are reward notifications.
+         * @param msg the message
+         */
+        private void offer(String msg){
+            synchronized(messages){
+                String last = messages.peekLast();
+                if(last != null && last.startsWith(REWARDS_PREFIX) && msg.startsWith(REWARDS_PREFIX))
+                    messages.pollLast();
+                else if(messages.size() == MAX_PENDING) messages.pollFirst();
+                messages.offerLast(msg);
             }
         }
 
@@ -93,11 +140,46 @@ public class WinsomeAPI extends RemoteObject implements RemoteClient {
          * @return the filled up buffer
          */
         public Collection<String> getMessages(Collection<String> buffer){
-            messages.drainTo(buffer);
+            synchronized(messages){
+                buffer.addAll(messages);
+                messages.clear();
+            }
             return buffer;
         }
     }
 
+    /** 
+     * Reads every message the server sends on the TCP socket,
+     * applying the pushed follower updates and queueing the responses.
+     */
+    private class PushReader implements Callable<Void> {
+        /** Reads the server messages until the socket is closed. */
+        @Override
+        public Void call() throws IOException {
+            try {
+                while(true){
+                    String msg = channel.receive(0);
+
+                    JsonObject json;
+                    try { json = JsonParser.parseString(msg).getAsJsonObject(); }
+                    catch (JsonParseException | IllegalStateException ex){ json = null; } // reported to the requester
+
+                    if(json != null && PushCode.isPush(json)) applyPush(json);
+                    else responses.offer(Optional.of(msg));
+                }
+            } finally { responses.offer(Optional.empty()); } // waking up the requester
+        }
+    }
+
+    /** Default maximum number of cached responses */
+    public static final int DEFAULT_CACHE_SIZE = 256;
+    /** Key in the cache of the feed */
+    private static final String FEED_KEY = "feed";
+    /** Prefix of the keys in the cache of the blogs */
+    private static final String BLOG_KEY = "blog:";
+    /** Prefix of the keys in the cache of the posts */
+    private static final String POST_KEY = "post:";
+
     /** The address of the Winsome Server */
     private final String serverAddr;
     /** The port of the Winsome Server */
@@ -108,14 +190,15 @@ public class WinsomeAPI extends RemoteObject implements RemoteClient {
     private final int registryPort;
     /** The socket timeout */
     private final int sockTimeout;
-
-    /** The socket used to communicate with the server */
-    private Socket socket = null;
-    /** The socket used to receive wallet updates */
-    private MulticastSocket mcastSocket = null;
-    /** The address of the Multicast Group */
-    private InetAddress mcastAddress = null;
-
+    /** Whether the follower updates are pushed on the TCP socket rather than sent through RMI */
+    private final boolean pushUpdates;
+    /** Directory where the last known followers of each user are saved, or null if they are only kept in memory */
+    private final File followersCache;
+
+    /** The connection used to communicate with the server */
+    private MessageChannel channel = null;
+    /** Name of the network interface on which the multicast group is joined, or null to let the OS choose it */
+    private String mcastInterface = null;
     /** The Wallet Updates Worker */
     private WalletUpdatesWorker worker = null;
     /** The thread pool running the Wallet Update Worker */
@@ -123,6 +206,21 @@ public class WinsomeAPI extends RemoteObject implements RemoteClient {
     /** Result of the Wallet Updates Worker thread (useful to check it hasn't thrown) */
     private Future<Void> mcastFuture = null;
 
+    /** The thread running the Push Reader, if follower updates are pushed */
+    private ExecutorService pushThread = Executors.newSingleThreadExecutor(task -> {
+        Thread thread = new Thread(task);
+        thread.setDaemon(true);
+        return thread;
+    });
+    /** Result of the Push Reader thread */
+    private Future<Void> pushFuture = null;
+    /** The responses read by the Push Reader, or an empty Optional if the socket was closed */
+    private final BlockingQueue<Optional<String>> responses = new LinkedBlockingQueue<>();
+    /** Lock guarding the followers against pushed updates during login and logout */
+    private final Object pushLock = new Object();
+    /** The follower updates pushed while a login is in progress */
+    private final List<JsonObject> pendingPushes = new ArrayList<>();
+
     /** The Remote Server instance */
     private RemoteServer remoteServer = null;
 
@@ -130,6 +228,14 @@ public class WinsomeAPI extends RemoteObject implements RemoteClient {
     private Optional<String> loggedUser = Optional.empty();
     /** The followers of the currently logged user */
     private Map<String, List<String>> followers = null;
+    /** Epoch of the version of the followers, or null if the server does not version them */
+    private Long followersEpoch = null;
+    /** Version of the followers received at login */
+    private long followersVersion = 0;
+    /** The last known followers of the users logged through this instance, if they are not saved in a directory */
+    private final Map<String, JsonObject> knownFollowers = new HashMap<>();
+    /** The cached responses to the requests for posts, blogs and feeds of the logged user */
+    private final ResponseCache cache = new ResponseCache(DEFAULT_CACHE_SIZE, 0);
 
     /**
      * Creates a new instance of a Winsome API.
@@ -145,6 +251,51 @@ public class WinsomeAPI extends RemoteObject implements RemoteClient {
         String registryName,
         int registryPort,
         int sockTimeout
+    ){
+        this(serverAddr, serverPort, registryName, registryPort, sockTimeout, false);
+    }
+
+    /**
+     * Creates a new instance of a Winsome API.
+     * @param serverAddr the server address
+     * @param serverPort the server port
+     * @param registryName the registry name
+     * @param registryPort the registry port
+     * @param sockTimeout the socket timeout
+     * @param pushUpdates whether the follower updates should be pushed by the server
+     *      on the TCP socket rather than sent through RMI (if the server does not push them, RMI is used anyway)
+     */
+    public WinsomeAPI(
+        String serverAddr, 
+        int serverPort,
+        String registryName,
+        int registryPort,
+        int sockTimeout,
+        boolean pushUpdates
+    ){
+        this(serverAddr, serverPort, registryName, registryPort, sockTimeout, pushUpdates, null);
+    }
+
+    /**
+     * Creates a new instance of a Winsome API.
+     * @param serverAddr the server address
+     * @param serverPort the server port
+     * @param registryName the registry name
+     * @param registryPort the registry port
+     * @param sockTimeout the socket timeout
+     * @param pushUpdates whether the follower updates should be pushed by the server
+     *      on the TCP socket rather than sent through RMI (if the server does not push them, RMI is used anyway)
+     * @param followersCache the directory where the last known followers of each user are saved,
+     *      so that only their changes are received at the next login (if null, they are only kept in memory)
+     */
+    public WinsomeAPI(
+        String serverAddr, 
+        int serverPort,
+        String registryName,
+        int registryPort,
+        int sockTimeout,
+        boolean pushUpdates,
+        File followersCache
     ){
         super();
 
@@ -153,8 +304,22 @@ public class WinsomeAPI extends RemoteObject implements RemoteClient {
         this.registryName = registryName;
         this.registryPort = registryPort;
         this.sockTimeout = sockTimeout;
+        this.pushUpdates = pushUpdates;
+        this.followersCache = followersCache;
     }
 
+    /**
+     * Sets the bounds of the cache of posts, blogs and feeds.
+     * <p>
+     * A cached response younger than the time-to-live is returned without contacting the server;
+     * an older one is revalidated, and the server only sends it again if it changed.
+     * By default, {@value #DEFAULT_CACHE_SIZE} responses are cached and they are always revalidated.
+     * @param maxEntries the maximum number of cached responses (0 disables the cache)
+     * @param ttl the time (in milliseconds) during which a cached response is used without revalidating it
+     * @throws IllegalArgumentException if either argument is negative
+     */
+    public void setCacheLimits(int maxEntries, long ttl){ cache.setLimits(maxEntries, ttl); }
+
     /* *************** Connection methods *************** */
     /**
      * Establishes a connection with the Server.
@@ -170,10 +335,11 @@ public class WinsomeAPI extends RemoteObject implements RemoteClient {
      * @throws IOException if an IO error occurs
      */
     private void connectTCP() throws IOException {
-        if(socket != null) throw new IllegalStateException("already connected to server");
+        if(channel != null) throw new IllegalStateException("already connected to server");
 
-        socket = new Socket(serverAddr, serverPort);
-        socket.setSoTimeout(sockTimeout);
+        channel = new MessageChannel(serverAddr, serverPort);
+        // the reader waits for pushes indefinitely, responses are waited for with the timeout
+        if(pushUpdates) pushFuture = pushThread.submit(new PushReader());
 
         getMulticastSocket();
     }
@@ -211,21 +377,62 @@ public class WinsomeAPI extends RemoteObject implements RemoteClient {
             throw new IOException("could not obtain coordinates of multicast socket");
         }
 
-        mcastAddress = InetAddress.getByName(addr);
-        mcastSocket = new MulticastSocket(port);
-        worker = new WalletUpdatesWorker(mcastAddress, mcastSocket);
+        worker = new WalletUpdatesWorker(InetAddress.getByName(addr), port);
         mcastFuture = thread.submit(worker);
     }
 
+    /**
+     * Chooses the network interface on which the multicast group is joined.
+     * <p>
+     * Unless an interface has been set with {@link #setMulticastInterface(String)}, the one chosen by the OS
+     * to reach the group is used; if the OS has no route to the group (e.g. on a host without network),
+     * the loopback interface is used.
+     * @param group the multicast address
+     * @param port the multicast port
+     * @return the chosen network interface
+     * @throws IOException if the configured interface does not exist, or no interface can be found
+     */
+    private NetworkInterface multicastInterface(InetAddress group, int port) throws IOException {
+        if(mcastInterface != null){
+            NetworkInterface netIf = NetworkInterface.getByName(mcastInterface);
+            if(netIf == null) throw new IOException("no network interface named \"" + mcastInterface + "\"");
+            return netIf;
+        }
+
+        // connecting a datagram socket sends nothing: it only makes the OS choose the route
+        try (DatagramSocket probe = new DatagramSocket()) {
+            probe.connect(group, port);
+            InetAddress local = probe.getLocalAddress();
+            NetworkInterface netIf = (local == null || local.isAnyLocalAddress()) ? null : NetworkInterface.getByInetAddress(local);
+            if(netIf != null) return netIf;
+        } catch (SocketException ex) { } // no route to the group
+
+        NetworkInterface loopback = NetworkInterface.getByInetAddress(InetAddress.getLoopbackAddress());
+        if(loopback == null) throw new IOException("could not find a network interface to join the multicast group");
+        return loopback;
+    }
+
+    /**
+     * Sets the network interface on which the multicast group of the wallet updates is joined.
+     * <p>
+     * It must be called before connecting. By default, the interface chosen by the OS to reach the group is used.
+     * @param name the name of the network interface, or null to use the one chosen by the OS
+     */
+    public void setMulticastInterface(String name){
+        if(channel != null) throw new IllegalStateException("already connected to server");
+        mcastInterface = name;
+    }
+
     /**
      * Terminates this instance of the Winsome API.
      * @throws IOException if some IO error occurs while closing connections
      */
     public void close() throws IOException {
-        if(socket != null) socket.close();
+        if(channel != null) channel.close();
         UnicastRemoteObject.unexportObject(this, true);
-        if(mcastSocket != null) { mcastSocket.leaveGroup(mcastAddress); mcastSocket.close(); }
+        if(worker != null) worker.close();
         if(mcastFuture != null) mcastFuture.cancel(true);
+        if(pushFuture != null) pushThread.shutdownNow();
     }
 
     /* *************** Callback methods *************** */
@@ -248,6 +455,43 @@ public class WinsomeAPI extends RemoteObject implements RemoteClient {
         followers.remove(user);
     }
 
+    @Override
+    public void updateFollowers(Map<String, Collection<String>> added, Collection<String> removed) throws RemoteException {
+        if(!isLogged()) return;
+        if(added == null || removed == null) throw new NullPointerException("null parameters while updating followers");
+
+        for(String user : removed){
+            if(user == null) throw new NullPointerException("null parameter while removing follower");
+            followers.remove(user);
+        }
+        for(Entry<String, Collection<String>> entry : added.entrySet()){
+            if(entry.getKey() == null || entry.getValue() == null) throw new NullPointerException("null parameters while adding new follower");
+            for(String tag : entry.getValue())
+                if(tag == null) throw new NullPointerException("null parameters while adding new follower");
+
+            followers.putIfAbsent(entry.getKey(), new ArrayList<>(entry.getValue()));
+        }
+    }
+
+    /**
+     * Applies a follower update pushed by the server, or keeps it for later
+     * if the login response has not been read yet.
+     * @param push the pushed message
+     */
+    private void applyPush(JsonObject push){
+        synchronized(pushLock){
+            if(!isLogged()){ pendingPushes.add(push); return; }
+
+            try {
+                if(PushCode.getPushFromJson(push) != PushCode.FOLLOWERS) return;
+
+                for(JsonElement removed : push.get("removed").getAsJsonArray())
+                    followers.remove(removed.getAsString());
+                addUsersAndTags(push.get("added").getAsJsonArray(), followers);
+            } catch (MalformedJSONException | NullPointerException | ClassCastException | IllegalStateException ex) { } // ignoring malformed pushes
+        }
+    }
+
     // --------------- Server Messages ----------------- //
 
     /**
@@ -321,6 +565,13 @@ public class WinsomeAPI extends RemoteObject implements RemoteClient {
         RequestCode.LOGIN.addRequestToJson(request);
         request.addProperty("username", user);
         request.addProperty("password", hash.digest);
+        if(pushUpdates) request.addProperty("push", true);
+        // asking only for the changes to the followers since the last login
+        JsonObject known = loadFollowers(user);
+        if(known != null){
+            request.add("followers-epoch", known.get("epoch"));
+            request.add("followers-version", known.get("version"));
+        }
 
         // sending the request
         send(request.toString());
@@ -330,14 +581,41 @@ public class WinsomeAPI extends RemoteObject implements RemoteClient {
         ResponseCode responseCode = ResponseCode.getResponseFromJson(response);
         switch (responseCode) {
             case SUCCESS -> { // successful login
-                loggedUser = Optional.of(user);
-                followers = new ConcurrentHashMap<>();
-                remoteServer.registerForUpdates(user, this);
-
-                // initialize followers and following maps
-                try {
-                    addUsersAndTags(response.get("followers").getAsJsonArray(), followers);
-                } catch (NullPointerException | IllegalStateException ex) { } // leave everything empty
+                cache.clear();
+                synchronized(pushLock){
+                    loggedUser = Optional.of(user);
+                    followers = new ConcurrentHashMap<>();
+
+                    // initialize followers and following maps
+                    try {
+                        if(known != null && response.has("followers-added")){ // applying the changes to the known followers
+                            addUsersAndTags(known.get("followers").getAsJsonArray(), followers);
+                            for(JsonElement removed : response.get("followers-removed").getAsJsonArray())
+                                followers.remove(removed.getAsString());
+                            addUsersAndTags(response.get("followers-added").getAsJsonArray(), followers);
+                        }
+                        else addUsersAndTags(response.get("followers").getAsJsonArray(), followers);
+                    } catch (NullPointerException | IllegalStateException | ClassCastException ex) { } // leave everything empty
+
+                    try {
+                        followersEpoch = response.get("followers-epoch").getAsLong();
+                        followersVersion = response.get("followers-version").getAsLong();
+                    } catch (NullPointerException | IllegalStateException | ClassCastException | NumberFormatException ex) {
+                        followersEpoch = null; // the server does not version the followers
+                    }
+
+                    // updates pushed before the response, which are more recent than the list
+                    for(JsonObject push : pendingPushes) applyPush(push);
+                    pendingPushes.clear();
+                }
+
+                boolean pushed;
+                try { pushed = response.has("push") && response.get("push").getAsBoolean(); }
+                catch (ClassCastException | IllegalStateException ex){ pushed = false; }
+                // falling back to RMI callbacks
+                if(!pushed) remoteServer.registerForUpdates(user, this);
+
+                saveFollowers(user);
             }
             case USER_NOT_REGISTERED -> throw new NoSuchUserException("\"" + user + "\" does not exist");
             case WRONG_PASSW -> throw new WrongPasswordException("password does not match");
@@ -369,7 +647,12 @@ public class WinsomeAPI extends RemoteObject implements RemoteClient {
         switch (responseCode) {
             case SUCCESS -> {
                 remoteServer.unregisterForUpdates(loggedUser.get());
-                loggedUser = Optional.empty();
+                saveFollowers(loggedUser.get());
+                cache.clear();
+                synchronized(pushLock){
+                    loggedUser = Optional.empty();
+                    pendingPushes.clear();
+                }
 
                 worker.clear();
             }
@@ -469,6 +752,7 @@ public class WinsomeAPI extends RemoteObject implements RemoteClient {
         send(request.toString());
 
         JsonObject response = getJsonResponse();
+        cache.invalidate(FEED_KEY);
         ResponseCode responseCode = ResponseCode.getResponseFromJson(response);
         switch (responseCode) {
             case SUCCESS: return;
@@ -504,6 +788,7 @@ public class WinsomeAPI extends RemoteObject implements RemoteClient {
         send(request.toString());
 
         JsonObject response = getJsonResponse();
+        cache.invalidate(FEED_KEY);
         ResponseCode responseCode = ResponseCode.getResponseFromJson(response);
         switch (responseCode) {
             case SUCCESS: return;
@@ -548,9 +833,7 @@ public class WinsomeAPI extends RemoteObject implements RemoteClient {
         request.addProperty("username", loggedUser.get());
         request.addProperty("to-view", otherUser);
         
-        send(request.toString());
-
-        JsonObject response = getJsonResponse();
+        JsonObject response = cachedRequest(BLOG_KEY + otherUser, request);
         ResponseCode responseCode = ResponseCode.getResponseFromJson(response);
         switch (responseCode) {
             case SUCCESS:
@@ -600,6 +883,7 @@ public class WinsomeAPI extends RemoteObject implements RemoteClient {
         send(request.toString());
 
         JsonObject response = getJsonResponse();
+        cache.invalidate(BLOG_KEY + loggedUser.get());
         ResponseCode responseCode = ResponseCode.getResponseFromJson(response);
         switch (responseCode) {
             case SUCCESS:
@@ -625,9 +909,7 @@ public class WinsomeAPI extends RemoteObject implements RemoteClient {
         RequestCode.FEED.addRequestToJson(request);
         request.addProperty("username", loggedUser.get());
         
-        send(request.toString());
-
-        JsonObject response = getJsonResponse();
+        JsonObject response = cachedRequest(FEED_KEY, request);
         ResponseCode responseCode = ResponseCode.getResponseFromJson(response);
         switch (responseCode) {
             case SUCCESS:
@@ -668,9 +950,7 @@ public class WinsomeAPI extends RemoteObject implements RemoteClient {
         request.addProperty("username", loggedUser.get());
         request.addProperty("id", idPost);
         
-        send(request.toString());
-
-        JsonObject response = getJsonResponse();
+        JsonObject response = cachedRequest(POST_KEY + idPost, request);
         ResponseCode responseCode = ResponseCode.getResponseFromJson(response);
         switch (responseCode) {
             case SUCCESS:
@@ -691,12 +971,13 @@ public class WinsomeAPI extends RemoteObject implements RemoteClient {
      * @throws NoLoggedUserException if no user is currently logged
      * @throws MalformedJSONException if the server sent a malformed response
      * @throws NoSuchPostException if no post with the given ID exists
+     * @throws PostArchivedException if the post is archived
      * @throws NotPostOwnerException if the current user is not the owner of the post
      * @throws UnexpectedServerResponseException if server sent an unexpected response
      */
     public void deletePost(int idPost) 
             throws IOException, NoLoggedUserException, MalformedJSONException, 
-                NoSuchPostException, NotPostOwnerException, UnexpectedServerResponseException {
+                NoSuchPostException, PostArchivedException, NotPostOwnerException, UnexpectedServerResponseException {
         if(!isLogged()) throw new NoLoggedUserException("no user is currently logged; please log in first.");
 
         JsonObject request = new JsonObject();
@@ -707,10 +988,15 @@ public class WinsomeAPI extends RemoteObject implements RemoteClient {
         send(request.toString());
 
         JsonObject response = getJsonResponse();
+        // the post and its rewins disappear from every blog and feed
+        cache.invalidate(POST_KEY + idPost);
+        cache.invalidatePrefix(BLOG_KEY);
+        cache.invalidate(FEED_KEY);
         ResponseCode responseCode = ResponseCode.getResponseFromJson(response);
         switch (responseCode) {
             case SUCCESS: return;
             case NO_POST: throw new NoSuchPostException("there is no post with the given id");
+            case POST_ARCHIVED: throw new PostArchivedException("the given post is archived and cannot be modified");
             case NOT_POST_OWNER: throw new NotPostOwnerException("this user is not the owner of the given post");
             default: throw new UnexpectedServerResponseException(responseCode.getMessage());
         }
@@ -724,13 +1010,14 @@ public class WinsomeAPI extends RemoteObject implements RemoteClient {
      * @throws NoLoggedUserException if no user is currently logged
      * @throws MalformedJSONException if the server sent a malformed response
      * @throws NoSuchPostException if no post with the given ID exists     
+     * @throws PostArchivedException if the post is archived
      * @throws AlreadyRewinnedException if the current user has already rewinned the given post
      * @throws NotFollowingException if the current user does not follow the author of the given post
      * @throws PostOwnerException if the current user is the owner of the post
      * @throws UnexpectedServerResponseException if server sent an unexpected response
      */
     public void rewinPost(int idPost) 
-            throws IOException, NoLoggedUserException, MalformedJSONException, NoSuchPostException, 
+            throws IOException, NoLoggedUserException, MalformedJSONException, NoSuchPostException, PostArchivedException,
                 AlreadyRewinnedException, NotFollowingException, PostOwnerException, UnexpectedServerResponseException {
         if(!isLogged()) throw new NoLoggedUserException("no user is currently logged; please log in first.");
 
@@ -742,10 +1029,13 @@ public class WinsomeAPI extends RemoteObject implements RemoteClient {
         send(request.toString());
 
         JsonObject response = getJsonResponse();
+        cache.invalidate(POST_KEY + idPost);
+        cache.invalidate(BLOG_KEY + loggedUser.get());
         ResponseCode responseCode = ResponseCode.getResponseFromJson(response);
         switch (responseCode) {
             case SUCCESS: return;
             case NO_POST: throw new NoSuchPostException("there is no post with the given id");
+            case POST_ARCHIVED: throw new PostArchivedException("the given post is archived and cannot be modified");
             case NOT_FOLLOWING: throw new NotFollowingException("the current user is not following the owner of the post to interact with");
             case POST_OWNER: throw new PostOwnerException("this user is the owner of the given post");
             case REWIN_ERR: throw new AlreadyRewinnedException("this user has already rewinned this post");
@@ -761,6 +1051,7 @@ public class WinsomeAPI extends RemoteObject implements RemoteClient {
      * @throws NoLoggedUserException if no user is currently logged
      * @throws MalformedJSONException if the server sent a malformed response
      * @throws NoSuchPostException if no post with the given ID exists     
+     * @throws PostArchivedException if the post is archived
      * @throws AlreadyVotedException if the current user has already voted the given post
      * @throws NotFollowingException if the current user does not follow the author of the given post
      * @throws WrongVoteFormatException if the vote is not +1/-1
@@ -769,7 +1060,7 @@ public class WinsomeAPI extends RemoteObject implements RemoteClient {
      */
     public void ratePost(int idPost, int vote) 
             throws IOException, NoLoggedUserException, MalformedJSONException, 
-                NoSuchPostException, AlreadyVotedException, WrongVoteFormatException, 
+                NoSuchPostException, PostArchivedException, AlreadyVotedException, WrongVoteFormatException, 
                 NotFollowingException, PostOwnerException, UnexpectedServerResponseException {
         if(!isLogged()) throw new NoLoggedUserException("no user is currently logged; please log in first.");
         if(vote != +1 && vote != -1) throw new WrongVoteFormatException("vote should be either +1 or -1");
@@ -783,10 +1074,12 @@ public class WinsomeAPI extends RemoteObject implements RemoteClient {
         send(request.toString());
 
         JsonObject response = getJsonResponse();
+        cache.invalidate(POST_KEY + idPost);
         ResponseCode responseCode = ResponseCode.getResponseFromJson(response);
         switch (responseCode) {
             case SUCCESS: return;
             case NO_POST: throw new NoSuchPostException("there is no post with the given id");
+            case POST_ARCHIVED: throw new PostArchivedException("the given post is archived and cannot be modified");
             case NOT_FOLLOWING: throw new NotFollowingException("the current user is not following the owner of the post to interact with");
             case POST_OWNER: throw new PostOwnerException("cannot vote your own posts");
             case ALREADY_VOTED: throw new AlreadyVotedException("this user has already voted the given post");
@@ -802,13 +1095,14 @@ public class WinsomeAPI extends RemoteObject implements RemoteClient {
      * @throws NoLoggedUserException if no user is currently logged
      * @throws MalformedJSONException if the server sent a malformed response
      * @throws NoSuchPostException if no post with the given ID exists
+     * @throws PostArchivedException if the post is archived
      * @throws NotFollowingException if the current user does not follow the author of the given post
      * @throws PostOwnerException if the current user is the owner of the post
      * @throws UnexpectedServerResponseException if server sent an unexpected response
      */
     public void addComment(int idPost, String comment) 
             throws IOException, NoLoggedUserException, MalformedJSONException, 
-                NoSuchPostException, PostOwnerException, NotFollowingException, UnexpectedServerResponseException {
+                NoSuchPostException, PostArchivedException, PostOwnerException, NotFollowingException, UnexpectedServerResponseException {
         if(!isLogged()) throw new NoLoggedUserException("no user is currently logged; please log in first.");
 
         JsonObject request = new JsonObject();
@@ -820,10 +1114,12 @@ public class WinsomeAPI extends RemoteObject implements RemoteClient {
         send(request.toString());
 
         JsonObject response = getJsonResponse();
+        cache.invalidate(POST_KEY + idPost);
         ResponseCode responseCode = ResponseCode.getResponseFromJson(response);
         switch (responseCode) {
             case SUCCESS: return;
             case NO_POST: throw new NoSuchPostException("there is no post with the given id");
+            case POST_ARCHIVED: throw new PostArchivedException("the given post is archived and cannot be modified");
             case NOT_FOLLOWING: throw new NotFollowingException("the current user is not following the owner of the post to interact with");
             case POST_OWNER: throw new PostOwnerException("you are the owner of the post");
             default: throw new UnexpectedServerResponseException(responseCode.getMessage());
@@ -839,11 +1135,28 @@ public class WinsomeAPI extends RemoteObject implements RemoteClient {
      * @throws UnexpectedServerResponseException if server sent an unexpected response
      */
     public Wallet getWallet() throws IOException, NoLoggedUserException, MalformedJSONException, UnexpectedServerResponseException {
+        return getWallet(null, null);
+    }
+
+    /**
+     * Returns the wallet of the current user, restricted to the transactions
+     * in the given time interval.
+     * @param from the beginning of the interval (inclusive), or null for no lower bound
+     * @param to the end of the interval (exclusive), or null for no upper bound
+     * @return the wallet of the current user
+     * @throws IOException if some IO error occurs
+     * @throws NoLoggedUserException if no user is currently logged
+     * @throws MalformedJSONException if the server sent a malformed response
+     * @throws UnexpectedServerResponseException if server sent an unexpected response
+     */
+    public Wallet getWallet(Instant from, Instant to) throws IOException, NoLoggedUserException, MalformedJSONException, UnexpectedServerResponseException {
         if(!isLogged()) throw new NoLoggedUserException("no user is currently logged; please log in first.");
 
         JsonObject request = new JsonObject();
         RequestCode.WALLET.addRequestToJson(request);
         request.addProperty("username", loggedUser.get());
+        if(from != null) request.addProperty("from", from.toString());
+        if(to != null) request.addProperty("to", to.toString());
         
         send(request.toString());
 
@@ -901,13 +1214,7 @@ public class WinsomeAPI extends RemoteObject implements RemoteClient {
     private void send(String msg) throws IOException {
         Objects.requireNonNull(msg, "attempting to send an empty message");
 
-        // not wrapped in a try-with-resources otherwise the socket is automatically closed!
-        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
-
-        byte[] tmp = msg.getBytes(StandardCharsets.UTF_8);
-        out.writeInt(tmp.length);
-        out.write(tmp);
-        out.flush();
+        channel.send(msg, sockTimeout);
     }
 
     /**
@@ -916,17 +1223,55 @@ public class WinsomeAPI extends RemoteObject implements RemoteClient {
      * @throws IOException if some IO error occurs
      */
     private String receive() throws IOException {
-        // not wrapped in a try-with-resources otherwise the socket is automatically closed!
-        DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+        if(pushFuture != null){ // the Push Reader reads the socket
+            Optional<String> msg;
+            try { msg = responses.poll(sockTimeout, TimeUnit.MILLISECONDS); }
+            catch (InterruptedException ex){ throw new InterruptedIOException("interrupted while waiting for the response"); }
+
+            if(msg == null) throw new SocketTimeoutException("timed out while waiting for the response");
+            if(!msg.isPresent()){
+                responses.offer(msg); // keeping the socket closed for the following calls
+                throw new EOFException("connection closed by the server");
+            }
+            return msg.get();
+        }
+
+        return channel.receive(sockTimeout);
+    }  
+
+    /**
+     * Sends a request whose response can be cached, unless a fresh response is cached.
+     * <p>
+     * A stale cached response is revalidated, sending its tag: if the server answers that it did not change,
+     * it is returned again.
+     * @param key the key of the request in the cache
+     * @param request the request
+     * @return the (cached) response
+     * @throws IOException if some IO error occurs
+     * @throws MalformedJSONException if the server sent a malformed JSON
+     */
+    private JsonObject cachedRequest(String key, JsonObject request) throws IOException, MalformedJSONException {
+        ResponseCache.Entry cached = cache.get(key);
+        if(cached != null){
+            if(cache.isFresh(cached)) return cached.response;
+            request.addProperty("if-none-match", cached.tag);
+        }
 
-        int len = in.readInt();
-        if(len <= 0) throw new IOException("received message length less or equal to 0");
+        send(request.toString());
+        JsonObject response = getJsonResponse();
 
-        byte[] buf = new byte[len];
-        in.readFully(buf);
+        ResponseCode responseCode = ResponseCode.getResponseFromJson(response);
+        if(responseCode == ResponseCode.NOT_MODIFIED && cached != null){
+            cache.revalidated(cached);
+            return cached.response;
+        }
 
-        return new String(buf, StandardCharsets.UTF_8);
-    }  
+        JsonElement tag = response.get("tag");
+        if(responseCode == ResponseCode.SUCCESS && tag != null && tag.isJsonPrimitive())
+            cache.put(key, response, tag.getAsString());
+        else cache.invalidate(key);
+        return response;
+    }
 
     /**
      * Reads a message from the TCP socket and parses it as a JsonObject.
@@ -953,6 +1298,77 @@ public class WinsomeAPI extends RemoteObject implements RemoteClient {
      */
     public Optional<String> getLoggedUser() { return loggedUser; }
 
+    /**
+     * Returns the last known followers of a user, with their version.
+     * @param user the username of the user
+     * @return a JSON object with the epoch and the version of the followers and the followers themselves,
+     *      or null if they are not known
+     */
+    private JsonObject loadFollowers(String user){
+        if(followersCache == null) return knownFollowers.get(user);
+
+        File file = followersFile(user);
+        if(!file.exists()) return null;
+        try (
+            Reader in = new BufferedReader(new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8));
+        ){
+            JsonObject known = JsonParser.parseReader(in).getAsJsonObject();
+            known.get("epoch").getAsLong(); known.get("version").getAsLong(); known.get("followers").getAsJsonArray();
+            return known;
+        } catch (IOException | JsonParseException | NullPointerException | IllegalStateException 
+                | ClassCastException | NumberFormatException ex) { return null; } // synchronizing the whole list
+    }
+
+    /**
+     * Saves the current followers of the logged user, with their version, if the server versions them.
+     * <p>
+     * Failures are ignored: the whole list is received again at the next login.
+     * @param user the username of the logged user
+     */
+    private void saveFollowers(String user){
+        JsonObject known = new JsonObject();
+        synchronized(pushLock){
+            if(followersEpoch == null || followers == null) return;
+            known.addProperty("epoch", followersEpoch);
+            known.addProperty("version", followersVersion);
+
+            JsonArray array = new JsonArray();
+            for(Entry<String, List<String>> entry : followers.entrySet()){
+                JsonObject follower = new JsonObject();
+                follower.addProperty("username", entry.getKey());
+                JsonArray tags = new JsonArray();
+                for(String tag : entry.getValue()) tags.add(tag);
+                follower.add("tags", tags);
+                array.add(follower);
+            }
+            known.add("followers", array);
+        }
+
+        if(followersCache == null){ knownFollowers.put(user, known); return; }
+
+        // writing a temporary file first, so that a crash never leaves a truncated list
+        File file = followersFile(user);
+        File tmp = new File(followersCache, file.getName() + ".tmp");
+        try {
+            followersCache.mkdirs();
+            try (
+                Writer out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(tmp), StandardCharsets.UTF_8));
+            ){
+                out.write(known.toString());
+            }
+            Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException ex) { tmp.delete(); }
+    }
+
+    /**
+     * Returns the file where the followers of a user are saved.
+     * @param user the username of the user
+     * @return the file where the followers of the given user are saved
+     */
+    private File followersFile(String user){
+        return new File(followersCache, URLEncoder.encode(user, StandardCharsets.UTF_8) + ".followers.json");
+    }
+
     /**
      * Parses a specific field of a JSON object as a map String -> List<String>. 
      * @param json the JSON object
@@ -1064,7 +1480,8 @@ public class WinsomeAPI extends RemoteObject implements RemoteClient {
         Objects.requireNonNull(json, "the given json object must not be null");
 
         try {
-            Double total = json.get("total").getAsDouble();
+            double total = json.get("total").getAsDouble();
+            double rangeTotal = json.has("range-total") ? json.get("range-total").getAsDouble() : total;
             List<TransactionInfo> transactions = new ArrayList<>();
 
             Iterator<JsonElement> iter = json.get("transactions").getAsJsonArray().iterator();
@@ -1078,7 +1495,7 @@ public class WinsomeAPI extends RemoteObject implements RemoteClient {
                 );
             }
 
-            return new Wallet(total, transactions);
+            return new Wallet(total, rangeTotal, transactions);
         } catch (NullPointerException | ClassCastException | IllegalStateException ex){
             throw new MalformedJSONException("given json does not represent a valid wallet");
         }
@@ -0,0 +1,64 @@
+package winsome.api.codes;
+
+import java.util.Objects;
+
+import com.google.gson.JsonObject;
+
+import winsome.api.exceptions.MalformedJSONException;
+
+/** A code for the messages the Server pushes to a Client without a request */
+public enum PushCode {
+    /** Some users started or stopped following the client's user */
+    FOLLOWERS;
+
+    /** Name of the push field in Json representation */
+    private static final String pushFieldName = "push-code";
+
+    /**
+     * Adds a push code to a Json object.
+     * @param json the given json
+     * @param code the push code
+     */
+    public static void addPushToJson(JsonObject json, PushCode code){
+        Objects.requireNonNull(json, "the given json object must not be null");
+        Objects.requireNonNull(code, "the push code to add must not be null");
+
+        json.addProperty(pushFieldName, code.toString());
+    }
+
+    /**
+     * Adds this push code to a Json object.
+     * @param json the given json
+     */
+    public void addPushToJson(JsonObject json){
+        Objects.requireNonNull(json, "the given json object must not be null");
+
+        PushCode.addPushToJson(json, this);
+    }
+
+    /**
+     * Checks whether a Json message is a pushed message, rather than a response.
+     * @param json the given json
+     * @return true if and only if the given json contains a push code field
+     */
+    public static boolean isPush(JsonObject json){
+        Objects.requireNonNull(json, "the given json object must not be null");
+
+        return json.has(pushFieldName);
+    }
+
+    /**
+     * Gets a push code from a Json message.
+     * @param json the given json
+     * @return the push code contained in the given json
+     * @throws MalformedJSONException if the given Json does not contain a valid push code
+     */
+    public static PushCode getPushFromJson(JsonObject json) throws MalformedJSONException {
+        Objects.requireNonNull(json, "the given json object must not be null");
+
+        try { return PushCode.valueOf(json.get(pushFieldName).getAsString()); }
+        catch(ClassCastException | IllegalStateException | NullPointerException | IllegalArgumentException ex){
+            throw new MalformedJSONException("the given json did not contain a valid push code field");
+        }
+    }
+}
@@ -34,6 +34,8 @@ public enum ResponseCode {
     TEXT_LENGTH             ("title or contents of post exceed maximum length"),
     /** Post does not exist */
     NO_POST                 ("no post with the given ID"),
+    /** Post is archived: it can be shown, but not modified */
+    POST_ARCHIVED           ("the given post is archived and cannot be modified"),
     /** User is not the owner of the post */
     NOT_POST_OWNER          ("this user is not the author/rewinner of the given post"),
     /** User is the owner of the post */
@@ -46,6 +48,10 @@ public enum ResponseCode {
     WRONG_VOTE_FORMAT       ("vote was not +1 or -1"),
     /** Could not compute the exchange rate to BTC */
     EXCHANGE_RATE_ERROR     ("server could not comupte the exchange rate to BTC"),
+    /** The requested contents have the tag sent by the client */
+    NOT_MODIFIED            ("requested contents have not changed"),
+    /** The change could not be persisted: the server does not accept changes anymore */
+    NOT_PERSISTED           ("server could not persist the change"),
     /** Fatal communication error */
     FATAL_ERR               ("fatal communication error");
 
@@ -0,0 +1,8 @@
+package winsome.api.exceptions;
+
+public class PostArchivedException extends Exception {
+    public PostArchivedException(){ super(); }
+    public PostArchivedException(String msg){ super(msg); }
+    public PostArchivedException(Throwable err){ super(err); }
+    public PostArchivedException(String msg, Throwable err){ super(msg, err); }
+}
@@ -21,4 +21,14 @@ public interface RemoteClient extends Remote {
      * @throws RemoteException if some IO error occurs while calling this method
      */
     void removeFollower(String follower) throws RemoteException;
+
+    /**
+     * Callback method to apply several follower updates at once.
+     * <p>
+     * A follower appears in at most one of the two arguments.
+     * @param added the new followers, with their tags
+     * @param removed the followers to remove
+     * @throws RemoteException if some IO error occurs while calling this method
+     */
+    void updateFollowers(Map<String, Collection<String>> added, Collection<String> removed) throws RemoteException;
 }
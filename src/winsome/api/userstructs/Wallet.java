@@ -6,18 +6,25 @@ import java.util.*;
 public class Wallet {
     /** The total amount of Wincoins */
     public final double total;
-    /** The transaction history */
+    /** The amount of Wincoins accumulated in the requested time interval */
+    public final double rangeTotal;
+    /** The transaction history in the requested time interval */
     private final List<TransactionInfo> transactions;
 
     public Wallet(double total, Collection<TransactionInfo> transactions){
+        this(total, total, transactions);
+    }
+
+    public Wallet(double total, double rangeTotal, Collection<TransactionInfo> transactions){
         this.total = total;
+        this.rangeTotal = rangeTotal;
         this.transactions = new ArrayList<>(
             Objects.requireNonNull(transactions, "null collection of transactions")
         );
     }
 
     /**
-     * Returns the transaction history.
+     * Returns the transaction history in the requested time interval.
      * @return the transaction history
      */
     public List<TransactionInfo> getTransactions(){ return new ArrayList<>(transactions); }
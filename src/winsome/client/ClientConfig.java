@@ -21,7 +21,17 @@ public class ClientConfig extends AbstractConfig {
         /** Port of the registry */
         REG_PORT        ("registry-port"),
         /** Timeout of the socket */
-        SOCK_TIMEOUT    ("socket-timeout");
+        SOCK_TIMEOUT    ("socket-timeout"),
+        /** Whether follower updates are pushed on the TCP connection rather than sent through RMI */
+        PUSH_UPDATES    ("push-updates"),
+        /** Directory where the last known followers of each user are saved */
+        FOLLOWERS_CACHE ("followers-cache"),
+        /** Maximum number of cached posts, blogs and feeds */
+        CACHE_SIZE      ("cache-size"),
+        /** Time during which a cached response is used without revalidating it */
+        CACHE_TTL       ("cache-ttl"),
+        /** Network interface on which the multicast group of the wallet updates is joined */
+        MCAST_IF        ("multicast-interface");
 
         /** Key name */
         public final String key;
@@ -40,6 +50,11 @@ public class ClientConfig extends AbstractConfig {
                 case "registry-name" ->  REG_NAME;
                 case "registry-port" ->  REG_PORT;
                 case "socket-timeout" -> SOCK_TIMEOUT;
+                case "push-updates" ->   PUSH_UPDATES;
+                case "followers-cache" -> FOLLOWERS_CACHE;
+                case "cache-size" ->     CACHE_SIZE;
+                case "cache-ttl" ->      CACHE_TTL;
+                case "multicast-interface" -> MCAST_IF;
                 default -> throw new UnknownKeyException(key);
             };
         }
@@ -50,15 +65,31 @@ public class ClientConfig extends AbstractConfig {
     public final String regName;
     public final int regPort;
     public final int sockTimeout;
+    public final boolean pushUpdates;
+    /** Directory where the last known followers of each user are saved, if any */
+    public final Optional<File> followersCache;
+    /** Maximum number of cached posts, blogs and feeds (0 disables the cache) */
+    public final int cacheSize;
+    /** Time (in milliseconds) during which a cached response is used without revalidating it */
+    public final long cacheTTL;
+    /** Name of the network interface on which the multicast group is joined, if not the one chosen by the OS */
+    public final Optional<String> multicastInterface;
     
     private ClientConfig(
-        String serverAddr, int portTCP, String regName, int regPort, int sockTimeout
+        String serverAddr, int portTCP, String regName, int regPort, int sockTimeout, boolean pushUpdates,
+        Optional<File> followersCache, int cacheSize, long cacheTTL,
+        Optional<String> multicastInterface
     ) {
         this.serverAddr = Objects.requireNonNull(serverAddr, "server address field is null");
         this.portTCP = portTCP;
         this.regName = Objects.requireNonNull(regName, "registry name field is null");
         this.regPort = regPort;
         this.sockTimeout = sockTimeout;
+        this.pushUpdates = pushUpdates;
+        this.followersCache = Objects.requireNonNull(followersCache, "followers cache field is null");
+        this.cacheSize = cacheSize;
+        this.cacheTTL = cacheTTL;
+        this.multicastInterface = Objects.requireNonNull(multicastInterface, "multicast interface field is null");
     }
 
     /**
@@ -78,6 +109,10 @@ public class ClientConfig extends AbstractConfig {
         Integer portTCP = null;
         String regName = null; Integer regPort = null;
         Integer sockTimeout = null;
+        Boolean pushUpdates = null;
+        Optional<File> followersCache = null;
+        Integer cacheSize = null; Long cacheTTL = null;
+        Optional<String> multicastInterface = null;
         
         try (
             BufferedReader configIn = new BufferedReader(new FileReader(configFile));
@@ -115,12 +150,38 @@ public class ClientConfig extends AbstractConfig {
                         try { sockTimeout = Integer.parseInt(entry.value); }
                         catch(NumberFormatException ex){ throw new EntryValueFormatException("argument of \"" + key.key + "\" must be an integer"); }
                     }
+                    case PUSH_UPDATES -> {
+                        if(pushUpdates != null) throw new DuplicateKeyException(key.key);
+                        if(!entry.value.equals("true") && !entry.value.equals("false")) 
+                            throw new EntryValueFormatException("argument of \"" + key.key + "\" must be 'true' or 'false'");
+                        pushUpdates = Boolean.parseBoolean(entry.value);
+                    }
+                    case FOLLOWERS_CACHE -> {
+                        if(followersCache != null) throw new DuplicateKeyException(key.key);
+                        followersCache = entry.value.equals("none") ? Optional.empty() : Optional.of(new File(entry.value));
+                    }
+                    case CACHE_SIZE -> {
+                        if(cacheSize != null) throw new DuplicateKeyException(key.key);
+                        try { cacheSize = Integer.parseInt(entry.value); }
+                        catch(NumberFormatException ex){ throw new EntryValueFormatException("argument of \"" + key.key + "\" must be an integer"); }
+                        if(cacheSize < 0) throw new EntryValueFormatException("argument of \"" + key.key + "\" must not be negative");
+                    }
+                    case CACHE_TTL -> {
+                        if(cacheTTL != null) throw new DuplicateKeyException(key.key);
+                        try { cacheTTL = Long.parseLong(entry.value); }
+                        catch(NumberFormatException ex){ throw new EntryValueFormatException("argument of \"" + key.key + "\" must be an integer"); }
+                        if(cacheTTL < 0) throw new EntryValueFormatException("argument of \"" + key.key + "\" must not be negative");
+                    }
+                    case MCAST_IF -> {
+                        if(multicastInterface != null) throw new DuplicateKeyException(key.key);
+                        multicastInterface = entry.value.equals("default") ? Optional.empty() : Optional.of(entry.value);
+                    }
                 }
             }
         } catch (IOException ex) { throw new IOException("IO error while reading config file", ex); }
 
         // if the method throws, some key has not been set
-        try { return new ClientConfig( serverAddr, portTCP, regName, regPort, sockTimeout); } 
+        try { return new ClientConfig( serverAddr, portTCP, regName, regPort, sockTimeout, pushUpdates, followersCache, cacheSize, cacheTTL, multicastInterface); } 
         catch (NullPointerException ex){ throw new KeyNotSetException(); }
     }
 }
\ No newline at end of file
@@ -100,8 +100,12 @@ public class WinsomeClientMain {
             config.portTCP,
             config.regName,
             config.regPort,
-            config.sockTimeout
+            config.sockTimeout,
+            config.pushUpdates,
+            config.followersCache.orElse(null)
         );
+        api.setCacheLimits(config.cacheSize, config.cacheTTL);
+        api.setMulticastInterface(config.multicastInterface.orElse(null));
 
         try {
             api.connect(); 
@@ -559,6 +563,10 @@ public class WinsomeClientMain {
                     printError("There is no post with the given ID.");
                     return;
                 }
+                catch (PostArchivedException ex){
+                    printError("This post has been archived: it can still be shown, but not modified.");
+                    return;
+                }
                 catch (NotPostOwnerException ex){
                     printError("You cannot delete this post because you are not its owner.");
                     return;
@@ -594,6 +602,10 @@ public class WinsomeClientMain {
                     printError("There is no post with the given ID.");
                     return;
                 }
+                catch (PostArchivedException ex){
+                    printError("This post has been archived: it can still be shown, but not modified.");
+                    return;
+                }
                 catch (PostOwnerException ex){
                     printError("You cannot rewin your own post.");
                     return;
@@ -649,6 +661,10 @@ public class WinsomeClientMain {
                     printError("There is no post with the given ID.");
                     return;
                 }
+                catch (PostArchivedException ex){
+                    printError("This post has been archived: it can still be shown, but not modified.");
+                    return;
+                }
                 catch (AlreadyVotedException ex){
                     printError("You have already voted this post.");
                     return;
@@ -695,6 +711,10 @@ public class WinsomeClientMain {
                     printError("There is no post with the given ID.");
                     return;
                 }
+                catch (PostArchivedException ex){
+                    printError("This post has been archived: it can still be shown, but not modified.");
+                    return;
+                }
                 catch (PostOwnerException ex){
                     printError("You cannot add a comment to your own post.");
                     return;
@@ -0,0 +1,520 @@
+package winsome.server;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonParser;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonWriter;
+
+import winsome.server.datastructs.OriginalPost;
+import winsome.server.datastructs.Post;
+import winsome.server.datastructs.Rewin;
+import winsome.server.datastructs.Transaction;
+import winsome.server.exceptions.InvalidJSONFileException;
+import winsome.server.exceptions.InvalidSnapshotException;
+
+/**
+ * The read-only archive of the old posts and transactions, which are not kept in memory anymore.
+ * <p>
+ * The archive is made of generations, each written by a snapshot into its own directory:
+ * a data file with the serialized records (an original post, or a block of transactions of a user)
+ * one after the other, and an index with the position of every record.
+ * Only the indexes are kept in memory; records are read from the data files when they are looked up.
+ * <p>
+ * Posts and transactions are first staged, i.e. kept in memory until the generation containing them
+ * is written (through {@link #writeStaged(File)}) and published (through {@link #publishStaged(File)}),
+ * so that they can be looked up as soon as they leave the live data.
+ * Staging, writing and publishing must be done by a single thread; lookups can run concurrently.
+ */
+public class Archive implements Closeable {
+    /** A serialized record, either staged in memory or stored in a data file */
+    private static class Record {
+        /** The serialized record, or null if it is stored in a data file */
+        byte[] bytes;
+        /** The data file containing the record */
+        FileChannel channel = null;
+        /** Position of the record in its data file */
+        long offset = 0;
+        /** Length in bytes of the record */
+        final int length;
+
+        Record(byte[] bytes){ this.bytes = bytes; this.length = bytes.length; }
+
+        Record(FileChannel channel, long offset, int length){
+            this.channel = channel;
+            this.offset = offset;
+            this.length = length;
+        }
+
+        /**
+         * Reads the record.
+         * @return the serialized record
+         * @throws IOException if some IO error occurs
+         */
+        String read() throws IOException {
+            if(bytes != null) return new String(bytes, StandardCharsets.UTF_8);
+
+            ByteBuffer buf = ByteBuffer.allocate(length);
+            while(buf.hasRemaining())
+                if(channel.read(buf, offset + buf.position()) < 0) throw new InvalidSnapshotException("truncated archive");
+            return new String(buf.array(), StandardCharsets.UTF_8);
+        }
+    }
+
+    /** An archived post */
+    private static class ArchivedPost {
+        /** The owner of the post, i.e. the rewinner of a rewin or the author of an original post */
+        final String owner;
+        /** The rewinner, or null if the post is original */
+        final String rewinner;
+        /** The record of the original post */
+        final Record record;
+
+        ArchivedPost(String owner, String rewinner, Record record){
+            this.owner = owner;
+            this.rewinner = rewinner;
+            this.record = record;
+        }
+    }
+
+    /** A block of archived transactions of a user, in chronological order */
+    private static class Block {
+        /** The user involved by the transactions */
+        final String user;
+        /** Timestamps (in epoch milliseconds) of the first and of the last transaction */
+        final long first, last;
+        /** Number of transactions */
+        final int count;
+        /** Sum of the increments of the transactions */
+        final double sum;
+        /** The record of the transactions */
+        final Record record;
+
+        Block(String user, long first, long last, int count, double sum, Record record){
+            this.user = user;
+            this.first = first; this.last = last;
+            this.count = count; this.sum = sum;
+            this.record = record;
+        }
+    }
+
+    /** Name of the data file of a generation */
+    public static final String DATA_FILE = "archive.dat";
+    /** Name of the index of a generation */
+    public static final String INDEX_FILE = "archive.idx";
+
+    /** Archived posts, by ID */
+    private final Map<Integer, ArchivedPost> posts = new HashMap<>();
+    /** IDs of the archived posts of each owner */
+    private final Map<String, List<Integer>> postsByOwner = new HashMap<>();
+    /** Blocks of archived transactions of each user, in chronological order */
+    private final Map<String, List<Block>> blocks = new HashMap<>();
+    /** Data files of the opened generations */
+    private final List<FileChannel> channels = new ArrayList<>();
+    /** IDs of the posts staged since the last publication */
+    private final List<Integer> stagedPosts = new ArrayList<>();
+    /** Blocks of transactions staged since the last publication */
+    private final List<Block> stagedBlocks = new ArrayList<>();
+    /** Guards the maps: lookups hold the read lock, staging and publishing the write lock */
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+    /** Creates a new empty archive. */
+    public Archive(){ }
+
+    /**
+     * Adds to this archive a generation written by a previous snapshot.
+     * @param generation the directory of the generation
+     * @throws IOException if some IO error occurs or the generation is not valid
+     */
+    public void open(File generation) throws IOException {
+        Objects.requireNonNull(generation, "null generation");
+
+        FileChannel channel = FileChannel.open(new File(generation, DATA_FILE).toPath(), StandardOpenOption.READ);
+        lock.writeLock().lock();
+        try {
+            channels.add(channel);
+            readIndex(new File(generation, INDEX_FILE), channel);
+        } finally { lock.writeLock().unlock(); }
+    }
+
+    /**
+     * Stages original posts together with their rewins and blocks of transactions.
+     * <p>
+     * The posts must not be changed anymore.
+     * @param originals the original posts
+     * @param rewins the rewins of the original posts
+     * @param transactions the transactions of each user, in chronological order
+     * @throws IOException if some error occurs while serializing
+     */
+    public void stage(Collection<OriginalPost> originals, Collection<Rewin> rewins, Map<String, List<Transaction>> transactions)
+            throws IOException {
+        Map<Integer, Record> records = new HashMap<>();
+        for(OriginalPost post : originals){
+            StringWriter out = new StringWriter();
+            synchronized(post){ post.toJson(new JsonWriter(out)); }
+            records.put(post.getID(), new Record(out.toString().getBytes(StandardCharsets.UTF_8)));
+        }
+        List<Block> newBlocks = new ArrayList<>();
+        for(Entry<String, List<Transaction>> entry : transactions.entrySet()){
+            List<Transaction> list = entry.getValue();
+            if(list.isEmpty()) continue;
+
+            StringWriter out = new StringWriter();
+            JsonWriter writer = new JsonWriter(out);
+            writer.beginArray();
+            double sum = 0;
+            for(Transaction transaction : list){ transaction.toJson(writer); sum += transaction.increment; }
+            writer.endArray();
+
+            newBlocks.add(new Block(
+                entry.getKey(), list.get(0).timestamp.toEpochMilli(), list.get(list.size() - 1).timestamp.toEpochMilli(),
+                list.size(), sum, new Record(out.toString().getBytes(StandardCharsets.UTF_8))
+            ));
+        }
+
+        lock.writeLock().lock();
+        try {
+            for(OriginalPost post : originals)
+                addPost(post.getID(), new ArchivedPost(post.getAuthor(), null, records.get(post.getID())), true);
+            for(Rewin rewin : rewins)
+                addPost(rewin.getID(), new ArchivedPost(rewin.getRewinner(), rewin.getRewinner(), records.get(rewin.getOriginalID())), true);
+            for(Block block : newBlocks) addBlock(block, true);
+        } finally { lock.writeLock().unlock(); }
+    }
+
+    /**
+     * Checks whether there are staged posts or transactions not yet published.
+     * @return true if and only if something has been staged since the last publication
+     */
+    public boolean hasStaged(){
+        lock.readLock().lock();
+        try { return !stagedPosts.isEmpty() || !stagedBlocks.isEmpty(); }
+        finally { lock.readLock().unlock(); }
+    }
+
+    /**
+     * Writes the staged posts and transactions into a new generation.
+     * <p>
+     * They stay staged until the generation is published.
+     * @param generation the (empty) directory of the new generation
+     * @throws IOException if some IO error occurs
+     */
+    public void writeStaged(File generation) throws IOException {
+        List<Integer> ids; List<Block> newBlocks;
+        Map<Integer, ArchivedPost> entries = new HashMap<>();
+        lock.readLock().lock();
+        try {
+            ids = new ArrayList<>(stagedPosts);
+            newBlocks = new ArrayList<>(stagedBlocks);
+            for(int id : ids) entries.put(id, posts.get(id));
+        } finally { lock.readLock().unlock(); }
+
+        // writing each record once, even if it is shared by an original post and its rewins
+        Set<Record> records = new LinkedHashSet<>();
+        for(int id : ids) records.add(entries.get(id).record);
+        for(Block block : newBlocks) records.add(block.record);
+
+        try (
+            OutputStream out = new BufferedOutputStream(new FileOutputStream(new File(generation, DATA_FILE)));
+        ){
+            long offset = 0;
+            for(Record record : records){
+                out.write(record.bytes);
+                record.offset = offset; // not read until the record is published
+                offset += record.length;
+            }
+        }
+
+        try (
+            JsonWriter writer = new JsonWriter(new BufferedWriter(new FileWriter(new File(generation, INDEX_FILE))));
+        ){
+            writer.beginObject();
+            writer.name("posts").beginArray();
+            for(int id : ids){
+                ArchivedPost post = entries.get(id);
+                writer.beginObject()
+                    .name("id").value(id)
+                    .name("owner").value(post.owner);
+                if(post.rewinner != null) writer.name("rewinner").value(post.rewinner);
+                writer.name("offset").value(post.record.offset)
+                    .name("length").value(post.record.length)
+                    .endObject();
+            }
+            writer.endArray();
+            writer.name("transactions").beginArray();
+            for(Block block : newBlocks){
+                writer.beginObject()
+                    .name("user").value(block.user)
+                    .name("first").value(block.first)
+                    .name("last").value(block.last)
+                    .name("count").value(block.count)
+                    .name("sum").value(block.sum)
+                    .name("offset").value(block.record.offset)
+                    .name("length").value(block.record.length)
+                    .endObject();
+            }
+            writer.endArray();
+            writer.endObject();
+        }
+    }
+
+    /**
+     * Publishes the staged posts and transactions written into a generation:
+     * from now on they are read from the generation, and they are not staged anymore.
+     * @param generation the directory of the generation, after it has been renamed to its final name
+     * @throws IOException if some IO error occurs while opening the generation
+     */
+    public void publishStaged(File generation) throws IOException {
+        FileChannel channel = FileChannel.open(new File(generation, DATA_FILE).toPath(), StandardOpenOption.READ);
+        lock.writeLock().lock();
+        try {
+            channels.add(channel);
+            for(int id : stagedPosts) release(posts.get(id).record, channel);
+            for(Block block : stagedBlocks) release(block.record, channel);
+            stagedPosts.clear();
+            stagedBlocks.clear();
+        } finally { lock.writeLock().unlock(); }
+    }
+
+    /**
+     * Checks whether a post has been archived.
+     * @param id the ID of the post
+     * @return true if and only if the post with the given ID is in the archive
+     */
+    public boolean contains(int id){
+        lock.readLock().lock();
+        try { return posts.containsKey(id); }
+        finally { lock.readLock().unlock(); }
+    }
+
+    /**
+     * Returns an archived post.
+     * @param id the ID of the post
+     * @return the post, or null if no post with the given ID has been archived
+     * @throws UncheckedIOException if the post cannot be read
+     */
+    public Post getPost(int id){
+        lock.readLock().lock();
+        try {
+            ArchivedPost post = posts.get(id);
+            return (post == null) ? null : readPost(id, post);
+        } catch (IOException ex){ throw new UncheckedIOException(ex); }
+        finally { lock.readLock().unlock(); }
+    }
+
+    /**
+     * Returns the archived posts owned by a user, i.e. the original posts written by them and the rewins made by them.
+     * @param owner the username of the user
+     * @return the archived posts of the user
+     * @throws UncheckedIOException if some post cannot be read
+     */
+    public List<Post> getOwnedBy(String owner){
+        List<Post> owned = new ArrayList<>();
+        lock.readLock().lock();
+        try {
+            for(int id : postsByOwner.getOrDefault(owner, List.of())) owned.add(readPost(id, posts.get(id)));
+        } catch (IOException ex){ throw new UncheckedIOException(ex); }
+        finally { lock.readLock().unlock(); }
+        return owned;
+    }
+
+    /**
+     * Returns the archived transactions of a user whose timestamp lies in the given interval.
+     * @param user the username of the user
+     * @param from the start of the interval (inclusive), or null for no lower bound
+     * @param to the end of the interval (exclusive), or null for no upper bound
+     * @return the transactions in the interval, in chronological order
+     * @throws UncheckedIOException if some transaction cannot be read
+     */
+    public List<Transaction> getTransactions(String user, Instant from, Instant to){
+        long lo = (from == null) ? Long.MIN_VALUE : from.toEpochMilli();
+        long hi = (to == null) ? Long.MAX_VALUE : to.toEpochMilli();
+
+        List<Transaction> found = new ArrayList<>();
+        lock.readLock().lock();
+        try {
+            for(Block block : blocks.getOrDefault(user, List.of())){
+                if(block.last < lo || block.first >= hi) continue;
+
+                for(Transaction transaction : readTransactions(block)){
+                    long timestamp = transaction.timestamp.toEpochMilli();
+                    if(timestamp >= lo && timestamp < hi) found.add(transaction);
+                }
+            }
+        } catch (IOException ex){ throw new UncheckedIOException(ex); }
+        finally { lock.readLock().unlock(); }
+        return found;
+    }
+
+    /**
+     * Returns the sum of the archived transactions of a user, without reading them.
+     * @param user the username of the user
+     * @return the balance of the archived transactions
+     */
+    public double balanceOf(String user){
+        lock.readLock().lock();
+        try {
+            double balance = 0;
+            for(Block block : blocks.getOrDefault(user, List.of())) balance += block.sum;
+            return balance;
+        } finally { lock.readLock().unlock(); }
+    }
+
+    /**
+     * Returns the users with some archived transactions.
+     * @return the users with archived transactions
+     */
+    public Set<String> usersWithTransactions(){
+        lock.readLock().lock();
+        try { return Set.copyOf(blocks.keySet()); }
+        finally { lock.readLock().unlock(); }
+    }
+
+    /**
+     * Closes the data files of the generations.
+     * @throws IOException if some IO error occurs
+     */
+    @Override
+    public void close() throws IOException {
+        lock.writeLock().lock();
+        try {
+            for(FileChannel channel : channels) channel.close();
+            channels.clear();
+        } finally { lock.writeLock().unlock(); }
+    }
+
+    /**
+     * Adds an archived post to the maps; it must be called holding the write lock.
+     * @param id the ID of the post
+     * @param post the archived post
+     * @param staged whether the post is being staged
+     */
+    private void addPost(int id, ArchivedPost post, boolean staged){
+        if(posts.put(id, post) == null) postsByOwner.computeIfAbsent(post.owner, key -> new ArrayList<>()).add(id);
+        if(staged) stagedPosts.add(id);
+    }
+
+    /**
+     * Adds a block of archived transactions to the maps; it must be called holding the write lock.
+     * @param block the block
+     * @param staged whether the block is being staged
+     */
+    private void addBlock(Block block, boolean staged){
+        List<Block> list = blocks.computeIfAbsent(block.user, key -> new ArrayList<>());
+        // generations are opened in chronological order, so blocks are usually appended
+        int i = list.size();
+        while(i > 0 && list.get(i - 1).first > block.first) i--;
+        list.add(i, block);
+        if(staged) stagedBlocks.add(block);
+    }
+
+    /**
+     * Makes a staged record read from a data file; it must be called holding the write lock.
+     * @param record the staged record
+     * @param channel the data file containing the record
+     */
+    private static void release(Record record, FileChannel channel){
+        if(record.bytes == null) return; // shared by more posts
+        record.channel = channel;
+        record.bytes = null;
+    }
+
+    /**
+     * Reads an archived post; rewins are rebuilt around their original post.
+     * @param id the ID of the post
+     * @param post the archived post
+     * @return the post
+     * @throws IOException if some IO error occurs or the record is not valid
+     */
+    private static Post readPost(int id, ArchivedPost post) throws IOException {
+        OriginalPost original;
+        try { original = OriginalPost.fromJson(new JsonReader(new StringReader(post.record.read()))); }
+        catch (InvalidJSONFileException ex){ throw new InvalidSnapshotException("invalid archived post " + id, ex); }
+        return (post.rewinner == null) ? original : new Rewin(id, original, post.rewinner);
+    }
+
+    /**
+     * Reads a block of archived transactions.
+     * @param block the block
+     * @return the transactions of the block
+     * @throws IOException if some IO error occurs or the record is not valid
+     */
+    private static List<Transaction> readTransactions(Block block) throws IOException {
+        List<Transaction> transactions = new ArrayList<>(block.count);
+        try (
+            JsonReader reader = new JsonReader(new StringReader(block.record.read()));
+        ){
+            reader.beginArray();
+            while(reader.hasNext()) transactions.add(Transaction.fromJson(reader));
+            reader.endArray();
+        } catch (InvalidJSONFileException | IllegalStateException ex){
+            throw new InvalidSnapshotException("invalid archived transactions of " + block.user, ex);
+        }
+        return transactions;
+    }
+
+    /**
+     * Reads the index of a generation; it must be called holding the write lock.
+     * @param indexFile the index
+     * @param channel the data file of the generation
+     * @throws IOException if some IO error occurs or the index is not valid
+     */
+    private void readIndex(File indexFile, FileChannel channel) throws IOException {
+        try (
+            JsonReader reader = new JsonReader(new BufferedReader(new FileReader(indexFile)));
+        ){
+            JsonObject index = JsonParser.parseReader(reader).getAsJsonObject();
+
+            // an original post and its rewins share the same record
+            Map<Long, Record> records = new HashMap<>();
+            for(JsonElement elem : index.get("posts").getAsJsonArray()){
+                JsonObject entry = elem.getAsJsonObject();
+                long offset = entry.get("offset").getAsLong();
+                int length = entry.get("length").getAsInt();
+                Record record = records.computeIfAbsent(offset, key -> new Record(channel, offset, length));
+                String rewinner = entry.has("rewinner") ? entry.get("rewinner").getAsString() : null;
+                addPost(entry.get("id").getAsInt(), new ArchivedPost(entry.get("owner").getAsString(), rewinner, record), false);
+            }
+            for(JsonElement elem : index.get("transactions").getAsJsonArray()){
+                JsonObject entry = elem.getAsJsonObject();
+                addBlock(new Block(
+                    entry.get("user").getAsString(), entry.get("first").getAsLong(), entry.get("last").getAsLong(),
+                    entry.get("count").getAsInt(), entry.get("sum").getAsDouble(),
+                    new Record(channel, entry.get("offset").getAsLong(), entry.get("length").getAsInt())
+                ), false);
+            }
+        } catch (JsonParseException | ClassCastException | IllegalStateException | NullPointerException ex){
+            throw new InvalidSnapshotException("invalid archive index " + indexFile.getPath(), ex);
+        }
+    }
+}
@@ -0,0 +1,807 @@
+package winsome.server;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.StringWriter;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonParser;
+import com.google.gson.JsonPrimitive;
+import com.google.gson.stream.JsonWriter;
+
+import winsome.server.SnapshotCodec.Format;
+import winsome.server.SnapshotCodec.Section;
+import winsome.server.SnapshotCodec.SnapshotWriter;
+import winsome.server.datastructs.Comment;
+import winsome.server.datastructs.OriginalPost;
+import winsome.server.datastructs.OriginalPost.Vote;
+import winsome.server.datastructs.User;
+import winsome.utils.cryptography.Hash;
+
+/**
+ * Builds the full snapshot of a new Winsome Server offline, importing users, follows, posts, votes and comments
+ * from CSV or JSONL files, so that large datasets are seeded without signing up and posting one request at a time.
+ * <p>
+ * Usage:
+ * <pre>java winsome.server.BulkImporter &lt;output-dir&gt; json|binary --users=&lt;file&gt; [--follows=&lt;file&gt;]
+ *     [--posts=&lt;file&gt;] [--votes=&lt;file&gt;] [--comments=&lt;file&gt;] [--threads=&lt;n&gt;] [--strict]</pre>
+ * The format of each input file is given by its extension: a ".csv" file starts with a header row naming the fields,
+ * while every line of a ".jsonl" file is a JSON object. The fields of the records are:
+ * <ul>
+ *  <li>users: "username", "password" (in plain text) and "tags" (separated by spaces in CSV, an array in JSONL);</li>
+ *  <li>follows: "follower" and "followed";</li>
+ *  <li>posts: "id", "author", "title" and "contents";</li>
+ *  <li>votes: "post", "voter" and "vote" (+1 or -1);</li>
+ *  <li>comments: "post", "author" and "contents".</li>
+ * </ul>
+ * Records are checked as the server checks the corresponding requests, e.g. a user can only follow users with
+ * common tags and only vote or comment the posts of the users they follow. Invalid records are reported and skipped,
+ * or abort the import in strict mode; the comments of a post are kept in the order of the input file.
+ * <p>
+ * Records are parsed and checked in parallel, in chunks, while the input files are read.
+ * Imported votes and comments count as already rewarded, so the Rewards Algorithm does not mint Wincoins
+ * for them; no rewin nor transaction is imported.
+ * <p>
+ * The output directory must exist and be empty: the server started with it as persistence directory
+ * loads the snapshot as it loads a snapshot converted by {@link SnapshotCodec}.
+ */
+public class BulkImporter {
+    /** Number of records parsed by the same task */
+    private static final int CHUNK_RECORDS = 4096;
+    /** Number of records between two progress reports */
+    private static final long PROGRESS_INTERVAL = 100000;
+    /** Maximum number of invalid records reported one by one */
+    private static final int MAX_REPORTED = 50;
+
+    /** A record of an input file */
+    private static class Record {
+        /** Line of the input file at which the record starts */
+        final long line;
+        /** The fields of the record, or null if the record could not be parsed */
+        final JsonObject fields;
+        /** The reason why the record could not be parsed, if fields is null */
+        final String error;
+
+        Record(long line, JsonObject fields, String error){
+            this.line = line;
+            this.fields = fields;
+            this.error = error;
+        }
+    }
+
+    /** Thrown when a record is not valid */
+    private static class InvalidRecordException extends Exception {
+        InvalidRecordException(String message){ super(message); }
+    }
+
+    /**
+     * Checks a record and converts it, in parallel with the other records of the same stage.
+     * @param <T> the type of the converted record
+     */
+    @FunctionalInterface
+    private static interface Parser<T> {
+        /**
+         * Checks and converts a record.
+         * @param fields the fields of the record
+         * @return the converted record
+         * @throws InvalidRecordException if the record is not valid
+         */
+        T parse(JsonObject fields) throws InvalidRecordException;
+    }
+
+    /**
+     * Adds a converted record to the imported state, in the order of the input file.
+     * @param <T> the type of the converted record
+     */
+    @FunctionalInterface
+    private static interface Merger<T> {
+        /**
+         * Adds a converted record to the imported state.
+         * @param value the converted record
+         * @throws InvalidRecordException if the record conflicts with the previous ones
+         */
+        void merge(T value) throws InvalidRecordException;
+    }
+
+    /** An imported post, with its votes and comments */
+    private static class Draft {
+        final int id;
+        final String author;
+        final String title;
+        final String contents;
+        final ConcurrentHashMap<String, Vote> votes = new ConcurrentHashMap<>();
+        final ConcurrentLinkedQueue<Comment> comments = new ConcurrentLinkedQueue<>();
+
+        Draft(int id, String author, String title, String contents){
+            this.id = id;
+            this.author = author;
+            this.title = title;
+            this.contents = contents;
+        }
+    }
+
+    /** Pool of threads parsing the records and serializing the snapshot */
+    private final ForkJoinPool pool;
+    /** Whether the import aborts at the first invalid record */
+    private final boolean strict;
+
+    /** Imported users, by username */
+    private final Map<String, User> users = new LinkedHashMap<>();
+    /** Users followed by each user */
+    private final Map<String, Set<String>> follows = new HashMap<>();
+    /** Imported posts, by ID */
+    private final Map<Integer, Draft> posts = new LinkedHashMap<>();
+
+    /** Number of invalid records found so far */
+    private long invalid = 0;
+
+    /**
+     * Creates a new importer.
+     * @param threads the number of threads parsing the records
+     * @param strict whether the import aborts at the first invalid record
+     */
+    private BulkImporter(int threads, boolean strict){
+        this.pool = new ForkJoinPool(threads);
+        this.strict = strict;
+    }
+
+    public static void main(String[] args){
+        if(args.length < 3){
+            System.err.println(
+                "Usage: java winsome.server.BulkImporter <output-dir> json|binary --users=<file> [--follows=<file>] "
+                + "[--posts=<file>] [--votes=<file>] [--comments=<file>] [--threads=<n>] [--strict]"
+            );
+            System.exit(1);
+        }
+
+        File dir = new File(args[0]);
+        Format format;
+        try { format = Format.fromString(args[1]); }
+        catch (IllegalArgumentException ex){
+            System.err.println("Unknown format \"" + args[1] + "\": it must be either 'json' or 'binary'.");
+            System.exit(1); return;
+        }
+
+        Map<String, File> inputs = new HashMap<>();
+        int threads = Runtime.getRuntime().availableProcessors();
+        boolean strict = false;
+        for(String arg : Arrays.asList(args).subList(2, args.length)){
+            String[] option = arg.split("=", 2);
+            switch (option[0]) {
+                case "--users", "--follows", "--posts", "--votes", "--comments" -> {
+                    if(option.length != 2 || inputs.put(option[0].substring(2), new File(option[1])) != null){
+                        System.err.println("Invalid option \"" + arg + "\".");
+                        System.exit(1);
+                    }
+                }
+                case "--threads" -> {
+                    try { threads = Integer.parseInt(option[1]); }
+                    catch (ArrayIndexOutOfBoundsException | NumberFormatException ex){ threads = 0; }
+                    if(threads <= 0){
+                        System.err.println("The number of threads must be a positive integer.");
+                        System.exit(1);
+                    }
+                }
+                case "--strict" -> strict = true;
+                default -> {
+                    System.err.println("Unknown option \"" + arg + "\".");
+                    System.exit(1);
+                }
+            }
+        }
+
+        if(!inputs.containsKey("users")){
+            System.err.println("The users file is required.");
+            System.exit(1);
+        }
+        for(File input : inputs.values()){
+            if(!input.isFile()){
+                System.err.println("The input file " + input + " does not exist.");
+                System.exit(1);
+            }
+        }
+        String[] contents = dir.list();
+        if(contents == null || contents.length != 0){
+            System.err.println("The output directory must exist and be empty.");
+            System.exit(1);
+        }
+
+        BulkImporter importer = new BulkImporter(threads, strict);
+        long begin = System.nanoTime();
+        try {
+            importer.importUsers(inputs.get("users"));
+            if(inputs.containsKey("follows")) importer.importFollows(inputs.get("follows"));
+            if(inputs.containsKey("posts")) importer.importPosts(inputs.get("posts"));
+            if(inputs.containsKey("votes")) importer.importVotes(inputs.get("votes"));
+            if(inputs.containsKey("comments")) importer.importComments(inputs.get("comments"));
+
+            importer.write(dir, format);
+        } catch (InvalidRecordException ex){
+            System.err.println("Import aborted: " + ex.getMessage());
+            System.exit(1);
+        } catch (IOException ex){
+            System.err.println("Error while importing: " + ex.getMessage());
+            System.exit(1);
+        }
+
+        System.out.println(
+            "Snapshot written in the " + format + " format in " + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - begin)
+            + " ms (" + importer.invalid + " invalid records skipped)."
+        );
+        System.exit(0);
+    }
+
+    // ---------------- Stages ---------------- //
+
+    /**
+     * Imports the users.
+     * @param file the input file
+     * @throws InvalidRecordException if a record is not valid in strict mode
+     * @throws IOException if some IO error occurs
+     */
+    private void importUsers(File file) throws InvalidRecordException, IOException {
+        importFile(file, "users",
+            fields -> {
+                String username = text(fields, "username");
+                String password = text(fields, "password");
+                List<String> tags = tags(fields);
+
+                if(username.isEmpty()) throw new InvalidRecordException("username cannot be empty");
+                if(password.isEmpty()) throw new InvalidRecordException("password cannot be empty");
+                if(tags.size() < 1 || tags.size() > 5) throw new InvalidRecordException("a user must have between 1 and 5 tags");
+                for(String tag : tags)
+                    if(!tag.matches("[a-z]+")) throw new InvalidRecordException("tags must contain only lowercase letters");
+
+                return new User(username, Hash.fromPlainText(password), tags);
+            },
+            user -> {
+                if(users.putIfAbsent(user.getUsername(), user) != null)
+                    throw new InvalidRecordException("\"" + user.getUsername() + "\" is already signed up");
+            }
+        );
+    }
+
+    /**
+     * Imports the follows; must be called after {@link #importUsers(File)}.
+     * @param file the input file
+     * @throws InvalidRecordException if a record is not valid in strict mode
+     * @throws IOException if some IO error occurs
+     */
+    private void importFollows(File file) throws InvalidRecordException, IOException {
+        importFile(file, "follows",
+            fields -> {
+                String follower = text(fields, "follower");
+                String followed = text(fields, "followed");
+
+                User followerUser = user(follower), followedUser = user(followed);
+                if(follower.equals(followed)) throw new InvalidRecordException("a user cannot follow themselves");
+                if(!followerUser.hasCommonTags(followedUser))
+                    throw new InvalidRecordException("\"" + follower + "\" and \"" + followed + "\" have no common tags");
+
+                return new String[]{ follower, followed };
+            },
+            follow -> {
+                if(!follows.computeIfAbsent(follow[0], key -> new LinkedHashSet<>()).add(follow[1]))
+                    throw new InvalidRecordException("\"" + follow[0] + "\" already follows \"" + follow[1] + "\"");
+            }
+        );
+    }
+
+    /**
+     * Imports the posts; must be called after {@link #importUsers(File)}.
+     * @param file the input file
+     * @throws InvalidRecordException if a record is not valid in strict mode
+     * @throws IOException if some IO error occurs
+     */
+    private void importPosts(File file) throws InvalidRecordException, IOException {
+        importFile(file, "posts",
+            fields -> {
+                int id = integer(fields, "id");
+                String author = text(fields, "author");
+                String title = text(fields, "title");
+                String contents = text(fields, "contents");
+
+                if(id < 0) throw new InvalidRecordException("post IDs must not be negative");
+                user(author);
+                if(title.length() > 50 || contents.length() > 500)
+                    throw new InvalidRecordException("title or contents of post exceed limits");
+
+                return new Draft(id, author, title, contents);
+            },
+            post -> {
+                if(posts.putIfAbsent(post.id, post) != null)
+                    throw new InvalidRecordException("post " + post.id + " already exists");
+            }
+        );
+    }
+
+    /**
+     * Imports the votes; must be called after {@link #importFollows(File)} and {@link #importPosts(File)}.
+     * @param file the input file
+     * @throws InvalidRecordException if a record is not valid in strict mode
+     * @throws IOException if some IO error occurs
+     */
+    private void importVotes(File file) throws InvalidRecordException, IOException {
+        importFile(file, "votes",
+            fields -> {
+                Draft post = post(integer(fields, "post"));
+                String voter = text(fields, "voter");
+                int vote = integer(fields, "vote");
+
+                if(vote != 1 && vote != -1) throw new InvalidRecordException("vote must be +1/-1");
+                checkInteraction(voter, post);
+
+                return Map.entry(post, Map.entry(voter, (vote == 1) ? Vote.UP : Vote.DOWN));
+            },
+            vote -> {
+                Draft post = vote.getKey();
+                String voter = vote.getValue().getKey();
+                if(post.votes.putIfAbsent(voter, vote.getValue().getValue()) != null)
+                    throw new InvalidRecordException("\"" + voter + "\" had already voted post " + post.id);
+            }
+        );
+    }
+
+    /**
+     * Imports the comments; must be called after {@link #importFollows(File)} and {@link #importPosts(File)}.
+     * @param file the input file
+     * @throws InvalidRecordException if a record is not valid in strict mode
+     * @throws IOException if some IO error occurs
+     */
+    private void importComments(File file) throws InvalidRecordException, IOException {
+        importFile(file, "comments",
+            fields -> {
+                Draft post = post(integer(fields, "post"));
+                String author = text(fields, "author");
+                String contents = text(fields, "contents");
+
+                checkInteraction(author, post);
+                // already rewarded
+                return Map.entry(post, new Comment(author, contents, true));
+            },
+            comment -> comment.getKey().comments.add(comment.getValue())
+        );
+    }
+
+    /**
+     * Reads the records of an input file, parsing them in parallel and merging them in order.
+     * @param <T> the type of the converted records
+     * @param file the input file
+     * @param stage the name of the stage, used in the reports
+     * @param parser checks and converts a record; it must only read the imported state
+     * @param merger adds a converted record to the imported state
+     * @throws InvalidRecordException if a record is not valid in strict mode
+     * @throws IOException if some IO error occurs
+     */
+    private <T> void importFile(File file, String stage, Parser<T> parser, Merger<T> merger)
+            throws InvalidRecordException, IOException {
+        long begin = System.nanoTime();
+        long read = 0, merged = 0, invalidBefore = invalid;
+        Deque<CompletableFuture<List<Object>>> inFlight = new ArrayDeque<>();
+        List<Record> chunk = new ArrayList<>(CHUNK_RECORDS);
+
+        try (
+            RecordReader reader = file.getName().endsWith(".csv") ? new CsvReader(file) : new JsonLinesReader(file);
+        ){
+            Record record;
+            while((record = reader.next()) != null){
+                chunk.add(record);
+                if(++read % PROGRESS_INTERVAL == 0) System.out.println(stage + ": " + read + " records read...");
+
+                if(chunk.size() == CHUNK_RECORDS){
+                    inFlight.add(parseChunk(chunk, parser));
+                    chunk = new ArrayList<>(CHUNK_RECORDS);
+                    // bounding the records held in memory
+                    if(inFlight.size() > 2 * pool.getParallelism()) merged += mergeChunk(file, inFlight.poll(), merger);
+                }
+            }
+        }
+        if(!chunk.isEmpty()) inFlight.add(parseChunk(chunk, parser));
+        while(!inFlight.isEmpty()) merged += mergeChunk(file, inFlight.poll(), merger);
+
+        System.out.println(
+            stage + ": " + merged + " records imported, " + (invalid - invalidBefore) + " skipped ("
+            + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - begin) + " ms)."
+        );
+    }
+
+    /**
+     * Starts parsing a chunk of records.
+     * @param <T> the type of the converted records
+     * @param chunk the records
+     * @param parser checks and converts a record
+     * @return a future completed with the results, in order: for each record,
+     *  either its line number followed by its conversion, or its line number followed by the reason why it is not valid
+     */
+    private <T> CompletableFuture<List<Object>> parseChunk(List<Record> chunk, Parser<T> parser){
+        return CompletableFuture.supplyAsync(() -> {
+            List<Object> results = new ArrayList<>(2 * chunk.size());
+            for(Record record : chunk){
+                results.add(record.line);
+                if(record.fields == null){
+                    results.add(new InvalidRecordException(record.error));
+                    continue;
+                }
+                try { results.add(parser.parse(record.fields)); }
+                catch (InvalidRecordException ex){ results.add(ex); }
+            }
+            return results;
+        }, pool);
+    }
+
+    /**
+     * Waits for a chunk to be parsed, then merges its records in order.
+     * @param <T> the type of the converted records
+     * @param file the input file
+     * @param parsed the parsed chunk
+     * @param merger adds a converted record to the imported state
+     * @return the number of merged records
+     * @throws InvalidRecordException if a record is not valid in strict mode
+     */
+    @SuppressWarnings("unchecked")
+    private <T> long mergeChunk(File file, CompletableFuture<List<Object>> parsed, Merger<T> merger)
+            throws InvalidRecordException {
+        List<Object> results = parsed.join();
+        long merged = 0;
+        for(int i = 0; i < results.size(); i += 2){
+            long line = (long) results.get(i);
+            Object result = results.get(i + 1);
+            try {
+                if(result instanceof InvalidRecordException) throw (InvalidRecordException) result;
+                merger.merge((T) result);
+                merged++;
+            } catch (InvalidRecordException ex){
+                String message = file.getName() + ":" + line + ": " + ex.getMessage();
+                if(strict) throw new InvalidRecordException(message);
+
+                if(++invalid <= MAX_REPORTED) System.err.println(message);
+                else if(invalid == MAX_REPORTED + 1) System.err.println("Further invalid records are skipped silently.");
+            }
+        }
+        return merged;
+    }
+
+    /**
+     * Writes the imported state as a full snapshot.
+     * @param dir the output directory
+     * @param format the format of the snapshot
+     * @throws IOException if some IO error occurs
+     */
+    private void write(File dir, Format format) throws IOException {
+        long begin = System.nanoTime();
+
+        try (
+            SnapshotWriter writer = SnapshotCodec.writer(dir, format);
+        ){
+            writer.begin(Section.USERS);
+            writeAll(writer, new ArrayList<>(users.values()), user -> toJsonTree(user::toJson));
+
+            writer.begin(Section.ORIGINALS);
+            Instant imported = Instant.now();
+            writeAll(writer, new ArrayList<>(posts.values()), draft -> {
+                OriginalPost post = new OriginalPost(
+                    draft.id, draft.author, draft.title, draft.contents, imported,
+                    draft.votes, draft.comments, new ConcurrentLinkedQueue<>(), 0
+                );
+                return toJsonTree(post::toJson);
+            });
+
+            writer.begin(Section.REWINS);
+
+            writer.begin(Section.FOLLOWS);
+            writeAll(writer, new ArrayList<>(follows.entrySet()), entry -> {
+                JsonArray followed = new JsonArray();
+                for(String username : entry.getValue()) followed.add(username);
+                JsonObject json = new JsonObject();
+                json.add(entry.getKey(), followed);
+                return json;
+            });
+
+            writer.begin(Section.TRANSACTIONS);
+        }
+
+        System.out.println(
+            "snapshot: " + users.size() + " users and " + posts.size() + " posts written ("
+            + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - begin) + " ms)."
+        );
+    }
+
+    /**
+     * Writes the elements of a section, serializing them in parallel, in chunks.
+     * @param <T> the type of the elements
+     * @param writer the writer of the snapshot
+     * @param elements the elements
+     * @param serializer serializes an element
+     * @throws IOException if some IO error occurs
+     */
+    private <T> void writeAll(SnapshotWriter writer, List<T> elements, Function<T, JsonElement> serializer)
+            throws IOException {
+        Deque<CompletableFuture<List<JsonElement>>> inFlight = new ArrayDeque<>();
+        try {
+            for(int from = 0; from < elements.size(); from += CHUNK_RECORDS){
+                List<T> chunk = elements.subList(from, Math.min(from + CHUNK_RECORDS, elements.size()));
+                inFlight.add(CompletableFuture.supplyAsync(() -> {
+                    List<JsonElement> serialized = new ArrayList<>(chunk.size());
+                    for(T elem : chunk) serialized.add(serializer.apply(elem));
+                    return serialized;
+                }, pool));
+
+                if(inFlight.size() > 2 * pool.getParallelism())
+                    for(JsonElement elem : inFlight.poll().join()) writer.write(elem);
+            }
+            while(!inFlight.isEmpty())
+                for(JsonElement elem : inFlight.poll().join()) writer.write(elem);
+        } catch (CompletionException ex){
+            IOException cause = SnapshotCodec.findIOException(ex);
+            if(cause != null) throw cause;
+            throw ex;
+        }
+    }
+
+    // ---------------- Checks ---------------- //
+
+    /**
+     * Returns an imported user.
+     * @param username the username of the user
+     * @return the user
+     * @throws InvalidRecordException if the user has not been imported
+     */
+    private User user(String username) throws InvalidRecordException {
+        User user = users.get(username);
+        if(user == null) throw new InvalidRecordException("user \"" + username + "\" does not exist");
+        return user;
+    }
+
+    /**
+     * Returns an imported post.
+     * @param id the ID of the post
+     * @return the post
+     * @throws InvalidRecordException if the post has not been imported
+     */
+    private Draft post(int id) throws InvalidRecordException {
+        Draft post = posts.get(id);
+        if(post == null) throw new InvalidRecordException("post " + id + " does not exist");
+        return post;
+    }
+
+    /**
+     * Checks that a user can vote or comment a post, i.e. that they follow its author.
+     * @param username the username of the user
+     * @param post the post
+     * @throws InvalidRecordException if the user cannot interact with the post
+     */
+    private void checkInteraction(String username, Draft post) throws InvalidRecordException {
+        user(username);
+        if(username.equals(post.author))
+            throw new InvalidRecordException("\"" + username + "\" is the author of post " + post.id);
+        if(!follows.getOrDefault(username, Collections.emptySet()).contains(post.author))
+            throw new InvalidRecordException("\"" + username + "\" does not follow the author of post " + post.id);
+    }
+
+    // ---------------- Fields ---------------- //
+
+    /**
+     * Returns a text field of a record.
+     * @param fields the fields of the record
+     * @param name the name of the field
+     * @return the value of the field
+     * @throws InvalidRecordException if the field is missing or is not a string
+     */
+    private static String text(JsonObject fields, String name) throws InvalidRecordException {
+        JsonElement value = fields.get(name);
+        if(value == null || !value.isJsonPrimitive()) throw new InvalidRecordException("missing field \"" + name + "\"");
+        return value.getAsString();
+    }
+
+    /**
+     * Returns an integer field of a record.
+     * @param fields the fields of the record
+     * @param name the name of the field
+     * @return the value of the field
+     * @throws InvalidRecordException if the field is missing or is not an integer
+     */
+    private static int integer(JsonObject fields, String name) throws InvalidRecordException {
+        String value = text(fields, name);
+        try { return Integer.parseInt(value.trim()); }
+        catch (NumberFormatException ex){
+            throw new InvalidRecordException("field \"" + name + "\" is not an integer: " + value);
+        }
+    }
+
+    /**
+     * Returns the tags of a user record: either an array or a string of tags separated by spaces.
+     * @param fields the fields of the record
+     * @return the tags
+     * @throws InvalidRecordException if the field is missing or is not valid
+     */
+    private static List<String> tags(JsonObject fields) throws InvalidRecordException {
+        JsonElement value = fields.get("tags");
+        if(value == null) throw new InvalidRecordException("missing field \"tags\"");
+
+        List<String> tags = new ArrayList<>();
+        if(value.isJsonArray()){
+            for(JsonElement tag : value.getAsJsonArray()){
+                if(!tag.isJsonPrimitive()) throw new InvalidRecordException("tags must be strings");
+                tags.add(tag.getAsString());
+            }
+        } else if(value.isJsonPrimitive()){
+            String str = value.getAsString().trim();
+            if(!str.isEmpty()) tags.addAll(Arrays.asList(str.split("\\s+")));
+        } else throw new InvalidRecordException("tags must be strings");
+
+        return new ArrayList<>(new LinkedHashSet<>(tags));
+    }
+
+    /**
+     * Serializes an object into a JSON tree.
+     * @param obj the serializing method of the object
+     * @return the serialized object
+     */
+    private static JsonElement toJsonTree(JsonSerializable obj){
+        StringWriter out = new StringWriter();
+        try { obj.toJson(new JsonWriter(out)); }
+        catch (IOException ex){ throw new UncheckedIOException(ex); } // never thrown by a StringWriter
+        return JsonParser.parseString(out.toString());
+    }
+
+    /** An object that can be serialized through a JSON stream */
+    @FunctionalInterface
+    private static interface JsonSerializable {
+        /**
+         * Serializes the object.
+         * @param writer the JSON stream
+         * @throws IOException if some IO error occurs
+         */
+        void toJson(JsonWriter writer) throws IOException;
+    }
+
+    // ---------------- Readers ---------------- //
+
+    /** Reads the records of an input file */
+    private static abstract class RecordReader implements AutoCloseable {
+        /** The stream of the file */
+        protected final BufferedReader in;
+        /** Number of lines read so far */
+        protected long line = 0;
+
+        RecordReader(File file) throws IOException {
+            in = new BufferedReader(new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8));
+        }
+
+        /**
+         * Reads the next record.
+         * @return the next record, or null at the end of the file
+         * @throws IOException if some IO error occurs
+         */
+        abstract Record next() throws IOException;
+
+        @Override
+        public void close() throws IOException { in.close(); }
+    }
+
+    /** Reads a file with a JSON object per line, skipping blank lines */
+    private static class JsonLinesReader extends RecordReader {
+        JsonLinesReader(File file) throws IOException { super(file); }
+
+        @Override
+        Record next() throws IOException {
+            String str;
+            do {
+                if((str = in.readLine()) == null) return null;
+                line++;
+            } while(str.isBlank());
+
+            try {
+                JsonElement json = JsonParser.parseString(str);
+                if(!json.isJsonObject()) return new Record(line, null, "not a JSON object");
+                return new Record(line, json.getAsJsonObject(), null);
+            } catch (JsonParseException ex){ return new Record(line, null, "malformed JSON"); }
+        }
+    }
+
+    /**
+     * Reads a CSV file whose first row names the fields, skipping blank lines.
+     * <p>
+     * Fields containing commas, quotes or line breaks are enclosed in double quotes,
+     * and double quotes inside them are doubled.
+     */
+    private static class CsvReader extends RecordReader {
+        /** Names of the fields */
+        private final List<String> header = new ArrayList<>();
+        /** Whether the file ended inside a quoted field of the last row */
+        private boolean unterminated = false;
+
+        CsvReader(File file) throws IOException {
+            super(file);
+            List<String> names = row();
+            if(names == null || unterminated) throw new IOException(file.getName() + ": missing header row");
+            for(String name : names) header.add(name.trim());
+        }
+
+        @Override
+        Record next() throws IOException {
+            long start;
+            List<String> values;
+            do {
+                start = line + 1;
+                if((values = row()) == null) return null;
+            } while(values.size() == 1 && values.get(0).isEmpty());
+
+            if(unterminated) return new Record(start, null, "unterminated quoted field");
+            if(values.size() != header.size())
+                return new Record(start, null, "expected " + header.size() + " fields, found " + values.size());
+            JsonObject fields = new JsonObject();
+            for(int i = 0; i < values.size(); i++) fields.add(header.get(i), new JsonPrimitive(values.get(i)));
+            return new Record(start, fields, null);
+        }
+
+        /**
+         * Reads a row, which may span several lines if a quoted field contains line breaks.
+         * @return the fields of the row, or null at the end of the file
+         * @throws IOException if some IO error occurs
+         */
+        private List<String> row() throws IOException {
+            String str = in.readLine();
+            if(str == null) return null;
+            line++;
+
+            List<String> values = new ArrayList<>();
+            StringBuilder value = new StringBuilder();
+            boolean quoted = false;
+            for(int i = 0; ; i++){
+                if(i == str.length()){
+                    if(!quoted) break;
+                    // line break inside a quoted field
+                    if((str = in.readLine()) == null){
+                        unterminated = true;
+                        break;
+                    }
+                    line++;
+                    value.append('\n');
+                    i = -1;
+                    continue;
+                }
+
+                char c = str.charAt(i);
+                if(quoted){
+                    if(c != '"') value.append(c);
+                    else if(i + 1 < str.length() && str.charAt(i + 1) == '"'){ value.append('"'); i++; }
+                    else quoted = false;
+                } else if(c == '"') quoted = true;
+                else if(c == ','){
+                    values.add(value.toString());
+                    value.setLength(0);
+                } else value.append(c);
+            }
+            values.add(value.toString());
+            return values;
+        }
+    }
+}
@@ -0,0 +1,303 @@
+package winsome.server;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import winsome.api.remote.RemoteClient;
+
+/**
+ * Delivers the follower updates to the clients registered to callbacks,
+ * either through RMI or pushing them on the client's TCP connection.
+ * <p>
+ * Each client has its own bounded queue of pending updates, indexed by follower:
+ * a newer update about a follower replaces the pending one, so an add followed by a remove
+ * (or vice versa) is delivered as a single update.
+ * The updates of a client are delivered in order, all the pending ones in a single call,
+ * by a fixed pool of threads, so that a slow client never delays the requests of other users.
+ * Since at most one delivery per client is queued or running at any time, the backlog of the pool
+ * is bounded by the number of registered clients, however many updates they receive.
+ * <p>
+ * A failed delivery is retried later; a client whose queue overflows, or whose deliveries
+ * fail more times in a row than the failure budget, is dropped.
+ */
+public class CallbackDispatcher implements Closeable {
+    /** Time (in milliseconds) before retrying a failed delivery */
+    private static final long RETRY_DELAY = 1000;
+
+    /** The channel through which the updates reach a client */
+    @FunctionalInterface
+    public static interface Receiver {
+        /**
+         * Delivers several follower updates at once.
+         * <p>
+         * A follower appears in at most one of the two arguments.
+         * @param added the new followers, with their tags
+         * @param removed the removed followers
+         * @throws IOException if the updates could not be delivered
+         */
+        void updateFollowers(Map<String, Collection<String>> added, Collection<String> removed) throws IOException;
+    }
+
+    /** A client registered to callbacks */
+    private class Target {
+        /** Username of the client */
+        final String username;
+        /** The channel to the client */
+        final Receiver client;
+        /** Pending updates, from follower to its tags (or null if the follower was removed) */
+        final LinkedHashMap<String, List<String>> pending = new LinkedHashMap<>();
+        /** Whether a delivery is scheduled or in flight */
+        boolean scheduled = false;
+        /** Whether the client has been unregistered or dropped */
+        boolean closed = false;
+        /** Number of consecutive failed deliveries */
+        int failures = 0;
+
+        Target(String username, Receiver client){
+            this.username = username;
+            this.client = client;
+        }
+    }
+
+    /** The registered clients, by username */
+    private final ConcurrentMap<String, Target> targets = new ConcurrentHashMap<>();
+    /** Maximum number of pending updates per client */
+    private final int queueSize;
+    /** Number of consecutive failed deliveries after which a client is dropped */
+    private final int failureBudget;
+    /** Action executed (with the username) when a client is dropped */
+    private final Consumer<String> onDrop;
+
+    /** Threads delivering the updates */
+    private final ExecutorService deliverers;
+    /** Thread scheduling the retries */
+    private final ScheduledExecutorService retries = Executors.newSingleThreadScheduledExecutor(task -> {
+        Thread thread = new Thread(task, "callback-retry");
+        thread.setDaemon(true);
+        return thread;
+    });
+    /** The logger of the server */
+    private final Logger logger = Logger.getLogger("Winsome-Server");
+
+    /**
+     * Creates a new dispatcher.
+     * @param queueSize the maximum number of pending updates per client
+     * @param failureBudget the number of consecutive failed deliveries after which a client is dropped
+     * @param threads the number of threads delivering the updates
+     * @param onDrop action executed (with the username) when a client is dropped
+     * @throws IllegalArgumentException if the queue size, the failure budget or the number of threads are not positive
+     */
+    public CallbackDispatcher(int queueSize, int failureBudget, int threads, Consumer<String> onDrop){
+        if(queueSize <= 0 || failureBudget <= 0 || threads <= 0)
+            throw new IllegalArgumentException("queue size, failure budget and threads must be positive");
+        this.queueSize = queueSize;
+        this.failureBudget = failureBudget;
+        this.onDrop = Objects.requireNonNull(onDrop, "null drop action");
+        // the queue is bounded by the number of clients, each one having at most one delivery queued
+        this.deliverers = new ThreadPoolExecutor(
+            threads, threads, 0, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>(),
+            task -> {
+                Thread thread = new Thread(task, "callback-deliverer");
+                thread.setDaemon(true);
+                return thread;
+            }
+        );
+    }
+
+    /**
+     * Registers a client, unless another client is registered with the same username.
+     * @param username the username of the client
+     * @param client the remote client
+     * @return true if and only if the client has been registered
+     */
+    public boolean register(String username, RemoteClient client){
+        Objects.requireNonNull(client, "null client");
+        return register(username, client::updateFollowers);
+    }
+
+    /**
+     * Registers a client reached through the given receiver, unless another client is registered with the same username.
+     * @param username the username of the client
+     * @param receiver the channel to the client
+     * @return true if and only if the client has been registered
+     */
+    public boolean register(String username, Receiver receiver){
+        Objects.requireNonNull(username, "null username");
+        Objects.requireNonNull(receiver, "null receiver");
+        return targets.putIfAbsent(username, new Target(username, receiver)) == null;
+    }
+
+    /**
+     * Unregisters a client, discarding its pending updates.
+     * @param username the username of the client
+     */
+    public void unregister(String username){
+        Target target = targets.remove(Objects.requireNonNull(username, "null username"));
+        if(target != null) synchronized(target){
+            target.closed = true;
+            target.pending.clear();
+        }
+    }
+
+    /**
+     * Queues the notification of a new follower, if the followed user is registered.
+     * @param username the followed user
+     * @param follower the new follower
+     * @param tags the tags of the new follower
+     */
+    public void addFollower(String username, String follower, Collection<String> tags){
+        enqueue(username, follower, new ArrayList<>(Objects.requireNonNull(tags, "null tags")));
+    }
+
+    /**
+     * Queues the notification of a removed follower, if the unfollowed user is registered.
+     * @param username the unfollowed user
+     * @param follower the removed follower
+     */
+    public void removeFollower(String username, String follower){
+        enqueue(username, follower, null);
+    }
+
+    /** Stops delivering the updates, discarding the pending ones. */
+    @Override
+    public void close(){
+        retries.shutdownNow();
+        deliverers.shutdownNow();
+    }
+
+    /**
+     * Queues an update and schedules its delivery.
+     * @param username the user to notify
+     * @param follower the follower
+     * @param tags the tags of the follower, or null if it was removed
+     */
+    private void enqueue(String username, String follower, List<String> tags){
+        Objects.requireNonNull(username, "null username");
+        Objects.requireNonNull(follower, "null follower");
+
+        Target target;
+        if((target = targets.get(username)) == null) return;
+
+        boolean overflow = false, schedule = false;
+        synchronized(target){
+            if(target.closed) return;
+
+            target.pending.remove(follower); // keeping the updates in order of arrival
+            target.pending.put(follower, tags);
+            if(target.pending.size() > queueSize) overflow = true;
+            else if(!target.scheduled) schedule = target.scheduled = true;
+        }
+
+        if(overflow) drop(target, "too many pending updates");
+        else if(schedule) submit(target);
+    }
+
+    /**
+     * Submits the delivery of the pending updates of a client.
+     * @param target the client
+     */
+    private void submit(Target target){
+        try { deliverers.execute(() -> deliver(target)); }
+        catch (RejectedExecutionException ex){ /* dispatcher closed */ }
+    }
+
+    /**
+     * Delivers all the pending updates of a client in a single call.
+     * @param target the client
+     */
+    private void deliver(Target target){
+        LinkedHashMap<String, List<String>> batch;
+        synchronized(target){
+            if(target.closed || target.pending.isEmpty()){
+                target.scheduled = false;
+                return;
+            }
+            batch = new LinkedHashMap<>(target.pending);
+            target.pending.clear();
+        }
+
+        Map<String, Collection<String>> added = new HashMap<>();
+        List<String> removed = new ArrayList<>();
+        for(Entry<String, List<String>> update : batch.entrySet()){
+            if(update.getValue() != null) added.put(update.getKey(), update.getValue());
+            else removed.add(update.getKey());
+        }
+
+        try {
+            target.client.updateFollowers(added, removed);
+            logger.fine("Delivered " + batch.size() + " follower updates to user '" + target.username + "'.");
+        } catch (IOException ex){
+            logger.log(
+                Level.WARNING,
+                "IOException thrown while updating the followers of user '" + target.username + "': " + ex.getMessage(),
+                ex
+            );
+
+            boolean exhausted;
+            synchronized(target){
+                exhausted = ++target.failures >= failureBudget;
+                if(!exhausted){
+                    // putting the batch back, unless newer updates replaced its entries
+                    LinkedHashMap<String, List<String>> newer = new LinkedHashMap<>(target.pending);
+                    target.pending.clear();
+                    target.pending.putAll(batch);
+                    for(Entry<String, List<String>> update : newer.entrySet()){
+                        target.pending.remove(update.getKey());
+                        target.pending.put(update.getKey(), update.getValue());
+                    }
+                }
+            }
+
+            if(exhausted) drop(target, "failure budget exhausted");
+            else {
+                try { retries.schedule(() -> submit(target), RETRY_DELAY, TimeUnit.MILLISECONDS); }
+                catch (RejectedExecutionException rex){ /* dispatcher closed */ }
+            }
+            return;
+        }
+
+        boolean again;
+        synchronized(target){
+            target.failures = 0;
+            again = target.scheduled = !target.closed && !target.pending.isEmpty();
+        }
+        if(again) submit(target);
+    }
+
+    /**
+     * Drops a client, unregistering it and executing the drop action.
+     * @param target the client
+     * @param reason the reason why it is dropped
+     */
+    private void drop(Target target, String reason){
+        synchronized(target){
+            if(target.closed) return;
+            target.closed = true;
+            target.pending.clear();
+        }
+        targets.remove(target.username, target);
+
+        logger.warning("Dropping callbacks of user '" + target.username + "' (" + reason + ").");
+        onDrop.accept(target.username);
+    }
+}
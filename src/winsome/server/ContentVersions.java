@@ -0,0 +1,111 @@
+package winsome.server;
+
+import java.util.Collection;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Keeps the versions of the contents that clients can cache: the posts (with their votes and comments),
+ * the blogs and the sets of followed users, from which the feeds are built.
+ * <p>
+ * A version is incremented after every change of its contents, so the tag of a response can be computed
+ * before building the response: a client presenting the current tag already has the current contents.
+ * Tags include the ID of the post or the owner of the blog or feed, so that contents never share a tag.
+ * <p>
+ * Versions are kept in memory only. Tags include an epoch chosen when this object is created,
+ * so that a tag from a previous run of the server never matches.
+ */
+public class ContentVersions {
+    /** Epoch of the versions */
+    private final long epoch = System.currentTimeMillis();
+    /** Versions of the original posts, by ID */
+    private final ConcurrentMap<Integer, AtomicLong> posts = new ConcurrentHashMap<>();
+    /** Versions of the blogs, by username of the owner */
+    private final ConcurrentMap<String, AtomicLong> blogs = new ConcurrentHashMap<>();
+    /** Versions of the sets of followed users, by username of the follower */
+    private final ConcurrentMap<String, AtomicLong> following = new ConcurrentHashMap<>();
+
+    /**
+     * Records that the votes or the comments of an original post changed.
+     * @param id the ID of the original post
+     */
+    public void postChanged(int id){ increment(posts, id); }
+
+    /**
+     * Forgets the version of a deleted post.
+     * @param id the ID of the post
+     */
+    public void postDeleted(int id){ posts.remove(id); }
+
+    /**
+     * Records that a post or a rewin was added to or removed from the blog of a user.
+     * @param username the owner of the blog
+     */
+    public void blogChanged(String username){ increment(blogs, Objects.requireNonNull(username, "null username")); }
+
+    /**
+     * Records that a user followed or unfollowed another user.
+     * @param username the follower
+     */
+    public void followingChanged(String username){ increment(following, Objects.requireNonNull(username, "null username")); }
+
+    /**
+     * Returns the current tag of a post.
+     * @param id the ID of the post
+     * @param originalID the ID of the original post (the same ID, if the post is not a rewin)
+     * @return the current tag
+     */
+    public String postTag(int id, int originalID){
+        return epoch + "-p" + id + "." + version(posts, originalID);
+    }
+
+    /**
+     * Returns the current tag of the blog of a user.
+     * @param username the owner of the blog
+     * @return the current tag
+     */
+    public String blogTag(String username){
+        return epoch + "-b" + version(blogs, Objects.requireNonNull(username, "null username")) + "." + username;
+    }
+
+    /**
+     * Returns the current tag of the feed of a user.
+     * <p>
+     * While the followed users do not change, every change of their blogs increases the sum of their versions;
+     * when they change, the version of the followed users increases.
+     * @param username the owner of the feed
+     * @param followed the users followed by the owner of the feed
+     * @return the current tag
+     */
+    public String feedTag(String username, Collection<String> followed){
+        long followingVersion = version(following, Objects.requireNonNull(username, "null username"));
+
+        long blogsVersion = 0;
+        for(String user : followed) blogsVersion += version(blogs, user);
+        return epoch + "-f" + followingVersion + "." + blogsVersion + "." + username;
+    }
+
+    /**
+     * Increments a version.
+     * @param <K> the type of the keys
+     * @param versions the versions
+     * @param key the key of the version to increment
+     */
+    private static <K> void increment(ConcurrentMap<K, AtomicLong> versions, K key){
+        versions.computeIfAbsent(key, k -> new AtomicLong()).incrementAndGet();
+    }
+
+    /**
+     * Returns a version.
+     * @param <K> the type of the keys
+     * @param versions the versions
+     * @param key the key of the version
+     * @return the version, or 0 if it never changed
+     */
+    private static <K> long version(ConcurrentMap<K, AtomicLong> versions, K key){
+        AtomicLong version = versions.get(key);
+        return (version == null) ? 0 : version.get();
+    }
+}
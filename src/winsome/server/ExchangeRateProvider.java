@@ -0,0 +1,273 @@
+package winsome.server;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.URL;
+import java.net.URLConnection;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Provides the exchange rate between Wincoins and BTC, caching it.
+ * <p>
+ * The rate is fetched from its source by a background thread at a fixed interval.
+ * A cached rate older than its time-to-live is fetched again on demand:
+ * at most one fetch is in flight at any time, and every reader asking for the rate meanwhile
+ * gets a future completed by that same fetch, so no thread blocks waiting for the source.
+ * If the fetch fails or takes too long, readers get the last known rate instead.
+ */
+public class ExchangeRateProvider implements Closeable {
+    /** A source of exchange rates */
+    @FunctionalInterface
+    public static interface Source {
+        /**
+         * Fetches the current exchange rate.
+         * @return the current exchange rate
+         * @throws IOException if the rate could not be fetched or is not valid
+         */
+        double fetch() throws IOException;
+    }
+
+    /** A fetched exchange rate */
+    private static class Rate {
+        /** The exchange rate */
+        final double value;
+        /** Time at which the rate was fetched, in nanoseconds */
+        final long fetchedAt;
+
+        Rate(double value, long fetchedAt){
+            this.value = value;
+            this.fetchedAt = fetchedAt;
+        }
+    }
+
+    /** URL of the random number generator used as remote source */
+    public static final String RANDOM_ORG_URL =
+        "https://www.random.org/decimal-fractions/?num=1&dec=10&col=1&format=plain&rnd=new";
+    /** Timeout (in milliseconds) for connecting to a remote source and reading from it */
+    private static final int REMOTE_TIMEOUT = 5000;
+
+    /** The source of the exchange rates */
+    private final Source source;
+    /** Time (in seconds) between two fetches */
+    private final long refreshInterval;
+    /** Time (in nanoseconds) after which a fetched rate is not valid anymore */
+    private final long ttl;
+    /** Thread fetching the rates */
+    private final ExecutorService fetcher = Executors.newSingleThreadExecutor(task -> {
+        Thread thread = new Thread(task, "exchange-rate-fetcher");
+        thread.setDaemon(true);
+        return thread;
+    });
+    /** Thread starting the periodic refreshes and expiring the readers' timeouts */
+    private final ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor(task -> {
+        Thread thread = new Thread(task, "exchange-rate-timer");
+        thread.setDaemon(true);
+        return thread;
+    });
+    /** The logger of the server */
+    private final Logger logger = Logger.getLogger("Winsome-Server");
+
+    /** The last fetched rate, or null if no rate has been fetched yet */
+    private volatile Rate current = null;
+    /** The fetch in flight, or null if the source is not being queried */
+    private final AtomicReference<CompletableFuture<Rate>> inFlight = new AtomicReference<>();
+
+    /**
+     * Creates a new provider; rates are fetched after {@link #start()}.
+     * @param source the source of the exchange rates
+     * @param refreshInterval the time (in seconds) between two fetches
+     * @param ttl the time (in seconds) after which a fetched rate is not valid anymore
+     * @throws IllegalArgumentException if the refresh interval or the time-to-live are not positive
+     */
+    public ExchangeRateProvider(Source source, long refreshInterval, long ttl){
+        this.source = Objects.requireNonNull(source, "null source");
+        if(refreshInterval <= 0 || ttl <= 0) throw new IllegalArgumentException("refresh interval and ttl must be positive");
+        this.refreshInterval = refreshInterval;
+        this.ttl = TimeUnit.SECONDS.toNanos(ttl);
+    }
+
+    /** Starts fetching the rates in the background, starting immediately. */
+    public void start(){
+        timer.scheduleWithFixedDelay(this::fetch, 0, refreshInterval, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Returns the exchange rate.
+     * <p>
+     * If the cached rate is still valid the returned future is already completed;
+     * otherwise it is completed by the next fetch, joining the one in flight if any.
+     * If the fetch fails or does not complete within the given timeout,
+     * the future is completed with the last known rate, or with an {@link IOException}
+     * if no rate has ever been fetched.
+     * @param timeout the maximum time (in milliseconds) to wait for a fresh rate
+     * @return a future completed with the exchange rate
+     */
+    public CompletableFuture<Double> getRate(long timeout){
+        Rate rate = current;
+        if(rate != null && System.nanoTime() - rate.fetchedAt <= ttl)
+            return CompletableFuture.completedFuture(rate.value);
+
+        CompletableFuture<Double> result = new CompletableFuture<>();
+        fetch().whenComplete((fetched, ex) -> {
+            if(ex == null) result.complete(fetched.value);
+            else fallBack(result);
+        });
+        if(!result.isDone()){
+            try { timer.schedule(() -> fallBack(result), timeout, TimeUnit.MILLISECONDS); }
+            catch (RejectedExecutionException ex){ fallBack(result); } // provider closed
+        }
+        return result;
+    }
+
+    /** Stops fetching the rates. */
+    @Override
+    public void close(){
+        timer.shutdownNow();
+        fetcher.shutdownNow();
+    }
+
+    /**
+     * Starts fetching a new rate, unless a fetch is already in flight.
+     * <p>
+     * The previous rate is kept if the source fails.
+     * @return the fetch in flight, completed with the new rate or exceptionally if the source fails
+     */
+    private CompletableFuture<Rate> fetch(){
+        while(true){
+            CompletableFuture<Rate> fetch = inFlight.get();
+            if(fetch != null) return fetch;
+
+            CompletableFuture<Rate> started = new CompletableFuture<>();
+            if(!inFlight.compareAndSet(null, started)) continue; // someone else started a fetch
+
+            try {
+                fetcher.execute(() -> {
+                    try {
+                        double value = source.fetch();
+                        if(!Double.isFinite(value) || value < 0) throw new IOException("invalid exchange rate " + value);
+                        Rate rate = new Rate(value, System.nanoTime());
+                        current = rate;
+                        inFlight.set(null);
+                        logger.fine("Exchange rate updated to " + value + ".");
+                        started.complete(rate);
+                    } catch (IOException | RuntimeException ex){
+                        inFlight.set(null);
+                        logger.log(Level.WARNING, "Could not update the exchange rate: " + ex.getMessage(), ex);
+                        started.completeExceptionally(ex);
+                    }
+                });
+            } catch (RejectedExecutionException ex){ // provider closed
+                inFlight.set(null);
+                started.completeExceptionally(ex);
+            }
+            return started;
+        }
+    }
+
+    /**
+     * Completes a reader's future with the last known rate, if it is not completed yet.
+     * @param result the reader's future
+     */
+    private void fallBack(CompletableFuture<Double> result){
+        Rate last = current;
+        if(last != null) result.complete(last.value);
+        else result.completeExceptionally(new IOException("exchange rate not available"));
+    }
+
+    // ---------------- Sources ---------------- //
+
+    /**
+     * Returns a source reading the rate from the first line of the resource at the given URL.
+     * @param url the URL of the resource
+     * @return the source
+     */
+    public static Source remote(URL url){
+        Objects.requireNonNull(url, "null url");
+        return () -> {
+            URLConnection connection = url.openConnection();
+            connection.setConnectTimeout(REMOTE_TIMEOUT);
+            connection.setReadTimeout(REMOTE_TIMEOUT);
+            try (
+                BufferedReader in = new BufferedReader(new InputStreamReader(connection.getInputStream()));
+            ){
+                return parseRate(in.readLine());
+            }
+        };
+    }
+
+    /**
+     * Returns a source reading the rate from the first line of a local file, re-reading it at every fetch.
+     * @param file the file
+     * @return the source
+     */
+    public static Source file(File file){
+        Objects.requireNonNull(file, "null file");
+        return () -> {
+            try (
+                BufferedReader in = new BufferedReader(new FileReader(file));
+            ){
+                return parseRate(in.readLine());
+            }
+        };
+    }
+
+    /**
+     * Returns a source always returning the same rate, e.g. for testing.
+     * @param rate the rate
+     * @return the source
+     */
+    public static Source fixed(double rate){ return () -> rate; }
+
+    /**
+     * Parses the description of a source: either "remote" (the random number generator at {@link #RANDOM_ORG_URL}),
+     * "file &lt;path&gt;" or "fixed &lt;rate&gt;".
+     * @param str the description of the source
+     * @return the source
+     * @throws IllegalArgumentException if the description is not valid
+     */
+    public static Source sourceFromString(String str) throws IllegalArgumentException {
+        String[] parts = Objects.requireNonNull(str, "null string").trim().split("\\s+", 2);
+        try {
+            return switch (parts[0]) {
+                case "remote" -> {
+                    if(parts.length != 1) throw new IllegalArgumentException("remote source takes no argument");
+                    yield remote(new URL(RANDOM_ORG_URL));
+                }
+                case "file" -> {
+                    if(parts.length != 2) throw new IllegalArgumentException("missing file path");
+                    yield file(new File(parts[1]));
+                }
+                case "fixed" -> {
+                    if(parts.length != 2) throw new IllegalArgumentException("missing rate");
+                    yield fixed(Double.parseDouble(parts[1]));
+                }
+                default -> throw new IllegalArgumentException("unknown exchange rate source " + parts[0]);
+            };
+        } catch (IOException ex){ throw new IllegalArgumentException("invalid url", ex); }
+    }
+
+    /**
+     * Parses an exchange rate.
+     * @param line the line containing the rate
+     * @return the rate
+     * @throws IOException if the line does not contain a valid rate
+     */
+    private static double parseRate(String line) throws IOException {
+        if(line == null) throw new IOException("no exchange rate");
+        try { return Double.parseDouble(line.trim()); }
+        catch (NumberFormatException ex){ throw new IOException("result was not a valid exchange rate", ex); }
+    }
+}
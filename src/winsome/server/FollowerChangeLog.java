@@ -0,0 +1,202 @@
+package winsome.server;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Keeps, for each user, a versioned log of the changes to their set of followers,
+ * so that a client logging in again only receives the changes since the version it already knows.
+ * <p>
+ * Every follow or unfollow of a user increments the version of their follower set.
+ * The log keeps only the latest change of each follower, and at most a fixed number of changes per user:
+ * when it overflows, the oldest change is discarded and the versions up to it cannot be synchronized anymore.
+ * A user can also be marked as stale (e.g. when their client missed some updates),
+ * so that their next synchronization sends the full follower list whatever version they know.
+ * <p>
+ * Versions are relative to an epoch chosen when the log is created.
+ * The changes are kept in memory only, while the epoch and the versions can be saved and restored
+ * (see {@link #restore(long, Map)}): after a restart, a client holding a version saved by the previous run
+ * receives only the changes made since then, and an older one is sent the full follower list.
+ */
+public class FollowerChangeLog {
+    /** The changes since a given version of a follower set */
+    public static class Delta {
+        /** The current version of the follower set */
+        public final long version;
+        /** The changed followers, mapped to true if they were added and false if they were removed */
+        public final Map<String, Boolean> changes;
+
+        private Delta(long version, Map<String, Boolean> changes){
+            this.version = version;
+            this.changes = changes;
+        }
+    }
+
+    /** The latest change of a follower */
+    private static class Change {
+        /** Version of the follower set after the change */
+        final long version;
+        /** Whether the follower was added or removed */
+        final boolean added;
+
+        Change(long version, boolean added){
+            this.version = version;
+            this.added = added;
+        }
+    }
+
+    /** The log of a single user */
+    private static class UserLog {
+        /** Current version of the follower set */
+        long version = 0;
+        /** Oldest version from which the changes can still be synchronized */
+        long floor = 0;
+        /** The latest change of each follower, in order of version */
+        final LinkedHashMap<String, Change> changes = new LinkedHashMap<>();
+    }
+
+    /** Epoch of the versions */
+    private volatile long epoch = System.currentTimeMillis();
+    /** Maximum number of changes kept for each user */
+    private final int capacity;
+    /** The logs, by username */
+    private final ConcurrentMap<String, UserLog> logs = new ConcurrentHashMap<>();
+    /** The users whose next synchronization must send the full follower list */
+    private final Set<String> stale = ConcurrentHashMap.newKeySet();
+
+    /**
+     * Creates a new empty log.
+     * @param capacity the maximum number of changes kept for each user
+     * @throws IllegalArgumentException if the capacity is not positive
+     */
+    public FollowerChangeLog(int capacity){
+        if(capacity <= 0) throw new IllegalArgumentException("capacity must be positive");
+        this.capacity = capacity;
+    }
+
+    /**
+     * Returns the epoch of the versions.
+     * @return the epoch of the versions
+     */
+    public long epoch(){ return epoch; }
+
+    /**
+     * Restores the epoch and the versions saved by a previous run, before any change is recorded.
+     * <p>
+     * The changes made before the restored versions are not known: 
+     * those versions become the oldest ones that can be synchronized.
+     * @param epoch the saved epoch
+     * @param versions the saved version of the follower set of each user
+     * @throws IllegalStateException if some change has already been recorded
+     */
+    public void restore(long epoch, Map<String, Long> versions){
+        Objects.requireNonNull(versions, "null versions");
+        if(!logs.isEmpty()) throw new IllegalStateException("changes already recorded");
+
+        for(Entry<String, Long> entry : versions.entrySet()){
+            UserLog log = new UserLog();
+            log.version = log.floor = entry.getValue();
+            logs.put(entry.getKey(), log);
+        }
+        this.epoch = epoch;
+    }
+
+    /**
+     * Returns the current version of the follower set of every user with some recorded change.
+     * <p>
+     * The versions are consistent only if no change is recorded meanwhile.
+     * @return the current versions, by username
+     */
+    public Map<String, Long> versions(){
+        Map<String, Long> versions = new HashMap<>(logs.size());
+        for(Entry<String, UserLog> entry : logs.entrySet())
+            synchronized(entry.getValue()){ versions.put(entry.getKey(), entry.getValue().version); }
+        return versions;
+    }
+
+    /**
+     * Returns the current version of the follower set of a user.
+     * <p>
+     * The version must be read before the follower set,
+     * so that the changes made meanwhile are sent again at the next synchronization.
+     * @param username the username of the user
+     * @return the current version
+     */
+    public long version(String username){
+        UserLog log = logs.get(Objects.requireNonNull(username, "null username"));
+        if(log == null) return 0;
+        synchronized(log){ return log.version; }
+    }
+
+    /**
+     * Records that a user has gained or lost a follower.
+     * @param username the username of the followed user
+     * @param follower the username of the follower
+     * @param added true if the follower was added, false if it was removed
+     */
+    public void record(String username, String follower, boolean added){
+        Objects.requireNonNull(follower, "null follower");
+        UserLog log = logs.computeIfAbsent(Objects.requireNonNull(username, "null username"), key -> new UserLog());
+
+        synchronized(log){
+            log.version++;
+            log.changes.remove(follower); // keeping the changes in order of version
+            log.changes.put(follower, new Change(log.version, added));
+
+            if(log.changes.size() > capacity){
+                Iterator<Change> oldest = log.changes.values().iterator();
+                log.floor = oldest.next().version;
+                oldest.remove();
+            }
+        }
+    }
+
+    /**
+     * Marks a user as stale, so that the next call to {@link #since(String, long, long)}
+     * (or {@link #resync(String)}) for them asks for the full follower set.
+     * @param username the username of the user
+     */
+    public void invalidate(String username){
+        stale.add(Objects.requireNonNull(username, "null username"));
+    }
+
+    /**
+     * Clears the stale mark of a user, when they are sent the full follower set anyway.
+     * @param username the username of the user
+     * @return true if and only if the user was marked as stale
+     */
+    public boolean resync(String username){
+        return stale.remove(Objects.requireNonNull(username, "null username"));
+    }
+
+    /**
+     * Returns the changes to the follower set of a user since a given version.
+     * @param username the username of the user
+     * @param epoch the epoch of the given version
+     * @param version the given version
+     * @return the latest change of each follower changed since the given version,
+     *  or null if they are not known anymore (or the user is stale) and the full follower set must be sent
+     */
+    public Delta since(String username, long epoch, long version){
+        if(resync(username) || epoch != this.epoch) return null;
+
+        UserLog log = logs.get(Objects.requireNonNull(username, "null username"));
+        if(log == null) return (version == 0) ? new Delta(0, Map.of()) : null;
+
+        synchronized(log){
+            if(version < log.floor || version > log.version) return null;
+
+            Map<String, Boolean> changes = new LinkedHashMap<>();
+            for(Entry<String, Change> entry : log.changes.entrySet())
+                if(entry.getValue().version > version) changes.put(entry.getKey(), entry.getValue().added);
+            return new Delta(log.version, changes);
+        }
+    }
+}
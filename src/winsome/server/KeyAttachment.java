@@ -1,6 +1,8 @@
 package winsome.server;
 
 import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Deque;
 
 /** The attachment to a SelectionKey of the WinsomeServer. */
 public class KeyAttachment {
@@ -8,6 +10,10 @@ public class KeyAttachment {
     private String user;
     /** This key's buffer */
     private ByteBuffer buf;
+    /** Messages waiting to be written to the client */
+    private final Deque<ByteBuffer> outbound = new ArrayDeque<>();
+    /** Total size in bytes of the messages waiting to be written */
+    private long outboundBytes = 0;
 
     /**
      * Creates a new attachment with a given logged user.
@@ -56,4 +62,36 @@ public class KeyAttachment {
      * @return the stored byte buffer
      */
     public ByteBuffer getBuffer(){ return buf; }
+
+    /**
+     * Checks whether some message is waiting to be written to the client.
+     * @return true if and only if some message is waiting
+     */
+    public boolean hasOutbound(){ return !outbound.isEmpty(); }
+
+    /**
+     * Queues a message to be written to the client, unless the queued messages exceed a given size.
+     * @param msg the message, ready to be written
+     * @param limit the maximum total size in bytes of the queued messages
+     * @return true if and only if the message was queued
+     */
+    public boolean queueOutbound(ByteBuffer msg, long limit){
+        if(outboundBytes + msg.remaining() > limit) return false;
+
+        outbound.addLast(msg.slice()); // the unwritten part only, so that its limit is its size
+        outboundBytes += msg.remaining();
+        return true;
+    }
+
+    /**
+     * Returns the first message waiting to be written, possibly partially written already.
+     * @return the first message, or null if no message is waiting
+     */
+    public ByteBuffer peekOutbound(){ return outbound.peekFirst(); }
+
+    /** Removes the first message waiting to be written, once it has been written completely. */
+    public void pollOutbound(){
+        ByteBuffer msg = outbound.pollFirst();
+        if(msg != null) outboundBytes -= msg.limit();
+    }
 }
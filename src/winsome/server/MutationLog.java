@@ -0,0 +1,411 @@
+package winsome.server;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonParser;
+
+import winsome.server.exceptions.InvalidJSONFileException;
+
+/**
+ * An append-only log of the mutations of the Server state,
+ * replayed at startup on top of the last snapshot.
+ * <p>
+ * The log is split into numbered segments ("wal-N.log"), each containing one JSON record per line.
+ * Records are appended by any thread and written by a single writer thread, which
+ * writes all the records queued since its last write at once and syncs them to disk
+ * with a single call (group commit), according to the chosen {@link SyncPolicy}.
+ */
+public class MutationLog implements Closeable {
+    /** When the log is synced to disk */
+    public static enum SyncPolicy {
+        /** After every group of records: a mutation is acknowledged only once it is on disk */
+        ALWAYS,
+        /** Periodically, every given number of milliseconds */
+        PERIODIC,
+        /** Never: the operating system decides when to write the records to disk */
+        NONE;
+
+        /**
+         * Parses a SyncPolicy from its name, ignoring case.
+         * @param name the given name
+         * @return the SyncPolicy with the given name
+         * @throws IllegalArgumentException if no policy has the given name
+         */
+        public static SyncPolicy fromString(String name){
+            return valueOf(Objects.requireNonNull(name, "null policy name").toUpperCase());
+        }
+    }
+
+    /** A record waiting to be written */
+    private static class Entry {
+        /** Sequence number of the record */
+        final long seq;
+        /** The serialized record */
+        final String line;
+
+        Entry(long seq, String line){
+            this.seq = seq;
+            this.line = line;
+        }
+    }
+
+    /** Entry queued by {@link #close()} to stop the writer thread */
+    private static final Entry CLOSE = new Entry(-1, null);
+
+    /** Prefix of the name of the segment files */
+    private static final String SEGMENT_PREFIX = "wal-";
+    /** Suffix of the name of the segment files */
+    private static final String SEGMENT_SUFFIX = ".log";
+
+    /** The logger of the server */
+    private final Logger logger = Logger.getLogger("Winsome-Server");
+
+    /** Directory containing the segments */
+    private final File dir;
+    /** When the log is synced to disk */
+    private final SyncPolicy policy;
+    /** Time (in milliseconds) between two syncs with the PERIODIC policy */
+    private final long syncInterval;
+
+    /** Records waiting to be written */
+    private final LinkedBlockingQueue<Entry> queue = new LinkedBlockingQueue<>();
+    /** Object used to assign sequence numbers in the same order as the records are queued */
+    private final Object appendSync = new Object();
+    /** Sequence number of the last queued record */
+    private long appended = 0;
+    /** Sequence number of the last written record; guarded by this */
+    private long written = 0;
+    /** Sequence number of the last record synced to disk; guarded by this */
+    private long synced = 0;
+    /** First error occurred while writing, if any; guarded by this */
+    private IOException failure = null;
+
+    /** Number of the current segment; guarded by this */
+    private int segment;
+    /** Channel of the current segment; guarded by this */
+    private FileChannel channel;
+    /** Time of the last sync, in milliseconds */
+    private long lastSync;
+
+    /** The writer thread */
+    private final Thread writer;
+    /** Whether this log has been closed */
+    private volatile boolean closed = false;
+
+    /**
+     * Opens a log, appending new records to a new segment.
+     * @param dir the directory containing the segments
+     * @param segment the number of the new segment
+     * @param policy when the log is synced to disk
+     * @param syncInterval time (in milliseconds) between two syncs with the PERIODIC policy
+     * @throws IOException if the new segment could not be created
+     */
+    public MutationLog(File dir, int segment, SyncPolicy policy, long syncInterval) throws IOException {
+        this.dir = Objects.requireNonNull(dir, "null directory");
+        this.policy = Objects.requireNonNull(policy, "null sync policy");
+        if(syncInterval <= 0) throw new IllegalArgumentException("sync interval must be positive");
+        this.syncInterval = syncInterval;
+
+        this.segment = segment;
+        this.channel = openSegment(segment);
+        this.lastSync = System.currentTimeMillis();
+
+        this.writer = new Thread(this::writeLoop, "mutation-log");
+        this.writer.setDaemon(true);
+        this.writer.start();
+    }
+
+    /**
+     * Queues a record to be written in the log.
+     * <p>
+     * The record is written after every record queued before it:
+     * callers must queue the record of a mutation before any mutation depending on it can happen.
+     * @param record the given record
+     * @return the sequence number of the record, to be passed to {@link #awaitSync(long)}
+     * @throws IllegalStateException if this log has been closed
+     */
+    public long append(JsonObject record){
+        Objects.requireNonNull(record, "null record");
+        if(closed) throw new IllegalStateException("mutation log has been closed");
+
+        String line = record.toString();
+        synchronized(appendSync){
+            queue.add(new Entry(++appended, line));
+            return appended;
+        }
+    }
+
+    /**
+     * Checks whether some error occurred while writing this log: no record is written after it.
+     * @return true if and only if this log could not be written
+     */
+    public synchronized boolean hasFailed(){ return failure != null; }
+
+    /**
+     * Waits until the record with the given sequence number is safe according to the sync policy,
+     * i.e. until it is synced to disk with the ALWAYS policy; with the other policies it returns immediately.
+     * @param seq the sequence number of the record
+     * @throws IOException if the log could not be written
+     */
+    public void awaitSync(long seq) throws IOException {
+        synchronized(this){
+            if(policy != SyncPolicy.ALWAYS){
+                if(failure != null) throw new IOException("mutation log could not be written", failure);
+                return;
+            }
+
+            boolean interrupted = false;
+            while(synced < seq && failure == null){
+                try { wait(); }
+                catch (InterruptedException ex){ interrupted = true; }
+            }
+            if(interrupted) Thread.currentThread().interrupt();
+            if(synced < seq) throw new IOException("mutation log could not be written", failure);
+        }
+    }
+
+    /**
+     * Closes the current segment, after writing and syncing every queued record,
+     * and starts writing to the next one.
+     * <p>
+     * The caller must make sure that no record is appended during this call.
+     * @return the number of the new segment
+     * @throws IOException if some IO error occurs
+     */
+    public synchronized int roll() throws IOException {
+        long target;
+        synchronized(appendSync){ target = appended; }
+
+        boolean interrupted = false;
+        while(written < target && failure == null){
+            try { wait(); }
+            catch (InterruptedException ex){ interrupted = true; }
+        }
+        if(interrupted) Thread.currentThread().interrupt();
+        if(failure != null) throw new IOException("mutation log could not be written", failure);
+
+        channel.force(false);
+        channel.close();
+        synced = written;
+        notifyAll();
+
+        channel = openSegment(++segment);
+        logger.fine("Mutation log rolled to segment " + segment + ".");
+        return segment;
+    }
+
+    /**
+     * Deletes every segment older than the given one.
+     * @param segment the number of the oldest segment to keep
+     */
+    public void deleteSegmentsBefore(int segment){
+        for(int number : listSegments(dir)){
+            if(number >= segment) break;
+            if(!segmentFile(dir, number).delete())
+                logger.warning("Could not delete mutation log segment " + number + ".");
+        }
+    }
+
+    /**
+     * Writes and syncs every queued record, then closes this log.
+     * @throws IOException if some IO error occurs
+     */
+    @Override
+    public void close() throws IOException {
+        if(closed) return;
+        closed = true;
+
+        queue.add(CLOSE);
+        try { writer.join(); }
+        catch (InterruptedException ex){ Thread.currentThread().interrupt(); }
+
+        synchronized(this){
+            if(channel.isOpen()){
+                channel.force(false);
+                channel.close();
+            }
+            if(failure != null) throw new IOException("mutation log could not be written", failure);
+        }
+    }
+
+    /** Body of the writer thread: writes groups of records until the log is closed. */
+    private void writeLoop(){
+        List<Entry> batch = new ArrayList<>();
+        boolean stop = false;
+        while(!stop){
+            try {
+                Entry first = (policy == SyncPolicy.PERIODIC)
+                    ? queue.poll(syncInterval, TimeUnit.MILLISECONDS)
+                    : queue.take();
+                if(first != null) batch.add(first);
+            } catch (InterruptedException ex){ continue; }
+            queue.drainTo(batch);
+
+            // records queued concurrently with close() are still written
+            if(batch.removeIf(entry -> entry == CLOSE)){
+                stop = true;
+                queue.drainTo(batch);
+            }
+
+            try { writeBatch(batch); }
+            catch (IOException ex){
+                synchronized(this){
+                    if(failure == null) failure = ex;
+                    notifyAll();
+                }
+                logger.severe("IO error while writing the mutation log: " + ex.getMessage());
+                return;
+            }
+            batch.clear();
+        }
+    }
+
+    /**
+     * Writes a group of records to the current segment and syncs it if required by the sync policy.
+     * @param batch the records to write, in order
+     * @throws IOException if some IO error occurs
+     */
+    private synchronized void writeBatch(List<Entry> batch) throws IOException {
+        if(!batch.isEmpty()){
+            StringBuilder builder = new StringBuilder();
+            for(Entry entry : batch) builder.append(entry.line).append('\n');
+
+            ByteBuffer buf = ByteBuffer.wrap(builder.toString().getBytes(StandardCharsets.UTF_8));
+            while(buf.hasRemaining()) channel.write(buf);
+            written = batch.get(batch.size() - 1).seq;
+        }
+
+        long now = System.currentTimeMillis();
+        boolean sync = switch (policy) {
+            case ALWAYS   -> !batch.isEmpty();
+            case PERIODIC -> synced < written && now - lastSync >= syncInterval;
+            case NONE     -> false;
+        };
+        if(sync){
+            channel.force(false);
+            synced = written;
+            lastSync = now;
+        }
+        notifyAll();
+    }
+
+    /**
+     * Creates a new segment file.
+     * @param number the number of the segment
+     * @return a channel to write into the segment
+     * @throws IOException if the segment could not be created
+     */
+    private FileChannel openSegment(int number) throws IOException {
+        return FileChannel.open(
+            segmentFile(dir, number).toPath(),
+            StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND
+        );
+    }
+
+    // ---------------- Reading the log ---------------- //
+
+    /** An action executed on each record of the log during replay */
+    @FunctionalInterface
+    public static interface RecordHandler {
+        /**
+         * Applies a record.
+         * @param record the given record
+         * @throws InvalidJSONFileException if the record is not valid
+         */
+        void apply(JsonObject record) throws InvalidJSONFileException;
+    }
+
+    /**
+     * Returns the numbers of the segments in the given directory, in increasing order.
+     * @param dir the given directory
+     * @return the sorted numbers of the segments
+     */
+    public static int[] listSegments(File dir){
+        Objects.requireNonNull(dir, "null directory");
+
+        String[] names = dir.list();
+        if(names == null) return new int[0];
+
+        return Arrays.stream(names)
+            .filter(name -> name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_SUFFIX))
+            .map(name -> name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()))
+            .filter(number -> number.matches("[0-9]+"))
+            .mapToInt(Integer::parseInt)
+            .sorted()
+            .toArray();
+    }
+
+    /**
+     * Reads the records of every segment not older than the given one, in order.
+     * <p>
+     * A truncated last record (i.e. a write interrupted by a crash) is ignored.
+     * @param dir the directory containing the segments
+     * @param fromSegment the number of the first segment to read
+     * @param handler the action to execute on each record
+     * @return the number of records read
+     * @throws InvalidJSONFileException if some record (other than a truncated last one) is not valid
+     * @throws IOException if some IO error occurs
+     */
+    public static long replay(File dir, int fromSegment, RecordHandler handler) throws InvalidJSONFileException, IOException {
+        Objects.requireNonNull(handler, "null record handler");
+
+        long count = 0;
+        for(int number : listSegments(dir)){
+            if(number < fromSegment) continue;
+
+            try (
+                BufferedReader reader = new BufferedReader(new InputStreamReader(
+                    new FileInputStream(segmentFile(dir, number)), StandardCharsets.UTF_8
+                ));
+            ){
+                String line = reader.readLine();
+                while(line != null){
+                    String next = reader.readLine();
+
+                    JsonObject record;
+                    try { record = JsonParser.parseString(line).getAsJsonObject(); }
+                    catch (JsonParseException | IllegalStateException ex){
+                        if(next != null) throw new InvalidJSONFileException("invalid record in mutation log segment " + number, ex);
+                        Logger.getLogger("Winsome-Server").warning(
+                            "Ignoring truncated record at the end of mutation log segment " + number + "."
+                        );
+                        break;
+                    }
+
+                    handler.apply(record);
+                    count++;
+                    line = next;
+                }
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Returns the file of the segment with the given number.
+     * @param dir the directory containing the segments
+     * @param number the number of the segment
+     * @return the file of the segment
+     */
+    private static File segmentFile(File dir, int number){
+        return new File(dir, SEGMENT_PREFIX + number + SEGMENT_SUFFIX);
+    }
+}
@@ -0,0 +1,179 @@
+package winsome.server;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.Objects;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * An output stream compressing its contents in the GZIP format on a dedicated thread.
+ * <p>
+ * The written bytes are collected into blocks, which are handed to the compressing thread through a queue:
+ * the writer keeps serializing data while the previous blocks are being compressed and written to disk.
+ * Blocks are recycled, so at most {@value #MAX_BLOCKS} blocks are allocated and a writer faster than the
+ * compressing thread waits for a block to be freed.
+ * <p>
+ * Errors of the compressing thread are thrown by the following call to a method of this stream.
+ */
+public class PipelinedGzipOutputStream extends OutputStream {
+    /** A block of bytes waiting to be compressed */
+    private static class Block {
+        /** The contents of the block */
+        final byte[] bytes;
+        /** Number of valid bytes */
+        int length = 0;
+
+        Block(int capacity){ bytes = new byte[capacity]; }
+    }
+
+    /** Size in bytes of a block */
+    private static final int BLOCK_BYTES = 1 << 16;
+    /** Maximum number of blocks */
+    private static final int MAX_BLOCKS = 4;
+    /** Block queued by {@link #close()} to stop the compressing thread */
+    private static final Block END = new Block(0);
+    /** Time (in milliseconds) between two checks of the state of the compressing thread while waiting for a block */
+    private static final long POLL_MILLIS = 100;
+
+    /** Blocks waiting to be compressed, followed by {@link #END} when the stream is closed */
+    private final BlockingQueue<Block> full = new ArrayBlockingQueue<>(MAX_BLOCKS + 1);
+    /** Blocks already compressed, which can be filled again */
+    private final BlockingQueue<Block> free = new ArrayBlockingQueue<>(MAX_BLOCKS);
+    /** The compressing thread */
+    private final Thread compressor;
+    /** The error of the compressing thread, if any */
+    private volatile IOException error = null;
+
+    /** The block being filled */
+    private Block current;
+    /** Whether this stream has been closed */
+    private boolean closed = false;
+
+    /**
+     * Creates a new stream compressing its contents into the given one, starting the compressing thread.
+     * @param out the underlying stream, closed when this stream is closed
+     * @param level the compression level, between {@link Deflater#BEST_SPEED} and {@link Deflater#BEST_COMPRESSION}
+     * @throws IOException if some IO error occurs while writing the GZIP header
+     * @throws IllegalArgumentException if the compression level is not valid
+     */
+    public PipelinedGzipOutputStream(OutputStream out, int level) throws IOException {
+        Objects.requireNonNull(out, "null stream");
+        if(level < Deflater.BEST_SPEED || level > Deflater.BEST_COMPRESSION)
+            throw new IllegalArgumentException("compression level must be between 1 and 9");
+
+        current = new Block(BLOCK_BYTES);
+        for(int i = 1; i < MAX_BLOCKS; i++) free.add(new Block(BLOCK_BYTES));
+
+        GZIPOutputStream gzip = new GZIPOutputStream(out, BLOCK_BYTES) {
+            { def.setLevel(level); }
+        };
+        compressor = new Thread(() -> compress(gzip), "snapshot-compressor");
+        compressor.setDaemon(true);
+        compressor.start();
+    }
+
+    /**
+     * Body of the compressing thread: compresses the queued blocks until the stream is closed.
+     * @param gzip the compressing stream
+     */
+    private void compress(GZIPOutputStream gzip){
+        try (gzip) {
+            Block block;
+            while((block = full.take()) != END){
+                gzip.write(block.bytes, 0, block.length);
+                block.length = 0;
+                free.add(block);
+            }
+        } catch (IOException ex){ error = ex; }
+        catch (InterruptedException ex){ error = new InterruptedIOException("compressing thread interrupted"); }
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        ensureOpen();
+        current.bytes[current.length++] = (byte) b;
+        if(current.length == current.bytes.length) handOff();
+    }
+
+    @Override
+    public void write(byte[] bytes, int off, int len) throws IOException {
+        Objects.checkFromIndexSize(off, len, bytes.length);
+        ensureOpen();
+
+        while(len > 0){
+            int n = Math.min(len, current.bytes.length - current.length);
+            System.arraycopy(bytes, off, current.bytes, current.length, n);
+            current.length += n;
+            off += n; len -= n;
+
+            if(current.length == current.bytes.length) handOff();
+        }
+    }
+
+    /**
+     * Checks for errors of the compressing thread.
+     * <p>
+     * Blocks are handed to the compressing thread only when they are full or the stream is closed.
+     * @throws IOException if the compressing thread failed or the stream is closed
+     */
+    @Override
+    public void flush() throws IOException { ensureOpen(); }
+
+    /**
+     * Compresses the remaining bytes, waits for the compressing thread to finish
+     * and closes the underlying stream.
+     * @throws IOException if the compressing thread failed
+     */
+    @Override
+    public void close() throws IOException {
+        if(closed) return;
+        closed = true;
+
+        if(current != null && current.length > 0) full.add(current);
+        current = null;
+        full.add(END);
+
+        try { compressor.join(); }
+        catch (InterruptedException ex){
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("interrupted while waiting for the compressing thread");
+        }
+        if(error != null) throw error;
+    }
+
+    /**
+     * Hands the current block to the compressing thread and waits for a free block.
+     * @throws IOException if the compressing thread failed or the thread was interrupted
+     */
+    private void handOff() throws IOException {
+        full.add(current);
+        current = null;
+
+        try {
+            Block block;
+            while((block = free.poll(POLL_MILLIS, TimeUnit.MILLISECONDS)) == null){
+                if(error != null) throw error;
+            }
+            current = block;
+        } catch (InterruptedException ex){
+            closed = true; // stopping the compressing thread
+            full.add(END);
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("interrupted while waiting for the compressing thread");
+        }
+    }
+
+    /**
+     * Checks that the stream is open and the compressing thread did not fail.
+     * @throws IOException if the compressing thread failed or the stream is closed
+     */
+    private void ensureOpen() throws IOException {
+        if(closed) throw new IOException("stream closed");
+        if(error != null) throw error;
+    }
+}
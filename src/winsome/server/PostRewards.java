@@ -9,17 +9,25 @@ public class PostRewards {
     public final double reward;
     /** The curators of a post */
     private final List<String> curators;
+    /** Number of votes counted to compute this reward */
+    public final int votes;
+    /** Number of comments counted to compute this reward */
+    public final int comments;
 
     /**
      * Creates a new reward.
      * @param reward the amount of the reward, in Wincoins
      * @param curators the curators of the post
+     * @param votes the number of votes counted
+     * @param comments the number of comments counted
      */
-    public PostRewards(double reward, Collection<String> curators){
+    public PostRewards(double reward, Collection<String> curators, int votes, int comments){
         if(curators == null) throw new NullPointerException("null argument");
 
         this.reward = reward;
         this.curators = new ArrayList<>(curators);
+        this.votes = votes;
+        this.comments = comments;
     }
 
     /**
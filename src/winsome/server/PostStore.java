@@ -0,0 +1,602 @@
+package winsome.server;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Objects;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Predicate;
+import java.util.logging.Logger;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonParser;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonWriter;
+
+import winsome.server.datastructs.OriginalPost;
+import winsome.server.datastructs.Post;
+import winsome.server.datastructs.Rewin;
+import winsome.server.exceptions.InvalidJSONFileException;
+import winsome.server.exceptions.InvalidSnapshotException;
+
+/**
+ * The posts of the Social Network, keeping in memory only a bounded number of original posts.
+ * <p>
+ * The author, rewinner and original post of every post are always in memory,
+ * so that feeds and blogs are computed without reading the posts;
+ * rewins are rebuilt around their original post when they are looked up.
+ * Original posts are cached in memory: when there are too many of them, the least recently used ones
+ * are written into on-disk segments, each holding the posts in a range of {@value #SEGMENT_SIZE} IDs,
+ * and evicted; a lookup of an evicted post loads back its whole segment.
+ * <p>
+ * Segments are only a spill area: they are deleted when the store is created,
+ * since the persisted state of the posts is in the snapshots and in the mutation log.
+ * <p>
+ * A post changed in memory is marked (through {@link #markModified(int)}) and is never evicted
+ * before the following {@link #flush()} writes it into its segment.
+ * Evicting posts while they are being changed is avoided by the caller,
+ * that calls {@link #trim()} only when no post can be changed.
+ * While the persisted data is being loaded, posts are instead spilled to the segments as soon as there are too many.
+ */
+public class PostStore {
+    /** The data of a post always kept in memory */
+    private static class PostInfo {
+        /** The author of the original post */
+        final String author;
+        /** The rewinner, or null if the post is original */
+        final String rewinner;
+        /** The ID of the original post */
+        final int originalID;
+        /** Creation time of the original post, in epoch milliseconds */
+        final long created;
+
+        PostInfo(String author, String rewinner, int originalID, long created){
+            this.author = author;
+            this.rewinner = rewinner;
+            this.originalID = originalID;
+            this.created = created;
+        }
+
+        /**
+         * Returns the user owning the post, i.e. the rewinner of a rewin or the author of an original post.
+         * @return the owner of the post
+         */
+        String owner(){ return (rewinner != null) ? rewinner : author; }
+    }
+
+    /** An original post cached in memory */
+    private static class Cached {
+        /** The post */
+        final OriginalPost post;
+        /** Time of the last lookup of the post, in nanoseconds */
+        volatile long lastUse = System.nanoTime();
+
+        Cached(OriginalPost post){ this.post = post; }
+    }
+
+    /** Number of consecutive IDs stored in the same segment */
+    public static final int SEGMENT_SIZE = 256;
+    /** Prefix of the names of the segment files */
+    private static final String SEGMENT_PREFIX = "segment-";
+    /** Extension of the segment files */
+    private static final String SEGMENT_SUFFIX = ".json";
+    /** Number of locks guarding the segments */
+    private static final int SEGMENT_LOCKS = 64;
+
+    /** Directory containing the segments */
+    private final File dir;
+    /** Maximum number of original posts kept in memory after a {@link #trim()} */
+    private final int capacity;
+    /** Checks whether a post must be kept in memory (e.g. because it is being rewarded) */
+    private final Predicate<OriginalPost> pinned;
+    /** The logger of the server */
+    private final Logger logger = Logger.getLogger("Winsome-Server");
+    /** Serializer of the segment entries */
+    private final Gson gson = new Gson();
+
+    /** Data of every post, by ID */
+    private final ConcurrentHashMap<Integer, PostInfo> index = new ConcurrentHashMap<>();
+    /** IDs of the rewins of each original post */
+    private final ConcurrentHashMap<Integer, Set<Integer>> rewins = new ConcurrentHashMap<>();
+    /** Original posts in memory, by ID */
+    private final ConcurrentHashMap<Integer, Cached> cache = new ConcurrentHashMap<>();
+    /** IDs of the original posts changed or deleted since they were last written into their segment */
+    private volatile Set<Integer> modified = ConcurrentHashMap.newKeySet();
+    /** Locks guarding the segments: a segment is read, written and evicted holding its lock */
+    private final Object[] segmentLocks = new Object[SEGMENT_LOCKS];
+    /** Serializes the spilling of posts while loading */
+    private final ReentrantLock spillLock = new ReentrantLock();
+
+    /** Whether the persisted data is being loaded */
+    private volatile boolean loading = true;
+    /** IDs of the posts loaded with votes or comments not yet rewarded, kept in memory until the loading ends */
+    private final Set<Integer> pending = ConcurrentHashMap.newKeySet();
+
+    /**
+     * Creates a new empty store, deleting the segments left in the given directory.
+     * <p>
+     * The store starts in the loading state: it ends with {@link #finishLoading()}.
+     * @param dir the directory containing the segments, created if it does not exist
+     * @param capacity the maximum number of original posts kept in memory
+     * @param pinned checks whether a post must be kept in memory
+     * @throws IOException if the directory cannot be created or cleared
+     */
+    public PostStore(File dir, int capacity, Predicate<OriginalPost> pinned) throws IOException {
+        this.dir = Objects.requireNonNull(dir, "null directory");
+        this.pinned = Objects.requireNonNull(pinned, "null predicate");
+        if(capacity <= 0) throw new IllegalArgumentException("capacity must be positive");
+        this.capacity = capacity;
+        for(int i = 0; i < SEGMENT_LOCKS; i++) segmentLocks[i] = new Object();
+
+        if(!dir.isDirectory() && !dir.mkdirs()) throw new IOException("could not create directory " + dir.getPath());
+        File[] files = dir.listFiles();
+        if(files == null) throw new IOException("could not list directory " + dir.getPath());
+        for(File file : files)
+            if(!file.delete()) throw new IOException("could not delete stale segment " + file.getName());
+    }
+
+    /**
+     * Returns the post with the given ID, loading it from its segment if it is not in memory.
+     * @param id the ID of the post
+     * @return the post, or null if no post has the given ID
+     * @throws UncheckedIOException if the segment of the post cannot be read
+     */
+    public Post get(int id){
+        PostInfo info = index.get(id);
+        if(info == null) return null;
+
+        OriginalPost original = getOriginal(info.originalID);
+        if(original == null) return null; // deleted in the meantime
+        return (info.rewinner == null) ? original : new Rewin(id, original, info.rewinner);
+    }
+
+    /**
+     * Checks whether a post exists, without loading it.
+     * @param id the ID of the post
+     * @return true if and only if a post with the given ID exists
+     */
+    public boolean contains(int id){ return index.containsKey(id); }
+
+    /**
+     * Returns the version in memory of the original post of a post looked up earlier,
+     * which might have been evicted and loaded back since then.
+     * <p>
+     * If the post has been deleted in the meantime, the original post of the given one is returned.
+     * @param post the given post
+     * @return the original post in memory
+     * @throws UncheckedIOException if the segment of the post cannot be read
+     */
+    public OriginalPost resolve(Post post){
+        OriginalPost original = (OriginalPost) Objects.requireNonNull(post, "null post").getOriginalPost();
+        OriginalPost current = getOriginal(original.getID());
+        return (current != null) ? current : original;
+    }
+
+    /**
+     * Returns the posts owned by the users satisfying a condition,
+     * i.e. the original posts written by them and the rewins made by them.
+     * @param owner the condition on the owners
+     * @return the posts owned by the given users
+     * @throws UncheckedIOException if the segment of some post cannot be read
+     */
+    public List<Post> getOwnedBy(Predicate<String> owner){
+        List<Post> owned = new ArrayList<>();
+        for(Entry<Integer, PostInfo> entry : index.entrySet()){
+            if(!owner.test(entry.getValue().owner())) continue;
+
+            Post post = get(entry.getKey());
+            if(post != null) owned.add(post);
+        }
+        return owned;
+    }
+
+    /**
+     * Returns the IDs of the rewins of a post.
+     * @param id the ID of the original post
+     * @return the IDs of its rewins
+     */
+    public List<Integer> rewinsOf(int id){
+        Set<Integer> ids = rewins.get(id);
+        return (ids == null) ? Collections.emptyList() : new ArrayList<>(ids);
+    }
+
+    /**
+     * Returns the IDs of the original posts created before the given time, without loading them.
+     * @param cutoff the given time, in epoch milliseconds
+     * @return the IDs of the original posts created before the given time
+     */
+    public List<Integer> originalsOlderThan(long cutoff){
+        List<Integer> old = new ArrayList<>();
+        for(Entry<Integer, PostInfo> entry : index.entrySet()){
+            PostInfo info = entry.getValue();
+            if(info.rewinner == null && info.created < cutoff) old.add(entry.getKey());
+        }
+        return old;
+    }
+
+    /**
+     * Returns the ID following the highest ID of the stored posts.
+     * @return the ID following the stored ones, or 0 if there are no posts
+     */
+    public int nextID(){
+        return index.keySet().stream().mapToInt(id -> id + 1).max().orElse(0);
+    }
+
+    /**
+     * Adds a post, replacing the one with the same ID.
+     * <p>
+     * A rewin is stored only if its original post exists.
+     * @param post the post
+     * @throws UncheckedIOException if posts are being loaded and they cannot be spilled to the segments
+     */
+    public void put(Post post){
+        Objects.requireNonNull(post, "null post");
+        if(post.isRewin()){
+            putRewin(post.getID(), post.getOriginalID(), post.getRewinner());
+            return;
+        }
+
+        OriginalPost original = (OriginalPost) post;
+        int id = original.getID();
+        index.put(id, new PostInfo(original.getAuthor(), null, id, original.timestamp.toEpochMilli()));
+        if(loading && original.hasPendingRewards()) pending.add(id);
+        markModified(id); // before caching it, so that it is not evicted before being written
+        cache.put(id, new Cached(original));
+
+        if(loading && cache.size() > capacity) spill();
+    }
+
+    /**
+     * Adds a rewin, if its original post exists.
+     * @param id the ID of the rewin
+     * @param originalID the ID of the original post
+     * @param rewinner the username of the rewinner
+     * @return true if and only if the original post exists and the rewin has been added
+     */
+    public boolean putRewin(int id, int originalID, String rewinner){
+        Objects.requireNonNull(rewinner, "null rewinner");
+        PostInfo original = index.get(originalID);
+        if(original == null || original.rewinner != null) return false;
+
+        index.put(id, new PostInfo(original.author, rewinner, originalID, original.created));
+        rewins.computeIfAbsent(originalID, key -> ConcurrentHashMap.newKeySet()).add(id);
+        return true;
+    }
+
+    /**
+     * Removes a post; the rewins of an original post must be removed by the caller.
+     * @param id the ID of the post
+     * @return true if and only if the post existed
+     */
+    public boolean remove(int id){
+        PostInfo info = index.remove(id);
+        if(info == null) return false;
+
+        if(info.rewinner == null){
+            cache.remove(id);
+            markModified(id); // removing it from its segment
+        } else {
+            rewins.computeIfPresent(info.originalID, (key, ids) -> {
+                ids.remove(id);
+                return ids.isEmpty() ? null : ids;
+            });
+        }
+        return true;
+    }
+
+    /**
+     * Removes the rewins whose original post does not exist anymore.
+     * @return the number of removed rewins
+     */
+    public int removeOrphanRewins(){
+        int removed = 0;
+        for(Integer original : new ArrayList<>(rewins.keySet())){
+            if(index.containsKey(original)) continue;
+            for(int rewin : rewinsOf(original)) if(remove(rewin)) removed++;
+        }
+        return removed;
+    }
+
+    /**
+     * Marks an original post as changed, so that it is written into its segment before being evicted.
+     * <p>
+     * It must be called after changing the post.
+     * @param id the ID of the post
+     */
+    public void markModified(int id){
+        Set<Integer> set = modified;
+        set.add(id);
+        // the set might have been swapped by a flush while adding the post
+        if(modified != set) modified.add(id);
+    }
+
+    /**
+     * Ends the loading of the persisted data: from now on posts are evicted only by {@link #trim()}.
+     * @return the IDs of the posts loaded with votes or comments not yet rewarded
+     */
+    public Set<Integer> finishLoading(){
+        loading = false;
+        Set<Integer> loaded = Set.copyOf(pending);
+        pending.clear();
+        return loaded;
+    }
+
+    /**
+     * Checks whether there are more original posts in memory than the capacity of this store.
+     * @return true if and only if some posts should be evicted
+     */
+    public boolean isFull(){ return cache.size() > capacity; }
+
+    /**
+     * Writes the original posts changed since the previous flush into their segments.
+     * <p>
+     * It can run concurrently with lookups and changes of the posts, but not with {@link #trim()}.
+     * @throws IOException if some IO error occurs (the posts are written by the next flush)
+     */
+    public void flush() throws IOException {
+        Set<Integer> toWrite = modified;
+        modified = ConcurrentHashMap.newKeySet();
+        if(toWrite.isEmpty()) return;
+
+        Map<Integer, List<Integer>> segments = new TreeMap<>();
+        for(int id : toWrite) segments.computeIfAbsent(segmentOf(id), key -> new ArrayList<>()).add(id);
+
+        try {
+            for(Entry<Integer, List<Integer>> entry : segments.entrySet()){
+                int segment = entry.getKey();
+                synchronized(lockOf(segment)){
+                    Map<Integer, JsonObject> posts = readSegment(segment);
+                    int clock = OriginalPost.getRewardsIteration();
+                    for(int id : entry.getValue()){
+                        PostInfo info = index.get(id);
+                        Cached cached = cache.get(id);
+
+                        if(info == null) posts.remove(id);
+                        else if(info.rewinner != null) continue; // rewins are never written
+                        else if(cached == null) markModified(id); // still being added
+                        else posts.put(id, encode(cached.post, clock));
+                    }
+                    writeSegment(segment, posts);
+                }
+            }
+        } catch (IOException ex){
+            for(int id : toWrite) markModified(id);
+            throw ex;
+        }
+        logger.fine("Written " + toWrite.size() + " posts into " + segments.size() + " segments.");
+    }
+
+    /**
+     * Evicts the least recently used original posts already written into their segments,
+     * until there are no more posts in memory than the capacity of this store.
+     * <p>
+     * Changed posts not yet flushed and pinned posts are never evicted;
+     * it must be called while no post can be changed.
+     * @return the number of evicted posts
+     */
+    public int trim(){ return trim(capacity); }
+
+    /**
+     * Evicts the least recently used original posts already written into their segments,
+     * until there are no more than the given number of posts in memory.
+     * @param target the number of posts to keep in memory
+     * @return the number of evicted posts
+     */
+    private int trim(int target){
+        int excess = cache.size() - target;
+        if(excess <= 0) return 0;
+
+        List<Cached> candidates = new ArrayList<>();
+        for(Cached cached : cache.values()){
+            int id = cached.post.getID();
+            if(modified.contains(id) || pending.contains(id) || pinned.test(cached.post)) continue;
+            candidates.add(cached);
+        }
+        candidates.sort(Comparator.comparingLong(cached -> cached.lastUse));
+
+        int evicted = 0;
+        for(Cached cached : candidates){
+            if(evicted == excess) break;
+
+            int id = cached.post.getID();
+            synchronized(lockOf(segmentOf(id))){ // not while the segment is being loaded
+                if(!modified.contains(id) && cache.remove(id, cached)) evicted++;
+            }
+        }
+        logger.fine("Evicted " + evicted + " posts from memory.");
+        return evicted;
+    }
+
+    /** 
+     * Writes the changed posts into their segments and evicts the least recently used ones while loading.
+     * <p>
+     * Half of the capacity is freed at once, so that each segment is written once for many posts.
+     */
+    private void spill(){
+        if(!spillLock.tryLock()) return; // another thread is already spilling
+        try {
+            flush();
+            trim(capacity / 2);
+        } catch (IOException ex){ throw new UncheckedIOException(ex); }
+        finally { spillLock.unlock(); }
+    }
+
+    /**
+     * Returns an original post, loading its segment if it is not in memory.
+     * @param id the ID of the post
+     * @return the post, or null if it does not exist
+     * @throws UncheckedIOException if the segment cannot be read
+     */
+    private OriginalPost getOriginal(int id){
+        Cached cached = cache.get(id);
+        if(cached != null){
+            cached.lastUse = System.nanoTime();
+            return cached.post;
+        }
+        if(!index.containsKey(id)) return null;
+
+        try { return load(id); }
+        catch (IOException ex){ throw new UncheckedIOException(ex); }
+    }
+
+    /**
+     * Loads into memory the segment containing a post.
+     * <p>
+     * Posts already in memory are not replaced, as they might be newer than their segment.
+     * @param id the ID of the post
+     * @return the post, or null if it does not exist
+     * @throws IOException if some IO error occurs or the segment is not valid
+     */
+    private OriginalPost load(int id) throws IOException {
+        int segment = segmentOf(id);
+        synchronized(lockOf(segment)){
+            Cached cached = cache.get(id);
+            if(cached != null) return cached.post;
+
+            OriginalPost found = null; int loaded = 0;
+            int clock = OriginalPost.getRewardsIteration();
+            for(JsonObject json : readSegment(segment).values()){
+                OriginalPost post = decode(json, clock);
+                if(!index.containsKey(post.getID())) continue; // deleted
+
+                // rewinners are not serialized
+                for(int rewin : rewinsOf(post.getID())){
+                    PostInfo info = index.get(rewin);
+                    if(info != null) post.addRewinner(info.rewinner);
+                }
+
+                Cached loadedPost = new Cached(post);
+                cached = cache.putIfAbsent(post.getID(), loadedPost);
+                if(cached == null){ cached = loadedPost; loaded++; }
+                if(post.getID() == id) found = cached.post;
+            }
+            logger.fine("Loaded " + loaded + " posts from segment " + segment + ".");
+            return found;
+        }
+    }
+
+    /**
+     * Serializes a post into a segment entry, together with the current iteration of the Rewards Algorithm.
+     * @param post the post
+     * @param clock the current iteration of the Rewards Algorithm
+     * @return the segment entry
+     * @throws IOException if some IO error occurs while serializing
+     */
+    private static JsonObject encode(OriginalPost post, int clock) throws IOException {
+        StringWriter out = new StringWriter();
+        synchronized(post){ post.toJson(new JsonWriter(out)); } // synchronized with votes and comments
+
+        JsonObject entry = new JsonObject();
+        entry.addProperty("clock", clock);
+        entry.add("post", JsonParser.parseString(out.toString()));
+        return entry;
+    }
+
+    /**
+     * Deserializes a segment entry: the post counts the iterations of the Rewards Algorithm run since it was written.
+     * @param entry the segment entry
+     * @param clock the current iteration of the Rewards Algorithm
+     * @return the post
+     * @throws IOException if the entry is not valid
+     */
+    private static OriginalPost decode(JsonObject entry, int clock) throws IOException {
+        try {
+            JsonObject json = entry.get("post").getAsJsonObject();
+            int aged = json.get("iterations").getAsInt() + clock - entry.get("clock").getAsInt();
+            json.addProperty("iterations", aged);
+            return OriginalPost.fromJson(new JsonReader(new StringReader(json.toString())));
+        } catch (InvalidJSONFileException | ClassCastException | IllegalStateException | NullPointerException ex){
+            throw new InvalidSnapshotException("invalid post segment entry", ex);
+        }
+    }
+
+    /**
+     * Reads the entries of a segment.
+     * @param segment the number of the segment
+     * @return the entries of the segment by post ID, or an empty map if the segment does not exist
+     * @throws IOException if some IO error occurs or the segment is not valid
+     */
+    private Map<Integer, JsonObject> readSegment(int segment) throws IOException {
+        Map<Integer, JsonObject> posts = new LinkedHashMap<>();
+        File file = segmentFile(segment);
+        if(!file.exists()) return posts;
+
+        try (
+            JsonReader reader = new JsonReader(new BufferedReader(new FileReader(file)));
+        ){
+            for(JsonElement elem : JsonParser.parseReader(reader).getAsJsonArray()){
+                JsonObject entry = elem.getAsJsonObject();
+                posts.put(entry.get("post").getAsJsonObject().get("id").getAsInt(), entry);
+            }
+        } catch (JsonParseException | ClassCastException | IllegalStateException | NullPointerException ex){
+            throw new InvalidSnapshotException("invalid post segment " + file.getName(), ex);
+        }
+        return posts;
+    }
+
+    /**
+     * Replaces a segment, writing a temporary file and renaming it; an empty segment is deleted.
+     * @param segment the number of the segment
+     * @param posts the entries of the segment
+     * @throws IOException if some IO error occurs
+     */
+    private void writeSegment(int segment, Map<Integer, JsonObject> posts) throws IOException {
+        File file = segmentFile(segment);
+        if(posts.isEmpty()){
+            Files.deleteIfExists(file.toPath());
+            return;
+        }
+
+        File tmp = new File(dir, file.getName() + ".tmp");
+        try (
+            JsonWriter writer = new JsonWriter(new BufferedWriter(new FileWriter(tmp)));
+        ){
+            writer.beginArray();
+            for(JsonObject entry : posts.values()) gson.toJson(entry, writer);
+            writer.endArray();
+        }
+        Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Returns the file of a segment.
+     * @param segment the number of the segment
+     * @return the file of the segment
+     */
+    private File segmentFile(int segment){ return new File(dir, SEGMENT_PREFIX + segment + SEGMENT_SUFFIX); }
+
+    /**
+     * Returns the lock guarding a segment.
+     * @param segment the number of the segment
+     * @return the lock of the segment
+     */
+    private Object lockOf(int segment){ return segmentLocks[Math.floorMod(segment, SEGMENT_LOCKS)]; }
+
+    /**
+     * Returns the number of the segment containing a post.
+     * @param id the ID of the post
+     * @return the number of its segment
+     */
+    private static int segmentOf(int id){ return Math.floorDiv(id, SEGMENT_SIZE); }
+}
@@ -39,6 +39,40 @@ public class ServerConfig extends AbstractConfig {
         PERSIST_DIR     ("persistence-dir"),
         /** Waiting time (in seconds) between two iterations of the Persistence Thread */
         PERSIST_INT     ("persistence-interval"),
+        /** Number of incremental snapshots after which they are folded into a new full snapshot */
+        FOLD_THRESHOLD  ("snapshot-fold-threshold"),
+        /** Format of the full snapshots */
+        SNAPSHOT_FORMAT ("snapshot-format"),
+        /** GZIP compression level of the snapshot files */
+        SNAPSHOT_COMPR  ("snapshot-compression"),
+        /** Maximum number of original posts kept in memory */
+        POST_CACHE      ("post-cache-size"),
+        /** Age (in seconds) after which posts and transactions are archived, or 0 to never archive them */
+        ARCHIVE_AGE     ("archive-age"),
+        /** Time (in seconds) after which the transactions of a user not accessed anymore are evicted from memory */
+        LEDGER_IDLE     ("ledger-idle-timeout"),
+        /** Source of the exchange rate between Wincoins and BTC */
+        BTC_SOURCE      ("btc-rate-source"),
+        /** Time (in seconds) between two refreshes of the exchange rate */
+        BTC_REFRESH     ("btc-rate-refresh"),
+        /** Time (in seconds) after which a fetched exchange rate is fetched again on demand */
+        BTC_TTL         ("btc-rate-ttl"),
+        /** Maximum time (in milliseconds) a request waits for a fresh exchange rate */
+        BTC_TIMEOUT     ("btc-rate-timeout"),
+        /** Maximum number of follower updates waiting to be delivered to a client */
+        CB_QUEUE        ("callback-queue-size"),
+        /** Number of consecutive failed callbacks after which a client is dropped */
+        CB_FAILURES     ("callback-failure-budget"),
+        /** Number of threads delivering the follower updates */
+        CB_THREADS      ("callback-threads"),
+        /** Maximum number of follower changes kept for each user to synchronize logging clients */
+        FOLLOWER_LOG    ("follower-log-size"),
+        /** Maximum number of bytes waiting to be written to a client before it is disconnected */
+        OUTBOUND_QUEUE  ("outbound-queue-size"),
+        /** When the mutation log is synced to disk */
+        WAL_SYNC        ("wal-sync"),
+        /** Time (in milliseconds) between two syncs of the mutation log with the periodic policy */
+        WAL_SYNC_INT    ("wal-sync-interval"),
         /** Keep alive time (in seconds) for non-core worker threads */
         KEEP_ALIVE      ("keep-alive"),
         /** Minimum number of worker threads active at the same time */
@@ -74,6 +108,23 @@ public class ServerConfig extends AbstractConfig {
                 case "max-threads" ->       MAX_THREADS;
                 case "pool-timeout" ->      POOL_TIMEOUT;
                 case "persistence-interval" -> PERSIST_INT;
+                case "snapshot-fold-threshold" -> FOLD_THRESHOLD;
+                case "snapshot-format" ->   SNAPSHOT_FORMAT;
+                case "snapshot-compression" -> SNAPSHOT_COMPR;
+                case "post-cache-size" ->   POST_CACHE;
+                case "archive-age" ->       ARCHIVE_AGE;
+                case "ledger-idle-timeout" -> LEDGER_IDLE;
+                case "btc-rate-source" ->   BTC_SOURCE;
+                case "btc-rate-refresh" ->  BTC_REFRESH;
+                case "btc-rate-ttl" ->      BTC_TTL;
+                case "btc-rate-timeout" ->  BTC_TIMEOUT;
+                case "callback-queue-size" -> CB_QUEUE;
+                case "callback-failure-budget" -> CB_FAILURES;
+                case "callback-threads" ->  CB_THREADS;
+                case "follower-log-size" -> FOLLOWER_LOG;
+                case "outbound-queue-size" -> OUTBOUND_QUEUE;
+                case "wal-sync" ->          WAL_SYNC;
+                case "wal-sync-interval" -> WAL_SYNC_INT;
                 default -> throw new UnknownKeyException(key);
             };
         }
@@ -101,6 +152,40 @@ public class ServerConfig extends AbstractConfig {
     public final String persistenceDir;
     /** Waiting time (in seconds) between two iterations of the Persistence Thread */
     public final long persistenceInterval;
+    /** Number of incremental snapshots after which they are folded into a new full snapshot */
+    public final int foldThreshold;
+    /** Format of the full snapshots */
+    public final SnapshotCodec.Format snapshotFormat;
+    /** GZIP compression level of the snapshot files (0 if they are not compressed) */
+    public final int snapshotCompression;
+    /** Maximum number of original posts kept in memory (the others are stored in on-disk segments) */
+    public final int postCacheSize;
+    /** Age (in seconds) after which posts and transactions are moved to the read-only archive (0 if they are never archived) */
+    public final long archiveAge;
+    /** Time (in seconds) after which the transactions of a user not accessed anymore are evicted from memory */
+    public final long ledgerIdleTimeout;
+    /** Source of the exchange rate between Wincoins and BTC */
+    public final ExchangeRateProvider.Source btcRateSource;
+    /** Time (in seconds) between two refreshes of the exchange rate */
+    public final long btcRateRefresh;
+    /** Time (in seconds) after which a fetched exchange rate is fetched again on demand */
+    public final long btcRateTTL;
+    /** Maximum time (in milliseconds) a request waits for a fresh exchange rate before using the last known one */
+    public final long btcRateTimeout;
+    /** Maximum number of follower updates waiting to be delivered to a client */
+    public final int callbackQueueSize;
+    /** Number of consecutive failed callbacks after which a client is dropped */
+    public final int callbackFailureBudget;
+    /** Number of threads delivering the follower updates */
+    public final int callbackThreads;
+    /** Maximum number of follower changes kept for each user to synchronize logging clients */
+    public final int followerLogSize;
+    /** Maximum number of bytes waiting to be written to a client before it is disconnected */
+    public final int outboundQueueSize;
+    /** When the mutation log is synced to disk */
+    public final MutationLog.SyncPolicy walSync;
+    /** Time (in milliseconds) between two syncs of the mutation log with the periodic policy */
+    public final long walSyncInterval;
 
     /** Keep alive time (in seconds) for non-core worker threads */
     public final long keepAlive;
@@ -115,8 +200,11 @@ public class ServerConfig extends AbstractConfig {
         int portTCP, int portUDP, String multicastAddr,
         int multicastPort, String regName, int regPort,
         long rewardInterval, RewardsPercentage percentage,
-        String persistenceDir, long persistenceInterval,
-        long keepAlive, int minThreads, int maxThreads, long poolTimeout
+        String persistenceDir, long persistenceInterval, int foldThreshold, SnapshotCodec.Format snapshotFormat,
+        int snapshotCompression, int postCacheSize, long archiveAge, long ledgerIdleTimeout,
+        ExchangeRateProvider.Source btcRateSource, long btcRateRefresh, long btcRateTTL, long btcRateTimeout,
+        int callbackQueueSize, int callbackFailureBudget, int callbackThreads, int followerLogSize, int outboundQueueSize,
+        MutationLog.SyncPolicy walSync, long walSyncInterval, long keepAlive, int minThreads, int maxThreads, long poolTimeout
     ) {
         this.portTCP = portTCP;
         this.portUDP = portUDP;
@@ -128,6 +216,23 @@ public class ServerConfig extends AbstractConfig {
         this.percentage = Objects.requireNonNull(percentage, "percentage field is null");
         this.persistenceDir = Objects.requireNonNull(persistenceDir, "persistence directory field is null");
         this.persistenceInterval = persistenceInterval;
+        this.foldThreshold = foldThreshold;
+        this.snapshotFormat = Objects.requireNonNull(snapshotFormat, "snapshot format field is null");
+        this.snapshotCompression = snapshotCompression;
+        this.postCacheSize = postCacheSize;
+        this.archiveAge = archiveAge;
+        this.ledgerIdleTimeout = ledgerIdleTimeout;
+        this.btcRateSource = Objects.requireNonNull(btcRateSource, "btc rate source field is null");
+        this.btcRateRefresh = btcRateRefresh;
+        this.btcRateTTL = btcRateTTL;
+        this.btcRateTimeout = btcRateTimeout;
+        this.callbackQueueSize = callbackQueueSize;
+        this.callbackFailureBudget = callbackFailureBudget;
+        this.callbackThreads = callbackThreads;
+        this.followerLogSize = followerLogSize;
+        this.outboundQueueSize = outboundQueueSize;
+        this.walSync = Objects.requireNonNull(walSync, "wal sync field is null");
+        this.walSyncInterval = walSyncInterval;
         this.keepAlive = keepAlive;
         this.minThreads = minThreads;
         this.maxThreads = maxThreads;
@@ -152,6 +257,13 @@ public class ServerConfig extends AbstractConfig {
         Long rewardInterval = null; 
         RewardsPercentage percentage = null;
         String persistenceDir = null; Long persistenceInterval = null;
+        Integer foldThreshold = null; SnapshotCodec.Format snapshotFormat = null; Integer snapshotCompression = null;
+        Integer postCacheSize = null; Long archiveAge = null; Long ledgerIdleTimeout = null;
+        ExchangeRateProvider.Source btcRateSource = null; Long btcRateRefresh = null; Long btcRateTTL = null; Long btcRateTimeout = null;
+        Integer callbackQueueSize = null; Integer callbackFailureBudget = null; Integer callbackThreads = null;
+        Integer followerLogSize = null;
+        Integer outboundQueueSize = null;
+        MutationLog.SyncPolicy walSync = null; Long walSyncInterval = null;
         Long keepAlive = null; Long poolTimeout = null;
         Integer minThreads = null; Integer maxThreads = null;
 
@@ -218,6 +330,106 @@ public class ServerConfig extends AbstractConfig {
                         try { persistenceInterval = Long.parseLong(entry.value); }
                         catch(NumberFormatException ex){ throw new EntryValueFormatException("argument of \"" + key.key + "\" must be an integer"); }
                     }
+                    case FOLD_THRESHOLD -> {
+                        if(foldThreshold != null) throw new DuplicateKeyException(key.key);
+                        try { foldThreshold = Integer.parseInt(entry.value); }
+                        catch(NumberFormatException ex){ throw new EntryValueFormatException("argument of \"" + key.key + "\" must be an integer"); }
+                        if(foldThreshold <= 0) throw new EntryValueFormatException("argument of \"" + key.key + "\" must be positive");
+                    }
+                    case SNAPSHOT_FORMAT -> {
+                        if(snapshotFormat != null) throw new DuplicateKeyException(key.key);
+                        try { snapshotFormat = SnapshotCodec.Format.fromString(entry.value); }
+                        catch(IllegalArgumentException ex){ throw new EntryValueFormatException("argument of \"" + key.key + "\" must be either 'json' or 'binary'"); }
+                    }
+                    case SNAPSHOT_COMPR -> {
+                        if(snapshotCompression != null) throw new DuplicateKeyException(key.key);
+                        try { snapshotCompression = Integer.parseInt(entry.value); }
+                        catch(NumberFormatException ex){ throw new EntryValueFormatException("argument of \"" + key.key + "\" must be an integer"); }
+                        if(snapshotCompression < 0 || snapshotCompression > 9) 
+                            throw new EntryValueFormatException("argument of \"" + key.key + "\" must be between 0 and 9");
+                    }
+                    case POST_CACHE -> {
+                        if(postCacheSize != null) throw new DuplicateKeyException(key.key);
+                        try { postCacheSize = Integer.parseInt(entry.value); }
+                        catch(NumberFormatException ex){ throw new EntryValueFormatException("argument of \"" + key.key + "\" must be an integer"); }
+                        if(postCacheSize <= 0) throw new EntryValueFormatException("argument of \"" + key.key + "\" must be positive");
+                    }
+                    case ARCHIVE_AGE -> {
+                        if(archiveAge != null) throw new DuplicateKeyException(key.key);
+                        try { archiveAge = Long.parseLong(entry.value); }
+                        catch(NumberFormatException ex){ throw new EntryValueFormatException("argument of \"" + key.key + "\" must be an integer"); }
+                        if(archiveAge < 0) throw new EntryValueFormatException("argument of \"" + key.key + "\" must not be negative");
+                    }
+                    case LEDGER_IDLE -> {
+                        if(ledgerIdleTimeout != null) throw new DuplicateKeyException(key.key);
+                        try { ledgerIdleTimeout = Long.parseLong(entry.value); }
+                        catch(NumberFormatException ex){ throw new EntryValueFormatException("argument of \"" + key.key + "\" must be an integer"); }
+                        if(ledgerIdleTimeout <= 0) throw new EntryValueFormatException("argument of \"" + key.key + "\" must be positive");
+                    }
+                    case BTC_SOURCE -> {
+                        if(btcRateSource != null) throw new DuplicateKeyException(key.key);
+                        try { btcRateSource = ExchangeRateProvider.sourceFromString(entry.value); }
+                        catch(IllegalArgumentException ex){ throw new EntryValueFormatException("argument of \"" + key.key + "\" must be one of 'remote', 'file <path>' or 'fixed <rate>'"); }
+                    }
+                    case BTC_REFRESH -> {
+                        if(btcRateRefresh != null) throw new DuplicateKeyException(key.key);
+                        try { btcRateRefresh = Long.parseLong(entry.value); }
+                        catch(NumberFormatException ex){ throw new EntryValueFormatException("argument of \"" + key.key + "\" must be an integer"); }
+                        if(btcRateRefresh <= 0) throw new EntryValueFormatException("argument of \"" + key.key + "\" must be positive");
+                    }
+                    case BTC_TTL -> {
+                        if(btcRateTTL != null) throw new DuplicateKeyException(key.key);
+                        try { btcRateTTL = Long.parseLong(entry.value); }
+                        catch(NumberFormatException ex){ throw new EntryValueFormatException("argument of \"" + key.key + "\" must be an integer"); }
+                        if(btcRateTTL <= 0) throw new EntryValueFormatException("argument of \"" + key.key + "\" must be positive");
+                    }
+                    case BTC_TIMEOUT -> {
+                        if(btcRateTimeout != null) throw new DuplicateKeyException(key.key);
+                        try { btcRateTimeout = Long.parseLong(entry.value); }
+                        catch(NumberFormatException ex){ throw new EntryValueFormatException("argument of \"" + key.key + "\" must be an integer"); }
+                        if(btcRateTimeout < 0) throw new EntryValueFormatException("argument of \"" + key.key + "\" must not be negative");
+                    }
+                    case CB_QUEUE -> {
+                        if(callbackQueueSize != null) throw new DuplicateKeyException(key.key);
+                        try { callbackQueueSize = Integer.parseInt(entry.value); }
+                        catch(NumberFormatException ex){ throw new EntryValueFormatException("argument of \"" + key.key + "\" must be an integer"); }
+                        if(callbackQueueSize <= 0) throw new EntryValueFormatException("argument of \"" + key.key + "\" must be positive");
+                    }
+                    case CB_FAILURES -> {
+                        if(callbackFailureBudget != null) throw new DuplicateKeyException(key.key);
+                        try { callbackFailureBudget = Integer.parseInt(entry.value); }
+                        catch(NumberFormatException ex){ throw new EntryValueFormatException("argument of \"" + key.key + "\" must be an integer"); }
+                        if(callbackFailureBudget <= 0) throw new EntryValueFormatException("argument of \"" + key.key + "\" must be positive");
+                    }
+                    case CB_THREADS -> {
+                        if(callbackThreads != null) throw new DuplicateKeyException(key.key);
+                        try { callbackThreads = Integer.parseInt(entry.value); }
+                        catch(NumberFormatException ex){ throw new EntryValueFormatException("argument of \"" + key.key + "\" must be an integer"); }
+                        if(callbackThreads <= 0) throw new EntryValueFormatException("argument of \"" + key.key + "\" must be positive");
+                    }
+                    case FOLLOWER_LOG -> {
+                        if(followerLogSize != null) throw new DuplicateKeyException(key.key);
+                        try { followerLogSize = Integer.parseInt(entry.value); }
+                        catch(NumberFormatException ex){ throw new EntryValueFormatException("argument of \"" + key.key + "\" must be an integer"); }
+                        if(followerLogSize <= 0) throw new EntryValueFormatException("argument of \"" + key.key + "\" must be positive");
+                    }
+                    case OUTBOUND_QUEUE -> {
+                        if(outboundQueueSize != null) throw new DuplicateKeyException(key.key);
+                        try { outboundQueueSize = Integer.parseInt(entry.value); }
+                        catch(NumberFormatException ex){ throw new EntryValueFormatException("argument of \"" + key.key + "\" must be an integer"); }
+                        if(outboundQueueSize <= 0) throw new EntryValueFormatException("argument of \"" + key.key + "\" must be positive");
+                    }
+                    case WAL_SYNC -> {
+                        if(walSync != null) throw new DuplicateKeyException(key.key);
+                        try { walSync = MutationLog.SyncPolicy.fromString(entry.value); }
+                        catch(IllegalArgumentException ex){ throw new EntryValueFormatException("argument of \"" + key.key + "\" must be one of 'always', 'periodic' or 'none'"); }
+                    }
+                    case WAL_SYNC_INT -> {
+                        if(walSyncInterval != null) throw new DuplicateKeyException(key.key);
+                        try { walSyncInterval = Long.parseLong(entry.value); }
+                        catch(NumberFormatException ex){ throw new EntryValueFormatException("argument of \"" + key.key + "\" must be an integer"); }
+                        if(walSyncInterval <= 0) throw new EntryValueFormatException("argument of \"" + key.key + "\" must be positive");
+                    }
                     case KEEP_ALIVE -> {
                         if(keepAlive != null) throw new DuplicateKeyException(key.key);
                         try { keepAlive = Long.parseLong(entry.value); }
@@ -246,7 +458,10 @@ public class ServerConfig extends AbstractConfig {
         try { return new ServerConfig(
                     portTCP, portUDP, multicastAddr, multicastPort, 
                     regName, regPort, rewardInterval, percentage, 
-                    persistenceDir, persistenceInterval, keepAlive,
+                    persistenceDir, persistenceInterval, foldThreshold, snapshotFormat,
+                    snapshotCompression, postCacheSize, archiveAge, ledgerIdleTimeout,
+                    btcRateSource, btcRateRefresh, btcRateTTL, btcRateTimeout,
+                    callbackQueueSize, callbackFailureBudget, callbackThreads, followerLogSize, outboundQueueSize, walSync, walSyncInterval, keepAlive,
                     minThreads, maxThreads, poolTimeout);
         } catch (NullPointerException ex){ throw new KeyNotSetException(); }
     }
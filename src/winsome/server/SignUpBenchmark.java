@@ -0,0 +1,98 @@
+package winsome.server;
+
+import java.io.FileNotFoundException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import winsome.utils.cryptography.Hash;
+
+/**
+ * Measures the throughput of concurrent sign ups with an increasing number of threads.
+ * <p>
+ * Usage: {@code SignUpBenchmark <config file> [sign ups per thread] [max threads]}.
+ * <p>
+ * The server is initialized from the given config file, but it is not started:
+ * the sign ups are performed by calling the remote method directly.
+ * The config file should point to a scratch persistence directory, since the new users are persisted;
+ * with "wal-sync: none" the measure is not bounded by the syncs of the mutation log.
+ */
+public class SignUpBenchmark {
+    /** Default number of sign ups performed by each thread */
+    private static final int DEFAULT_PER_THREAD = 20000;
+    /** Default maximum number of threads */
+    private static final int DEFAULT_MAX_THREADS = 16;
+
+    public static void main(String[] args) throws Exception {
+        if(args.length < 1){
+            System.err.println("Usage: SignUpBenchmark <config file> [sign ups per thread] [max threads]");
+            System.exit(1);
+        }
+        int perThread = (args.length > 1) ? Integer.parseInt(args[1]) : DEFAULT_PER_THREAD;
+        int maxThreads = (args.length > 2) ? Integer.parseInt(args[2]) : DEFAULT_MAX_THREADS;
+
+        WinsomeServer server = new WinsomeServer(args[0]);
+        try { server.init(); }
+        catch (FileNotFoundException ex){ } // persisted data missing: starting with empty data
+
+        Hash password = Hash.fromPlainText("benchmark");
+        Set<String> tags = Set.of("benchmark");
+        // unique across runs on the same persistence directory
+        String prefix = "bench" + Long.toString(System.currentTimeMillis(), 36);
+
+        // warming up, without reporting the result
+        run(server, prefix + "w", maxThreads, perThread, password, tags);
+
+        System.out.printf("%8s %10s %10s %12s%n", "threads", "sign ups", "time (ms)", "sign ups/s");
+        for(int threads = 1; threads <= maxThreads; threads *= 2){
+            long elapsed = run(server, prefix + "x" + threads, threads, perThread, password, tags);
+            long total = (long) threads * perThread;
+            System.out.printf(
+                "%8d %10d %10d %12.0f%n",
+                threads, total, TimeUnit.NANOSECONDS.toMillis(elapsed), total / (elapsed / 1e9)
+            );
+        }
+        System.exit(0);
+    }
+
+    /**
+     * Signs up some users concurrently.
+     * @param server the server
+     * @param prefix the prefix of the usernames
+     * @param threads the number of threads
+     * @param perThread the number of users signed up by each thread
+     * @param password the password of the users
+     * @param tags the tags of the users
+     * @return the elapsed time, in nanoseconds
+     * @throws Exception if some sign up fails
+     */
+    private static long run(
+        WinsomeServer server, String prefix, int threads, int perThread, Hash password, Set<String> tags
+    ) throws Exception {
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<?>> results = new ArrayList<>();
+
+        for(int t = 0; t < threads; t++){
+            String userPrefix = prefix + "t" + t + "u";
+            results.add(pool.submit(() -> {
+                start.await();
+                for(int i = 0; i < perThread; i++)
+                    server.signUp(userPrefix + i, password, tags);
+                return null;
+            }));
+        }
+
+        long begin = System.nanoTime();
+        start.countDown();
+        for(Future<?> result : results) result.get();
+        long elapsed = System.nanoTime() - begin;
+        pool.shutdown();
+        return elapsed;
+    }
+}
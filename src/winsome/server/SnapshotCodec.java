@@ -0,0 +1,1368 @@
+package winsome.server;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+import java.util.zip.GZIPInputStream;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonParser;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonWriter;
+
+import winsome.server.datastructs.Comment;
+import winsome.server.datastructs.Ledger;
+import winsome.server.datastructs.LedgerFile;
+import winsome.server.datastructs.OriginalPost;
+import winsome.server.datastructs.OriginalPost.Vote;
+import winsome.server.datastructs.User;
+import winsome.server.exceptions.InvalidSnapshotException;
+import winsome.utils.cryptography.Hash;
+
+/**
+ * Reads and writes the files of a full snapshot of the Server data.
+ * <p>
+ * A full snapshot is made of five sections (users, original posts, rewins, "follows" relations and transactions),
+ * each one in its own file. In the {@link Format#JSON} format each file is a JSON array;
+ * the {@link Format#BINARY} format is a compact encoding of the same data, where
+ * <ul>
+ *  <li> every file starts with a header made of a magic number, the format version and the section number; </li>
+ *  <li> the header is followed by a sequence of records, each one prefixed by its length in bytes; </li>
+ *  <li> usernames are stored once in a string table (the file {@value #STRINGS_FILE}, one record per string)
+ *      and referred to by their index in the table; </li>
+ *  <li> other strings are encoded in UTF-8, prefixed by their length in bytes; </li>
+ *  <li> every section has an offset index (with the same header), containing the number of records, 
+ *      the number of chunks and the offset of the first record of each chunk, 
+ *      a chunk being a run of records of about {@value #CHUNK_BYTES} bytes. </li>
+ * </ul>
+ * Binary files are memory-mapped and decoded directly into the Server data structures, without going through JSON;
+ * the chunks of a file can be decoded in parallel on a {@link ForkJoinPool}.
+ * <p>
+ * Files in the JSON format can be compressed with GZIP (adding the suffix {@value #GZIP_SUFFIX} to their name), 
+ * which is detected when they are read.
+ * <p>
+ * In both formats the snapshot has a {@link Manifest} (the file {@value #MANIFEST_FILE}), 
+ * recording the number of elements of each section, the next post ID and the size and checksum of every file.
+ * <p>
+ * The sections can also be read and written as JSON elements in both formats,
+ * which is how a snapshot is converted from one format to the other:
+ * <pre>java winsome.server.SnapshotCodec &lt;snapshot-dir&gt; json|binary [&lt;output-dir&gt;]</pre>
+ * The converted snapshot replaces the one in the output directory (by default, the snapshot directory itself) 
+ * only once it has been completely written, and the files of the other format are deleted.
+ * When both formats are in the same directory, the binary one is loaded.
+ */
+public class SnapshotCodec {
+    /** The formats of a full snapshot */
+    public static enum Format {
+        /** JSON arrays */
+        JSON,
+        /** Length-prefixed binary records, with a string table for usernames */
+        BINARY;
+
+        /**
+         * Parses a Format from its name, ignoring case.
+         * @param name the given name
+         * @return the Format with the given name
+         * @throws IllegalArgumentException if no format has the given name
+         */
+        public static Format fromString(String name){
+            return valueOf(Objects.requireNonNull(name, "null format name").toUpperCase());
+        }
+    }
+
+    /** The sections of a full snapshot */
+    public static enum Section {
+        /** Users */
+        USERS("users"),
+        /** Original posts */
+        ORIGINALS("originals"),
+        /** Rewins */
+        REWINS("rewins"),
+        /** Users followed by each user */
+        FOLLOWS("follows"),
+        /** Transactions of each user */
+        TRANSACTIONS("transactions");
+
+        /** Name of the file containing this section in the JSON format */
+        public final String jsonFile;
+        /** Name of the file containing this section in the binary format */
+        public final String binaryFile;
+        /** Name of the file containing the offset index of the binary file */
+        public final String indexFile;
+
+        private Section(String name){
+            this.jsonFile = name + ".json";
+            this.binaryFile = name + ".bin";
+            this.indexFile = name + ".idx";
+        }
+    }
+
+    /** A function receiving the elements of a section, in their JSON representation */
+    @FunctionalInterface
+    public static interface ElementHandler {
+        /**
+         * Handles an element of a section.
+         * @param elem the element
+         * @throws IOException if some IO error occurs
+         */
+        void accept(JsonElement elem) throws IOException;
+    }
+
+    /** Reads the sections of a full snapshot, as JSON elements */
+    @FunctionalInterface
+    public static interface SnapshotReader {
+        /**
+         * Passes every element of a section to the given handler, in order.
+         * @param section the section to read
+         * @param handler the handler of the elements
+         * @throws IOException if some IO error occurs or the files are not valid
+         */
+        void forEach(Section section, ElementHandler handler) throws IOException;
+    }
+
+    /** Writes the sections of a full snapshot, one after the other, from their JSON representation */
+    public static interface SnapshotWriter extends Closeable {
+        /**
+         * Starts writing a new section, ending the previous one.
+         * @param section the new section
+         * @throws IOException if some IO error occurs
+         */
+        void begin(Section section) throws IOException;
+
+        /**
+         * Writes an element of the current section.
+         * @param elem the JSON representation of the element
+         * @throws IOException if some IO error occurs or the element is not valid
+         */
+        void write(JsonElement elem) throws IOException;
+
+        /**
+         * Sets the next ID of the post ID generator recorded in the manifest of the snapshot.
+         * <p>
+         * The recorded value is never lower than the ID following the ones of the written posts,
+         * so it must be set only when IDs of deleted posts must not be reused.
+         * @param nextPostID the next ID of the post ID generator
+         */
+        void setNextPostID(int nextPostID);
+    }
+
+    /** Name of the manifest of a full snapshot */
+    public static final String MANIFEST_FILE = "snapshot.json";
+    /** Name of the file containing the string table of a binary snapshot */
+    public static final String STRINGS_FILE = "strings.bin";
+    /** Suffix of the name of the compressed files */
+    public static final String GZIP_SUFFIX = ".gz";
+    /** Compression level disabling compression */
+    public static final int NO_COMPRESSION = 0;
+    /** Version of the binary format */
+    public static final int VERSION = 2;
+    /** Oldest version of the binary format that can still be read (version 1 lacks the timestamps of the posts) */
+    public static final int MIN_VERSION = 1;
+
+    /** Approximate size in bytes of the chunks of a binary file */
+    public static final int CHUNK_BYTES = 1 << 18;
+
+    /** Magic number at the beginning of every binary file ("WSNP") */
+    private static final int MAGIC = 0x57534E50;
+    /** Size in bytes of the header of a binary file */
+    private static final int HEADER_BYTES = 9;
+    /** Section number of the string table */
+    private static final byte STRINGS_SECTION = -1;
+    /** Flag of a vote: the vote is an upvote */
+    private static final byte UPVOTE = 1;
+    /** Flag of a vote: the vote has been counted by the Rewards Algorithm */
+    private static final byte VISITED = 2;
+
+    private SnapshotCodec(){ }
+
+    /**
+     * Returns the format of the full snapshot in the given directory.
+     * @param dir the directory containing the snapshot
+     * @return {@link Format#BINARY} if the directory contains a string table, {@link Format#JSON} otherwise
+     */
+    public static Format detect(File dir){
+        return new File(dir, STRINGS_FILE).exists() ? Format.BINARY : Format.JSON;
+    }
+
+    /**
+     * Opens the full snapshot in the given directory, detecting its format.
+     * <p>
+     * Missing JSON files are read as empty sections.
+     * @param dir the directory containing the snapshot
+     * @return a reader of the snapshot
+     * @throws IOException if the string table of a binary snapshot cannot be read
+     */
+    public static SnapshotReader reader(File dir) throws IOException {
+        Objects.requireNonNull(dir, "null directory");
+        if(detect(dir) == Format.BINARY) return new BinaryReader(dir);
+
+        return (section, handler) -> {
+            File file = findFile(dir, section.jsonFile);
+            if(file.exists()) forEachJson(file, handler);
+        };
+    }
+
+    /**
+     * Creates a writer of a new uncompressed full snapshot in the given directory.
+     * @param dir the directory where the snapshot will be written
+     * @param format the format of the snapshot
+     * @return the writer of the snapshot
+     * @throws IOException if some IO error occurs
+     */
+    public static SnapshotWriter writer(File dir, Format format) throws IOException {
+        return writer(dir, format, NO_COMPRESSION);
+    }
+
+    /**
+     * Creates a writer of a new full snapshot in the given directory.
+     * <p>
+     * Only the files in the JSON format are compressed: binary files are memory-mapped when loaded.
+     * @param dir the directory where the snapshot will be written
+     * @param format the format of the snapshot
+     * @param compressionLevel the GZIP compression level of the files, or {@link #NO_COMPRESSION}
+     * @return the writer of the snapshot
+     * @throws IOException if some IO error occurs
+     */
+    public static SnapshotWriter writer(File dir, Format format, int compressionLevel) throws IOException {
+        Objects.requireNonNull(dir, "null directory");
+        return switch (Objects.requireNonNull(format, "null format")) {
+            case JSON   -> new JsonSnapshotWriter(dir, compressionLevel);
+            case BINARY -> new BinaryWriter(dir);
+        };
+    }
+
+    /**
+     * Returns the file with the given name in a directory, or its compressed version if it exists.
+     * @param dir the directory
+     * @param filename the name of the uncompressed file
+     * @return the compressed file if it exists, the uncompressed one otherwise
+     */
+    public static File findFile(File dir, String filename){
+        File compressed = new File(dir, filename + GZIP_SUFFIX);
+        return compressed.exists() ? compressed : new File(dir, filename);
+    }
+
+    /**
+     * Opens a file for reading, decompressing it if its name ends with {@value #GZIP_SUFFIX}.
+     * @param file the given file
+     * @return the buffered stream of the (decompressed) contents of the file
+     * @throws FileNotFoundException if the file does not exist
+     * @throws IOException if some other IO error occurs
+     */
+    public static InputStream openInput(File file) throws FileNotFoundException, IOException {
+        InputStream in = new FileInputStream(file);
+        if(!file.getName().endsWith(GZIP_SUFFIX)) return new BufferedInputStream(in, 1 << 16);
+
+        try { return new BufferedInputStream(new GZIPInputStream(in, 1 << 16), 1 << 16); }
+        catch (IOException ex){ in.close(); throw ex; }
+    }
+
+    /**
+     * Wraps a stream into one compressing its contents in the GZIP format on a dedicated thread.
+     * @param out the given stream
+     * @param compressionLevel the compression level, or {@link #NO_COMPRESSION}
+     * @return the compressing stream, or out itself if compressionLevel is {@link #NO_COMPRESSION}
+     * @throws IOException if some IO error occurs
+     */
+    public static OutputStream compress(OutputStream out, int compressionLevel) throws IOException {
+        if(compressionLevel == NO_COMPRESSION) return out;
+        return new PipelinedGzipOutputStream(out, compressionLevel);
+    }
+
+    /**
+     * Streams the elements of a JSON array file.
+     * @param file the given file
+     * @param handler the handler of the elements
+     * @throws IOException if some IO error occurs or the file is not a valid JSON array
+     */
+    public static void forEachJson(File file, ElementHandler handler) throws IOException {
+        try (
+            JsonReader reader = new JsonReader(new InputStreamReader(openInput(file)));
+        ){
+            reader.beginArray();
+            while(reader.hasNext()) handler.accept(JsonParser.parseReader(reader));
+            reader.endArray();
+        } catch (JsonParseException | IllegalStateException ex){
+            throw new InvalidSnapshotException("invalid JSON file " + file.getName(), ex);
+        }
+    }
+
+    /**
+     * Computes the CRC-32 checksum of a file.
+     * @param file the given file
+     * @return the checksum of the file
+     * @throws IOException if some IO error occurs
+     */
+    public static long checksum(File file) throws IOException {
+        CRC32 crc = new CRC32();
+        try (
+            FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        ){
+            long size = channel.size();
+            for(long position = 0; position < size; position += Integer.MAX_VALUE)
+                crc.update(channel.map(FileChannel.MapMode.READ_ONLY, position, Math.min(Integer.MAX_VALUE, size - position)));
+        }
+        return crc.getValue();
+    }
+
+    // ---------------- Manifest ---------------- //
+
+    /**
+     * The manifest of a full snapshot, written together with its files.
+     * <p>
+     * It records the format and version of the snapshot, the number of elements of each section,
+     * the next ID of the post ID generator and the size and CRC-32 checksum of every file,
+     * so that the snapshot can be verified and the maps containing it sized before loading it.
+     */
+    public static class Manifest {
+        /** Size and checksum of a file of the snapshot */
+        private static class FileEntry {
+            /** Size of the file in bytes */
+            final long size;
+            /** CRC-32 checksum of the file */
+            final long crc;
+
+            FileEntry(long size, long crc){
+                this.size = size;
+                this.crc = crc;
+            }
+        }
+
+        /** The format of the snapshot */
+        public final Format format;
+        /** The version of the format */
+        public final int version;
+        /** The next ID of the post ID generator when the snapshot was written */
+        public final int nextPostID;
+        /** Number of elements of each section */
+        private final Map<Section, Integer> counts;
+        /** Size and checksum of each file, by name */
+        private final Map<String, FileEntry> files;
+
+        private Manifest(Format format, int version, int nextPostID, Map<Section, Integer> counts, Map<String, FileEntry> files){
+            this.format = format;
+            this.version = version;
+            this.nextPostID = nextPostID;
+            this.counts = counts;
+            this.files = files;
+        }
+
+        /**
+         * Returns the number of elements of a section.
+         * @param section the section
+         * @return the number of elements of the section
+         */
+        public int count(Section section){ return counts.getOrDefault(section, 0); }
+
+        /**
+         * Reads the manifest of the snapshot in the given directory.
+         * @param dir the directory containing the snapshot
+         * @return the manifest, or null if the snapshot has no manifest (i.e. it was written by an older version)
+         * @throws IOException if some IO error occurs or the manifest is not valid
+         */
+        public static Manifest read(File dir) throws IOException {
+            File file = new File(dir, MANIFEST_FILE);
+            if(!file.exists()) return null;
+
+            try (
+                JsonReader reader = new JsonReader(new BufferedReader(new FileReader(file)));
+            ){
+                JsonObject json = JsonParser.parseReader(reader).getAsJsonObject();
+
+                Map<Section, Integer> counts = new EnumMap<>(Section.class);
+                JsonObject countsJson = json.get("counts").getAsJsonObject();
+                for(Section section : Section.values())
+                    counts.put(section, countsJson.get(section.name().toLowerCase()).getAsInt());
+
+                Map<String, FileEntry> files = new LinkedHashMap<>();
+                for(Entry<String, JsonElement> entry : json.get("files").getAsJsonObject().entrySet()){
+                    JsonObject fileJson = entry.getValue().getAsJsonObject();
+                    files.put(entry.getKey(), new FileEntry(fileJson.get("size").getAsLong(), fileJson.get("crc32").getAsLong()));
+                }
+
+                return new Manifest(
+                    Format.fromString(json.get("format").getAsString()), json.get("version").getAsInt(),
+                    json.get("next-post-id").getAsInt(), counts, files
+                );
+            } catch (JsonParseException | ClassCastException | IllegalStateException | IllegalArgumentException | NullPointerException ex){
+                throw new InvalidSnapshotException("invalid snapshot manifest", ex);
+            }
+        }
+
+        /**
+         * Writes this manifest into the given directory.
+         * @param dir the directory containing the snapshot
+         * @throws IOException if some IO error occurs
+         */
+        private void write(File dir) throws IOException {
+            try (
+                JsonWriter writer = new JsonWriter(new BufferedWriter(new FileWriter(new File(dir, MANIFEST_FILE))));
+            ){
+                writer.setIndent("    ");
+                writer.beginObject();
+                writer.name("format").value(format.name().toLowerCase());
+                writer.name("version").value(version);
+                writer.name("next-post-id").value(nextPostID);
+
+                writer.name("counts").beginObject();
+                for(Section section : Section.values()) writer.name(section.name().toLowerCase()).value(count(section));
+                writer.endObject();
+
+                writer.name("files").beginObject();
+                for(Entry<String, FileEntry> entry : files.entrySet()){
+                    writer.name(entry.getKey()).beginObject();
+                    writer.name("size").value(entry.getValue().size);
+                    writer.name("crc32").value(entry.getValue().crc);
+                    writer.endObject();
+                }
+                writer.endObject();
+                writer.endObject();
+            }
+        }
+
+        /**
+         * Checks that the snapshot in the given directory matches this manifest, 
+         * i.e. that it has a supported version and that every file exists and has the recorded size and checksum.
+         * @param dir the directory containing the snapshot
+         * @throws InvalidSnapshotException if the snapshot does not match this manifest
+         * @throws IOException if some IO error occurs
+         */
+        public void verify(File dir) throws InvalidSnapshotException, IOException {
+            if(format == Format.BINARY && (version < MIN_VERSION || version > VERSION))
+                throw new InvalidSnapshotException("unsupported binary snapshot version " + version);
+
+            for(Entry<String, FileEntry> entry : files.entrySet()){
+                File file = new File(dir, entry.getKey());
+                if(!file.exists()) throw new InvalidSnapshotException("missing snapshot file " + entry.getKey());
+                if(file.length() != entry.getValue().size) throw new InvalidSnapshotException("snapshot file " + entry.getKey() + " is truncated");
+                if(checksum(file) != entry.getValue().crc) throw new InvalidSnapshotException("snapshot file " + entry.getKey() + " is corrupted");
+            }
+        }
+    }
+
+    /** 
+     * The common part of the writers of a snapshot: 
+     * it counts the elements of each section and checksums the files while they are written,
+     * writing the manifest of the snapshot when it is closed.
+     */
+    private static abstract class ManifestWriter implements SnapshotWriter {
+        /** The directory of the snapshot */
+        protected final File dir;
+        /** The section currently written */
+        protected Section section = null;
+        /** The format of the snapshot */
+        private final Format format;
+        /** Checksum of each created file, by name */
+        private final Map<String, CRC32> checksums = new LinkedHashMap<>();
+        /** Number of elements of each section */
+        private final Map<Section, Integer> counts = new EnumMap<>(Section.class);
+        /** The next ID of the post ID generator */
+        private int nextPostID = 0;
+        /** The GZIP compression level of the files, or {@link #NO_COMPRESSION} */
+        protected final int compressionLevel;
+
+        ManifestWriter(File dir, Format format, int compressionLevel){
+            this.dir = dir;
+            this.format = format;
+            this.compressionLevel = compressionLevel;
+        }
+
+        /**
+         * Creates a file of the snapshot, compressing its contents if required
+         * and checksumming them after compression, while they are written.
+         * @param filename the name of the uncompressed file
+         * @return the stream of the file
+         * @throws IOException if some IO error occurs
+         */
+        protected OutputStream create(String filename) throws IOException {
+            if(compressionLevel != NO_COMPRESSION) filename += GZIP_SUFFIX;
+
+            CRC32 crc = new CRC32();
+            checksums.put(filename, crc);
+            return compress(new CheckedOutputStream(new FileOutputStream(new File(dir, filename)), crc), compressionLevel);
+        }
+
+        /**
+         * Ends the current section, if any, and opens the file of the given one.
+         * @param section the new section
+         * @throws IOException if some IO error occurs
+         */
+        protected abstract void openSection(Section section) throws IOException;
+
+        /**
+         * Writes an element of the current section.
+         * @param elem the JSON representation of the element
+         * @throws IOException if some IO error occurs or the element is not valid
+         */
+        protected abstract void writeElement(JsonElement elem) throws IOException;
+
+        /**
+         * Ends the current section, if any, and closes every file.
+         * @throws IOException if some IO error occurs
+         */
+        protected abstract void closeFiles() throws IOException;
+
+        @Override
+        public void begin(Section section) throws IOException {
+            openSection(section);
+            this.section = section;
+        }
+
+        @Override
+        public void write(JsonElement elem) throws IOException {
+            if(section == null) throw new IllegalStateException("no section has been started");
+            writeElement(elem);
+            counts.merge(section, 1, Integer::sum);
+
+            if(section == Section.ORIGINALS || section == Section.REWINS){
+                try { nextPostID = Math.max(nextPostID, elem.getAsJsonObject().get("id").getAsInt() + 1); }
+                catch (ClassCastException | IllegalStateException | NullPointerException ex){
+                    throw new InvalidSnapshotException("invalid element of section " + section, ex);
+                }
+            }
+        }
+
+        @Override
+        public void setNextPostID(int nextPostID){ this.nextPostID = Math.max(this.nextPostID, nextPostID); }
+
+        @Override
+        public void close() throws IOException {
+            closeFiles();
+
+            Map<String, Manifest.FileEntry> files = new LinkedHashMap<>();
+            for(Entry<String, CRC32> entry : checksums.entrySet())
+                files.put(entry.getKey(), new Manifest.FileEntry(new File(dir, entry.getKey()).length(), entry.getValue().getValue()));
+            new Manifest(format, VERSION, nextPostID, counts, files).write(dir);
+        }
+    }
+
+    // ---------------- JSON format ---------------- //
+
+    /** Writes a snapshot as JSON arrays */
+    private static class JsonSnapshotWriter extends ManifestWriter {
+        /** Used to write elements through the JSON stream */
+        private final Gson gson = new Gson();
+        /** The stream of the current section */
+        private JsonWriter writer = null;
+
+        JsonSnapshotWriter(File dir, int compressionLevel){ super(dir, Format.JSON, compressionLevel); }
+
+        @Override
+        protected void openSection(Section section) throws IOException {
+            closeFiles();
+            writer = new JsonWriter(new BufferedWriter(new OutputStreamWriter(create(section.jsonFile))));
+            if(compressionLevel == NO_COMPRESSION) writer.setIndent("    "); // compressed files are not meant to be read
+            writer.beginArray();
+        }
+
+        @Override
+        protected void writeElement(JsonElement elem) throws IOException { gson.toJson(elem, writer); }
+
+        @Override
+        protected void closeFiles() throws IOException {
+            if(writer == null) return;
+            writer.endArray();
+            writer.close();
+            writer = null;
+        }
+    }
+
+    // ---------------- Binary format ---------------- //
+
+    /** Writes a snapshot in the binary format */
+    private static class BinaryWriter extends ManifestWriter {
+        /** Index of every username in the string table */
+        private final Map<String, Integer> stringIndex = new HashMap<>();
+        /** The stream of the string table */
+        private final DataOutputStream strings;
+        /** The stream of the current section */
+        private DataOutputStream out = null;
+        /** Number of records of the current section */
+        private int recordCount = 0;
+        /** Offsets of the chunks of the current section */
+        private final List<Integer> chunkOffsets = new ArrayList<>();
+
+        /** Buffer of the record being encoded, to know its length */
+        private final ByteArrayOutputStream recordBytes = new ByteArrayOutputStream();
+        /** Stream writing into {@link #recordBytes} */
+        private final DataOutputStream record = new DataOutputStream(recordBytes);
+
+        BinaryWriter(File dir) throws IOException {
+            super(dir, Format.BINARY, NO_COMPRESSION);
+            this.strings = open(STRINGS_FILE, STRINGS_SECTION);
+        }
+
+        /**
+         * Creates a binary file and writes its header.
+         * @param filename the name of the file
+         * @param section the section number
+         * @return the stream of the file
+         * @throws IOException if some IO error occurs
+         */
+        private DataOutputStream open(String filename, byte section) throws IOException {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(create(filename)));
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeByte(section);
+            return out;
+        }
+
+        @Override
+        protected void openSection(Section section) throws IOException {
+            endSection();
+            out = open(section.binaryFile, (byte) section.ordinal());
+        }
+
+        /**
+         * Closes the file of the current section, if any, and writes its offset index.
+         * @throws IOException if some IO error occurs
+         */
+        private void endSection() throws IOException {
+            if(out == null) return;
+            out.close();
+            out = null;
+
+            try (
+                DataOutputStream index = open(section.indexFile, (byte) section.ordinal());
+            ){
+                index.writeInt(recordCount);
+                index.writeInt(chunkOffsets.size());
+                for(int offset : chunkOffsets) index.writeInt(offset);
+            }
+            recordCount = 0;
+            chunkOffsets.clear();
+        }
+
+        @Override
+        protected void writeElement(JsonElement elem) throws IOException {
+
+            recordBytes.reset();
+            try {
+                switch (section) {
+                    case USERS -> {
+                        JsonObject user = elem.getAsJsonObject();
+                        record.writeInt(ref(user.get("username").getAsString()));
+                        writeString(record, user.get("password").getAsString());
+                        JsonArray tags = user.get("tags").getAsJsonArray();
+                        record.writeInt(tags.size());
+                        for(JsonElement tag : tags) writeString(record, tag.getAsString());
+                    }
+                    case ORIGINALS -> {
+                        JsonObject post = elem.getAsJsonObject();
+                        record.writeInt(post.get("id").getAsInt());
+                        record.writeInt(ref(post.get("author").getAsString()));
+                        writeString(record, post.get("title").getAsString());
+                        writeString(record, post.get("contents").getAsString());
+                        // posts converted from snapshots without timestamps are aged from now on
+                        record.writeLong(post.has("timestamp") ? 
+                            Instant.parse(post.get("timestamp").getAsString()).toEpochMilli() : System.currentTimeMillis());
+                        record.writeInt(post.get("iterations").getAsInt());
+
+                        JsonArray votes = post.get("votes").getAsJsonArray();
+                        record.writeInt(votes.size());
+                        for(JsonElement voteElem : votes){
+                            JsonObject vote = voteElem.getAsJsonObject();
+                            JsonObject value = vote.get("vote").getAsJsonObject();
+                            record.writeInt(ref(vote.get("voter").getAsString()));
+                            record.writeByte(
+                                (Vote.valueOf(value.get("vote").getAsString()) == Vote.UP ? UPVOTE : 0)
+                                | (value.get("visited").getAsBoolean() ? VISITED : 0)
+                            );
+                        }
+
+                        JsonArray comments = post.get("comments").getAsJsonArray();
+                        record.writeInt(comments.size());
+                        for(JsonElement commentElem : comments){
+                            JsonObject comment = commentElem.getAsJsonObject();
+                            record.writeInt(ref(comment.get("author").getAsString()));
+                            writeString(record, comment.get("contents").getAsString());
+                            record.writeBoolean(comment.get("visited").getAsBoolean());
+                        }
+                    }
+                    case REWINS -> {
+                        JsonObject rewin = elem.getAsJsonObject();
+                        record.writeInt(rewin.get("id").getAsInt());
+                        record.writeInt(rewin.get("original-id").getAsInt());
+                        record.writeInt(ref(rewin.get("rewinner").getAsString()));
+                    }
+                    case FOLLOWS -> {
+                        for(Entry<String, JsonElement> entry : elem.getAsJsonObject().entrySet()){
+                            JsonArray followed = entry.getValue().getAsJsonArray();
+                            record.writeInt(ref(entry.getKey()));
+                            record.writeInt(followed.size());
+                            for(JsonElement username : followed) record.writeInt(ref(username.getAsString()));
+                        }
+                    }
+                    case TRANSACTIONS -> {
+                        for(Entry<String, JsonElement> entry : elem.getAsJsonObject().entrySet()){
+                            JsonArray transactions = entry.getValue().getAsJsonArray();
+                            record.writeInt(ref(entry.getKey()));
+                            record.writeInt(transactions.size());
+                            for(JsonElement transElem : transactions){
+                                JsonObject transaction = transElem.getAsJsonObject();
+                                record.writeLong(Instant.parse(transaction.get("timestamp").getAsString()).toEpochMilli());
+                                record.writeDouble(transaction.get("increment").getAsDouble());
+                            }
+                        }
+                    }
+                }
+            } catch (ClassCastException | IllegalStateException | IllegalArgumentException
+                    | NullPointerException | UnsupportedOperationException | DateTimeParseException ex){
+                throw new InvalidSnapshotException("invalid element of section " + section, ex);
+            }
+
+            writeRecord(out);
+        }
+
+        /**
+         * Returns the index of a username in the string table, adding it if needed.
+         * @param str the username
+         * @return the index of the username
+         * @throws IOException if some IO error occurs while writing the string table
+         */
+        private int ref(String str) throws IOException {
+            Integer index = stringIndex.get(str);
+            if(index != null) return index;
+
+            byte[] bytes = str.getBytes(StandardCharsets.UTF_8);
+            strings.writeInt(bytes.length);
+            strings.write(bytes);
+
+            index = stringIndex.size();
+            stringIndex.put(str, index);
+            return index;
+        }
+
+        /**
+         * Writes the encoded record, prefixed by its length.
+         * @param out the stream of the section
+         * @throws IOException if some IO error occurs
+         */
+        private void writeRecord(DataOutputStream out) throws IOException {
+            if(chunkOffsets.isEmpty() || out.size() - chunkOffsets.get(chunkOffsets.size() - 1) >= CHUNK_BYTES)
+                chunkOffsets.add(out.size()); // starting a new chunk
+
+            out.writeInt(recordBytes.size());
+            recordBytes.writeTo(out);
+            recordCount++;
+        }
+
+        /**
+         * Writes a UTF-8 string prefixed by its length in bytes.
+         * @param out the stream
+         * @param str the string
+         * @throws IOException if some IO error occurs
+         */
+        private static void writeString(DataOutputStream out, String str) throws IOException {
+            byte[] bytes = str.getBytes(StandardCharsets.UTF_8);
+            out.writeInt(bytes.length);
+            out.write(bytes);
+        }
+
+        @Override
+        protected void closeFiles() throws IOException {
+            try { endSection(); }
+            finally { strings.close(); }
+        }
+    }
+
+    /** Reads a memory-mapped snapshot in the binary format */
+    public static class BinaryReader implements SnapshotReader {
+        /** A function decoding a record */
+        @FunctionalInterface
+        private static interface RecordHandler {
+            void accept(ByteBuffer record) throws IOException;
+        }
+
+        /** Decodes a range of chunks of a file, splitting it among the threads of a ForkJoinPool */
+        private static class DecodeTask extends RecursiveAction {
+            /** The section of the file */
+            private final Section section;
+            /** The mapped file */
+            private final ByteBuffer buffer;
+            /** The offsets of the chunks, followed by the size of the file */
+            private final int[] bounds;
+            /** Index of the first chunk to decode */
+            private final int from;
+            /** Index following the last chunk to decode */
+            private final int to;
+            /** The function decoding a record */
+            private final RecordHandler handler;
+
+            DecodeTask(Section section, ByteBuffer buffer, int[] bounds, int from, int to, RecordHandler handler){
+                this.section = section;
+                this.buffer = buffer;
+                this.bounds = bounds;
+                this.from = from;
+                this.to = to;
+                this.handler = handler;
+            }
+
+            @Override
+            protected void compute(){
+                if(to - from <= 1){
+                    for(int i = from; i < to; i++){
+                        try { decodeChunk(section, buffer, bounds[i], bounds[i + 1], handler); }
+                        catch (IOException ex){ throw new UncheckedIOException(ex); }
+                    }
+                    return;
+                }
+
+                int mid = (from + to) >>> 1;
+                invokeAll(
+                    new DecodeTask(section, buffer, bounds, from, mid, handler), 
+                    new DecodeTask(section, buffer, bounds, mid, to, handler)
+                );
+            }
+        }
+
+        /** The directory of the snapshot */
+        private final File dir;
+        /** The string table */
+        private final String[] strings;
+        /** The pool decoding the chunks of each file in parallel, or null to decode them sequentially */
+        private final ForkJoinPool pool;
+        /** The manifest of the snapshot, used to size the maps, or null */
+        private final Manifest manifest;
+        /** The version of the format of the snapshot */
+        private final int version;
+
+        /**
+         * Opens the binary snapshot in the given directory, reading its string table.
+         * <p>
+         * Files are decoded sequentially.
+         * @param dir the directory of the snapshot
+         * @throws IOException if some IO error occurs or the string table is not valid
+         */
+        public BinaryReader(File dir) throws IOException { this(dir, null, null); }
+
+        /**
+         * Opens the binary snapshot in the given directory, reading its string table.
+         * @param dir the directory of the snapshot
+         * @param pool the pool decoding the chunks of each file in parallel, or null to decode them sequentially
+         * @param manifest the manifest of the snapshot, used to size the maps, or null
+         * @throws IOException if some IO error occurs or the string table is not valid
+         */
+        public BinaryReader(File dir, ForkJoinPool pool, Manifest manifest) throws IOException {
+            this.dir = Objects.requireNonNull(dir, "null directory");
+            this.pool = pool;
+            this.manifest = manifest;
+
+            List<String> table = new ArrayList<>();
+            ByteBuffer buffer = map(new File(dir, STRINGS_FILE), STRINGS_SECTION);
+            this.version = buffer.getInt(4); // following the magic number
+            while(buffer.hasRemaining()){
+                ByteBuffer record = nextRecord(buffer, STRINGS_FILE);
+                byte[] bytes = new byte[record.remaining()];
+                record.get(bytes);
+                table.add(new String(bytes, StandardCharsets.UTF_8));
+            }
+            this.strings = table.toArray(new String[0]);
+        }
+
+        /**
+         * Returns the number of usernames in the string table.
+         * @return the size of the string table
+         */
+        public int stringCount(){ return strings.length; }
+
+        /**
+         * Decodes the users.
+         * @return the map from usernames to users
+         * @throws IOException if some IO error occurs or the file is not valid
+         */
+        public ConcurrentHashMap<String, User> readUsers() throws IOException {
+            ConcurrentHashMap<String, User> users = new ConcurrentHashMap<>(expected(Section.USERS));
+            decodeRecords(Section.USERS, record -> {
+                String username = ref(record);
+                Hash password = Hash.fromDigest(readString(record));
+                List<String> tags = new ArrayList<>();
+                for(int n = record.getInt(); n > 0; n--) tags.add(readString(record));
+
+                users.put(username, new User(username, password, tags));
+            });
+            return users;
+        }
+
+        /**
+         * Decodes the original posts and the rewins into a store, ignoring rewins of non-existing posts.
+         * @param posts the store
+         * @throws IOException if some IO error occurs or the files are not valid
+         */
+        public void readPosts(PostStore posts) throws IOException {
+            decodeRecords(Section.ORIGINALS, record -> posts.put(decodeOriginal(record)));
+            decodeRecords(Section.REWINS, record -> {
+                int id = record.getInt();
+                int original = record.getInt();
+                posts.putRewin(id, original, ref(record));
+            });
+        }
+
+        /**
+         * Decodes the users followed by each user.
+         * @return the map from usernames to the users they follow
+         * @throws IOException if some IO error occurs or the file is not valid
+         */
+        public ConcurrentHashMap<String, Set<String>> readFollows() throws IOException {
+            ConcurrentHashMap<String, Set<String>> follows = new ConcurrentHashMap<>(expected(Section.USERS));
+            decodeRecords(Section.FOLLOWS, record -> {
+                String username = ref(record);
+                Set<String> followed = ConcurrentHashMap.newKeySet();
+                for(int n = record.getInt(); n > 0; n--) followed.add(ref(record));
+
+                follows.put(username, followed);
+            });
+            return follows;
+        }
+
+        /**
+         * Decodes the transactions of each user.
+         * <p>
+         * Each user has a single record, so every ledger is filled by a single thread.
+         * If a ledger file is given, every ledger is evicted into it as soon as it has been filled.
+         * @param spill the file into which the ledgers are evicted, or null to keep them in memory
+         * @return the map from usernames to their ledgers
+         * @throws IOException if some IO error occurs or the file is not valid
+         */
+        public ConcurrentHashMap<String, Ledger> readTransactions(LedgerFile spill) throws IOException {
+            ConcurrentHashMap<String, Ledger> transactions = new ConcurrentHashMap<>(expected(Section.USERS));
+            decodeRecords(Section.TRANSACTIONS, record -> {
+                String username = ref(record);
+                Ledger ledger = new Ledger(username, spill);
+                for(int n = record.getInt(); n > 0; n--) ledger.add(record.getLong(), record.getDouble());
+                if(spill != null){ ledger.flush(); ledger.evict(); }
+
+                transactions.put(username, ledger);
+            });
+            return transactions;
+        }
+
+        @Override
+        public void forEach(Section section, ElementHandler handler) throws IOException {
+            forEachRecord(section, record -> handler.accept(toJson(section, record)));
+        }
+
+        /**
+         * Decodes an original post.
+         * @param record the record of the post
+         * @return the decoded post
+         */
+        private OriginalPost decodeOriginal(ByteBuffer record){
+            int id = record.getInt();
+            String author = ref(record);
+            String title = readString(record);
+            String contents = readString(record);
+            Instant timestamp = (version >= 2) ? Instant.ofEpochMilli(record.getLong()) : Instant.now();
+            int iterations = record.getInt();
+
+            ConcurrentHashMap<String, Vote> votes = new ConcurrentHashMap<>();
+            ConcurrentLinkedQueue<String> pendingVotes = new ConcurrentLinkedQueue<>();
+            for(int n = record.getInt(); n > 0; n--){
+                String voter = ref(record);
+                byte flags = record.get();
+                votes.put(voter, ((flags & UPVOTE) != 0) ? Vote.UP : Vote.DOWN);
+                if((flags & VISITED) == 0) pendingVotes.add(voter);
+            }
+
+            ConcurrentLinkedQueue<Comment> comments = new ConcurrentLinkedQueue<>();
+            for(int n = record.getInt(); n > 0; n--)
+                comments.add(new Comment(ref(record), readString(record), record.get() != 0));
+
+            return new OriginalPost(id, author, title, contents, timestamp, votes, comments, pendingVotes, iterations);
+        }
+
+        /**
+         * Decodes a record into its JSON representation.
+         * @param section the section of the record
+         * @param record the record
+         * @return the JSON representation of the record
+         */
+        private JsonElement toJson(Section section, ByteBuffer record){
+            JsonObject json = new JsonObject();
+            switch (section) {
+                case USERS -> {
+                    json.addProperty("username", ref(record));
+                    json.addProperty("password", readString(record));
+                    JsonArray tags = new JsonArray();
+                    for(int n = record.getInt(); n > 0; n--) tags.add(readString(record));
+                    json.add("tags", tags);
+                }
+                case ORIGINALS -> {
+                    json.addProperty("id", record.getInt());
+                    json.addProperty("author", ref(record));
+                    json.addProperty("title", readString(record));
+                    json.addProperty("contents", readString(record));
+                    if(version >= 2) json.addProperty("timestamp", Instant.ofEpochMilli(record.getLong()).toString());
+                    int iterations = record.getInt();
+
+                    JsonArray votes = new JsonArray();
+                    for(int n = record.getInt(); n > 0; n--){
+                        JsonObject vote = new JsonObject();
+                        vote.addProperty("voter", ref(record));
+                        byte flags = record.get();
+                        JsonObject value = new JsonObject();
+                        value.addProperty("vote", (((flags & UPVOTE) != 0) ? Vote.UP : Vote.DOWN).toString());
+                        value.addProperty("visited", (flags & VISITED) != 0);
+                        vote.add("vote", value);
+                        votes.add(vote);
+                    }
+                    json.add("votes", votes);
+
+                    JsonArray comments = new JsonArray();
+                    for(int n = record.getInt(); n > 0; n--){
+                        JsonObject comment = new JsonObject();
+                        comment.addProperty("author", ref(record));
+                        comment.addProperty("contents", readString(record));
+                        comment.addProperty("visited", record.get() != 0);
+                        comments.add(comment);
+                    }
+                    json.add("comments", comments);
+                    json.addProperty("iterations", iterations);
+                }
+                case REWINS -> {
+                    json.addProperty("id", record.getInt());
+                    json.addProperty("original-id", record.getInt());
+                    json.addProperty("rewinner", ref(record));
+                }
+                case FOLLOWS -> {
+                    String username = ref(record);
+                    JsonArray followed = new JsonArray();
+                    for(int n = record.getInt(); n > 0; n--) followed.add(ref(record));
+                    json.add(username, followed);
+                }
+                case TRANSACTIONS -> {
+                    String username = ref(record);
+                    JsonArray transactions = new JsonArray();
+                    for(int n = record.getInt(); n > 0; n--){
+                        JsonObject transaction = new JsonObject();
+                        transaction.addProperty("user", username);
+                        transaction.addProperty("timestamp", Instant.ofEpochMilli(record.getLong()).toString());
+                        transaction.addProperty("increment", record.getDouble());
+                        transactions.add(transaction);
+                    }
+                    json.add(username, transactions);
+                }
+            }
+            return json;
+        }
+
+        /**
+         * Returns the number of elements of a section recorded in the manifest, used to size the maps.
+         * @param section the section
+         * @return the number of elements of the section, or 16 if there is no manifest
+         */
+        private int expected(Section section){ return (manifest != null) ? manifest.count(section) : 16; }
+
+        /**
+         * Decodes every record of a section, in order.
+         * @param section the section
+         * @param handler the function decoding a record
+         * @throws IOException if some IO error occurs or the file is not valid
+         */
+        private void forEachRecord(Section section, RecordHandler handler) throws IOException {
+            ByteBuffer buffer = map(new File(dir, section.binaryFile), (byte) section.ordinal());
+            decodeChunk(section, buffer, buffer.position(), buffer.limit(), handler);
+        }
+
+        /**
+         * Decodes every record of a section, splitting the file into the chunks listed in its offset index
+         * and decoding them in parallel if this reader has a pool.
+         * @param section the section
+         * @param handler the function decoding a record, which must be thread-safe
+         * @throws IOException if some IO error occurs or the files are not valid
+         */
+        private void decodeRecords(Section section, RecordHandler handler) throws IOException {
+            if(pool == null){ forEachRecord(section, handler); return; }
+
+            ByteBuffer buffer = map(new File(dir, section.binaryFile), (byte) section.ordinal());
+            int[] bounds = readIndex(section, buffer.limit());
+            try { pool.invoke(new DecodeTask(section, buffer, bounds, 0, bounds.length - 1, handler)); }
+            catch (RuntimeException ex){
+                IOException cause = findIOException(ex);
+                if(cause != null) throw cause;
+                throw ex;
+            }
+        }
+
+        /**
+         * Reads the offset index of a section.
+         * <p>
+         * If there is no index, the whole file is a single chunk.
+         * @param section the section
+         * @param size the size of the binary file of the section
+         * @return the offsets of the chunks, followed by the size of the file
+         * @throws IOException if some IO error occurs or the index is not valid
+         */
+        private int[] readIndex(Section section, int size) throws IOException {
+            File indexFile = new File(dir, section.indexFile);
+            if(!indexFile.exists()) return new int[]{ HEADER_BYTES, size };
+
+            ByteBuffer index = map(indexFile, (byte) section.ordinal());
+            try {
+                index.getInt(); // number of records
+                int chunks = index.getInt();
+                if(chunks < 0 || chunks > index.remaining() / 4) throw new InvalidSnapshotException(section.indexFile + " is truncated");
+                if(chunks == 0) return new int[]{ HEADER_BYTES, size };
+
+                int[] bounds = new int[chunks + 1];
+                for(int i = 0; i < chunks; i++){
+                    bounds[i] = index.getInt();
+                    if(bounds[i] < ((i == 0) ? HEADER_BYTES : bounds[i - 1] + 1) || bounds[i] >= size)
+                        throw new InvalidSnapshotException(section.indexFile + " does not match " + section.binaryFile);
+                }
+                if(bounds[0] != HEADER_BYTES) throw new InvalidSnapshotException(section.indexFile + " does not match " + section.binaryFile);
+                bounds[chunks] = size;
+                return bounds;
+            } catch (BufferUnderflowException ex){
+                throw new InvalidSnapshotException(section.indexFile + " is truncated", ex);
+            }
+        }
+
+        /**
+         * Decodes the records of a chunk of a file.
+         * @param section the section of the file
+         * @param buffer the mapped file
+         * @param from the offset of the first record of the chunk
+         * @param to the offset following the last record of the chunk
+         * @param handler the function decoding a record
+         * @throws IOException if the records are not valid
+         */
+        private static void decodeChunk(Section section, ByteBuffer buffer, int from, int to, RecordHandler handler) 
+                throws IOException {
+            ByteBuffer chunk = buffer.duplicate();
+            chunk.limit(to);
+            chunk.position(from);
+
+            while(chunk.hasRemaining()){
+                ByteBuffer record = nextRecord(chunk, section.binaryFile);
+                try { handler.accept(record); }
+                catch (BufferUnderflowException | IndexOutOfBoundsException | IllegalArgumentException | NullPointerException ex){
+                    throw new InvalidSnapshotException("invalid record in " + section.binaryFile, ex);
+                }
+            }
+        }
+
+        /**
+         * Reads a reference to the string table.
+         * @param record the record
+         * @return the referred username
+         */
+        private String ref(ByteBuffer record){ return strings[record.getInt()]; }
+
+        /**
+         * Reads a UTF-8 string prefixed by its length in bytes.
+         * @param record the record
+         * @return the string
+         */
+        private static String readString(ByteBuffer record){
+            int length = record.getInt();
+            if(length < 0 || length > record.remaining()) throw new BufferUnderflowException();
+
+            byte[] bytes = new byte[length];
+            record.get(bytes);
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+
+        /**
+         * Maps a binary file into memory and checks its header.
+         * @param file the file
+         * @param section the expected section number
+         * @return the mapped file, positioned after the header
+         * @throws IOException if some IO error occurs or the header is not valid
+         */
+        private static ByteBuffer map(File file, byte section) throws IOException {
+            try (
+                FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+            ){
+                long size = channel.size();
+                if(size > Integer.MAX_VALUE) throw new InvalidSnapshotException(file.getName() + " is too large to be mapped");
+
+                ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+                if(buffer.remaining() < 9 || buffer.getInt() != MAGIC)
+                    throw new InvalidSnapshotException(file.getName() + " is not a binary snapshot file");
+                int version = buffer.getInt();
+                if(version < MIN_VERSION || version > VERSION)
+                    throw new InvalidSnapshotException(file.getName() + " has an unsupported format version");
+                if(buffer.get() != section)
+                    throw new InvalidSnapshotException(file.getName() + " does not contain the expected section");
+                return buffer;
+            }
+        }
+
+        /**
+         * Returns the next length-prefixed record and moves the buffer past it.
+         * @param buffer the mapped file
+         * @param filename the name of the file, for error messages
+         * @return the record
+         * @throws InvalidSnapshotException if the file is truncated
+         */
+        private static ByteBuffer nextRecord(ByteBuffer buffer, String filename) throws InvalidSnapshotException {
+            int length = (buffer.remaining() < 4) ? -1 : buffer.getInt();
+            if(length < 0 || length > buffer.remaining()) throw new InvalidSnapshotException(filename + " is truncated");
+
+            ByteBuffer record = buffer.slice();
+            record.limit(length);
+            buffer.position(buffer.position() + length);
+            return record;
+        }
+    }
+
+    /**
+     * Finds the first IOException in the chain of causes of an exception thrown by a parallel task.
+     * @param ex the exception
+     * @return the IOException, or null if there is none
+     */
+    public static IOException findIOException(Throwable ex){
+        for(Throwable cause = ex; cause != null; cause = cause.getCause())
+            if(cause instanceof IOException) return (IOException) cause;
+        return null;
+    }
+
+    // ---------------- Conversion ---------------- //
+
+    /**
+     * Converts the full snapshot in a directory into the given format.
+     * @param args the snapshot directory, the target format ("json" or "binary") and optionally the output directory
+     */
+    public static void main(String[] args){
+        if(args.length < 2 || args.length > 3){
+            System.err.println("Usage: java winsome.server.SnapshotCodec <snapshot-dir> json|binary [<output-dir>]");
+            System.exit(1);
+        }
+
+        File from = new File(args[0]);
+        File to = (args.length == 3) ? new File(args[2]) : from;
+        Format format;
+        try { format = Format.fromString(args[1]); }
+        catch (IllegalArgumentException ex){
+            System.err.println("Unknown format \"" + args[1] + "\": it must be either 'json' or 'binary'.");
+            System.exit(1); return;
+        }
+
+        if(!from.isDirectory() || !to.isDirectory()){
+            System.err.println("The snapshot and output directories must exist.");
+            System.exit(1);
+        }
+        if(from.getAbsoluteFile().equals(to.getAbsoluteFile()) && detect(from) == format){
+            System.err.println("The snapshot is already in the " + format + " format.");
+            System.exit(1);
+        }
+
+        // the snapshot is written aside, so that a failed conversion leaves the output directory untouched
+        File tmp = new File(to.getAbsoluteFile().getParentFile(), to.getName() + CONVERSION_SUFFIX);
+        try {
+            SnapshotReader reader = reader(from);
+            Manifest manifest = Manifest.read(from);
+
+            deleteConversionDir(tmp);
+            if(!tmp.mkdir()) throw new IOException("could not create " + tmp.getPath());
+            try (
+                SnapshotWriter writer = writer(tmp, format);
+            ){
+                if(manifest != null) writer.setNextPostID(manifest.nextPostID);
+
+                for(Section section : Section.values()){
+                    writer.begin(section);
+                    reader.forEach(section, writer::write);
+                }
+            }
+
+            replaceSnapshot(tmp, to);
+        } catch (IOException ex){
+            System.err.println("Error while converting the snapshot: " + ex.getMessage());
+            try { deleteConversionDir(tmp); }
+            catch (IOException ignored){ System.err.println("Could not delete " + tmp.getPath() + "."); }
+            System.exit(1);
+        }
+        System.out.println("Snapshot converted to the " + format + " format.");
+    }
+
+    /** Suffix of the name of the directory where a converted snapshot is written */
+    private static final String CONVERSION_SUFFIX = ".converting";
+
+    /**
+     * Moves the files of a converted snapshot into the output directory, replacing the ones with the same name,
+     * and deletes the files of the snapshot previously in the output directory that have not been replaced
+     * (e.g. the files of the other format), so that only the converted snapshot is detected and loaded.
+     * <p>
+     * The manifest is moved after the other files; if the conversion is interrupted, it must be run again.
+     * @param tmp the directory containing the converted snapshot, deleted afterwards
+     * @param to the output directory
+     * @throws IOException if some IO error occurs
+     */
+    private static void replaceSnapshot(File tmp, File to) throws IOException {
+        List<String> written = new ArrayList<>();
+        for(File file : Objects.requireNonNull(tmp.listFiles(), "could not list the converted files"))
+            if(!file.getName().equals(MANIFEST_FILE)) written.add(file.getName());
+        written.add(MANIFEST_FILE);
+
+        for(String name : written)
+            Files.move(new File(tmp, name).toPath(), new File(to, name).toPath(), 
+                StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+        // the string table first: without it, the directory is detected as a JSON snapshot
+        List<String> leftovers = new ArrayList<>(List.of(STRINGS_FILE));
+        for(Section section : Section.values())
+            leftovers.addAll(List.of(section.jsonFile, section.jsonFile + GZIP_SUFFIX, section.binaryFile, section.indexFile));
+        for(String name : leftovers)
+            if(!written.contains(name)) Files.deleteIfExists(new File(to, name).toPath());
+
+        deleteConversionDir(tmp);
+    }
+
+    /**
+     * Deletes the directory where a converted snapshot is written, together with its files.
+     * @param tmp the directory
+     * @throws IOException if some IO error occurs
+     */
+    private static void deleteConversionDir(File tmp) throws IOException {
+        File[] files = tmp.listFiles();
+        if(files == null) return; // it does not exist
+        for(File file : files) Files.deleteIfExists(file.toPath());
+        Files.deleteIfExists(tmp.toPath());
+    }
+}
@@ -1,63 +1,95 @@
 package winsome.server;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
 import java.io.BufferedReader;
 import java.io.BufferedWriter;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.EOFException;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
 import java.io.FileReader;
 import java.io.FileWriter;
 import java.io.IOException;
 import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.io.UncheckedIOException;
 import java.net.DatagramPacket;
 import java.net.DatagramSocket;
 import java.net.InetAddress;
 import java.net.InetSocketAddress;
-import java.net.URL;
 import java.nio.ByteBuffer;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.FileChannel;
 import java.nio.channels.SelectionKey;
 import java.nio.channels.Selector;
 import java.nio.channels.ServerSocketChannel;
 import java.nio.channels.SocketChannel;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 import java.rmi.NoSuchObjectException;
 import java.rmi.RemoteException;
 import java.rmi.registry.LocateRegistry;
 import java.rmi.registry.Registry;
 import java.rmi.server.RemoteObject;
 import java.rmi.server.UnicastRemoteObject;
+import java.time.Instant;
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.AbstractCollection;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Objects;
+import java.util.Queue;
 import java.util.Set;
 import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
 import java.util.concurrent.Future;
 import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Function;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
 import com.google.gson.JsonObject;
 import com.google.gson.JsonParseException;
 import com.google.gson.JsonParser;
 import com.google.gson.stream.JsonReader;
 import com.google.gson.stream.JsonWriter;
 
+import winsome.api.codes.PushCode;
 import winsome.api.codes.RequestCode;
 import winsome.api.codes.ResponseCode;
 import winsome.api.exceptions.AlreadyFollowingException;
@@ -83,6 +115,8 @@ import winsome.api.exceptions.WrongVoteFormatException;
 import winsome.api.remote.RemoteClient;
 import winsome.api.remote.RemoteServer;
 import winsome.server.datastructs.Comment;
+import winsome.server.datastructs.Ledger;
+import winsome.server.datastructs.LedgerFile;
 import winsome.server.datastructs.OriginalPost;
 import winsome.server.datastructs.Post;
 import winsome.server.datastructs.Rewin;
@@ -90,6 +124,7 @@ import winsome.server.datastructs.Transaction;
 import winsome.server.datastructs.User;
 import winsome.server.exceptions.InvalidDirectoryException;
 import winsome.server.exceptions.InvalidJSONFileException;
+import winsome.server.exceptions.MutationLogException;
 import winsome.utils.configs.exceptions.InvalidConfigFileException;
 import winsome.utils.cryptography.Hash;
 
@@ -107,19 +142,35 @@ public class WinsomeServer extends RemoteObject implements RemoteServer {
         private final static String FOLLOWS_FILE = "follows.json";
         /** Name of the file containing the persisted transactions */
         private final static String TRANSACTIONS_FILE = "transactions.json";
+        /** Name of the file containing an incremental snapshot, inside its generation directory */
+        private final static String DELTA_FILE = "delta.json";
+        /** Name of the manifest, listing the generations that make up the current snapshot */
+        private final static String MANIFEST_FILE = "manifest.json";
+        /** Prefix of the names of the generation directories containing a full snapshot */
+        private final static String FULL_PREFIX = "full-";
+        /** Prefix of the names of the generation directories containing an incremental snapshot */
+        private final static String DELTA_PREFIX = "delta-";
+        /** Prefix of the names of the generation directories containing archived posts and transactions */
+        private final static String ARCHIVE_PREFIX = "archive-";
+        /** Suffix of the names of the files and directories still being written */
+        private final static String TMP_SUFFIX = ".tmp";
+        /** Name of the directory containing the segments of the posts evicted from memory */
+        private final static String POST_SEGMENTS_DIR = "post-segments";
+        /** Name of the file containing the transactions of the ledgers evicted from memory */
+        private final static String LEDGER_SPILL_FILE = "ledgers.spill";
+        /** Name of the file containing the position in the ledger file of the transactions of each user */
+        private final static String LEDGER_INDEX_FILE = "ledgers.index";
+        /** Version of the format of the ledger index */
+        private final static int LEDGER_INDEX_VERSION = 1;
+        /** Name of the file containing the epoch and the versions of the follower change log */
+        private final static String FOLLOWER_VERSIONS_FILE = "followers.versions";
+        /** Version of the format of the follower versions file */
+        private final static int FOLLOWER_VERSIONS_VERSION = 1;
 
         /** Directory containing the persisted data */
         private final File dir;
-        /** File containing the persisted users */
-        private final File usersFile;
-        /** File containing the persisted original posts */
-        private final File origsFile;
-        /** File containing the persisted rewins */
-        private final File rewinsFile;
-        /** File containing the persisted "follows" relations */
-        private final File followsFile;
-        /** File containing the persisted transactions */
-        private final File transFile;
+        /** File containing the manifest of the current snapshot */
+        private final File manifestFile;
 
         /** Is true if and only if this object is currently writing the persisted data to disk */
         private AtomicBoolean running = new AtomicBoolean(false);
@@ -128,28 +179,83 @@ public class WinsomeServer extends RemoteObject implements RemoteServer {
 
         /** Time to wait between two successive iterations of the Persistence Algorithm */
         private final long waitTime;
+        /** Number of incremental snapshots after which they are folded into a new full snapshot */
+        private final int foldThreshold;
+
+        // the sets of changed entities are replaced by empty ones at each snapshot, holding the write lock of checkpointLock
+
+        /** Users signed up since the last snapshot */
+        private volatile Set<String> newUsers = ConcurrentHashMap.newKeySet();
+        /** Users whose followed users changed since the last snapshot */
+        private volatile Set<String> changedFollows = ConcurrentHashMap.newKeySet();
+        /** Users who received transactions since the last snapshot */
+        private volatile Set<String> changedLedgers = ConcurrentHashMap.newKeySet();
+        /** IDs of the posts created or changed since the last snapshot */
+        private volatile Set<Integer> changedPosts = ConcurrentHashMap.newKeySet();
+        /** IDs of the posts deleted since the last snapshot */
+        private volatile Set<Integer> deletedPosts = ConcurrentHashMap.newKeySet();
+        /** IDs of the posts archived since the last snapshot */
+        private volatile Set<Integer> archivedPosts = ConcurrentHashMap.newKeySet();
+        /** Timestamp (in epoch milliseconds) before which transactions have been archived since the last snapshot, or 0 */
+        private long archivedBefore = 0;
+        /** Number of transactions of each user already included in some snapshot */
+        private final Map<String, Integer> persistedTransactions = new HashMap<>();
+        /** Iteration of the Rewards Algorithm at the time of the last snapshot */
+        private int lastRewardsIteration = 0;
+        /** Next ID of the post ID generator, according to the loaded snapshots and mutations */
+        private int nextPostID = 0;
+        /** 
+         * Ledgers restored from the ledger index while loading the persisted data, or null if they are loaded from the snapshots;
+         * if not null, the transactions in the snapshots are skipped, since the ledgers already contain them
+         */
+        private ConcurrentHashMap<String, Ledger> indexedLedgers = null;
+        /** Whether the follower change log has been restored from the follower versions file */
+        private boolean restoredFollowerVersions = false;
+
+        /** Number of the first mutation log segment not included in the snapshots */
+        private int checkpointSegment = 0;
+        /** Number of the generation containing the full snapshot, or -1 if the full snapshot is in the persistence directory itself */
+        private int baseSegment = -1;
+        /** Numbers of the generations containing the incremental snapshots not yet folded, in increasing order */
+        private final List<Integer> deltaGenerations = new ArrayList<>();
+        /** Numbers of the generations containing the archive, in increasing order */
+        private final List<Integer> archiveGenerations = new ArrayList<>();
+        /** Object used to synchronize the updates of the manifest */
+        private final Object manifestSync = new Object();
+
+        /** Thread folding the incremental snapshots into a new full snapshot */
+        private final ExecutorService foldThread = Executors.newSingleThreadExecutor();
+        /** Result of the last folding of the incremental snapshots */
+        private Future<Void> foldResult = null;
 
         /**
          * Creates a new ServerPersistence object.
          * @param dirpath the path to the directory that contains/will contain the persisted data
+         * @param waitTime the time (in seconds) between two successive snapshots
+         * @param foldThreshold the number of incremental snapshots after which they are folded into a full snapshot
          * @throws InvalidDirectoryException if the given path does not point to an existing directory
          */
-        public ServerPersistence(String dirpath, long waitTime) throws InvalidDirectoryException { 
+        public ServerPersistence(String dirpath, long waitTime, int foldThreshold) throws InvalidDirectoryException { 
             if(dirpath == null) throw new NullPointerException("directory path is null");
             this.waitTime = waitTime;
+            this.foldThreshold = foldThreshold;
 
             // initializing directory
             dir = new File(dirpath);
             if(!dir.exists() || !dir.isDirectory()) throw new InvalidDirectoryException("the given directory does not exist");
 
-            // initializing files
-            usersFile   = new File(dir, USERS_FILE);
-            origsFile   = new File(dir, ORIG_POSTS_FILE);
-            rewinsFile  = new File(dir, REWIN_FILE);
-            followsFile = new File(dir, FOLLOWS_FILE);
-            transFile   = new File(dir, TRANSACTIONS_FILE);
+            manifestFile = new File(dir, MANIFEST_FILE);
         }
 
+        /**
+         * Returns the next ID of the post ID generator, according to the loaded snapshots and mutations.
+         * <p>
+         * It is never lower than the ID following the ones of the loaded posts, 
+         * and IDs of deleted posts recorded by the snapshots are not reused.
+         * @return the next post ID
+         */
+        public int getNextPostID(){ return nextPostID; }
+
         /**
          * Checks whether this is currently persisting data.
          * @return true if and only if this is currently persisting data
@@ -157,7 +263,8 @@ public class WinsomeServer extends RemoteObject implements RemoteServer {
         public boolean isRunning(){ return running.get(); }
 
         /** 
-         * Reads the persisted data from the given directory.
+         * Reads the full snapshot listed in the manifest 
+         * (or, if there is no manifest, the one in the persistence directory itself).
          * <p> 
          * If the serialized files are not found, the Server is initialized with empty data.
          * @throws FileNotFoundException if the serialized files are not found (Server initialized with empty data)
@@ -166,25 +273,88 @@ public class WinsomeServer extends RemoteObject implements RemoteServer {
          */
         public void getPersistedData() throws FileNotFoundException, InvalidJSONFileException, IOException {
             if(isDataInit.get()) throw new IllegalStateException("data has already been initialized");
-            
+
+            ledgerFile = new LedgerFile(new File(dir, LEDGER_SPILL_FILE));
+            readManifest();
+            indexedLedgers = readLedgerIndex();
+            if(indexedLedgers != null) logger.info("Restored the ledgers of " + indexedLedgers.size() + " users from the ledger index.");
+            else clearLedgerFile();
+            restoredFollowerVersions = readFollowerVersions();
+            List<Integer> archives;
+            synchronized(manifestSync){ archives = new ArrayList<>(archiveGenerations); }
+            for(int number : archives) archive.open(generationDir(ARCHIVE_PREFIX, number));
+
+            File base = (baseSegment < 0) ? dir : generationDir(FULL_PREFIX, baseSegment);
+            SnapshotCodec.Format format = SnapshotCodec.detect(base);
+            SnapshotCodec.Manifest manifest = readSnapshotManifest(base, format);
+
+            if(format == SnapshotCodec.Format.BINARY) loadBinarySnapshot(base, manifest);
+            else loadJsonSnapshot(base, manifest);
+
+            if(manifest != null) nextPostID = manifest.nextPostID;
+            else {
+                logger.info("No snapshot manifest: computing the next post ID from the loaded posts.");
+                nextPostID = posts.nextID();
+            }
+        }
+
+        /**
+         * Reads the manifest of the full snapshot in the given directory.
+         * @param base the directory containing the snapshot
+         * @param format the format of the snapshot
+         * @return the manifest, or null if the snapshot has no manifest or it refers to a different format
+         * @throws IOException if some IO error occurs or the manifest is not valid
+         */
+        private SnapshotCodec.Manifest readSnapshotManifest(File base, SnapshotCodec.Format format) throws IOException {
+            SnapshotCodec.Manifest manifest = SnapshotCodec.Manifest.read(base);
+            if(manifest == null){
+                logger.info("The full snapshot has no manifest: it will be loaded without verifying it.");
+                return null;
+            }
+            if(manifest.format != format){
+                logger.warning("The manifest of the full snapshot refers to the " + manifest.format + " format: ignoring it.");
+                return null;
+            }
+            return manifest;
+        }
+
+        /**
+         * Loads a full snapshot in the JSON format, verifying it against its manifest first.
+         * <p>
+         * If the serialized files are not found, the Server is initialized with empty data.
+         * @param base the directory containing the snapshot
+         * @param manifest the manifest of the snapshot, or null
+         * @throws FileNotFoundException if the serialized files are not found (Server initialized with empty data)
+         * @throws InvalidJSONFileException if the serialized files are not valid
+         * @throws IOException if some other IO error occurs or the files do not match the manifest
+         */
+        private void loadJsonSnapshot(File base, SnapshotCodec.Manifest manifest) 
+                throws FileNotFoundException, InvalidJSONFileException, IOException {
             ConcurrentHashMap<String, User> users;
-            ConcurrentHashMap<Integer, Post> posts;
-            ConcurrentHashMap<String, Set<String>> follows = new ConcurrentHashMap<>();
-            ConcurrentHashMap<String, Collection<Transaction>> transactions = new ConcurrentHashMap<>();
+            PostStore posts = newPostStore();
+            int userCount = (manifest != null) ? manifest.count(SnapshotCodec.Section.USERS) : 16;
+            ConcurrentHashMap<String, Set<String>> follows = new ConcurrentHashMap<>(userCount);
+            ConcurrentHashMap<String, Ledger> transactions = (indexedLedgers != null) ? indexedLedgers : new ConcurrentHashMap<>(userCount);
+
+            if(manifest != null){
+                manifest.verify(base);
+                logger.info("Full snapshot verified against its manifest.");
+            }
 
             logger.log(Level.INFO, "Parsing JSON files containing the persisted data.");
             try {
-                users = parseUsers(usersFile); // parsing users
+                users = parseUsers(SnapshotCodec.findFile(base, USERS_FILE), userCount); // parsing users
 
                 // initializing follows and transactions structures
                 for(String username : users.keySet()){
                     follows.put(username, ConcurrentHashMap.newKeySet());
-                    transactions.put(username, new ConcurrentLinkedQueue<>());
+                    transactions.computeIfAbsent(username, WinsomeServer.this::newLedger);
                 }
 
-                posts = parsePosts(origsFile, rewinsFile);
-                follows = parseFollowers(followsFile, follows);
-                transactions = parseTransactions(transFile, transactions);
+                parsePosts(SnapshotCodec.findFile(base, ORIG_POSTS_FILE), SnapshotCodec.findFile(base, REWIN_FILE), posts);
+                follows = parseFollowers(SnapshotCodec.findFile(base, FOLLOWS_FILE), follows);
+                if(indexedLedgers == null)
+                    transactions = parseTransactions(SnapshotCodec.findFile(base, TRANSACTIONS_FILE), transactions);
             }
             catch (FileNotFoundException ex){ 
                 logger.warning("Serialized JSON Files not found: initializing the Server with empty data.");
@@ -200,30 +370,637 @@ public class WinsomeServer extends RemoteObject implements RemoteServer {
             WinsomeServer.this.transactions = transactions;
         }
 
-        /** Initializes all the structures with empty collections. */
-        private void setEmptyData(){
+        /**
+         * Loads a full snapshot in the binary format, mapping its files into memory.
+         * <p>
+         * The files are decoded concurrently, and large files are split into the chunks 
+         * listed in their offset index and decoded in parallel; 
+         * the only dependency are rewins, which are decoded after the original posts.
+         * The files are verified against the manifest while they are decoded.
+         * @param base the directory containing the snapshot
+         * @param manifest the manifest of the snapshot, or null
+         * @throws IOException if some IO error occurs, the files are not valid or they do not match the manifest
+         */
+        private void loadBinarySnapshot(File base, SnapshotCodec.Manifest manifest) throws IOException {
+            logger.info("Loading binary snapshot.");
+            ForkJoinPool pool = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+
+            ConcurrentHashMap<String, User> users;
+            PostStore posts = newPostStore();
+            ConcurrentHashMap<String, Set<String>> follows;
+            ConcurrentHashMap<String, Ledger> transactions;
+            try {
+                SnapshotCodec.BinaryReader reader = new SnapshotCodec.BinaryReader(base, pool, manifest);
+
+                Future<ConcurrentHashMap<String, User>> usersTask = pool.submit(() -> reader.readUsers());
+                Future<?> postsTask = pool.submit(() -> { reader.readPosts(posts); return null; });
+                Future<ConcurrentHashMap<String, Set<String>>> followsTask = pool.submit(() -> reader.readFollows());
+                Future<ConcurrentHashMap<String, Ledger>> transactionsTask = 
+                    (indexedLedgers == null) ? pool.submit(() -> reader.readTransactions(ledgerFile)) : null;
+                Future<?> verifyTask = (manifest != null) ? pool.submit(() -> { manifest.verify(base); return null; }) : null;
+
+                users = awaitLoad(usersTask);
+                awaitLoad(postsTask);
+                follows = awaitLoad(followsTask);
+                transactions = (transactionsTask != null) ? awaitLoad(transactionsTask) : indexedLedgers;
+                if(manifest != null){
+                    awaitLoad(verifyTask);
+                    logger.info("Full snapshot verified against its manifest.");
+                }
+            } finally { pool.shutdownNow(); }
+
+            // every user has a set of followed users and a ledger, and only users have them
+            for(String username : users.keySet()){
+                follows.computeIfAbsent(username, name -> ConcurrentHashMap.newKeySet());
+                transactions.computeIfAbsent(username, WinsomeServer.this::newLedger);
+            }
+            if(follows.keySet().removeIf(username -> !users.containsKey(username)))
+                logger.warning("Ignoring followed users of non-existing users in binary snapshot.");
+            if(transactions.keySet().removeIf(username -> !users.containsKey(username)))
+                logger.warning("Ignoring transactions of non-existing users in binary snapshot.");
+            logger.info("Binary snapshot loaded.");
+
+            WinsomeServer.this.users = users;
+            WinsomeServer.this.posts = posts;
+            WinsomeServer.this.following = follows;
+            WinsomeServer.this.transactions = transactions;
+        }
+
+        /**
+         * Waits for a task loading part of a snapshot.
+         * @param <T> the type of the result
+         * @param task the task
+         * @return the result of the task
+         * @throws IOException if the task failed or the thread was interrupted
+         */
+        private <T> T awaitLoad(Future<T> task) throws IOException {
+            try { return task.get(); }
+            catch (InterruptedException ex){
+                Thread.currentThread().interrupt();
+                throw new IOException("interrupted while loading the snapshot", ex);
+            }
+            catch (ExecutionException ex){
+                IOException cause = SnapshotCodec.findIOException(ex.getCause());
+                if(cause != null) throw cause;
+                throw new IOException("error while loading the snapshot", ex.getCause());
+            }
+        }
+
+        /**
+         * Applies to the loaded data the mutations logged after the last snapshot was written
+         * and opens the mutation log.
+         * <p>
+         * It must be called after {@link #applyDeltas()}; the replayed mutations are included in the next snapshot.
+         * @throws InvalidJSONFileException if the mutation log is not valid
+         * @throws IOException if some IO error occurs
+         */
+        public void replayMutations() throws InvalidJSONFileException, IOException {
+            int checkpoint = checkpointSegment;
+
+            logger.info("Replaying mutation log from segment " + checkpoint + ".");
+            long count = MutationLog.replay(dir, checkpoint, this::applyMutation);
+            logger.info("Replayed " + count + " mutations.");
+
+            // posts with votes/comments not yet rewarded must be visited by the next Rewards Algorithm iteration:
+            // they were either loaded with pending rewards or changed by the replayed mutations
+            Set<Integer> pending = new HashSet<>(posts.finishLoading());
+            pending.addAll(changedPosts);
+            for(int id : pending){
+                Post post = posts.get(id);
+                if(post != null && !post.isRewin() && ((OriginalPost) post).hasPendingRewards()) markDirty(post);
+            }
+
+            int[] segments = MutationLog.listSegments(dir);
+            int next = Math.max(checkpoint, (segments.length == 0) ? 0 : segments[segments.length - 1] + 1);
+            mutationLog = new MutationLog(dir, next, config.walSync, config.walSyncInterval);
+            mutationLog.deleteSegmentsBefore(checkpoint);
+        }
+
+        /**
+         * Applies a mutation read from the mutation log.
+         * <p>
+         * Mutations are applied without checking permissions, as they were checked when the mutation was logged;
+         * mutations referring to posts that do not exist anymore are ignored.
+         * @param record the logged mutation
+         * @throws InvalidJSONFileException if the record is not a valid mutation
+         */
+        private void applyMutation(JsonObject record) throws InvalidJSONFileException {
+            try {
+                switch (record.get("op").getAsString()) {
+                    case "SIGNUP" -> {
+                        User user = User.fromJson(readerOf(record.get("user")));
+                        following.computeIfAbsent(user.getUsername(), key -> ConcurrentHashMap.newKeySet());
+                        transactions.computeIfAbsent(user.getUsername(), WinsomeServer.this::newLedger);
+                        users.putIfAbsent(user.getUsername(), user);
+                        markUser(user.getUsername());
+                    }
+                    case "POST" -> {
+                        OriginalPost post = OriginalPost.fromJson(readerOf(record.get("post")));
+                        posts.put(post);
+                        nextPostID = Math.max(nextPostID, post.getID() + 1);
+                        markPost(post.getID());
+                    }
+                    case "REWIN" -> {
+                        JsonObject json = record.get("rewin").getAsJsonObject();
+                        nextPostID = Math.max(nextPostID, json.get("id").getAsInt() + 1);
+                        Post original = posts.get(Rewin.getOriginalIDFromJson(json));
+                        if(original == null) return;
+
+                        Rewin rewin = Rewin.getRewinFromJson(original, json);
+                        original.addRewinner(rewin.getRewinner());
+                        posts.put(rewin);
+                        markPost(rewin.getID());
+                        markPost(original.getID());
+                    }
+                    case "DELETE" -> {
+                        int id = record.get("id").getAsInt();
+                        if(!posts.remove(id)) return;
+                        markDeleted(id);
+
+                        // deleting rewins of the original post
+                        for(int rewin : posts.rewinsOf(id)){
+                            posts.remove(rewin);
+                            markDeleted(rewin);
+                        }
+                    }
+                    case "VOTE" -> {
+                        Post post = posts.get(record.get("id").getAsInt());
+                        if(post == null) return;
+
+                        if(record.get("vote").getAsInt() == 1) post.upvote(record.get("voter").getAsString());
+                        else post.downvote(record.get("voter").getAsString());
+                        markPost(post.getOriginalID());
+                    }
+                    case "COMMENT" -> {
+                        Post post = posts.get(record.get("id").getAsInt());
+                        if(post == null) return;
+
+                        post.addComment(record.get("author").getAsString(), record.get("contents").getAsString());
+                        markPost(post.getOriginalID());
+                    }
+                    case "FOLLOW" -> {
+                        following.get(record.get("username").getAsString()).add(record.get("followed").getAsString());
+                        followerLog.record(record.get("followed").getAsString(), record.get("username").getAsString(), true);
+                        markFollows(record.get("username").getAsString());
+                    }
+                    case "UNFOLLOW" -> {
+                        following.get(record.get("username").getAsString()).remove(record.get("followed").getAsString());
+                        followerLog.record(record.get("followed").getAsString(), record.get("username").getAsString(), false);
+                        markFollows(record.get("username").getAsString());
+                    }
+                    case "REWARDS_TICK" -> OriginalPost.startRewardsIteration();
+                    case "REWARDS" -> {
+                        for(JsonElement elem : record.get("posts").getAsJsonArray()){
+                            JsonObject reaped = elem.getAsJsonObject();
+                            Post post = posts.get(reaped.get("id").getAsInt());
+                            if(post == null) continue;
+
+                            ((OriginalPost) post).skipRewards(reaped.get("votes").getAsInt(), reaped.get("comments").getAsInt());
+                            markPost(post.getID());
+                        }
+
+                        Instant timestamp = Instant.parse(record.get("timestamp").getAsString());
+                        for(Entry<String, JsonElement> reward : record.get("rewards").getAsJsonObject().entrySet()){
+                            transactions.get(reward.getKey()).add(timestamp.toEpochMilli(), reward.getValue().getAsDouble());
+                            markLedger(reward.getKey());
+                        }
+                    }
+                    default -> throw new InvalidJSONFileException("unknown mutation in mutation log");
+                }
+            } catch (AlreadyVotedException | PostOwnerException ex){
+                logger.warning("Ignoring invalid mutation in mutation log: " + ex.getMessage());
+            } catch (IOException | ClassCastException | IllegalStateException | IllegalArgumentException | NullPointerException ex){
+                throw new InvalidJSONFileException("invalid mutation in mutation log", ex);
+            }
+        }
+
+        /**
+         * Writes an incremental snapshot of the data changed since the previous one and truncates the mutation log.
+         * <p>
+         * The snapshot is a consistent cut of the server data: the changed entities are captured in memory
+         * holding the write lock of {@link #checkpointLock}, together with the rolling of the mutation log,
+         * while the (much slower) writing and syncing to disk happens after releasing it.
+         * The snapshot is written into a new generation directory, which becomes part of the persisted data
+         * only when the manifest listing it atomically replaces the previous one.
+         * @throws IOException if some IO error occurs while writing
+         */
+        private void checkpoint() throws IOException {
+            // posts and transactions are archived with the same cutoff
+            long cutoff = System.currentTimeMillis() - config.archiveAge * 1000;
+            List<Integer> toArchive = (config.archiveAge > 0) ? archiveCandidates(cutoff) : List.of();
+            DeltaCapture capture;
+
+            checkpointLock.writeLock().lock();
+            try { 
+                if(config.archiveAge > 0) archiveOldData(toArchive, cutoff);
+                capture = captureDelta(mutationLog.roll()); 
+            } finally { checkpointLock.writeLock().unlock(); }
+
+            boolean archived = archive.hasStaged();
+            try {
+                // the archived data is written before the incremental snapshot no longer containing it
+                if(archived){
+                    String archiveName = ARCHIVE_PREFIX + capture.segment;
+                    File archiveTmp = createTempGeneration(archiveName);
+                    archive.writeStaged(archiveTmp);
+                    publishGeneration(archiveTmp, archiveName);
+                }
+
+                String name = DELTA_PREFIX + capture.segment;
+                String deltaFilename = (config.snapshotCompression == SnapshotCodec.NO_COMPRESSION) 
+                    ? DELTA_FILE : DELTA_FILE + SnapshotCodec.GZIP_SUFFIX;
+                File tmp = createTempGeneration(name);
+                try (
+                    BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(SnapshotCodec.compress(
+                        new FileOutputStream(new File(tmp, deltaFilename)), config.snapshotCompression
+                    )));
+                ){
+                    writer.write(capture.contents);
+                }
+                publishGeneration(tmp, name);
+
+                synchronized(manifestSync){
+                    checkpointSegment = capture.segment;
+                    deltaGenerations.add(capture.segment);
+                    if(archived) archiveGenerations.add(capture.segment);
+                    writeManifest();
+                }
+            } catch (IOException ex){
+                capture.restore(); // changed entities will be in the next snapshot
+                throw ex;
+            }
+            if(archived) archive.publishStaged(generationDir(ARCHIVE_PREFIX, capture.segment));
+            capture.commit();
+
+            mutationLog.deleteSegmentsBefore(capture.segment);
+            logger.info("Incremental snapshot " + capture.segment + " written.");
+            writeLedgerIndex();
+            writeFollowerVersions(capture.followersEpoch, capture.followerVersions);
+
+            evictPosts();
+            evictLedgers();
+        }
+
+        /**
+         * Returns the IDs of the original posts created before the given cutoff, loading them into memory
+         * so that their segments are not read while holding the write lock of {@link #checkpointLock}.
+         * @param cutoff the timestamp (in epoch milliseconds) before which posts are archived
+         * @return the IDs of the posts to archive
+         * @throws IOException if the segment of some post cannot be read
+         */
+        private List<Integer> archiveCandidates(long cutoff) throws IOException {
+            List<Integer> candidates = posts.originalsOlderThan(cutoff);
+            try { for(int id : candidates) posts.get(id); }
+            catch (UncheckedIOException ex){ throw ex.getCause(); }
+            return candidates;
+        }
+
+        /**
+         * Moves to the archive the given original posts (together with their rewins) and the transactions 
+         * older than the given cutoff, removing them from the live data.
+         * <p>
+         * Posts with votes or comments not yet rewarded are archived by a later snapshot.
+         * It must be called while no mutation can happen, i.e. holding the write lock of {@link #checkpointLock}:
+         * the archived data is staged in the archive, and it is written together with the incremental snapshot.
+         * @param candidates the IDs of the original posts to archive
+         * @param cutoff the timestamp (in epoch milliseconds) before which transactions are archived
+         * @throws IOException if some error occurs while serializing
+         */
+        private void archiveOldData(List<Integer> candidates, long cutoff) throws IOException {
+            Set<OriginalPost> dirty = dirtyPosts.get();
+
+            List<OriginalPost> originals = new ArrayList<>();
+            List<Rewin> rewins = new ArrayList<>();
+            try {
+                for(int id : candidates){
+                    Post post = posts.get(id);
+                    if(post == null) continue; // deleted in the meantime
+
+                    OriginalPost original = (OriginalPost) post;
+                    if(original.hasPendingRewards() || dirty.contains(original)) continue;
+
+                    for(int rewinID : posts.rewinsOf(id)){
+                        Post rewin = posts.get(rewinID);
+                        if(rewin != null) rewins.add((Rewin) rewin);
+                        posts.remove(rewinID);
+                        archivedPosts.add(rewinID);
+                    }
+                    posts.remove(id);
+                    archivedPosts.add(id);
+                    originals.add(original);
+                }
+            } catch (UncheckedIOException ex){ throw ex.getCause(); }
+
+            // archived posts leave the feeds, and are listed after the live ones in the blogs
+            for(OriginalPost original : originals) versions.blogChanged(original.getAuthor());
+            for(Rewin rewin : rewins) versions.blogChanged(rewin.getRewinner());
+
+            Map<String, List<Transaction>> old = new HashMap<>();
+            try {
+                for(Entry<String, Ledger> entry : transactions.entrySet()){
+                    List<Transaction> archived = entry.getValue().archiveBefore(cutoff);
+                    if(!archived.isEmpty()) old.put(entry.getKey(), archived);
+                }
+            } catch (UncheckedIOException ex){ throw ex.getCause(); } // evicted ledger not readable
+            if(originals.isEmpty() && old.isEmpty()) return;
+
+            archive.stage(originals, rewins, old);
+            if(!old.isEmpty()) archivedBefore = cutoff;
+            logger.info("Archived " + (originals.size() + rewins.size()) + " posts and the transactions of " + old.size() + " users.");
+        }
+
+        /**
+         * Evicts from memory the least recently used posts, if there are too many of them.
+         * <p>
+         * The changed posts are written into their segments while the server keeps running;
+         * the posts are then evicted holding the write lock of {@link #checkpointLock}, so that none of them is being changed.
+         * @throws IOException if some IO error occurs while writing the segments
+         */
+        private void evictPosts() throws IOException {
+            if(!posts.isFull()) return;
+
+            posts.flush();
+            int evicted;
+            checkpointLock.writeLock().lock();
+            try { evicted = posts.trim(); }
+            finally { checkpointLock.writeLock().unlock(); }
+            logger.info("Evicted " + evicted + " posts from memory.");
+        }
+
+        /**
+         * Evicts from memory the transactions of the users who did not access them for longer than the idle timeout.
+         * <p>
+         * The transactions are written into the ledger file while the server keeps running;
+         * the ledgers are then evicted holding the write lock of {@link #checkpointLock}, 
+         * so that the Rewards Algorithm is not appending to them.
+         * @throws IOException if some IO error occurs while writing the ledger file
+         */
+        private void evictLedgers() throws IOException {
+            long idleSince = System.nanoTime() - TimeUnit.SECONDS.toNanos(config.ledgerIdleTimeout);
+            List<Ledger> idle = new ArrayList<>();
+            for(Ledger ledger : transactions.values()){
+                if(!ledger.isLoaded() || ledger.lastUse() - idleSince > 0) continue;
+                ledger.flush();
+                idle.add(ledger);
+            }
+            if(idle.isEmpty()) return;
+
+            int evicted = 0;
+            checkpointLock.writeLock().lock();
+            try {
+                for(Ledger ledger : idle)
+                    if(ledger.lastUse() - idleSince <= 0 && ledger.evict()) evicted++;
+            } finally { checkpointLock.writeLock().unlock(); }
+            logger.info("Evicted the transactions of " + evicted + " users from memory.");
+        }
+
+        /**
+         * Reads the ledger index, restoring every ledger as evicted into the ledger file.
+         * <p>
+         * The index is only used if it describes the ledgers as of the current snapshot,
+         * and the ledger file is not mostly made of transactions no ledger refers to anymore.
+         * @return the restored ledgers, or null if the transactions must be loaded from the snapshots
+         */
+        private ConcurrentHashMap<String, Ledger> readLedgerIndex(){
+            File indexFile = new File(dir, LEDGER_INDEX_FILE);
+            if(!indexFile.exists()) return null;
+
+            try (
+                DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(indexFile)));
+            ){
+                int segment;
+                synchronized(manifestSync){ segment = checkpointSegment; }
+                if(in.readInt() != LEDGER_INDEX_VERSION || in.readInt() != segment){
+                    logger.info("The ledger index does not describe the current snapshot: loading the transactions from the snapshots.");
+                    return null;
+                }
+
+                int count = in.readInt();
+                ConcurrentHashMap<String, Ledger> ledgers = new ConcurrentHashMap<>(count);
+                long stored = 0;
+                for(; count > 0; count--){
+                    String username = in.readUTF();
+                    Ledger ledger = Ledger.fromIndex(username, ledgerFile, in);
+                    ledgers.put(username, ledger);
+                    stored += ledger.size();
+                }
+                if(in.read() >= 0) throw new IOException("trailing data");
+
+                if(ledgerFile.size() > 2 * stored * LedgerFile.TRANSACTION_BYTES){
+                    logger.info("The ledger file is mostly unused: rebuilding it from the snapshots.");
+                    return null;
+                }
+                return ledgers;
+            } catch (IOException ex){
+                logger.log(Level.WARNING, "Invalid ledger index: loading the transactions from the snapshots.", ex);
+                return null;
+            }
+        }
+
+        /**
+         * Writes the ledger index, describing every ledger as of the last snapshot, into a temporary file
+         * and atomically replaces the previous one, after syncing the ledger file.
+         * <p>
+         * The index is not part of the persisted state: if it cannot be written, 
+         * the transactions are loaded from the snapshots at the next start.
+         */
+        private void writeLedgerIndex(){
+            int segment;
+            synchronized(manifestSync){ segment = checkpointSegment; }
+
+            File tmp = new File(dir, LEDGER_INDEX_FILE + TMP_SUFFIX);
+            try {
+                try (
+                    DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+                ){
+                    out.writeInt(LEDGER_INDEX_VERSION);
+                    out.writeInt(segment);
+                    out.writeInt(persistedTransactions.size());
+                    // the transactions appended after the snapshot are in the mutation log
+                    for(Entry<String, Integer> entry : persistedTransactions.entrySet()){
+                        out.writeUTF(entry.getKey());
+                        transactions.get(entry.getKey()).toIndex(out, entry.getValue());
+                    }
+                }
+                ledgerFile.sync();
+                fsync(tmp);
+                Files.move(tmp.toPath(), new File(dir, LEDGER_INDEX_FILE).toPath(), 
+                    StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                fsyncDirectory(dir);
+            } catch (IOException | UncheckedIOException ex){
+                logger.log(Level.WARNING, "Could not write the ledger index: " + ex.getMessage(), ex);
+            }
+        }
+
+        /**
+         * Deletes the ledger index and clears the ledger file, which is then rebuilt from the snapshots.
+         * @throws IOException if some IO error occurs
+         */
+        private void clearLedgerFile() throws IOException {
+            Files.deleteIfExists(new File(dir, LEDGER_INDEX_FILE).toPath()); // the index must never refer to a cleared file
+            fsyncDirectory(dir);
+            ledgerFile.clear();
+        }
+
+        /**
+         * Reads the follower versions file, restoring the epoch and the versions of the follower change log.
+         * <p>
+         * The file is only used if it describes the follower versions as of the current snapshot;
+         * otherwise the follower change log keeps a new epoch, and every client receives the full follower list.
+         * @return true if and only if the follower change log has been restored
+         */
+        private boolean readFollowerVersions(){
+            File versionsFile = new File(dir, FOLLOWER_VERSIONS_FILE);
+            if(!versionsFile.exists()) return false;
+
+            try (
+                DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(versionsFile)));
+            ){
+                int segment;
+                synchronized(manifestSync){ segment = checkpointSegment; }
+                if(in.readInt() != FOLLOWER_VERSIONS_VERSION || in.readInt() != segment){
+                    logger.info("The follower versions do not describe the current snapshot: clients will receive the full follower lists.");
+                    return false;
+                }
+
+                long epoch = in.readLong();
+                int count = in.readInt();
+                Map<String, Long> versions = new HashMap<>(count);
+                for(; count > 0; count--) versions.put(in.readUTF(), in.readLong());
+                if(in.read() >= 0) throw new IOException("trailing data");
+
+                followerLog.restore(epoch, versions);
+                logger.info("Restored the follower versions of " + versions.size() + " users.");
+                return true;
+            } catch (IOException ex){
+                logger.log(Level.WARNING, "Invalid follower versions: clients will receive the full follower lists.", ex);
+                return false;
+            }
+        }
+
+        /**
+         * Writes the follower versions file, describing the follower change log as of the last snapshot, 
+         * into a temporary file and atomically replaces the previous one.
+         * <p>
+         * The file is not part of the persisted state: if it cannot be written, 
+         * every client receives the full follower list at its first login after the next start.
+         * @param epoch the epoch of the follower change log
+         * @param versions the version of the followers of each user at the time of the snapshot
+         */
+        private void writeFollowerVersions(long epoch, Map<String, Long> versions){
+            int segment;
+            synchronized(manifestSync){ segment = checkpointSegment; }
+
+            File tmp = new File(dir, FOLLOWER_VERSIONS_FILE + TMP_SUFFIX);
+            try {
+                try (
+                    DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+                ){
+                    out.writeInt(FOLLOWER_VERSIONS_VERSION);
+                    out.writeInt(segment);
+                    out.writeLong(epoch);
+                    out.writeInt(versions.size());
+                    for(Entry<String, Long> entry : versions.entrySet()){
+                        out.writeUTF(entry.getKey());
+                        out.writeLong(entry.getValue());
+                    }
+                }
+                fsync(tmp);
+                Files.move(tmp.toPath(), new File(dir, FOLLOWER_VERSIONS_FILE).toPath(), 
+                    StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                fsyncDirectory(dir);
+            } catch (IOException ex){
+                logger.log(Level.WARNING, "Could not write the follower versions: " + ex.getMessage(), ex);
+            }
+        }
+
+        /**
+         * Reads the manifest, containing the number of the first mutation log segment not included in the snapshots,
+         * the generations making up the current snapshot and the ones making up the archive.
+         * <p>
+         * If there is no manifest, the snapshot is the one in the persistence directory itself (if any).
+         * @throws IOException if some IO error occurs while reading
+         */
+        private void readManifest() throws IOException {
+            if(!manifestFile.exists()) return;
+
+            try (
+                JsonReader reader = new JsonReader(new BufferedReader(new FileReader(manifestFile)));
+            ){
+                JsonObject manifest = JsonParser.parseReader(reader).getAsJsonObject();
+                synchronized(manifestSync){
+                    checkpointSegment = manifest.get("segment").getAsInt();
+                    baseSegment = manifest.get("full").getAsInt();
+                    deltaGenerations.clear();
+                    for(JsonElement delta : manifest.get("deltas").getAsJsonArray())
+                        deltaGenerations.add(delta.getAsInt());
+                    archiveGenerations.clear();
+                    if(manifest.has("archives")) // not written before archiving was introduced
+                        for(JsonElement archive : manifest.get("archives").getAsJsonArray())
+                            archiveGenerations.add(archive.getAsInt());
+                }
+            } catch (JsonParseException | ClassCastException | IllegalStateException | NullPointerException ex){
+                throw new IOException("invalid manifest file", ex);
+            }
+        }
+
+        /**
+         * Writes the manifest into a temporary file, syncs it and atomically replaces the previous one.
+         * <p>
+         * It must be called while holding the monitor of {@link #manifestSync}.
+         * @throws IOException if some IO error occurs while writing
+         */
+        private void writeManifest() throws IOException {
+            File tmp = new File(dir, MANIFEST_FILE + TMP_SUFFIX);
+            try (
+                JsonWriter writer = new JsonWriter(new BufferedWriter(new FileWriter(tmp)));
+            ){
+                writer.setIndent("    ");
+                writer.beginObject();
+                writer.name("segment").value(checkpointSegment);
+                writer.name("full").value(baseSegment);
+                writer.name("deltas").beginArray();
+                for(int delta : deltaGenerations) writer.value(delta);
+                writer.endArray();
+                writer.name("archives").beginArray();
+                for(int archive : archiveGenerations) writer.value(archive);
+                writer.endArray();
+                writer.endObject();
+            }
+            fsync(tmp);
+            Files.move(tmp.toPath(), manifestFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            fsyncDirectory(dir);
+        }
+
+        /** 
+         * Initializes all the structures with empty collections. 
+         * @throws IOException if the directory of the post segments cannot be cleared
+         */
+        private void setEmptyData() throws IOException {
             if(!isDataInit.compareAndSet(false, true))
                 throw new IllegalStateException("data has already been initialized");
 
             users = new ConcurrentHashMap<>();
-            posts = new ConcurrentHashMap<>();
+            posts = newPostStore();
             following = new ConcurrentHashMap<>();
-            transactions = new ConcurrentHashMap<>();
+            // the ledgers restored from the index may contain the transactions of incremental snapshots
+            transactions = (indexedLedgers != null) ? indexedLedgers : new ConcurrentHashMap<>();
         }
 
         /**
          * Tries to parse the file containing serialized users and returns a populated map.
          * @param usersFile the file containing the serialized users
+         * @param expected the expected number of users, used to size the map
          * @return the populated users map
          * @throws InvalidJSONFileException if the given file is not a valid JSON file
          * @throws IOException if there is an IO error while reading the file
          */
-        private ConcurrentHashMap<String, User> parseUsers(File usersFile) throws InvalidJSONFileException, IOException {
-            ConcurrentHashMap<String, User> users = new ConcurrentHashMap<>();
+        private ConcurrentHashMap<String, User> parseUsers(File usersFile, int expected) throws InvalidJSONFileException, IOException {
+            ConcurrentHashMap<String, User> users = new ConcurrentHashMap<>(expected);
             
             logger.log(Level.INFO, "Parsing JSON file containing serialized users.");
             try (
-                JsonReader reader = new JsonReader(new BufferedReader(new FileReader(usersFile)));
+                JsonReader reader = new JsonReader(new InputStreamReader(SnapshotCodec.openInput(usersFile)));
             ){
                 reader.beginArray();
                 while(reader.hasNext()){
@@ -239,34 +1016,31 @@ public class WinsomeServer extends RemoteObject implements RemoteServer {
         }
 
         /**
-         * Tries to parse the files containing original posts and rewins and returns a populated map.
+         * Tries to parse the files containing original posts and rewins and adds them to a store.
          * @param originalPostsFile the file containing the serialized original posts
          * @param rewinFile the file containing the serialized rewins
-         * @return the populated posts map
+         * @param posts the store
          * @throws InvalidJSONFileException if the given files are not valid JSON files
          * @throws IOException if some IO error occurs while reading the files
          */
-        private ConcurrentHashMap<Integer, Post> parsePosts(File originalPostsFile, File rewinFile) 
+        private void parsePosts(File originalPostsFile, File rewinFile, PostStore posts) 
                 throws InvalidJSONFileException, IOException {
-            ConcurrentHashMap<Integer, Post> posts = new ConcurrentHashMap<>();
-
             logger.info("Parsing JSON files containing serialized posts.");
             // reading posts
             try (
-                JsonReader reader = new JsonReader(new BufferedReader(new FileReader(originalPostsFile)));
+                JsonReader reader = new JsonReader(new InputStreamReader(SnapshotCodec.openInput(originalPostsFile)));
             ) {
                 reader.beginArray();
                 while(reader.hasNext()){
                     logger.finer("Parsing another original post.");
-                    Post post = OriginalPost.fromJson(reader);
-                    posts.put(post.getID(), post);
+                    posts.put(OriginalPost.fromJson(reader));
                 }
                 reader.endArray();
             }
 
             // reading rewins
             try (
-                JsonReader reader = new JsonReader(new BufferedReader(new FileReader(rewinFile)))
+                JsonReader reader = new JsonReader(new InputStreamReader(SnapshotCodec.openInput(rewinFile)))
             ) {
                 reader.beginArray();
                 while(reader.hasNext()){
@@ -274,21 +1048,27 @@ public class WinsomeServer extends RemoteObject implements RemoteServer {
                     JsonObject rewinJson = Rewin.getDataFromJsonReader(reader);
 
                     int idOriginal = Rewin.getOriginalIDFromJson(rewinJson);
-
-                    Post orig;
-                    if((orig = posts.get(idOriginal)) == null) { // ignoring rewins of non-existing posts
+                    if(!posts.putRewin(rewinJson.get("id").getAsInt(), idOriginal, rewinJson.get("rewinner").getAsString())) // ignoring rewins of non-existing posts
                         logger.warning("Parsed a Rewin whose Original Post does not exist: ignoring the rewin.");
-                        continue;
-                    }
-
-                    Post rewin = Rewin.getRewinFromJson(orig, rewinJson);
-                    posts.put(rewin.getID(), rewin);
                 }
                 reader.endArray();
             }
 
             logger.info("Correctly parsed JSON files containing posts.");
-            return posts;
+        }
+
+        /**
+         * Creates an empty post store, whose segments are in the persistence directory.
+         * <p>
+         * Posts waiting for the Rewards Algorithm or changed since the last snapshot are kept in memory.
+         * @return the new store
+         * @throws IOException if the directory of the segments cannot be created or cleared
+         */
+        private PostStore newPostStore() throws IOException {
+            return new PostStore(
+                new File(dir, POST_SEGMENTS_DIR), config.postCacheSize,
+                post -> dirtyPosts.get().contains(post) || changedPosts.contains(post.getID())
+            );
         }
     
         /**
@@ -306,7 +1086,7 @@ public class WinsomeServer extends RemoteObject implements RemoteServer {
         {            
             logger.info("Parsing JSON file containing serialized 'follows'.");
             try (
-                JsonReader reader = new JsonReader(new BufferedReader(new FileReader(followsFile)));
+                JsonReader reader = new JsonReader(new InputStreamReader(SnapshotCodec.openInput(followsFile)));
             ){
                 reader.beginArray();
                 while(reader.hasNext()){
@@ -352,13 +1132,13 @@ public class WinsomeServer extends RemoteObject implements RemoteServer {
          * @throws InvalidJSONFileException if the given file is not a valid JSON file
          * @throws IOException if there is an IO error while reading the file
          */
-        private ConcurrentHashMap<String, Collection<Transaction>> parseTransactions(
-                File transactionsFile, ConcurrentHashMap<String, Collection<Transaction>> transactions
+        private ConcurrentHashMap<String, Ledger> parseTransactions(
+                File transactionsFile, ConcurrentHashMap<String, Ledger> transactions
             ) throws InvalidJSONFileException, IOException 
         {
             logger.info("Parsing JSON file containing serialized transactions.");
             try (
-                JsonReader reader = new JsonReader(new BufferedReader(new FileReader(transactionsFile)));
+                JsonReader reader = new JsonReader(new InputStreamReader(SnapshotCodec.openInput(transactionsFile)));
             ){
                 reader.beginArray();
                 while(reader.hasNext()){
@@ -367,7 +1147,7 @@ public class WinsomeServer extends RemoteObject implements RemoteServer {
                     String username = reader.nextName();
 
                     logger.finer("Parsing transactions pertaining to " + username + ".");
-                    Collection<Transaction> userTrans = null;
+                    Ledger userTrans = null;
 
                     // checking that user actually exists
                     boolean skip = false;
@@ -386,7 +1166,10 @@ public class WinsomeServer extends RemoteObject implements RemoteServer {
                     reader.endArray();
                     reader.endObject();
 
-                    if(!skip) transactions.put(username, userTrans);
+                    if(!skip){ // only the balance is kept in memory
+                        userTrans.flush();
+                        userTrans.evict();
+                    }
                 }
                 reader.endArray();
             }
@@ -394,7 +1177,8 @@ public class WinsomeServer extends RemoteObject implements RemoteServer {
         }
 
         /**
-         * Runs the {@link #persistData()} method periodically.
+         * Runs the {@link #checkpoint()} method periodically, 
+         * folding the incremental snapshots into a new full snapshot when they are too many.
          * @return null
          * @throws IOException if some IO error occurs while writing data
          */
@@ -414,7 +1198,7 @@ public class WinsomeServer extends RemoteObject implements RemoteServer {
                         if(Thread.interrupted()) return null;
 
                         running.set(true); 
-                        persistData(); 
+                        checkpoint(); 
                         running.set(false);
 
                         runningSync.notify();
@@ -426,133 +1210,704 @@ public class WinsomeServer extends RemoteObject implements RemoteServer {
                     logger.log(Level.SEVERE, "IO Exception while persisting data: " + ex.getMessage(), ex);
                     throw new IOException("IO exception while persisting data", ex);
                 }
+
+                if(countDeltas() >= foldThreshold && (foldResult == null || foldResult.isDone()))
+                    foldResult = foldThread.submit(this::foldDeltas);
             }
 
             return null;
         }
 
         /**
-         * Writes all the current server data into the persistence files.
-         * @throws IOException if some IO error occurs while writing
+         * Waits for the completion of the folding of the incremental snapshots, if any, 
+         * stops the thread folding them and closes the archive and the ledger file.
          */
-        private void persistData() throws IOException {
-            persistTransactions(transFile);
-            persistPosts(origsFile, rewinsFile);
-            persistFollows(followsFile);
-            persistUsers(usersFile);
+        public void close(){
+            foldThread.shutdown();
+            try {
+                if(!foldThread.awaitTermination(config.poolTimeout, TimeUnit.MILLISECONDS))
+                    foldThread.shutdownNow();
+            } catch (InterruptedException ex){ foldThread.shutdownNow(); }
+
+            try { archive.close(); }
+            catch (IOException ex){ logger.log(Level.WARNING, "Could not close the archive: " + ex.getMessage(), ex); }
+            try { if(ledgerFile != null) ledgerFile.close(); }
+            catch (IOException ex){ logger.log(Level.WARNING, "Could not close the ledger file: " + ex.getMessage(), ex); }
         }
 
+        // ---------------- Incremental snapshots ---------------- //
+
         /**
-         * Serializes all the trasactions and writes them into a file.
-         * @param transFile the destination file
-         * @throws IOException if some IO error occurs while writing
+         * Marks a new user, together with their followed users and their transactions, 
+         * as changed since the last snapshot.
+         * @param username the username of the new user
+         */
+        public void markUser(String username){
+            newUsers.add(username);
+            changedFollows.add(username);
+            changedLedgers.add(username);
+        }
+
+        /**
+         * Marks the users followed by a user as changed since the last snapshot.
+         * @param username the username of the user
+         */
+        public void markFollows(String username){ changedFollows.add(username); }
+
+        /**
+         * Marks the transactions of a user as changed since the last snapshot.
+         * @param username the username of the user
+         */
+        public void markLedger(String username){ changedLedgers.add(username); }
+
+        /**
+         * Marks a post as created or changed since the last snapshot, 
+         * and since it was last written into its segment.
+         * @param id the id of the post
+         */
+        public void markPost(int id){ 
+            changedPosts.add(id); 
+            posts.markModified(id);
+        }
+
+        /**
+         * Marks a post as deleted since the last snapshot.
+         * @param id the id of the post
+         */
+        public void markDeleted(int id){ deletedPosts.add(id); }
+
+        /** The data changed since the previous snapshot, captured at a consistent cut. */
+        private class DeltaCapture {
+            /** Number of the first mutation log segment not included in the snapshot */
+            final int segment;
+            /** The serialized incremental snapshot */
+            final String contents;
+            /** Iteration of the Rewards Algorithm at the time of the snapshot */
+            final int iteration;
+            /** Number of transactions of each changed ledger at the time of the snapshot */
+            final Map<String, Integer> ledgerSizes;
+
+            /** The sets of changed entities included in the snapshot */
+            final Set<String> users, follows, ledgers;
+            /** The sets of changed, deleted and archived posts included in the snapshot */
+            final Set<Integer> posts, deleted, archived;
+            /** Timestamp before which transactions have been archived, or 0 */
+            final long archivedBefore;
+            /** Epoch of the follower change log */
+            final long followersEpoch;
+            /** Version of the followers of each user at the time of the snapshot */
+            final Map<String, Long> followerVersions;
+
+            DeltaCapture(int segment, String contents, int iteration, Map<String, Integer> ledgerSizes,
+                    Set<String> users, Set<String> follows, Set<String> ledgers, 
+                    Set<Integer> posts, Set<Integer> deleted, Set<Integer> archived, long archivedBefore,
+                    long followersEpoch, Map<String, Long> followerVersions){
+                this.segment = segment;
+                this.contents = contents;
+                this.iteration = iteration;
+                this.ledgerSizes = ledgerSizes;
+                this.users = users; this.follows = follows; this.ledgers = ledgers;
+                this.posts = posts; this.deleted = deleted; this.archived = archived;
+                this.archivedBefore = archivedBefore;
+                this.followersEpoch = followersEpoch;
+                this.followerVersions = followerVersions;
+            }
+
+            /** Records that the captured data has been persisted. */
+            void commit(){
+                lastRewardsIteration = iteration;
+                persistedTransactions.putAll(ledgerSizes);
+            }
+
+            /** Marks again the captured entities as changed, as the snapshot could not be persisted. */
+            void restore(){
+                newUsers.addAll(users); changedFollows.addAll(follows); changedLedgers.addAll(ledgers);
+                changedPosts.addAll(posts); deletedPosts.addAll(deleted); archivedPosts.addAll(archived);
+                ServerPersistence.this.archivedBefore = Math.max(ServerPersistence.this.archivedBefore, archivedBefore);
+            }
+        }
+
+        /**
+         * Serializes in memory the data changed since the previous snapshot 
+         * and starts tracking the changes for the next one.
+         * <p>
+         * It must be called while no mutation can happen, i.e. holding the write lock of {@link #checkpointLock}.
+         * @param segment the number of the first mutation log segment not included in the snapshot
+         * @return the captured data
+         * @throws IOException if some error occurs while serializing
          */
-        private void persistTransactions(File transFile) throws IOException {
-            logger.info("Persisting transactions.");
+        private DeltaCapture captureDelta(int segment) throws IOException {
+            int iteration = OriginalPost.getRewardsIteration();
+            Map<String, Integer> ledgerSizes = new HashMap<>();
+
+            Set<String> users = newUsers, follows = changedFollows, ledgers = changedLedgers;
+            Set<Integer> changed = changedPosts, deleted = deletedPosts, archived = archivedPosts;
+            long cutoff = archivedBefore;
+            newUsers = ConcurrentHashMap.newKeySet(); changedFollows = ConcurrentHashMap.newKeySet();
+            changedLedgers = ConcurrentHashMap.newKeySet();
+            changedPosts = ConcurrentHashMap.newKeySet(); deletedPosts = ConcurrentHashMap.newKeySet();
+            archivedPosts = ConcurrentHashMap.newKeySet(); archivedBefore = 0;
+
+            StringWriter contents = new StringWriter();
             try (
-                JsonWriter writer = new JsonWriter(new BufferedWriter(new FileWriter(transFile)));
+                JsonWriter writer = new JsonWriter(contents);
             ) {
                 writer.setIndent("    ");
+                writer.beginObject();
+
+                // iterations of the Rewards Algorithm run on every post since the previous snapshot
+                writer.name("ticks").value(iteration - lastRewardsIteration);
+                writer.name("next-post-id").value(Post.peekNextID());
+
+                writer.name("users").beginArray();
+                for(String username : users) WinsomeServer.this.users.get(username).toJson(writer);
+                writer.endArray();
 
-                writer.beginArray();
-                for(Entry<String, Collection<Transaction>> entry : WinsomeServer.this.transactions.entrySet()){
-                    logger.fine("Persisting transactions pertaining to user: " + entry.getKey() + ".");
-                    writer.beginObject()
-                        .name(entry.getKey())
-                        .beginArray();
+                writer.name("originals").beginArray();
+                for(int id : changed){
+                    Post post = posts.get(id);
+                    if(post != null && !post.isRewin()) post.toJson(writer);
+                }
+                writer.endArray();
+
+                writer.name("rewins").beginArray();
+                for(int id : changed){
+                    Post post = posts.get(id);
+                    if(post != null && post.isRewin()) post.toJson(writer);
+                }
+                writer.endArray();
+
+                writer.name("deleted").beginArray();
+                for(int id : deleted) writer.value(id);
+                writer.endArray();
+
+                writer.name("follows").beginArray();
+                for(String username : follows){
+                    writer.beginObject().name(username).beginArray();
+                    for(String followed : following.get(username)) writer.value(followed);
+                    writer.endArray().endObject();
+                }
+                writer.endArray();
 
-                    for(Transaction trans : entry.getValue())
-                        trans.toJson(writer);
+                // only the transactions not yet in a snapshot
+                writer.name("transactions").beginArray();
+                for(String username : ledgers){
+                    int persisted = persistedTransactions.getOrDefault(username, 0);
+                    Ledger.Range newTransactions = transactions.get(username).since(persisted);
 
+                    writer.beginObject().name(username).beginArray();
+                    for(Transaction transaction : newTransactions) transaction.toJson(writer);
                     writer.endArray().endObject();
+
+                    ledgerSizes.put(username, newTransactions.end()); // transactions archived before this snapshot are skipped too
                 }
                 writer.endArray();
+
+                // posts and transactions moved to the archive
+                writer.name("archived").beginArray();
+                for(int id : archived) writer.value(id);
+                writer.endArray();
+                writer.name("archived-before").value(cutoff);
+
+                writer.endObject();
             }
-            logger.info("Transactions persisted.");
+
+            // the follow changes logged after the snapshot are recorded again when replayed
+            return new DeltaCapture(
+                segment, contents.toString(), iteration, ledgerSizes, 
+                users, follows, ledgers, changed, deleted, archived, cutoff,
+                followerLog.epoch(), followerLog.versions()
+            );
         }
 
         /**
-         * Serializes all the "follows" relations and writes them into a file.
-         * @param followsFile the destination file
-         * @throws IOException if some IO error occurs while writing
+         * Applies the incremental snapshots listed in the manifest to the loaded data.
+         * <p>
+         * Generations not listed in the manifest (left by a snapshot or a folding that did not complete) are deleted.
+         * @return the number of applied incremental snapshots
+         * @throws InvalidJSONFileException if some incremental snapshot is not valid
+         * @throws IOException if some IO error occurs while reading
+         */
+        public int applyDeltas() throws InvalidJSONFileException, IOException {
+            deleteStaleGenerations();
+
+            List<Integer> deltas;
+            synchronized(manifestSync){ deltas = new ArrayList<>(deltaGenerations); }
+            for(int number : deltas){
+                logger.info("Applying incremental snapshot " + number + ".");
+                applyDelta(SnapshotCodec.findFile(generationDir(DELTA_PREFIX, number), DELTA_FILE));
+            }
+
+            // rewins of posts deleted by some incremental snapshot
+            int orphans = posts.removeOrphanRewins();
+            if(orphans > 0) logger.info("Removed " + orphans + " rewins of deleted posts.");
+
+            // the balances include the archived transactions, not contained in the snapshots anymore
+            for(String username : archive.usersWithTransactions()){
+                Ledger ledger = transactions.get(username);
+                if(ledger != null) ledger.setArchivedBalance(archive.balanceOf(username));
+            }
+
+            // everything loaded so far is already in the snapshots
+            lastRewardsIteration = OriginalPost.getRewardsIteration();
+            for(Entry<String, Ledger> entry : transactions.entrySet())
+                persistedTransactions.put(entry.getKey(), entry.getValue().size());
+
+            // the next start will not read the transactions again
+            if(indexedLedgers == null) writeLedgerIndex();
+            indexedLedgers = null;
+            // the replayed changes are recorded again at the next start, on top of the same versions
+            if(!restoredFollowerVersions) writeFollowerVersions(followerLog.epoch(), followerLog.versions());
+
+            return deltas.size();
+        }
+
+        /**
+         * Applies an incremental snapshot to the loaded data.
+         * @param deltaFile the file containing the incremental snapshot
+         * @throws InvalidJSONFileException if the file is not a valid incremental snapshot
+         * @throws IOException if some IO error occurs while reading
+         */
+        private void applyDelta(File deltaFile) throws InvalidJSONFileException, IOException {
+            try (
+                JsonReader reader = new JsonReader(new InputStreamReader(SnapshotCodec.openInput(deltaFile)));
+            ){
+                reader.beginObject();
+                while(reader.hasNext()){
+                    switch (reader.nextName()) {
+                        case "ticks" -> {
+                            for(int ticks = reader.nextInt(); ticks > 0; ticks--) 
+                                OriginalPost.startRewardsIteration();
+                        }
+                        case "next-post-id" -> nextPostID = Math.max(nextPostID, reader.nextInt());
+                        case "users" -> {
+                            reader.beginArray();
+                            while(reader.hasNext()){
+                                User user = User.fromJson(reader);
+                                following.computeIfAbsent(user.getUsername(), key -> ConcurrentHashMap.newKeySet());
+                                transactions.computeIfAbsent(user.getUsername(), WinsomeServer.this::newLedger);
+                                users.putIfAbsent(user.getUsername(), user);
+                            }
+                            reader.endArray();
+                        }
+                        case "originals" -> {
+                            reader.beginArray();
+                            while(reader.hasNext()){
+                                Post post = OriginalPost.fromJson(reader);
+                                posts.put(post);
+                                nextPostID = Math.max(nextPostID, post.getID() + 1);
+                            }
+                            reader.endArray();
+                        }
+                        case "rewins" -> {
+                            reader.beginArray();
+                            while(reader.hasNext()){
+                                JsonObject rewinJson = Rewin.getDataFromJsonReader(reader);
+                                nextPostID = Math.max(nextPostID, rewinJson.get("id").getAsInt() + 1);
+                                posts.putRewin( // ignoring rewins of non-existing posts
+                                    rewinJson.get("id").getAsInt(), Rewin.getOriginalIDFromJson(rewinJson), 
+                                    rewinJson.get("rewinner").getAsString()
+                                );
+                            }
+                            reader.endArray();
+                        }
+                        case "deleted" -> {
+                            reader.beginArray();
+                            while(reader.hasNext()) posts.remove(reader.nextInt());
+                            reader.endArray();
+                        }
+                        case "follows" -> {
+                            reader.beginArray();
+                            while(reader.hasNext()){
+                                reader.beginObject();
+                                String username = reader.nextName();
+                                Set<String> followed = ConcurrentHashMap.newKeySet();
+                                reader.beginArray();
+                                while(reader.hasNext()) followed.add(reader.nextString());
+                                reader.endArray();
+                                reader.endObject();
+
+                                if(users.containsKey(username)) following.put(username, followed);
+                            }
+                            reader.endArray();
+                        }
+                        case "transactions" -> {
+                            reader.beginArray();
+                            while(reader.hasNext()){
+                                reader.beginObject();
+                                Ledger ledger = transactions.get(reader.nextName());
+                                reader.beginArray();
+                                while(reader.hasNext()){
+                                    Transaction transaction = Transaction.fromJson(reader);
+                                    if(ledger != null && indexedLedgers == null) ledger.add(transaction);
+                                }
+                                reader.endArray();
+                                reader.endObject();
+                            }
+                            reader.endArray();
+                        }
+                        case "archived" -> {
+                            reader.beginArray();
+                            while(reader.hasNext()) posts.remove(reader.nextInt());
+                            reader.endArray();
+                        }
+                        case "archived-before" -> {
+                            long cutoff = reader.nextLong();
+                            if(cutoff > 0 && indexedLedgers == null) 
+                                for(Ledger ledger : transactions.values()) ledger.archiveBefore(cutoff);
+                        }
+                        default -> throw new InvalidJSONFileException("invalid incremental snapshot " + deltaFile.getName());
+                    }
+                }
+                reader.endObject();
+            } catch (ClassCastException | IllegalStateException | IllegalArgumentException | NullPointerException ex){
+                throw new InvalidJSONFileException("invalid incremental snapshot " + deltaFile.getName(), ex);
+            }
+        }
+
+        /**
+         * Folds the incremental snapshots into a new full snapshot.
+         * <p>
+         * It only works on the persisted files, hence it can run concurrently with the server:
+         * every full snapshot file is streamed into a new generation directory, 
+         * replacing the entities changed by the incremental snapshots;
+         * the new generation replaces the old ones when the manifest listing it is written.
+         * @return null
+         * @throws InvalidJSONFileException if some snapshot file is not valid
+         * @throws IOException if some IO error occurs
+         */
+        private Void foldDeltas() throws InvalidJSONFileException, IOException {
+            Thread.currentThread().setName("snapshot-folder");
+
+            int base; List<Integer> toFold;
+            synchronized(manifestSync){ base = baseSegment; toFold = new ArrayList<>(deltaGenerations); }
+            if(toFold.isEmpty()) return null;
+
+            File baseDir = (base < 0) ? dir : generationDir(FULL_PREFIX, base);
+            int folded = toFold.get(toFold.size() - 1);
+
+            logger.info("Folding " + toFold.size() + " incremental snapshots into a new full snapshot.");
+            try {
+                // merging the incremental snapshots, the newest version of each entity winning
+                Map<String, JsonElement> newUsers = new LinkedHashMap<>();
+                Map<Integer, JsonElement> originals = new LinkedHashMap<>();
+                Map<Integer, JsonElement> rewins = new LinkedHashMap<>();
+                Set<Integer> deleted = new HashSet<>();
+                Map<String, JsonArray> follows = new LinkedHashMap<>();
+                Map<String, JsonArray> newTransactions = new LinkedHashMap<>();
+                // archived posts are dropped like deleted ones, archived transactions by their timestamp
+                long archivedBefore = 0;
+
+                // iterations of the Rewards Algorithm run after each snapshot
+                int[] ticksAfter = new int[toFold.size()];
+                List<JsonObject> deltas = new ArrayList<>();
+                for(int number : toFold){
+                    try (
+                        JsonReader reader = new JsonReader(new InputStreamReader(
+                            SnapshotCodec.openInput(SnapshotCodec.findFile(generationDir(DELTA_PREFIX, number), DELTA_FILE))
+                        ));
+                    ){
+                        deltas.add(JsonParser.parseReader(reader).getAsJsonObject());
+                    }
+                }
+                for(int i = deltas.size() - 2; i >= 0; i--)
+                    ticksAfter[i] = ticksAfter[i + 1] + deltas.get(i + 1).get("ticks").getAsInt();
+                int totalTicks = ticksAfter[0] + deltas.get(0).get("ticks").getAsInt();
+
+                // IDs of deleted posts must not be reused
+                int nextPostID = 0;
+                SnapshotCodec.Manifest baseManifest = SnapshotCodec.Manifest.read(baseDir);
+                if(baseManifest != null) nextPostID = baseManifest.nextPostID;
+                for(JsonObject delta : deltas)
+                    if(delta.has("next-post-id")) nextPostID = Math.max(nextPostID, delta.get("next-post-id").getAsInt());
+
+                for(int i = 0; i < deltas.size(); i++){
+                    JsonObject delta = deltas.get(i);
+
+                    for(JsonElement user : delta.get("users").getAsJsonArray())
+                        newUsers.put(user.getAsJsonObject().get("username").getAsString(), user);
+                    for(JsonElement post : delta.get("originals").getAsJsonArray()){
+                        JsonObject obj = post.getAsJsonObject();
+                        obj.addProperty("iterations", obj.get("iterations").getAsInt() + ticksAfter[i]);
+                        originals.put(obj.get("id").getAsInt(), obj);
+                    }
+                    for(JsonElement rewin : delta.get("rewins").getAsJsonArray())
+                        rewins.put(rewin.getAsJsonObject().get("id").getAsInt(), rewin);
+                    for(JsonElement id : delta.get("deleted").getAsJsonArray())
+                        deleted.add(id.getAsInt());
+                    if(delta.has("archived")){ // not written before archiving was introduced
+                        for(JsonElement id : delta.get("archived").getAsJsonArray()) deleted.add(id.getAsInt());
+                        archivedBefore = Math.max(archivedBefore, delta.get("archived-before").getAsLong());
+                    }
+                    for(JsonElement elem : delta.get("follows").getAsJsonArray())
+                        for(Entry<String, JsonElement> entry : elem.getAsJsonObject().entrySet())
+                            follows.put(entry.getKey(), entry.getValue().getAsJsonArray());
+                    for(JsonElement elem : delta.get("transactions").getAsJsonArray())
+                        for(Entry<String, JsonElement> entry : elem.getAsJsonObject().entrySet())
+                            newTransactions.computeIfAbsent(entry.getKey(), key -> new JsonArray())
+                                .addAll(entry.getValue().getAsJsonArray());
+                }
+                for(int id : deleted){ originals.remove(id); rewins.remove(id); }
+                long cutoff = archivedBefore;
+                newTransactions.replaceAll((username, rows) -> notArchived(rows, cutoff));
+
+                // streaming the full snapshot files into the new generation
+                File tmp = createTempGeneration(FULL_PREFIX + folded);
+                SnapshotCodec.SnapshotReader from = SnapshotCodec.reader(baseDir);
+                try (
+                    SnapshotCodec.SnapshotWriter to = SnapshotCodec.writer(tmp, config.snapshotFormat, config.snapshotCompression);
+                ){
+                    to.setNextPostID(nextPostID);
+                    foldSection(from, to, SnapshotCodec.Section.USERS, newUsers.values(), user -> {
+                        newUsers.remove(user.getAsJsonObject().get("username").getAsString());
+                        return user;
+                    });
+                    foldSection(from, to, SnapshotCodec.Section.ORIGINALS, originals.values(), post -> {
+                        JsonObject obj = post.getAsJsonObject();
+                        int id = obj.get("id").getAsInt();
+                        if(deleted.contains(id)) return null;
+
+                        JsonElement newer = originals.remove(id);
+                        if(newer != null) return newer;
+
+                        obj.addProperty("iterations", obj.get("iterations").getAsInt() + totalTicks);
+                        return obj;
+                    });
+                    foldSection(from, to, SnapshotCodec.Section.REWINS, rewins.values(), rewin -> {
+                        int id = rewin.getAsJsonObject().get("id").getAsInt();
+                        if(deleted.contains(id)) return null;
+
+                        JsonElement newer = rewins.remove(id);
+                        return (newer != null) ? newer : rewin;
+                    });
+                    foldSection(from, to, SnapshotCodec.Section.FOLLOWS, entriesOf(follows), elem -> {
+                        JsonObject obj = new JsonObject();
+                        for(Entry<String, JsonElement> entry : elem.getAsJsonObject().entrySet()){
+                            JsonArray newer = follows.remove(entry.getKey());
+                            obj.add(entry.getKey(), (newer != null) ? newer : entry.getValue());
+                        }
+                        return obj;
+                    });
+                    foldSection(from, to, SnapshotCodec.Section.TRANSACTIONS, entriesOf(newTransactions), elem -> {
+                        JsonObject obj = new JsonObject();
+                        for(Entry<String, JsonElement> entry : elem.getAsJsonObject().entrySet()){
+                            JsonArray rows = notArchived(entry.getValue().getAsJsonArray(), cutoff);
+                            JsonArray newer = newTransactions.remove(entry.getKey());
+                            if(newer != null) rows.addAll(newer);
+                            obj.add(entry.getKey(), rows);
+                        }
+                        return obj;
+                    });
+                }
+
+                publishGeneration(tmp, FULL_PREFIX + folded);
+
+                synchronized(manifestSync){
+                    baseSegment = folded;
+                    deltaGenerations.removeAll(toFold);
+                    writeManifest();
+                }
+
+                // the old generations are not listed in the manifest anymore
+                if(base >= 0) deleteGeneration(generationDir(FULL_PREFIX, base));
+                else { // full snapshot in the persistence directory itself
+                    new File(dir, SnapshotCodec.STRINGS_FILE).delete();
+                    new File(dir, SnapshotCodec.MANIFEST_FILE).delete();
+                    for(SnapshotCodec.Section section : SnapshotCodec.Section.values()){
+                        new File(dir, section.jsonFile).delete();
+                        new File(dir, section.jsonFile + SnapshotCodec.GZIP_SUFFIX).delete();
+                        new File(dir, section.binaryFile).delete();
+                        new File(dir, section.indexFile).delete();
+                    }
+                }
+                for(int number : toFold) deleteGeneration(generationDir(DELTA_PREFIX, number));
+            } catch (ClassCastException | IllegalStateException | NullPointerException | JsonParseException | DateTimeParseException ex){
+                logger.log(Level.SEVERE, "Invalid snapshot file while folding incremental snapshots: " + ex.getMessage(), ex);
+                throw new InvalidJSONFileException("invalid snapshot file", ex);
+            } catch (IOException ex){
+                logger.log(Level.SEVERE, "IO error while folding incremental snapshots: " + ex.getMessage(), ex);
+                throw ex;
+            }
+            logger.info("Incremental snapshots folded.");
+            return null;
+        }
+
+        /**
+         * Streams the elements of a section of the full snapshot into the new one, 
+         * transforming each of them, and then appends the given new elements.
+         * @param from the reader of the full snapshot
+         * @param to the writer of the new full snapshot
+         * @param section the section
+         * @param newElements the elements to append, read after the whole section has been transformed
+         * @param transform the function transforming each element: if it returns null the element is discarded
+         * @throws IOException if some IO error occurs
+         */
+        private void foldSection(SnapshotCodec.SnapshotReader from, SnapshotCodec.SnapshotWriter to, SnapshotCodec.Section section, 
+                Collection<? extends JsonElement> newElements, Function<JsonElement, JsonElement> transform) throws IOException {
+            to.begin(section);
+            from.forEach(section, elem -> {
+                JsonElement folded = transform.apply(elem);
+                if(folded != null) to.write(folded);
+            });
+            for(JsonElement elem : newElements) to.write(elem);
+        }
+
+        /**
+         * Filters out the serialized transactions moved to the archive.
+         * @param rows the serialized transactions
+         * @param cutoff the timestamp (in epoch milliseconds) before which transactions have been archived, or 0
+         * @return the transactions not archived
+         */
+        private JsonArray notArchived(JsonArray rows, long cutoff){
+            if(cutoff <= 0) return rows;
+
+            JsonArray kept = new JsonArray();
+            for(JsonElement row : rows)
+                if(Instant.parse(row.getAsJsonObject().get("timestamp").getAsString()).toEpochMilli() >= cutoff) kept.add(row);
+            return kept;
+        }
+
+        /**
+         * Converts a map from usernames to arrays into a list of single-entry objects, 
+         * i.e. the format of the follows and transactions files.
+         * <p>
+         * The list is a view of the map, so that entries removed from the map do not appear in the list.
+         * @param map the given map
+         * @return the list of single-entry objects
+         */
+        private Collection<JsonObject> entriesOf(Map<String, JsonArray> map){
+            return new AbstractCollection<JsonObject>() {
+                @Override
+                public Iterator<JsonObject> iterator(){
+                    Iterator<Entry<String, JsonArray>> iter = map.entrySet().iterator();
+                    return new Iterator<JsonObject>() {
+                        @Override
+                        public boolean hasNext(){ return iter.hasNext(); }
+
+                        @Override
+                        public JsonObject next(){
+                            Entry<String, JsonArray> entry = iter.next();
+                            JsonObject obj = new JsonObject();
+                            obj.add(entry.getKey(), entry.getValue());
+                            return obj;
+                        }
+                    };
+                }
+
+                @Override
+                public int size(){ return map.size(); }
+            };
+        }
+
+        /**
+         * Counts the incremental snapshots not yet folded into the full snapshot.
+         * @return the number of incremental snapshots to fold
+         */
+        private int countDeltas(){
+            synchronized(manifestSync){ return deltaGenerations.size(); }
+        }
+
+        // ---------------- Generation directories ---------------- //
+
+        /**
+         * Returns the generation directory with the given prefix and number.
+         * @param prefix the prefix of the generation ({@link #FULL_PREFIX}, {@link #DELTA_PREFIX} or {@link #ARCHIVE_PREFIX})
+         * @param number the number of the generation
+         * @return the generation directory
+         */
+        private File generationDir(String prefix, int number){ return new File(dir, prefix + number); }
+
+        /**
+         * Creates an empty temporary directory where a new generation will be written, 
+         * deleting the one left by a previous attempt, if any.
+         * @param name the name of the new generation
+         * @return the temporary directory
+         * @throws IOException if the directory could not be created
+         */
+        private File createTempGeneration(String name) throws IOException {
+            File tmp = new File(dir, name + TMP_SUFFIX);
+            deleteGeneration(tmp);
+            if(!tmp.mkdir()) throw new IOException("could not create directory " + tmp.getName());
+            return tmp;
+        }
+
+        /**
+         * Syncs every file of a temporary generation directory and atomically renames it to its final name.
+         * <p>
+         * The generation is not part of the persisted data until it is listed in the manifest.
+         * @param tmp the temporary directory
+         * @param name the name of the generation
+         * @throws IOException if some IO error occurs
+         */
+        private void publishGeneration(File tmp, String name) throws IOException {
+            File[] files = tmp.listFiles();
+            if(files == null) throw new IOException("could not list directory " + tmp.getName());
+            for(File file : files) fsync(file);
+            fsyncDirectory(tmp);
+
+            Files.move(tmp.toPath(), new File(dir, name).toPath(), StandardCopyOption.ATOMIC_MOVE);
+            fsyncDirectory(dir);
+        }
+
+        /**
+         * Deletes a generation directory together with its files, if it exists.
+         * @param generation the generation directory
          */
-        private void persistFollows(File followsFile) throws IOException {
-            logger.info("Persisting follows.");
-            try (
-                JsonWriter writer = new JsonWriter(new BufferedWriter(new FileWriter(followsFile)));
-            ) {
-                writer.setIndent("    ");
+        private void deleteGeneration(File generation){
+            File[] files = generation.listFiles();
+            if(files == null) return;
+
+            for(File file : files) file.delete();
+            if(!generation.delete()) logger.warning("Could not delete " + generation.getName() + ".");
+        }
 
-                writer.beginArray();
-                for(Entry<String, Set<String>> entry : WinsomeServer.this.following.entrySet()){
-                    logger.fine("Persisting follows of user: " + entry.getKey() + ".");
-                    writer.beginObject()
-                          .name(entry.getKey())
-                          .beginArray();
+        /** Deletes the generation directories not listed in the manifest and the ones still being written. */
+        private void deleteStaleGenerations(){
+            File[] files = dir.listFiles(File::isDirectory);
+            if(files == null) return;
 
-                    for(String followed : entry.getValue())
-                        writer.value(followed);
+            Set<String> listed = new HashSet<>();
+            synchronized(manifestSync){
+                if(baseSegment >= 0) listed.add(FULL_PREFIX + baseSegment);
+                for(int delta : deltaGenerations) listed.add(DELTA_PREFIX + delta);
+                for(int archive : archiveGenerations) listed.add(ARCHIVE_PREFIX + archive);
+            }
 
-                    writer.endArray()
-                          .endObject();
+            for(File file : files){
+                String name = file.getName();
+                boolean generation = name.startsWith(FULL_PREFIX) || name.startsWith(DELTA_PREFIX) || name.startsWith(ARCHIVE_PREFIX);
+                if(generation && !listed.contains(name)){
+                    logger.info("Deleting stale generation " + name + ".");
+                    deleteGeneration(file);
                 }
-                writer.endArray();
             }
-            logger.info("Follows persisted.");
         }
 
         /**
-         * Serializes all the posts and writes them into a file.
-         * @param origsFile the destination file for original posts
-         * @param rewinsFile the destination file for rewins
-         * @throws IOException if some IO error occurs while writing
+         * Forces the contents of a file to the storage device.
+         * @param file the given file
+         * @throws IOException if some IO error occurs
          */
-        private void persistPosts(File origsFile, File rewinsFile) throws IOException {
-            logger.info("Persisting posts.");
+        private void fsync(File file) throws IOException {
             try (
-                JsonWriter origsWriter = new JsonWriter(new BufferedWriter(new FileWriter(origsFile)));
-                JsonWriter rewinsWriter = new JsonWriter(new BufferedWriter(new FileWriter(rewinsFile)));
-            ) {
-                origsWriter.setIndent("    ");
-                rewinsWriter.setIndent("    ");
-
-                origsWriter.beginArray(); rewinsWriter.beginArray();
-                for(Post post : WinsomeServer.this.posts.values()){
-                    if(post.isRewin()) { 
-                        logger.finer("Persisting rewin with id " + post.getID() + "."); 
-                        post.toJson(rewinsWriter); 
-                    }
-                    else { 
-                        logger.finer("Persisting original post with id " + post.getID() + "."); 
-                        post.toJson(origsWriter); 
-                    }
-                }
-                origsWriter.endArray(); rewinsWriter.endArray();
+                FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.WRITE);
+            ){
+                channel.force(true);
             }
-            logger.info("Posts persisted.");
         }
 
         /**
-         * Serializes all the users and writes them into a file.
-         * @param usersFile the destination file
-         * @throws IOException if some IO error occurs while writing
+         * Forces the entries of a directory (e.g. a rename) to the storage device.
+         * <p>
+         * Not every platform allows opening a directory: in that case nothing is done.
+         * @param directory the given directory
          */
-        private void persistUsers(File userFile) throws IOException {
-            logger.info("Persisting users.");
+        private void fsyncDirectory(File directory){
             try (
-                JsonWriter writer = new JsonWriter(new BufferedWriter(new FileWriter(usersFile)));
-            ) {
-                writer.setIndent("    ");
-
-                writer.beginArray();
-                for(User user : users.values()){
-                    logger.finer("Persisting user " + user.getUsername() + ".");
-                    user.toJson(writer);
-                }
-
-                writer.endArray();
-            }
-            logger.info("Users persisted.");
+                FileChannel channel = FileChannel.open(directory.toPath(), StandardOpenOption.READ);
+            ){
+                channel.force(true);
+            } catch (IOException ex){ /* directories cannot be synced on this platform */ }
         }
     }
 
@@ -657,6 +2012,8 @@ public class WinsomeServer extends RemoteObject implements RemoteServer {
                     );
                 }
                 
+                if(response == null) return; // the response is sent when it is completed
+
                 logger.info("Sending response to client.");
                 send(response.toString(), key);
             } catch(IOException ex){ 
@@ -666,6 +2023,61 @@ public class WinsomeServer extends RemoteObject implements RemoteServer {
             }
         }     
 
+        /**
+         * Builds the response to a request whose mutation could not be logged.
+         * @return the {@link ResponseCode#NOT_PERSISTED} response
+         */
+        private JsonObject notPersisted(){
+            JsonObject response = new JsonObject();
+            ResponseCode.NOT_PERSISTED.addResponseToJson(response);
+            logger.info("Client request failed with error code " + ResponseCode.NOT_PERSISTED +
+                " (" + ResponseCode.NOT_PERSISTED.getMessage() + ")."
+            );
+            return response;
+        }
+
+        /**
+         * Checks whether the client already has the requested contents, i.e. whether the request carries their current tag.
+         * @param tag the current tag of the requested contents
+         * @return the {@link ResponseCode#NOT_MODIFIED} response, or null if the contents must be sent
+         */
+        private JsonObject notModified(String tag){
+            JsonElement known = request.get("if-none-match");
+            if(known == null || !known.isJsonPrimitive() || !known.getAsString().equals(tag)) return null;
+
+            JsonObject response = new JsonObject();
+            ResponseCode.NOT_MODIFIED.addResponseToJson(response);
+            response.addProperty("tag", tag);
+            logger.info("Client request fulfilled (contents not modified).");
+            return response;
+        }
+
+        /**
+         * Builds the response to a request modifying a post which is not among the live posts.
+         * <p>
+         * Archived posts can still be shown, so they are reported as archived rather than as missing.
+         * @param username the requesting user
+         * @param id the ID of the post
+         * @return the response, formatted as a JsonObject
+         * @throws NoSuchUserException if the requesting user does not exist
+         */
+        private JsonObject missingPost(String username, int id) throws NoSuchUserException {
+            JsonObject response = new JsonObject();
+
+            Post archived = archive.getPost(id);
+            if(archived != null && isPostVisible(username, archived)){
+                logger.info("Client request failed with error code " + ResponseCode.POST_ARCHIVED +
+                    " (archived posts cannot be modified)."
+                );
+                ResponseCode.POST_ARCHIVED.addResponseToJson(response); return response;
+            }
+
+            logger.info("Client request failed with error code " + ResponseCode.NO_POST +
+                " (post does not exist or user cannot see it)."
+            );
+            ResponseCode.NO_POST.addResponseToJson(response); return response;
+        }
+
         /**
          * Fulfills a client's request for the Server Multicast Socket address and port.
          * @return the response, formatted as a JsonObject
@@ -692,11 +2104,20 @@ public class WinsomeServer extends RemoteObject implements RemoteServer {
             JsonObject response = new JsonObject();
 
             String username, password; 
+            boolean push;
+            Long knownEpoch = null, knownVersion = null;
             
             // reading username and password from the request
             try {
                 username = request.get("username").getAsString();
                 password = request.get("password").getAsString();
+                // whether the client wants follower updates on this connection rather than through RMI
+                push = request.has("push") && request.get("push").getAsBoolean();
+                // the version of the followers the client already knows, if any
+                if(request.has("followers-version")){
+                    knownEpoch = request.get("followers-epoch").getAsLong();
+                    knownVersion = request.get("followers-version").getAsLong();
+                }
             } catch (NullPointerException | ClassCastException | IllegalStateException ex){
                 throw new MalformedJSONException("request had missing fields", ex);
             }
@@ -718,13 +2139,35 @@ public class WinsomeServer extends RemoteObject implements RemoteServer {
                 return response;
             }
 
-            // getting followers
-            List<User> followers = WinsomeServer.this.getFollowers(username);
-            
+            // registering for follower updates on this connection before reading the followers,
+            // so that every later change is pushed (a change both pushed and in the response is applied twice, harmlessly)
+            if(push) response.addProperty("push", callbacks.register(username, (added, removed) -> pushFollowers(key, added, removed)));
+
+            // a client dropped from callbacks is sent the whole list, like one knowing no version
+            FollowerChangeLog.Delta delta = null;
+            if(knownVersion != null) delta = followerLog.since(username, knownEpoch, knownVersion);
+            else followerLog.resync(username);
+
             // success!
             ResponseCode.SUCCESS.addResponseToJson(response);
-            // sending current follower list to user
-            response.add("followers", userTagsToJson(followers));
+            response.addProperty("followers-epoch", followerLog.epoch());
+            if(delta != null){
+                // sending the changes since the version known by the client
+                List<User> added = new ArrayList<>();
+                JsonArray removed = new JsonArray();
+                for(Entry<String, Boolean> change : delta.changes.entrySet()){
+                    if(change.getValue()) added.add(users.get(change.getKey()));
+                    else removed.add(change.getKey());
+                }
+                response.addProperty("followers-version", delta.version);
+                response.add("followers-added", userTagsToJson(added));
+                response.add("followers-removed", removed);
+            } else {
+                // read before the followers, so that the changes made meanwhile are sent again at the next login
+                response.addProperty("followers-version", followerLog.version(username));
+                // sending current follower list to user
+                response.add("followers", userTagsToJson(WinsomeServer.this.getFollowers(username)));
+            }
             
             logger.info("Client request fulfilled.");
             return response;
@@ -837,7 +2280,7 @@ public class WinsomeServer extends RemoteObject implements RemoteServer {
          * @throws UserNotVisible if the client cannot see the user to follow
          */
         private JsonObject followRequest() throws MalformedJSONException, NoSuchUserException, 
-                NoLoggedUserException, WrongUserException, UserNotVisibleException {
+                NoLoggedUserException, WrongUserException, UserNotVisibleException, IOException {
             logger.info("Fulfilling a client's FOLLOW request.");
             JsonObject response = new JsonObject();
 
@@ -862,6 +2305,7 @@ public class WinsomeServer extends RemoteObject implements RemoteServer {
 
             // adding follower
             try { WinsomeServer.this.addFollower(username, toFollow); }
+            catch (MutationLogException ex){ return notPersisted(); }
             catch (AlreadyFollowingException ex){ // if 'username' already follows 'toFollow'
                 logger.info("Client request failed with error code " + ResponseCode.ALREADY_FOLLOWED +
                     " (user already follows the other user)."
@@ -886,7 +2330,7 @@ public class WinsomeServer extends RemoteObject implements RemoteServer {
          * @throws UserNotVisible if the client cannot see the user to unfollow
          */
         private JsonObject unfollowRequest() throws MalformedJSONException, NoSuchUserException, 
-                NoLoggedUserException, WrongUserException, UserNotVisibleException {
+                NoLoggedUserException, WrongUserException, UserNotVisibleException, IOException {
             logger.info("Fulfilling a client's UNFOLLOW request.");
             JsonObject response = new JsonObject();
 
@@ -911,6 +2355,7 @@ public class WinsomeServer extends RemoteObject implements RemoteServer {
 
             // removing follower
             try { WinsomeServer.this.removeFollower(username, toUnfollow); }
+            catch (MutationLogException ex){ return notPersisted(); }
             catch (NotFollowingException ex){ // if 'username' does not follow 'toUnfollow'
                 logger.info("Client request failed with error code " + ResponseCode.NOT_FOLLOWING +
                     " (user does not follow the user to unfollow)."
@@ -957,11 +2402,17 @@ public class WinsomeServer extends RemoteObject implements RemoteServer {
                 );
                 ResponseCode.USER_NOT_VISIBLE.addResponseToJson(response); return response;
             }
+            // read before the posts, so that a change made meanwhile is sent again
+            String tag = versions.blogTag(toView);
+            JsonObject notModified;
+            if((notModified = notModified(tag)) != null) return notModified;
+
             // getting posts
             List<Post> posts = getPostByAuthor(toView);
 
             // success!
             ResponseCode.SUCCESS.addResponseToJson(response);
+            response.addProperty("tag", tag);
 
             JsonArray postArray = new JsonArray();
             for(Post post : posts)
@@ -980,7 +2431,7 @@ public class WinsomeServer extends RemoteObject implements RemoteServer {
          * @throws NoLoggedUserException if the client is not currently logged in
          * @throws WrongUserException if the client is logged on a different user
          */
-        private JsonObject postRequest() throws MalformedJSONException, NoSuchUserException, NoLoggedUserException, WrongUserException {
+        private JsonObject postRequest() throws MalformedJSONException, NoSuchUserException, NoLoggedUserException, WrongUserException, IOException {
             logger.info("Fulfilling a client's POST request.");
             JsonObject response = new JsonObject();
 
@@ -999,10 +2450,25 @@ public class WinsomeServer extends RemoteObject implements RemoteServer {
 
             // creating and adding new post
             try {
-                Post post = new OriginalPost(username, title, content);
-                posts.put(post.getID(), post);
+                Post post; long seq;
+                checkpointLock.readLock().lock();
+                try {
+                    checkLogWritable();
+                    post = new OriginalPost(username, title, content);
+
+                    JsonObject record = mutation("POST");
+                    record.add("post", toJsonTree(post::toJson));
+                    seq = logMutation(record);
+
+                    posts.put(post);
+                    persistenceWorker.markPost(post.getID());
+                    versions.blogChanged(username);
+                } finally { checkpointLock.readLock().unlock(); }
+
+                awaitLogged(seq);
                 response.addProperty("id", post.getID());
-            } catch (TextLengthException ex) {
+            } catch (MutationLogException ex){ return notPersisted(); }
+            catch (TextLengthException ex) {
                 logger.info("Client request failed with error code " + ResponseCode.TEXT_LENGTH +
                     " (text length exceeded maximum limits)."
                 );
@@ -1037,11 +2503,17 @@ public class WinsomeServer extends RemoteObject implements RemoteServer {
             
             WinsomeServer.this.checkIfLogged(username, key);
 
+            // read before the posts, so that a change made meanwhile is sent again
+            String tag = versions.feedTag(username, following.get(username));
+            JsonObject notModified;
+            if((notModified = notModified(tag)) != null) return notModified;
+
             // getting feed
             List<Post> posts = getFeed(username);
             
             // success!
             ResponseCode.SUCCESS.addResponseToJson(response);
+            response.addProperty("tag", tag);
 
             JsonArray postArray = new JsonArray();
             for(Post post : posts){
@@ -1077,15 +2549,21 @@ public class WinsomeServer extends RemoteObject implements RemoteServer {
             
             Post post;
             WinsomeServer.this.checkIfLogged(username, key);
-            if((post = posts.get(id)) == null || !isPostVisible(username, post)) {
+            if((post = posts.get(id)) == null) post = archive.getPost(id); // archived posts can still be shown
+            if(post == null || !isPostVisible(username, post)) {
                 logger.info("Client request failed with error code " + ResponseCode.NO_POST +
                     " (post does not exist or user cannot see post)."
                 );
                 ResponseCode.NO_POST.addResponseToJson(response); return response;
             }
+            // read before the votes and comments, so that a change made meanwhile is sent again
+            String tag = versions.postTag(id, post.getOriginalID());
+            JsonObject notModified;
+            if((notModified = notModified(tag)) != null) return notModified;
 
             // success!
             ResponseCode.SUCCESS.addResponseToJson(response);
+            response.addProperty("tag", tag);
             response.add("post", postToJson(post, true));
 
             logger.info("Client request fulfilled.");
@@ -1100,7 +2578,7 @@ public class WinsomeServer extends RemoteObject implements RemoteServer {
          * @throws NoLoggedUserException if the client is not currently logged in
          * @throws WrongUserException if the client is logged on a different user
          */
-        private JsonObject deleteRequest() throws MalformedJSONException, NoSuchUserException, NoLoggedUserException, WrongUserException {
+        private JsonObject deleteRequest() throws MalformedJSONException, NoSuchUserException, NoLoggedUserException, WrongUserException, IOException {
             logger.info("Fulfilling a client's DELETE request.");
             JsonObject response = new JsonObject();
 
@@ -1118,13 +2596,8 @@ public class WinsomeServer extends RemoteObject implements RemoteServer {
 
             // deleting post
             try { WinsomeServer.this.deletePost(username, id); }
-            catch (NoSuchPostException ex){ // if no post with the given id exists
-                logger.info("Client request failed with error code " + ResponseCode.NO_POST +
-                    " (post does not exist or user cannot see it)."
-                );
-                ResponseCode.NO_POST.addResponseToJson(response);
-                return response;
-            }
+            catch (MutationLogException ex){ return notPersisted(); }
+            catch (NoSuchPostException ex){ return missingPost(username, id); } // if no live post with the given id exists
             catch (NotPostOwnerException ex){ // if the user is not the creator of the post
                 logger.info("Client request failed with error code " + ResponseCode.POST_OWNER +
                     " (user cannot delete other user's posts)."
@@ -1147,7 +2620,7 @@ public class WinsomeServer extends RemoteObject implements RemoteServer {
          * @throws NoLoggedUserException if the client is not currently logged in
          * @throws WrongUserException if the client is logged on a different user
          */
-        private JsonObject rewinRequest() throws MalformedJSONException, NoSuchUserException, NoLoggedUserException, WrongUserException {
+        private JsonObject rewinRequest() throws MalformedJSONException, NoSuchUserException, NoLoggedUserException, WrongUserException, IOException {
             logger.info("Fulfilling a client's REWIN request.");
             JsonObject response = new JsonObject();
 
@@ -1165,13 +2638,8 @@ public class WinsomeServer extends RemoteObject implements RemoteServer {
 
             // rewinning post
             try { WinsomeServer.this.rewinPost(username, id); }
-            catch (NoSuchPostException ex){ // if no post with the given id exists
-                logger.info("Client request failed with error code " + ResponseCode.NO_POST +
-                    " (post does not exist or user cannot see it)."
-                );
-                ResponseCode.NO_POST.addResponseToJson(response);
-                return response;
-            }
+            catch (MutationLogException ex){ return notPersisted(); }
+            catch (NoSuchPostException ex){ return missingPost(username, id); } // if no live post with the given id exists
             catch (NotFollowingException ex){ // user does not follow the owner of the post to rewin
                 logger.info("Client request failed with error code " + ResponseCode.NOT_FOLLOWING +
                     " (user cannot interact with not followed users)."
@@ -1207,7 +2675,7 @@ public class WinsomeServer extends RemoteObject implements RemoteServer {
          * @throws NoLoggedUserException if the client is not currently logged in
          * @throws WrongUserException if the client is logged on a different user
          */
-        private JsonObject rateRequest() throws MalformedJSONException, NoSuchUserException, NoLoggedUserException, WrongUserException {
+        private JsonObject rateRequest() throws MalformedJSONException, NoSuchUserException, NoLoggedUserException, WrongUserException, IOException {
             logger.info("Fulfilling a client's RATE request.");
             JsonObject response = new JsonObject();
 
@@ -1225,12 +2693,7 @@ public class WinsomeServer extends RemoteObject implements RemoteServer {
             WinsomeServer.this.checkIfLogged(username, key);
             
             Post post;
-            if((post = posts.get(id)) == null){
-                logger.info("Client request failed with error code " + ResponseCode.NO_POST +
-                    " (post does not exist or user cannot see it)."
-                );
-                ResponseCode.NO_POST.addResponseToJson(response); return response;
-            }
+            if((post = posts.get(id)) == null) return missingPost(username, id);
 
             if(post.getAuthor().equals(username)){
                 logger.info("Client request failed with error code " + ResponseCode.POST_OWNER +
@@ -1248,11 +2711,8 @@ public class WinsomeServer extends RemoteObject implements RemoteServer {
             }
             
             // upvoting post
-            try { 
-                if(vote == 1) post.upvote(username);
-                else if(vote == -1) post.downvote(username);
-                else throw new WrongVoteFormatException("vote must be +1/-1"); 
-            }
+            try { ratePost(username, post, vote); }
+            catch (MutationLogException ex){ return notPersisted(); }
             catch (AlreadyVotedException ex){
                 logger.info("Client request failed with error code " + ResponseCode.ALREADY_VOTED +
                     " (user had already voted the given post)."
@@ -1282,7 +2742,7 @@ public class WinsomeServer extends RemoteObject implements RemoteServer {
          * @throws NoLoggedUserException if the client is not currently logged in
          * @throws WrongUserException if the client is logged on a different user
          */
-        private JsonObject commentRequest() throws MalformedJSONException, NoSuchUserException, NoLoggedUserException, WrongUserException {
+        private JsonObject commentRequest() throws MalformedJSONException, NoSuchUserException, NoLoggedUserException, WrongUserException, IOException {
             logger.info("Fulfilling a client's COMMENT request.");
             JsonObject response = new JsonObject();
 
@@ -1300,12 +2760,7 @@ public class WinsomeServer extends RemoteObject implements RemoteServer {
             WinsomeServer.this.checkIfLogged(username, key);
             
             Post post;
-            if((post = posts.get(id)) == null){
-                logger.info("Client request failed with error code " + ResponseCode.NO_POST +
-                    " (post does not exist or user cannot see it)."
-                );
-                ResponseCode.NO_POST.addResponseToJson(response); return response;
-            }
+            if((post = posts.get(id)) == null) return missingPost(username, id);
 
             // checking that user follows the author of the post
             if(!canInteractWith(username, post)) {
@@ -1316,7 +2771,8 @@ public class WinsomeServer extends RemoteObject implements RemoteServer {
             }
             
             // adding comment
-            try { post.addComment(username, contents); }
+            try { commentPost(username, post, contents); }
+            catch (MutationLogException ex){ return notPersisted(); }
             catch (PostOwnerException ex){ // the given user is the owner of the post
                 logger.info("Client request failed with error code " + ResponseCode.POST_OWNER +
                     " (user cannot rate their own post)."
@@ -1344,30 +2800,41 @@ public class WinsomeServer extends RemoteObject implements RemoteServer {
             JsonObject response = new JsonObject();
 
             String username;
+            Instant from = null, to = null;
 
-            // reading username from the request
+            // reading username and the optional time interval from the request
             try {
                 username = request.get("username").getAsString();
+                if(request.has("from")) from = Instant.parse(request.get("from").getAsString());
+                if(request.has("to")) to = Instant.parse(request.get("to").getAsString());
             } catch (NullPointerException | ClassCastException | IllegalStateException ex ){ // no username => malformed Json
                 throw new MalformedJSONException("missing fields in json request", ex);
+            } catch (DateTimeParseException ex){ // invalid interval => malformed Json
+                throw new MalformedJSONException("invalid timestamps in json request", ex);
             }
             
             WinsomeServer.this.checkIfLogged(username, key);
 
             // getting transactions
-            Collection<Transaction> trans = transactions.get(username); // not null because user exists and is logged
+            Ledger trans = transactions.get(username); // not null because user exists and is logged
+            Ledger.Range range = trans.range(from, to);
+            // archived transactions precede the ones in the ledger
+            List<Transaction> archived = archive.getTransactions(username, from, to);
 
             JsonArray array = new JsonArray();
-            double total = 0;
-            for(Transaction transaction : trans){
-                JsonObject transJson = new JsonObject();
-                transJson.addProperty("increment", transaction.increment);
-                transJson.addProperty("timestamp", transaction.timestamp.toString());
-                array.add(transJson);
-
-                total += transaction.increment;
+            double archivedSum = 0;
+            for(Transaction transaction : archived) archivedSum += transaction.increment;
+            for(Iterable<Transaction> part : List.of(archived, range)){
+                for(Transaction transaction : part){
+                    JsonObject transJson = new JsonObject();
+                    transJson.addProperty("increment", transaction.increment);
+                    transJson.addProperty("timestamp", transaction.timestamp.toString());
+                    array.add(transJson);
+                }
             }
-            response.addProperty("total", total);
+            response.addProperty("total", trans.getBalance());
+            response.addProperty("range-total", archivedSum + range.sum());
+            response.addProperty("range-count", archived.size() + range.count());
             response.add("transactions", array);                       
 
             // success!
@@ -1379,7 +2846,10 @@ public class WinsomeServer extends RemoteObject implements RemoteServer {
 
         /**
          * Fulfills a client's wallet-in-bitcoins request.
-         * @return the response, formatted as a JsonObject
+         * <p>
+         * If no valid exchange rate is cached, the response is completed (and sent)
+         * on the worker pool as soon as the rate is fetched, without blocking this thread.
+         * @return the response, formatted as a JsonObject, or null if it will be sent later
          * @throws MalformedJSONException if the client request was not in a valid format
          * @throws NoSuchUserException if the requesting user does not exist
          * @throws NoLoggedUserException if the client is not currently logged in
@@ -1400,15 +2870,41 @@ public class WinsomeServer extends RemoteObject implements RemoteServer {
             
             WinsomeServer.this.checkIfLogged(username, key);
 
-            // getting transactions
-            Collection<Transaction> trans = transactions.get(username); // not null because user exists and is logged
+            // getting balance
+            double total = transactions.get(username).getBalance(); // not null because user exists and is logged
+            CompletableFuture<Double> exchange = exchangeRate.getRate(config.btcRateTimeout);
+
+            if(exchange.isDone()) return completeWalletBTC(response, total, exchange);
 
-            double total = 0; double exchange;
-            for(Transaction transaction : trans)
-                total += transaction.increment;
+            logger.info("Waiting for the exchange rate.");
+            Runnable completion = () -> {
+                try { send(completeWalletBTC(response, total, exchange).toString(), key); }
+                catch (IOException ioEx){
+                    logger.log(Level.WARNING, "IO exception while fulfilling a client's request: " + ioEx.getMessage(), ioEx);
+                    logger.warning("Removing client.");
+                    endUserSession(key); // removing the user
+                }
+            };
+            exchange.whenComplete((rate, ex) -> {
+                try { pool.execute(completion); }
+                // the pool is shutting down or saturated: the client must be answered anyway
+                catch (RejectedExecutionException rejected){ completion.run(); }
+            });
+            return null;
+        }
+
+        /**
+         * Completes the response to a wallet-in-bitcoins request.
+         * @param response the response
+         * @param total the wallet of the user, in Wincoins
+         * @param exchange the completed exchange rate
+         * @return the response
+         */
+        private JsonObject completeWalletBTC(JsonObject response, double total, CompletableFuture<Double> exchange){
+            double rate;
 
-            try { exchange = getBTCExchangeRate(); }
-            catch (IOException | NumberFormatException ex) { // error while getting exchange rate
+            try { rate = exchange.join(); }
+            catch (CompletionException ex) { // no exchange rate available
                 logger.info("Client request failed with error code " + ResponseCode.EXCHANGE_RATE_ERROR +
                     " (" + ResponseCode.EXCHANGE_RATE_ERROR.getMessage() + ")."
                 );
@@ -1416,7 +2912,7 @@ public class WinsomeServer extends RemoteObject implements RemoteServer {
                 return response;
             }
             
-            response.addProperty("btc-total", total * exchange);
+            response.addProperty("btc-total", total * rate);
 
             // success!
             ResponseCode.SUCCESS.addResponseToJson(response);
@@ -1493,6 +2989,94 @@ public class WinsomeServer extends RemoteObject implements RemoteServer {
 
     /** Calculates asynchronously the rewards for each post. */
     private class RewardsAlgorithm implements Callable<Void> {
+        /** 
+         * Reaps the rewards of a partition of the posts to visit and 
+         * sums them up per user, splitting the partition if it is too big.
+         */
+        private class ReapTask extends RecursiveTask<Map<String, Double>> {
+            /** Maximum number of posts reaped by a single task without splitting it */
+            private static final int THRESHOLD = 64;
+
+            /** The posts to visit */
+            private final List<OriginalPost> toReap;
+            /** Number of votes and comments counted for each reaped post, to be logged */
+            private final Queue<JsonObject> reaped;
+            /** Index of the first post of this partition */
+            private final int from;
+            /** Index following the last post of this partition */
+            private final int to;
+
+            /**
+             * Creates a new task reaping the posts in the given range.
+             * @param toReap the posts to visit
+             * @param reaped the queue where the number of votes and comments counted for each post are added
+             * @param from index of the first post (inclusive)
+             * @param to index of the last post (exclusive)
+             */
+            public ReapTask(List<OriginalPost> toReap, Queue<JsonObject> reaped, int from, int to){
+                this.toReap = toReap;
+                this.reaped = reaped;
+                this.from = from;
+                this.to = to;
+            }
+
+            /**
+             * Reaps the posts of this partition.
+             * @return a map from usernames to the total reward earned in this partition
+             */
+            @Override
+            protected Map<String, Double> compute(){
+                if(to - from <= THRESHOLD) return reapPartition();
+
+                int mid = (from + to) >>> 1;
+                ReapTask left = new ReapTask(toReap, reaped, from, mid);
+                left.fork();
+                Map<String, Double> right = new ReapTask(toReap, reaped, mid, to).compute();
+                Map<String, Double> leftRes = left.join();
+
+                // merging the smaller map into the bigger one
+                Map<String, Double> big = (leftRes.size() >= right.size()) ? leftRes : right;
+                Map<String, Double> small = (big == leftRes) ? right : leftRes;
+                for(Entry<String, Double> entry : small.entrySet())
+                    big.merge(entry.getKey(), entry.getValue(), Double::sum);
+                return big;
+            }
+
+            /**
+             * Reaps sequentially the posts of this partition.
+             * @return a map from usernames to the total reward earned in this partition
+             */
+            private Map<String, Double> reapPartition(){
+                Map<String, Double> rewardsPerUser = new HashMap<>();
+                for(int i = from; i < to; i++){
+                    OriginalPost post = toReap.get(i);
+                    if(posts.get(post.getID()) != post) continue; // post has been deleted
+
+                    PostRewards rewards;
+                    synchronized(post){ rewards = post.reapRewards(); } // synchronized with votes and comments
+
+                    if(rewards.votes > 0 || rewards.comments > 0){
+                        JsonObject counted = new JsonObject();
+                        counted.addProperty("id", post.getID());
+                        counted.addProperty("votes", rewards.votes);
+                        counted.addProperty("comments", rewards.comments);
+                        reaped.add(counted);
+                    }
+
+                    logger.fine("Rewards of post with ID " + post.getID() + " is " + rewards.reward + ".");
+                    if(rewards.reward == 0) continue;
+
+                    // reward of the author
+                    rewardsPerUser.merge(post.getAuthor(), rewards.authorReward(percentage), Double::sum);
+                    // rewards of the curators
+                    double curatorReward = rewards.curatorReward(percentage);
+                    for(String curator : rewards.getCurators())
+                        rewardsPerUser.merge(curator, curatorReward, Double::sum);
+                }
+                return rewardsPerUser;
+            }
+        }
+
         /** The percentage of the reward going to the author/curator */
         private final RewardsPercentage percentage;
         /** The waiting time betweet two iterations */
@@ -1527,27 +3111,51 @@ public class WinsomeServer extends RemoteObject implements RemoteServer {
 
                 // computing rewards
                 logger.info("Rewards Algorithm running.");
-                for(Post post : posts.values()){
-                    if(post.isRewin()) continue;
+                long tickSeq, seq;
 
-                    PostRewards rewards = ((OriginalPost) post).reapRewards();
-                    logger.fine("Rewards of post with ID " + post.getID() + " is " + rewards.reward + ".");
-                    if(rewards.reward == 0) continue;
-                    
-                    // adding transaction for author
-                    String author = post.getAuthor();
-                    logger.fine("Adding transaction for author of post with ID " + post.getID() + ".");
-                    transactions.get(author).add(
-                        new Transaction(author, rewards.authorReward(percentage))
-                    );
+                // no mutation may happen between the new iteration and its record, 
+                // otherwise posts created in between would count a different number of iterations after a replay
+                checkpointLock.writeLock().lock();
+                try {
+                    OriginalPost.startRewardsIteration(); // idle posts age too
+                    tickSeq = logMutation(mutation("REWARDS_TICK"));
+                    checkpointLock.readLock().lock(); // downgrading the lock
+                } finally { checkpointLock.writeLock().unlock(); }
 
-                    // adding transactions for curators
-                    for(String curator : rewards.getCurators()){
-                        logger.fine("Adding transaction for curator " + curator + " of post with ID " + post.getID() + ".");
-                        transactions.get(curator).add(
-                            new Transaction(curator, rewards.curatorReward(percentage))
-                        );
+                try {
+                    List<OriginalPost> toReap = new ArrayList<>(dirtyPosts.getAndSet(ConcurrentHashMap.newKeySet()));
+                    Queue<JsonObject> reaped = new ConcurrentLinkedQueue<>();
+                    logger.fine("Reaping rewards of " + toReap.size() + " posts.");
+                    Map<String, Double> rewardsPerUser = rewardsPool.invoke(new ReapTask(toReap, reaped, 0, toReap.size()));
+
+                    // publishing a single transaction per user
+                    Instant timestamp = Instant.now();
+                    JsonObject rewardsJson = new JsonObject();
+                    for(Entry<String, Double> entry : rewardsPerUser.entrySet()){
+                        String user = entry.getKey();
+                        logger.fine("Adding transaction for user " + user + ".");
+                        transactions.get(user).add(new Transaction(user, entry.getValue(), timestamp));
+                        persistenceWorker.markLedger(user);
+                        rewardsJson.addProperty(user, entry.getValue());
+                    }
+
+                    JsonArray reapedJson = new JsonArray();
+                    for(JsonObject counted : reaped){
+                        reapedJson.add(counted);
+                        persistenceWorker.markPost(counted.get("id").getAsInt());
                     }
+
+                    JsonObject record = mutation("REWARDS");
+                    record.addProperty("timestamp", timestamp.toString());
+                    record.add("posts", reapedJson);
+                    record.add("rewards", rewardsJson);
+                    seq = (reapedJson.size() == 0) ? tickSeq : logMutation(record);
+                } finally { checkpointLock.readLock().unlock(); }
+
+                try { awaitLogged(seq); }
+                catch (IOException ex){
+                    selector.wakeup();
+                    throw new IOException("IO error while logging rewards", ex);
                 }
                 logger.info("Computed rewards for every post. Sending notification through Multicast.");
 
@@ -1584,6 +3192,14 @@ public class WinsomeServer extends RemoteObject implements RemoteServer {
     /** Boolean flag representin whether the server is currently running */
     private AtomicBoolean isRunning  = new AtomicBoolean(false);
 
+    /** The log of the mutations happened since the last snapshot */
+    private MutationLog mutationLog;
+    /** 
+     * Lock separating mutations (read lock), which are applied and logged together,
+     * from checkpoints (write lock), which must see no half-logged mutation
+     */
+    private final ReentrantReadWriteLock checkpointLock = new ReentrantReadWriteLock();
+
     /** The Server config. */
     private ServerConfig config;
     /** A Runnable object that loads and writes the Server state from/to disk. */
@@ -1597,6 +3213,10 @@ public class WinsomeServer extends RemoteObject implements RemoteServer {
     private ExecutorService rewardsThread = Executors.newSingleThreadExecutor();
     /** Result of the Rewards Algorithm (to check that no exceptions have been thrown) */
     private Future<Void> rewardsResult;
+    /** Pool on which the Rewards Algorithm reaps the posts in parallel */
+    private ForkJoinPool rewardsPool = new ForkJoinPool();
+    /** Cached exchange rate from Wincoins to Bitcoins, refreshed in the background */
+    private ExchangeRateProvider exchangeRate;
 
     /** The thread pool for the Worker Threads. */
     private ExecutorService pool;
@@ -1611,25 +3231,38 @@ public class WinsomeServer extends RemoteObject implements RemoteServer {
 
     /** Users of the Social Network, represented as a map from usernames to User objects. */
     private ConcurrentMap<String, User> users;
-    /** Posts of the Social Network, represented as a map from post IDs to Post objects. */
-    private ConcurrentMap<Integer, Post> posts;
+    /** Users being signed up, not yet in {@link #users}: reserving the username here makes concurrent sign ups of the same user fail. */
+    private final ConcurrentMap<String, User> signingUp = new ConcurrentHashMap<>();
+    /** Posts of the Social Network, by ID; only the most recently used original posts are kept in memory. */
+    private PostStore posts;
     /** The 'followers' structure of the Social Network, 
      * represented as a map from usernames to a set of followed users.
      */
     private ConcurrentMap<String, Set<String>> following;
     /** The Social Network's transactions, 
-     * represented as a map from usernames to collections of transactions 
+     * represented as a map from usernames to ledgers holding their transactions and balance
+     */
+    private ConcurrentMap<String, Ledger> transactions;
+    /** The posts and transactions older than the archive age, no longer in the live structures. */
+    private final Archive archive = new Archive();
+    /** The file holding the transactions of the ledgers evicted from memory. */
+    private LedgerFile ledgerFile;
+    /** The original posts voted or commented since the last iteration of the Rewards Algorithm.
+     * <p>
+     * The Rewards Algorithm swaps it with an empty set at the start of each iteration.
      */
-    private ConcurrentMap<String, Collection<Transaction>> transactions;
+    private final AtomicReference<Set<OriginalPost>> dirtyPosts = new AtomicReference<>(ConcurrentHashMap.newKeySet());
     
     /** The currently logged in users, represented as a map 
      * from usernames to the SelectionKey linked to the given user 
      */
     private final ConcurrentMap<String, SelectionKey> userSessions = new ConcurrentHashMap<>();
-    /** The currently registered to callbacks users, represented as a map
-     * from usernames to the RemoteClient that exposes the relevant callback methods.
-     */
-    private final ConcurrentMap<String, RemoteClient> registeredToCallbacks = new ConcurrentHashMap<>();
+    /** The users currently registered to callbacks, with their pending follower updates */
+    private CallbackDispatcher callbacks;
+    /** The recent changes to the follower set of each user, sent to the clients logging in again */
+    private FollowerChangeLog followerLog;
+    /** The versions of the posts, blogs and followed users, from which the tags of cacheable responses are computed */
+    private final ContentVersions versions = new ContentVersions();
 
     /**
      * Creates the Server instance reading the parameters from the given configuration file.
@@ -1642,6 +3275,16 @@ public class WinsomeServer extends RemoteObject implements RemoteServer {
         super();
 
         config = ServerConfig.fromConfigFile(Objects.requireNonNull(configPath, "config path must not be null"));
+        exchangeRate = new ExchangeRateProvider(config.btcRateSource, config.btcRateRefresh, config.btcRateTTL);
+        followerLog = new FollowerChangeLog(config.followerLogSize);
+        // a dropped client is only unregistered from callbacks (its TCP session may still be healthy),
+        // but its followers are stale: the whole list is sent at its next login
+        callbacks = new CallbackDispatcher(config.callbackQueueSize, config.callbackFailureBudget, config.callbackThreads,
+            username -> {
+                followerLog.invalidate(username);
+                logger.warning("User '" + username + "' will not receive follower updates until the next login.");
+            }
+        );
     }
 
     /**
@@ -1654,20 +3297,23 @@ public class WinsomeServer extends RemoteObject implements RemoteServer {
     public void init() throws InvalidDirectoryException, FileNotFoundException, InvalidJSONFileException, IOException {
         logger.info("Initializing data.");
         
-        persistenceWorker = new ServerPersistence(config.persistenceDir, config.persistenceInterval);
-        try { persistenceWorker.getPersistedData(); }
-        finally {
-            logger.info("Getting max post ID.");
-            // getting max ID
-            int maxPostID = 
-                posts.values().stream()
-                    .mapToInt(post -> post.getID())
-                    .max().orElse(-1);
-            
-            // initializing the ID generator for posts
-            logger.info("Initializing post ID Generator at " + (maxPostID + 1) + ".");
-            Post.initIDGenerator(maxPostID + 1);
-        }
+        persistenceWorker = new ServerPersistence(config.persistenceDir, config.persistenceInterval, config.foldThreshold);
+        FileNotFoundException notFound = null;
+        try {
+            try { persistenceWorker.getPersistedData(); }
+            catch (FileNotFoundException ex){ notFound = ex; } // initialized with empty data
+
+            // incremental snapshots and mutations logged after the last snapshot are applied even if there is no full snapshot
+            if(persistenceWorker.applyDeltas() > 0) notFound = null;
+            persistenceWorker.replayMutations();
+        } catch (UncheckedIOException ex){ throw ex.getCause(); } // posts spilled to their segments while loading
+
+        // initializing the ID generator for posts from the high-water mark recorded in the snapshots
+        int nextPostID = persistenceWorker.getNextPostID();
+        logger.info("Initializing post ID Generator at " + nextPostID + ".");
+        Post.initIDGenerator(nextPostID);
+
+        if(notFound != null) throw notFound;
     }
 
     /**
@@ -1706,6 +3352,9 @@ public class WinsomeServer extends RemoteObject implements RemoteServer {
             new RewardsAlgorithm(config.percentage, config.rewardInterval)
         );
 
+        logger.info("Starting exchange rate refresher.");
+        exchangeRate.start();
+
         logger.info("Starting Worker pool.");
         pool = new ThreadPoolExecutor(
             config.minThreads, config.maxThreads, 
@@ -1758,7 +3407,10 @@ public class WinsomeServer extends RemoteObject implements RemoteServer {
                         client.register(selector, SelectionKey.OP_READ, new KeyAttachment()); 
                         logger.info("Accepted new client.");
                     } 
-                    if(key.isReadable() && key.isValid()){ // request from already connected client
+                    if(key.isValid() && key.isWritable()){ // queued messages can be written
+                        flush(key);
+                    }
+                    if(key.isValid() && key.isReadable()){ // request from already connected client
                         logger.info("Got new request from client.");
 
                         // reading new request from client and parsing as a Json Object
@@ -1786,6 +3438,8 @@ public class WinsomeServer extends RemoteObject implements RemoteServer {
                     logger.log(Level.WARNING, "IO exception while communicating with client: " + ex.getMessage(), ex);
                     logger.warning("Closing connection with client.");
                     endUserSession(key);
+                } catch(CancelledKeyException ex){ // client disconnected by another thread meanwhile
+                    logger.info("Client was disconnected while selected.");
                 }
             }
         }
@@ -1853,6 +3507,9 @@ public class WinsomeServer extends RemoteObject implements RemoteServer {
         // shutting down Rewards Algorithm and Persistence
         logger.fine("Shutting down Rewards/Persistence Threads.");
         rewardsThread.shutdownNow();
+        rewardsPool.shutdownNow();
+        exchangeRate.close();
+        callbacks.close();
         try {
             synchronized(persistenceWorker.runningSync){
                 while(persistenceWorker.isRunning())
@@ -1861,7 +3518,9 @@ public class WinsomeServer extends RemoteObject implements RemoteServer {
                 persistenceThread.shutdownNow();
                 
                 logger.info("Running Persistence Algorithm to save all data.");
-                persistenceWorker.persistData(); 
+                persistenceWorker.checkpoint(); 
+                mutationLog.close();
+                persistenceWorker.close();
             }
         } catch (InterruptedException ex){ persistenceThread.shutdownNow(); }
 
@@ -1886,13 +3545,38 @@ public class WinsomeServer extends RemoteObject implements RemoteServer {
         
         User newUser = new User(username, password, tags);
 
-        synchronized(this){ 
-            following.computeIfAbsent(username, key -> ConcurrentHashMap.newKeySet());
-            transactions.computeIfAbsent(username, key -> new ConcurrentLinkedQueue<>());
+        // reserving the username, so that only one sign up of the same user goes on
+        if(signingUp.putIfAbsent(username, newUser) != null)
+            throw new UserAlreadyExistsException("\"" + username + "\" is not available as a new username");
+
+        long seq;
+        checkpointLock.readLock().lock();
+        try {
+            try { checkLogWritable(); }
+            catch (MutationLogException ex){ throw new RemoteException("could not persist the new user", ex); }
 
-            if(users.putIfAbsent(username, newUser) != null)
+            // checked after the reservation: a completed sign up publishes the user before releasing it
+            if(users.containsKey(username))
                 throw new UserAlreadyExistsException("\"" + username + "\" is not available as a new username");
+
+            // the follow set and the ledger are in place before the user is visible
+            following.computeIfAbsent(username, key -> ConcurrentHashMap.newKeySet());
+            transactions.computeIfAbsent(username, this::newLedger);
+
+            // logged before the user is visible, so that no mutation involving them is logged before it
+            JsonObject record = mutation("SIGNUP");
+            record.add("user", toJsonTree(newUser::toJson));
+            seq = logMutation(record);
+
+            users.put(username, newUser);
+            persistenceWorker.markUser(username);
+        } finally { 
+            checkpointLock.readLock().unlock();
+            signingUp.remove(username, newUser);
         }
+
+        try { awaitLogged(seq); }
+        catch (IOException ex){ throw new RemoteException("could not persist the new user", ex); }
         logger.fine("User with username " + username + " signed up.");
     }
 
@@ -1901,7 +3585,7 @@ public class WinsomeServer extends RemoteObject implements RemoteServer {
         if(username == null) throw new NullPointerException("null parameters while registering user in callback system");
         if(!users.containsKey(username)) throw new NoSuchUserException();
 
-        registeredToCallbacks.putIfAbsent(username, client);
+        callbacks.register(username, client);
         logger.fine("Registered client to callback service.");
     }
 
@@ -1910,7 +3594,7 @@ public class WinsomeServer extends RemoteObject implements RemoteServer {
         if(username == null) throw new NullPointerException("null parameters while unregistering user from callback system");
         if(!users.containsKey(username)) return false;
 
-        registeredToCallbacks.remove(username);
+        callbacks.unregister(username);
         logger.fine("Unregistered client from callback service.");
         return true;
     }
@@ -1963,6 +3647,7 @@ public class WinsomeServer extends RemoteObject implements RemoteServer {
         KeyAttachment attachment = (KeyAttachment) client.attachment();
         
         userSessions.remove(username, client);
+        callbacks.unregister(username);
         attachment.logout();
         logger.fine("Client with username " + username + " succesfully logged out.");
     }
@@ -2006,7 +3691,7 @@ public class WinsomeServer extends RemoteObject implements RemoteServer {
             String username = attachment.loggedUser();
 
             userSessions.remove(username);
-            registeredToCallbacks.remove(username);
+            callbacks.unregister(username);
             attachment.logout();
         } 
 
@@ -2026,7 +3711,7 @@ public class WinsomeServer extends RemoteObject implements RemoteServer {
             endUserSession(key);
         
         userSessions.remove(username);
-        registeredToCallbacks.remove(username);
+        callbacks.unregister(username);
     }
 
     /* ************** Get users/posts ************** */
@@ -2103,9 +3788,10 @@ public class WinsomeServer extends RemoteObject implements RemoteServer {
      * @throws NoSuchUserException if any of the two users do not exist
      * @throws UserNotVisibleException if the user to follow cannot be seen by the first user
      * @throws AlreadyFollowingException if 'username' already follows 'toFollow'
+     * @throws IOException if the new relation could not be logged
      */
     private void addFollower(String username, String toFollow) 
-            throws NullPointerException, NoSuchUserException, UserNotVisibleException, AlreadyFollowingException {
+            throws NullPointerException, NoSuchUserException, UserNotVisibleException, AlreadyFollowingException, IOException {
         if(username == null || toFollow == null) throw new NullPointerException("null arguments");
 
         logger.fine("Adding '" + toFollow + "' to the list of users followed by '" + username + "'.");
@@ -2122,23 +3808,28 @@ public class WinsomeServer extends RemoteObject implements RemoteServer {
         if(!isVisible(user, userToFollow))                  // checks 'username' can see 'toFollow'
             throw new UserNotVisibleException("user to follow has no common tags with requesting user");
 
-        if(!followedSet.add(toFollow))
-            throw new AlreadyFollowingException("user already followed");
-        
-        // updating followed through RMI
-        RemoteClient followedClient;
-        if((followedClient = registeredToCallbacks.get(toFollow)) != null){
-            try { followedClient.addFollower(username, user.getTags()); }
-            catch (RemoteException ex) { // remote error -> removing client
-                logger.log(
-                    Level.WARNING, 
-                    "RemoteException thrown while adding follower remotely to user '" + toFollow + "':" + ex.getMessage(),
-                    ex
-                );
-                logger.warning("Ending session of user '" + toFollow + "'.");
-                endUserSession(toFollow);
+        long seq;
+        checkpointLock.readLock().lock();
+        try {
+            checkLogWritable();
+            // synchronized with other follow/unfollow operations of the same user, to log them in order
+            synchronized(followedSet){
+                if(!followedSet.add(toFollow))
+                    throw new AlreadyFollowingException("user already followed");
+                followerLog.record(toFollow, username, true);
+                versions.followingChanged(username);
+
+                JsonObject record = mutation("FOLLOW");
+                record.addProperty("username", username);
+                record.addProperty("followed", toFollow);
+                seq = logMutation(record);
+                persistenceWorker.markFollows(username);
             }
-        }
+        } finally { checkpointLock.readLock().unlock(); }
+        awaitLogged(seq);
+        
+        // updating followed through RMI, without waiting for the delivery
+        callbacks.addFollower(toFollow, username, user.getTags());
     }
     
     /**
@@ -2149,9 +3840,10 @@ public class WinsomeServer extends RemoteObject implements RemoteServer {
      * @throws NoSuchUserException if any of the two users do not exist
      * @throws UserNotVisibleException if the user to follow cannot be seen by the first user
      * @throws NotFollowingException if 'username' does not follow 'toUnfollow'
+     * @throws IOException if the removal could not be logged
      */
     private void removeFollower(String username, String toUnfollow) 
-            throws NullPointerException, NoSuchUserException, UserNotVisibleException, NotFollowingException {
+            throws NullPointerException, NoSuchUserException, UserNotVisibleException, NotFollowingException, IOException {
         if(username == null || toUnfollow == null) throw new NullPointerException("null arguments");
 
         logger.fine("Removing '" + toUnfollow + "' to the list of users followed by '" + username + "'.");
@@ -2168,23 +3860,28 @@ public class WinsomeServer extends RemoteObject implements RemoteServer {
         if(!isVisible(user, userToUnfollow))                  // checks 'username' can see 'toFollow'
             throw new UserNotVisibleException("user to follow has no common tags with requesting user");
         
-        if(!followedSet.remove(toUnfollow))
-            throw new NotFollowingException("user already unfollowed");
-        
-        // updating unfollowed through RMI
-        RemoteClient unfollowedClient;
-        if((unfollowedClient = registeredToCallbacks.get(toUnfollow)) != null){
-            try { unfollowedClient.removeFollower(username); }
-            catch (RemoteException ex){ // remote error -> removing client
-                logger.log(
-                    Level.WARNING, 
-                    "RemoteException thrown while adding follower remotely to user '" + toUnfollow + "':" + ex.getMessage(),
-                    ex
-                );
-                logger.warning("Ending session of user '" + toUnfollow + "'.");
-                endUserSession(toUnfollow);
+        long seq;
+        checkpointLock.readLock().lock();
+        try {
+            checkLogWritable();
+            // synchronized with other follow/unfollow operations of the same user, to log them in order
+            synchronized(followedSet){
+                if(!followedSet.remove(toUnfollow))
+                    throw new NotFollowingException("user already unfollowed");
+                followerLog.record(toUnfollow, username, false);
+                versions.followingChanged(username);
+
+                JsonObject record = mutation("UNFOLLOW");
+                record.addProperty("username", username);
+                record.addProperty("followed", toUnfollow);
+                seq = logMutation(record);
+                persistenceWorker.markFollows(username);
             }
-        }
+        } finally { checkpointLock.readLock().unlock(); }
+        awaitLogged(seq);
+        
+        // updating unfollowed through RMI, without waiting for the delivery
+        callbacks.removeFollower(toUnfollow, username);
     }
 
     // -------------- Post methods --------------- //
@@ -2199,12 +3896,9 @@ public class WinsomeServer extends RemoteObject implements RemoteServer {
         if(username == null) throw new NullPointerException("null arguments");
         if(!users.containsKey(username)) throw new NoSuchUserException("user does not exist");
 
-        List<Post> ans = new ArrayList<>();
-        for(Post post : posts.values()){
-            if((!post.isRewin() && post.getAuthor().equals(username)) || (post.isRewin() && post.getRewinner().equals(username))) 
-                ans.add(post);
-        }
-        return ans;
+        List<Post> blog = posts.getOwnedBy(username::equals);
+        blog.addAll(archive.getOwnedBy(username));
+        return blog;
     }
     
     /**
@@ -2219,14 +3913,8 @@ public class WinsomeServer extends RemoteObject implements RemoteServer {
         Set<String> followed;
         if((followed = following.get(username)) == null) throw new NoSuchUserException("user does not exist");
 
-        List<Post> ans = new ArrayList<>();
-        for(Post post : posts.values()){
-            if(
-                (post.isRewin() && followed.contains(post.getRewinner())) || // post is a visible rewin
-                (!post.isRewin() && followed.contains(post.getAuthor()))     // post is a visible original post
-            ) { ans.add(post); }
-        }
-        return ans;
+        // rewins made by the followed users and original posts written by them
+        return posts.getOwnedBy(followed::contains);
     }
 
     /**
@@ -2237,8 +3925,9 @@ public class WinsomeServer extends RemoteObject implements RemoteServer {
      * @throws NoSuchUserException if no user with the given username exists
      * @throws NoSuchPostException if no post with the given id exists
      * @throws NotPostOwnerException if the client is not the author/rewinner of the given post
+     * @throws IOException if the deletion could not be logged
      */
-    private void deletePost(String username, int id) throws NoSuchUserException, NoSuchPostException, NotPostOwnerException {
+    private void deletePost(String username, int id) throws NoSuchUserException, NoSuchPostException, NotPostOwnerException, IOException {
         if(username == null) throw new NullPointerException();
 
         Post post;
@@ -2248,19 +3937,37 @@ public class WinsomeServer extends RemoteObject implements RemoteServer {
 
         if(post.isRewin()){
             if(!post.getRewinner().equals(username)) throw new NotPostOwnerException("user is not the rewinner of this post");
-
-            // synchronized with rewins
-            synchronized(posts) { posts.remove(id); }
         } else {
             if(!post.getAuthor().equals(username)) throw new NotPostOwnerException("user is not the author of this post");
+        }
+
+        JsonObject record = mutation("DELETE");
+        record.addProperty("id", id);
 
+        long seq;
+        checkpointLock.readLock().lock();
+        try {
+            checkLogWritable();
             // synchronized with rewins
-            synchronized(posts) { posts.remove(id); }
-            for(Entry<Integer, Post> entry : posts.entrySet()){
-                if(entry.getValue().getOriginalID() == id)
-                    posts.remove(entry.getKey());
+            synchronized(posts) { 
+                if(!posts.remove(id)) throw new NoSuchPostException("no post with the given id exists");
+                seq = logMutation(record);
+                persistenceWorker.markDeleted(id);
             }
-        }
+
+            if(!post.isRewin()){
+                dirtyPosts.get().remove(post); // deleted posts are not rewarded anymore
+                for(int rewin : posts.rewinsOf(id)){
+                    Post rewinPost = posts.get(rewin);
+                    posts.remove(rewin);
+                    persistenceWorker.markDeleted(rewin);
+                    if(rewinPost != null) versions.blogChanged(rewinPost.getRewinner());
+                }
+                versions.postDeleted(id);
+            }
+            versions.blogChanged(username);
+        } finally { checkpointLock.readLock().unlock(); }
+        awaitLogged(seq);
     }
 
     /**
@@ -2272,9 +3979,10 @@ public class WinsomeServer extends RemoteObject implements RemoteServer {
      * @throws PostOwnerException user is the author of the post
      * @throws AlreadyRewinnedException user has already rewinned the post
      * @throws NotFollowingException user is not following the owner of the post
+     * @throws IOException if the rewin could not be logged
      */
     private void rewinPost(String username, int idPost) 
-            throws NoSuchUserException, NoSuchPostException, PostOwnerException, AlreadyRewinnedException, NotFollowingException {
+            throws NoSuchUserException, NoSuchPostException, PostOwnerException, AlreadyRewinnedException, NotFollowingException, IOException {
         if(username == null) throw new NullPointerException();
 
         Post post;
@@ -2287,15 +3995,103 @@ public class WinsomeServer extends RemoteObject implements RemoteServer {
         if(!canInteractWith(username, post))
             throw new NotFollowingException("user does not follow the author of the post");
     
-        // synchronizing access with other rewins and with 'delete' operations
-        synchronized(posts){
-            if(post.hasRewinned(username))
-                throw new AlreadyRewinnedException("user cannot rewin post");
-            Post rewin = new Rewin(post, username);
+        long seq;
+        checkpointLock.readLock().lock();
+        try {
+            checkLogWritable();
+            // synchronizing access with other rewins and with 'delete' operations
+            synchronized(posts){
+                // looking the post up again, as it might have been deleted or evicted from memory
+                if((post = posts.get(idPost)) == null) throw new NoSuchPostException("no post with the given ID exists");
+                if(post.hasRewinned(username))
+                    throw new AlreadyRewinnedException("user cannot rewin post");
+                Post rewin = new Rewin(post, username);
+
+                JsonObject record = mutation("REWIN");
+                record.add("rewin", toJsonTree(rewin::toJson));
+                seq = logMutation(record);
+
+                posts.put(rewin);
+                persistenceWorker.markPost(rewin.getID());
+                persistenceWorker.markPost(post.getOriginalID()); // its rewinners changed
+                versions.blogChanged(username);
+            }
+        } finally { checkpointLock.readLock().unlock(); }
+        awaitLogged(seq);
+    }
 
-            if(posts.containsKey(idPost)) posts.put(rewin.getID(), rewin);
-            else throw new NoSuchPostException("no post with the given ID exists");
-        }
+    /**
+     * Adds a vote to a post.
+     * @param username the username of the voter
+     * @param post the post to vote
+     * @param vote the vote (+1 for upvotes, -1 for downvotes)
+     * @throws AlreadyVotedException if the user had already voted the post
+     * @throws WrongVoteFormatException if the vote is neither +1 nor -1
+     * @throws IOException if the vote could not be logged
+     */
+    private void ratePost(String username, Post post, int vote) 
+            throws AlreadyVotedException, WrongVoteFormatException, IOException {
+        if(username == null || post == null) throw new NullPointerException("null arguments");
+        if(vote != 1 && vote != -1) throw new WrongVoteFormatException("vote must be +1/-1"); 
+
+        long seq;
+        checkpointLock.readLock().lock();
+        try {
+            checkLogWritable();
+            // the post might have been evicted from memory and loaded back since it was looked up
+            Post original = posts.resolve(post);
+            // synchronized with the Rewards Algorithm, so that votes are logged before being rewarded
+            synchronized(original){
+                if(vote == 1) original.upvote(username);
+                else original.downvote(username);
+
+                JsonObject record = mutation("VOTE");
+                record.addProperty("id", original.getID());
+                record.addProperty("voter", username);
+                record.addProperty("vote", vote);
+                seq = logMutation(record);
+                persistenceWorker.markPost(original.getID());
+                versions.postChanged(original.getID());
+            }
+            markDirty(original); // before releasing the lock, so that it is not evicted from memory before being rewarded
+        } finally { checkpointLock.readLock().unlock(); }
+
+        awaitLogged(seq);
+    }
+
+    /**
+     * Adds a comment to a post.
+     * @param username the username of the author of the comment
+     * @param post the post to comment
+     * @param contents the contents of the comment
+     * @throws PostOwnerException if the user is the author of the post
+     * @throws IOException if the comment could not be logged
+     */
+    private void commentPost(String username, Post post, String contents) throws PostOwnerException, IOException {
+        if(username == null || post == null || contents == null) throw new NullPointerException("null arguments");
+
+        long seq;
+        checkpointLock.readLock().lock();
+        try {
+            checkLogWritable();
+            // the post might have been evicted from memory and loaded back since it was looked up
+            Post original = posts.resolve(post);
+            // synchronized with the Rewards Algorithm, so that comments are logged before being rewarded
+            synchronized(original){
+                original.addComment(username, contents);
+
+                JsonObject record = mutation("COMMENT");
+                record.addProperty("id", original.getID());
+                record.addProperty("author", username);
+                record.addProperty("contents", contents);
+                seq = logMutation(record);
+                persistenceWorker.markPost(original.getID());
+                versions.postChanged(original.getID());
+            }
+            markDirty(original); // before releasing the lock, so that it is not evicted from memory before being rewarded
+        } finally { checkpointLock.readLock().unlock(); }
+
+        awaitLogged(seq);
     }
 
     // --------------- VISIBILITY METHODS --------------- //
@@ -2475,18 +4271,107 @@ public class WinsomeServer extends RemoteObject implements RemoteServer {
     }
 
     /**
-     * Calculates the current exchange rate from Wincoins to Bitcoins.
-     * @return the exchange rate to BTC
-     * @throws IOException if some IO error occurs
+     * Creates an empty ledger, which can be evicted into the ledger file when it is not used.
+     * @param username the user whose transactions are stored in the ledger
+     * @return the new ledger
+     */
+    private Ledger newLedger(String username){ return new Ledger(username, ledgerFile); }
+
+    /**
+     * Marks the original version of a post as having votes or comments not yet rewarded,
+     * so that the next iteration of the Rewards Algorithm visits it.
+     * @param post the given post
+     */
+    private void markDirty(Post post){
+        OriginalPost original = (OriginalPost) Objects.requireNonNull(post, "null post").getOriginalPost();
+
+        Set<OriginalPost> dirty = dirtyPosts.get();
+        dirty.add(original);
+        // the set might have been swapped by the Rewards Algorithm while adding the post
+        if(dirtyPosts.get() != dirty) dirtyPosts.get().add(original);
+    }
+
+    // --------------- MUTATION LOG --------------- //
+
+    /** An object serializable through a JSON stream */
+    @FunctionalInterface
+    private static interface JsonSerializable {
+        /**
+         * Serializes an object through a JSON stream.
+         * @param writer the given JSON stream
+         * @throws IOException if some IO error occurs
+         */
+        void toJson(JsonWriter writer) throws IOException;
+    }
+
+    /**
+     * Creates a new mutation record.
+     * @param op the kind of mutation
+     * @return the new record
+     */
+    private static JsonObject mutation(String op){
+        JsonObject record = new JsonObject();
+        record.addProperty("op", op);
+        return record;
+    }
+
+    /**
+     * Serializes an object into a JSON tree.
+     * @param obj the given object
+     * @return the serialized object
+     */
+    private static JsonElement toJsonTree(JsonSerializable obj){
+        StringWriter out = new StringWriter();
+        try { obj.toJson(new JsonWriter(out)); }
+        catch (IOException ex){ throw new UncheckedIOException(ex); } // never thrown by a StringWriter
+        return JsonParser.parseString(out.toString());
+    }
+
+    /**
+     * Returns a JSON stream reading the given JSON tree.
+     * @param json the given JSON tree
+     * @return a JSON stream reading json
+     */
+    private static JsonReader readerOf(JsonElement json){
+        return new JsonReader(new StringReader(Objects.requireNonNull(json, "null json").toString()));
+    }
+
+    /**
+     * Appends a mutation to the mutation log.
+     * <p>
+     * It must be called holding the read lock of {@link #checkpointLock},
+     * in the same critical section applying the mutation.
+     * @param record the mutation
+     * @return the sequence number of the mutation in the log
+     */
+    private long logMutation(JsonObject record){
+        return mutationLog.append(record);
+    }
+
+    /**
+     * Checks that the mutation log can still be written, so that no mutation is applied once it has failed.
+     * <p>
+     * It must be called holding the read lock of {@link #checkpointLock}, before applying the mutation.
+     * @throws MutationLogException if the mutation log could not be written
+     */
+    private void checkLogWritable() throws MutationLogException {
+        if(mutationLog.hasFailed()) throw new MutationLogException("the mutation log could not be written: no change is accepted");
+    }
+
+    /**
+     * Waits until a logged mutation is safe according to the configured sync policy.
+     * <p>
+     * It should be called after releasing every lock. If it throws, the mutation has already been applied
+     * (and it is visible to the other clients), but it is lost when the server restarts.
+     * @param seq the sequence number of the mutation in the log
+     * @throws MutationLogException if the mutation log could not be written
      */
-    private double getBTCExchangeRate() throws IOException {
-        final String randomGenURL = "https://www.random.org/decimal-fractions/?num=1&dec=10&col=1&format=plain&rnd=new";
-
-        try ( 
-            BufferedReader in = new BufferedReader(new InputStreamReader(new URL(randomGenURL).openStream()));
-        ) {
-            return Double.parseDouble(in.readLine());
-        } catch (NumberFormatException ex) { throw new IOException("result was not a valid exchange rate"); }
+    private void awaitLogged(long seq) throws MutationLogException {
+        try { mutationLog.awaitSync(seq); }
+        catch (IOException ex){
+            logger.log(Level.SEVERE, "Could not write mutation log: " + ex.getMessage(), ex);
+            throw new MutationLogException("the mutation log could not be written", ex);
+        }
     }
 
     /* ************** Send/receive methods ************** */
@@ -2544,46 +4429,105 @@ public class WinsomeServer extends RemoteObject implements RemoteServer {
 
     /**
      * Sends a string to a given client.
+     * <p>
+     * Responses and pushed messages can be sent to the same client by different threads,
+     * even while the selector is reading a request from it: each message is written
+     * from its own buffer (not the key's one, which is used for reading) while holding the key's lock,
+     * so that messages never interleave.
+     * <p>
+     * The message is written without waiting: whatever the client does not accept right away
+     * is queued on the key and written by the selector when the client is writable again.
+     * A client whose queue exceeds the configured size is not reading its messages, and it is disconnected.
      * @param key the given client
-     * @throws IOException if there is an IO error while communicating
+     * @throws IOException if there is an IO error while communicating, or the client has been disconnected
      */
     private void send(String msg, SelectionKey key) throws IOException {
         SocketChannel client = (SocketChannel) key.channel();
-        ByteBuffer buf = (key.attachment() != null) ? 
-            ((KeyAttachment) key.attachment()).getBuffer() :
-            ByteBuffer.allocate(2048);
 
         // converting the message into a byte array
         byte[] tmp = msg.getBytes(StandardCharsets.UTF_8);
-        int len = tmp.length;
         
-        // writing the message length
-        buf.putInt(len);
-        // flushing (otherwise pos calculation won't work)
-        buf.flip();
-        while(buf.hasRemaining()) client.write(buf);
-        buf.compact();
+        // message length followed by the message
+        ByteBuffer buf = ByteBuffer.allocate(Integer.BYTES + tmp.length);
+        buf.putInt(tmp.length).put(tmp).flip();
+
+        synchronized(key){
+            if(!key.isValid()) throw new IOException("client is disconnected");
+            KeyAttachment attachment = (KeyAttachment) key.attachment();
+
+            // writing directly only if no previous message is still waiting
+            if(!attachment.hasOutbound())
+                while(buf.hasRemaining() && client.write(buf) > 0);
+            if(!buf.hasRemaining()) return;
+
+            if(!attachment.queueOutbound(buf, config.outboundQueueSize)){
+                logger.warning("Client is not reading its messages: disconnecting it.");
+                endUserSession(key);
+                client.close();
+                throw new IOException("too many bytes waiting to be written to the client");
+            }
+            key.interestOpsOr(SelectionKey.OP_WRITE);
+        }
+        selector.wakeup();
+    }
 
-        int pos = 0;    // next byte of the message to write
+    /**
+     * Writes to a client the queued messages it can accept without waiting.
+     * <p>
+     * Called by the selector when the client is writable; once the queue is empty,
+     * the selector stops waiting for the client to be writable.
+     * @param key the client
+     * @throws IOException if there is an IO error while communicating
+     */
+    private void flush(SelectionKey key) throws IOException {
+        SocketChannel client = (SocketChannel) key.channel();
 
-        while(true){
-            int remainingLen = len - pos;   // remaining no. of bytes to write
-            if(remainingLen <= 0) break;
+        synchronized(key){
+            KeyAttachment attachment = (KeyAttachment) key.attachment();
 
-            // writing some data into the buffer
-            buf.put(tmp, pos, Math.min(remainingLen, buf.remaining()));
-            // updating the next byte to write
-            pos += buf.position();
+            ByteBuffer buf;
+            while((buf = attachment.peekOutbound()) != null){
+                while(buf.hasRemaining() && client.write(buf) > 0);
+                if(buf.hasRemaining()) return; // the client is not writable anymore
+                attachment.pollOutbound();
+            }
+            key.interestOpsAnd(~SelectionKey.OP_WRITE);
+        }
+    }
+
+    /**
+     * Pushes some follower updates to a client on its TCP connection.
+     * @param key the client
+     * @param added the new followers, with their tags
+     * @param removed the removed followers
+     * @throws IOException if the client is disconnected or some IO error occurs
+     */
+    private void pushFollowers(SelectionKey key, Map<String, Collection<String>> added, Collection<String> removed) throws IOException {
+        if(!key.isValid()) throw new IOException("client is disconnected");
+
+        JsonObject message = new JsonObject();
+        PushCode.FOLLOWERS.addPushToJson(message);
+
+        JsonArray addedJson = new JsonArray();
+        for(Entry<String, Collection<String>> follower : added.entrySet()){
+            JsonObject toAdd = new JsonObject();
+            toAdd.addProperty("username", follower.getKey());
+
+            JsonArray tags = new JsonArray();
+            for(String tag : follower.getValue())
+                tags.add(tag);
+            toAdd.add("tags", tags);
 
-            // flushing
-            buf.flip();
-            while(buf.hasRemaining()) client.write(buf);
-            buf.compact();
+            addedJson.add(toAdd);
         }
-        // final flush, just to be sure
-        buf.flip();
-        while(buf.hasRemaining()) client.write(buf);
-        buf.clear();
+        message.add("added", addedJson);
+
+        JsonArray removedJson = new JsonArray();
+        for(String follower : removed)
+            removedJson.add(follower);
+        message.add("removed", removedJson);
+
+        send(message.toString(), key);
     }
 
     /**
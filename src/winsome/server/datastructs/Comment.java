@@ -35,7 +35,7 @@ public class Comment {
      * @param visited whether this comment has been accounted for by the Rewards Algorithm
      * @throws NullPointerException if author or contents are null
      */
-    private Comment(String author, String contents, boolean visited) throws NullPointerException {
+    public Comment(String author, String contents, boolean visited) throws NullPointerException {
         if(author == null || contents == null) throw new NullPointerException("null parameter in comment creation");
         this.author = author;
         this.contents = contents;
@@ -49,6 +49,12 @@ public class Comment {
      */
     public boolean visit(){ return visited.compareAndSet(false, true); }
 
+    /**
+     * Checks whether this comment has been accounted for by the Rewards Algorithm.
+     * @return true if and only if this comment has already been visited
+     */
+    public boolean isVisited(){ return visited.get(); }
+
     /**
      * Writes this comment onto a JSON stream.
      * @param writer the given JSON stream
@@ -0,0 +1,532 @@
+package winsome.server.datastructs;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+
+/**
+ * The transaction history of a User, together with their current balance.
+ * <p>
+ * Transactions are stored column-wise in growable primitive arrays
+ * (timestamps in epoch milliseconds, increments and running balances),
+ * sorted by timestamp, so that time ranges can be found through binary search
+ * and summed up in constant time.
+ * <p>
+ * A ledger supports a single writer (the Rewards Algorithm, or the thread loading the persisted data)
+ * and any number of concurrent readers; neither appends nor reads take locks.
+ * <p>
+ * The oldest transactions can be archived, i.e. dropped from the ledger: the balance still includes them,
+ * and transactions keep their index (as counted by {@link #size()} and {@link #since(int)}).
+ * <p>
+ * A ledger created with a {@link LedgerFile} can be evicted from memory, keeping only its balance and
+ * the position of its transactions in the file: they are written by {@link #flush()},
+ * dropped by {@link #evict()} and loaded back as soon as they are read or a transaction is appended.
+ * The position of its transactions can be saved by {@link #toIndex(DataOutput, int)}, and the ledger
+ * restored as evicted by {@link #fromIndex(String, LedgerFile, DataInput)}, e.g. after a restart.
+ */
+public class Ledger implements Iterable<Transaction> {
+    /** The columns of a ledger */
+    private static class Columns {
+        /** Timestamps of the transactions, in epoch milliseconds */
+        final long[] timestamps;
+        /** Increments of the transactions, in Wincoins */
+        final double[] increments;
+        /** Running balances: the i-th element is the base plus the sum of the first i+1 increments */
+        final double[] balances;
+        /** Number of archived transactions, preceding the ones in these columns */
+        final int archived;
+        /** Balance of the archived transactions */
+        final double base;
+
+        /**
+         * Allocates new empty columns.
+         * @param capacity the capacity of each column
+         * @param archived the number of archived transactions
+         * @param base the balance of the archived transactions
+         */
+        Columns(int capacity, int archived, double base){
+            timestamps = new long[capacity];
+            increments = new double[capacity];
+            balances = new double[capacity];
+            this.archived = archived;
+            this.base = base;
+        }
+
+        /**
+         * Returns a copy of these columns with twice the capacity.
+         * @param size the number of valid elements to copy
+         * @return the new columns
+         */
+        Columns grow(int size){
+            Columns bigger = new Columns(Math.max(2 * timestamps.length, INITIAL_CAPACITY), archived, base);
+            System.arraycopy(timestamps, 0, bigger.timestamps, 0, size);
+            System.arraycopy(increments, 0, bigger.increments, 0, size);
+            System.arraycopy(balances, 0, bigger.balances, 0, size);
+            return bigger;
+        }
+    }
+
+    /** A contiguous range of transactions of this ledger */
+    public class Range implements Iterable<Transaction> {
+        /** The columns the range refers to */
+        private final Columns cols;
+        /** Index of the first transaction of this range */
+        private final int from;
+        /** Index following the last transaction of this range */
+        private final int to;
+
+        private Range(Columns cols, int from, int to){
+            this.cols = cols;
+            this.from = from;
+            this.to = to;
+        }
+
+        /**
+         * Returns the number of transactions in this range.
+         * @return the number of transactions in this range
+         */
+        public int count(){ return to - from; }
+
+        /**
+         * Returns the index of the transaction following this range, counting the archived transactions too.
+         * @return the number of transactions of the ledger up to the end of this range
+         */
+        public int end(){ return cols.archived + to; }
+
+        /**
+         * Returns the sum of the increments of the transactions in this range.
+         * @return the total amount of Wincoins in this range
+         */
+        public double sum(){
+            if(to == from) return 0;
+            return cols.balances[to - 1] - ((from == 0) ? cols.base : cols.balances[from - 1]);
+        }
+
+        /**
+         * Returns an iterator over the transactions in this range, in chronological order.
+         * @return an iterator over the transactions
+         */
+        @Override
+        public Iterator<Transaction> iterator(){
+            return new Iterator<Transaction>() {
+                private int next = from;
+
+                @Override
+                public boolean hasNext(){ return next < to; }
+
+                @Override
+                public Transaction next(){
+                    if(!hasNext()) throw new NoSuchElementException();
+                    Transaction transaction = new Transaction(
+                        user, cols.increments[next], Instant.ofEpochMilli(cols.timestamps[next])
+                    );
+                    next++;
+                    return transaction;
+                }
+            };
+        }
+    }
+
+    /** A run of consecutive transactions written into the ledger file */
+    private static class Extent {
+        /** Position of the first transaction in the file */
+        final long position;
+        /** Index of the first transaction in the ledger, counting the archived ones */
+        final int start;
+        /** Number of transactions */
+        final int count;
+
+        Extent(long position, int start, int count){
+            this.position = position;
+            this.start = start;
+            this.count = count;
+        }
+    }
+
+    /** Initial capacity of the columns */
+    private static final int INITIAL_CAPACITY = 8;
+
+    /** The user whose transactions are stored in this ledger */
+    private final String user;
+    /** The columns; replaced by bigger copies when full, null while the ledger is evicted */
+    private volatile Columns columns;
+    /** The number of transactions, including the archived ones; written after the new transaction, to publish it */
+    private volatile int size;
+    /** The current balance */
+    private volatile double balance = 0;
+    /** Time of the last access to the transactions, in nanoseconds */
+    private volatile long lastUse = System.nanoTime();
+
+    /** The file holding the transactions while the ledger is evicted, or null if it is never evicted */
+    private final LedgerFile spill;
+    /** Runs of transactions written into the file, in order; guarded by the monitor of this ledger */
+    private final List<Extent> extents = new ArrayList<>();
+    /** Number of transactions (counting the archived ones) already written into the file */
+    private int written = 0;
+    /** Number of archived transactions, while the ledger is evicted */
+    private int evictedArchived = 0;
+    /** Balance of the archived transactions, while the ledger is evicted */
+    private double evictedBase = 0;
+    /** Timestamp of the oldest transaction not archived, while the ledger is evicted */
+    private long evictedOldest = Long.MAX_VALUE;
+
+    /**
+     * Creates a new empty ledger, always kept in memory.
+     * @param user the user whose transactions are stored in this ledger
+     */
+    public Ledger(String user){ this(user, null); }
+
+    /**
+     * Creates a new empty ledger, which can be evicted from memory into the given file.
+     * @param user the user whose transactions are stored in this ledger
+     * @param spill the file holding the transactions while the ledger is evicted, or null if it is never evicted
+     */
+    public Ledger(String user, LedgerFile spill){
+        this.user = Objects.requireNonNull(user, "null user");
+        this.spill = spill;
+        this.columns = new Columns(INITIAL_CAPACITY, 0, 0);
+        this.size = 0;
+    }
+
+    /**
+     * Restores an evicted ledger from the position of its transactions in the ledger file, 
+     * as written by {@link #toIndex(DataOutput, int)}, without reading them.
+     * @param user the user whose transactions are stored in the ledger
+     * @param spill the ledger file the position refers to
+     * @param in the input
+     * @return the restored ledger
+     * @throws IOException if some IO error occurs, or the position is not valid for the given file
+     */
+    public static Ledger fromIndex(String user, LedgerFile spill, DataInput in) throws IOException {
+        Ledger ledger = new Ledger(user, Objects.requireNonNull(spill, "null ledger file"));
+
+        int size = in.readInt(), archived = in.readInt();
+        double base = in.readDouble(), balance = in.readDouble();
+        long oldest = in.readLong();
+        if(archived < 0 || size < archived) throw new IOException("invalid ledger index entry of " + user);
+
+        int next = archived; // the extents must cover every transaction not archived
+        for(int n = in.readInt(); n > 0; n--){
+            Extent extent = new Extent(in.readLong(), in.readInt(), in.readInt());
+            if(extent.position < 0 || extent.count <= 0 || extent.start > next || extent.start + extent.count > size
+                    || extent.position + (long) extent.count * LedgerFile.TRANSACTION_BYTES > spill.size())
+                throw new IOException("invalid ledger index entry of " + user);
+            ledger.extents.add(extent);
+            next = Math.max(next, extent.start + extent.count);
+        }
+        if(next != size) throw new IOException("invalid ledger index entry of " + user);
+
+        ledger.columns = null;
+        ledger.size = size;
+        ledger.balance = balance;
+        ledger.written = size;
+        ledger.evictedArchived = archived;
+        ledger.evictedBase = base;
+        ledger.evictedOldest = oldest;
+        return ledger;
+    }
+
+    /**
+     * Appends a transaction to this ledger and updates the balance.
+     * @param transaction the given transaction
+     * @throws NullPointerException if transaction is null
+     */
+    public void add(Transaction transaction){
+        Objects.requireNonNull(transaction, "null transaction");
+        add(transaction.timestamp.toEpochMilli(), transaction.increment);
+    }
+
+    /**
+     * Appends a transaction to this ledger and updates the balance.
+     * <p>
+     * To keep the ledger sorted, a timestamp older than the last one
+     * (e.g. because the system clock went back) is replaced by the last one.
+     * @param timestamp the timestamp of the transaction, in epoch milliseconds
+     * @param increment the increment in Wincoins
+     */
+    public void add(long timestamp, double increment){
+        Columns cols = columns();
+        int n = size - cols.archived;
+
+        if(n == cols.timestamps.length) columns = cols = cols.grow(n);
+
+        cols.timestamps[n] = (n == 0) ? timestamp : Math.max(timestamp, cols.timestamps[n - 1]);
+        cols.increments[n] = increment;
+        cols.balances[n]   = ((n == 0) ? cols.base : cols.balances[n - 1]) + increment;
+
+        balance = cols.balances[n];
+        size = size + 1; // publishing the new transaction
+    }
+
+    /**
+     * Returns the number of transactions in this ledger, including the archived ones.
+     * @return the number of transactions
+     */
+    public int size(){ return size; }
+
+    /**
+     * Returns the current balance, without visiting (or loading) the transaction history.
+     * @return the sum of the increments of all the transactions in this ledger
+     */
+    public double getBalance(){ return balance; }
+
+    /**
+     * Returns the transactions not archived whose timestamp lies in the given interval.
+     * @param from the beginning of the interval (inclusive), or null for no lower bound
+     * @param to the end of the interval (exclusive), or null for no upper bound
+     * @return the range of transactions in the given interval
+     */
+    public Range range(Instant from, Instant to){
+        int n = size;
+        Columns cols = columns(); // read after size: contains at least n transactions
+        n -= cols.archived;
+
+        int lo = (from == null) ? 0 : lowerBound(cols.timestamps, n, from.toEpochMilli());
+        int hi = (to == null) ? n : lowerBound(cols.timestamps, n, to.toEpochMilli());
+        return new Range(cols, lo, Math.max(lo, hi));
+    }
+
+    /**
+     * Returns the transactions appended after the first given number of transactions,
+     * except the archived ones.
+     * @param index the number of transactions to skip
+     * @return the range of transactions following the first index transactions
+     */
+    public Range since(int index){
+        int n = size;
+        Columns cols = columns(); // read after size: contains at least n transactions
+        n -= cols.archived;
+
+        int from = Math.min(Math.max(index - cols.archived, 0), n);
+        return new Range(cols, from, n);
+    }
+
+    /**
+     * Archives the transactions older than a given timestamp, dropping them from this ledger.
+     * <p>
+     * The balance does not change; it must be called by the writer of this ledger.
+     * An evicted ledger is loaded only if it has some transaction to archive.
+     * @param timestamp the given timestamp, in epoch milliseconds
+     * @return the archived transactions
+     */
+    public List<Transaction> archiveBefore(long timestamp){
+        synchronized(this){
+            if(columns == null && evictedOldest >= timestamp) return Collections.emptyList();
+        }
+
+        Columns cols = columns();
+        int n = size - cols.archived;
+        int k = lowerBound(cols.timestamps, n, timestamp);
+        if(k == 0) return Collections.emptyList();
+
+        List<Transaction> archived = new ArrayList<>(k);
+        for(Transaction transaction : new Range(cols, 0, k)) archived.add(transaction);
+
+        Columns kept = new Columns(Math.max(n - k, INITIAL_CAPACITY), cols.archived + k, cols.balances[k - 1]);
+        System.arraycopy(cols.timestamps, k, kept.timestamps, 0, n - k);
+        System.arraycopy(cols.increments, k, kept.increments, 0, n - k);
+        System.arraycopy(cols.balances, k, kept.balances, 0, n - k);
+        columns = kept;
+        return archived;
+    }
+
+    /**
+     * Sets the balance of the archived transactions, e.g. after loading the ledger from a snapshot
+     * not containing them, and updates the running balances.
+     * <p>
+     * It must be called by the writer of this ledger.
+     * @param base the balance of the archived transactions
+     */
+    public synchronized void setArchivedBalance(double base){
+        Columns cols = columns;
+        if(cols == null){ // the running balances are computed when the ledger is loaded
+            balance += base - evictedBase;
+            evictedBase = base;
+            return;
+        }
+        int n = size - cols.archived;
+
+        Columns rebased = new Columns(cols.timestamps.length, cols.archived, base);
+        System.arraycopy(cols.timestamps, 0, rebased.timestamps, 0, n);
+        System.arraycopy(cols.increments, 0, rebased.increments, 0, n);
+        for(int i = 0; i < n; i++)
+            rebased.balances[i] = ((i == 0) ? base : rebased.balances[i - 1]) + rebased.increments[i];
+        columns = rebased;
+        balance = (n == 0) ? base : rebased.balances[n - 1];
+    }
+
+    /**
+     * Checks whether the transactions of this ledger are in memory.
+     * @return true if and only if this ledger has not been evicted
+     */
+    public boolean isLoaded(){ return columns != null; }
+
+    /**
+     * Returns the time of the last access to the transactions of this ledger.
+     * @return the time of the last access, as returned by {@link System#nanoTime()}
+     */
+    public long lastUse(){ return lastUse; }
+
+    /**
+     * Writes the transactions not yet in the ledger file into the file.
+     * <p>
+     * It can run concurrently with the writer of this ledger: transactions appended in the meantime
+     * are written by the next flush.
+     * @throws IOException if some IO error occurs
+     */
+    public synchronized void flush() throws IOException {
+        if(spill == null) return;
+        int n = size;
+        Columns cols = columns; // read after size: contains at least n transactions
+        if(cols == null) return; // evicted, hence already written
+
+        int from = Math.max(written, cols.archived); // archived transactions are not written
+        if(from < n){
+            long position = spill.append(cols.timestamps, cols.increments, from - cols.archived, n - cols.archived);
+            extents.add(new Extent(position, from, n - from));
+        }
+        written = n;
+    }
+
+    /**
+     * Evicts the transactions of this ledger from memory, if they have all been written into the ledger file.
+     * <p>
+     * It must not be called concurrently with the writer of this ledger.
+     * @return true if and only if the ledger has been evicted
+     */
+    public synchronized boolean evict(){
+        Columns cols = columns;
+        if(spill == null || cols == null || written < size) return false;
+
+        int n = size - cols.archived;
+        evictedArchived = cols.archived;
+        evictedBase = cols.base;
+        evictedOldest = (n == 0) ? Long.MAX_VALUE : cols.timestamps[0];
+        columns = null;
+        return true;
+    }
+
+    /**
+     * Writes the position in the ledger file of the first given number of transactions, writing them
+     * into the file first, so that the ledger can be restored by {@link #fromIndex(String, LedgerFile, DataInput)}
+     * as it was when it had that many transactions.
+     * <p>
+     * It can run concurrently with the writer of this ledger, but not with {@link #archiveBefore(long)}.
+     * @param out the output
+     * @param count the number of transactions, including the archived ones
+     * @throws IOException if some IO error occurs
+     * @throws IllegalArgumentException if count is lower than the number of archived transactions, 
+     *  or greater than the number of transactions
+     * @throws IllegalStateException if this ledger is never evicted
+     */
+    public synchronized void toIndex(DataOutput out, int count) throws IOException {
+        if(spill == null) throw new IllegalStateException("the ledger has no ledger file");
+        flush();
+
+        Columns cols = columns;
+        if(cols == null && count < size) cols = load(); // the balance after count transactions is needed
+        int archived = (cols != null) ? cols.archived : evictedArchived;
+        if(count < archived || count > size) throw new IllegalArgumentException("invalid number of transactions");
+
+        double base, balanceAt; long oldest;
+        if(cols != null){
+            int n = count - archived;
+            base = cols.base;
+            balanceAt = (n == 0) ? base : cols.balances[n - 1];
+            oldest = (n == 0) ? Long.MAX_VALUE : cols.timestamps[0];
+        } else {
+            base = evictedBase;
+            balanceAt = balance;
+            oldest = evictedOldest;
+        }
+
+        List<Extent> kept = new ArrayList<>();
+        for(Extent extent : extents){
+            if(extent.start >= count) break;
+            if(extent.start + extent.count <= archived) continue;
+            kept.add(new Extent(extent.position, extent.start, Math.min(extent.count, count - extent.start)));
+        }
+
+        out.writeInt(count);
+        out.writeInt(archived);
+        out.writeDouble(base);
+        out.writeDouble(balanceAt);
+        out.writeLong(oldest);
+        out.writeInt(kept.size());
+        for(Extent extent : kept){
+            out.writeLong(extent.position);
+            out.writeInt(extent.start);
+            out.writeInt(extent.count);
+        }
+    }
+
+    /**
+     * Returns an iterator over the transactions of this ledger not archived, in chronological order.
+     * @return an iterator over the transactions
+     */
+    @Override
+    public Iterator<Transaction> iterator(){ return range(null, null).iterator(); }
+
+    /**
+     * Returns the columns, loading them from the ledger file if the ledger has been evicted.
+     * @return the columns
+     * @throws UncheckedIOException if the transactions cannot be read
+     */
+    private Columns columns(){
+        lastUse = System.nanoTime();
+        Columns cols = columns;
+        return (cols != null) ? cols : load();
+    }
+
+    /**
+     * Loads the transactions of an evicted ledger from the ledger file.
+     * @return the loaded columns
+     * @throws UncheckedIOException if the transactions cannot be read
+     */
+    private synchronized Columns load(){
+        if(columns != null) return columns; // loaded by another thread
+
+        int n = size - evictedArchived;
+        Columns cols = new Columns(Math.max(n, INITIAL_CAPACITY), evictedArchived, evictedBase);
+        extents.removeIf(extent -> extent.start + extent.count <= evictedArchived);
+        try {
+            for(Extent extent : extents){
+                int skip = Math.max(evictedArchived - extent.start, 0); // archived after being written
+                spill.read(
+                    extent.position + (long) skip * LedgerFile.TRANSACTION_BYTES, extent.count - skip,
+                    cols.timestamps, cols.increments, extent.start + skip - evictedArchived
+                );
+            }
+        } catch (IOException ex){ throw new UncheckedIOException("could not load the transactions of " + user, ex); }
+
+        for(int i = 0; i < n; i++)
+            cols.balances[i] = ((i == 0) ? cols.base : cols.balances[i - 1]) + cols.increments[i];
+        columns = cols;
+        return cols;
+    }
+
+    /**
+     * Finds the index of the first timestamp not older than a given one.
+     * @param timestamps the sorted timestamps
+     * @param n the number of valid timestamps
+     * @param key the given timestamp
+     * @return the index of the first timestamp greater or equal to key, or n if there is none
+     */
+    private static int lowerBound(long[] timestamps, int n, long key){
+        int lo = 0, hi = n;
+        while(lo < hi){
+            int mid = (lo + hi) >>> 1;
+            if(timestamps[mid] < key) lo = mid + 1;
+            else hi = mid;
+        }
+        return lo;
+    }
+}
@@ -0,0 +1,112 @@
+package winsome.server.datastructs;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Objects;
+
+/**
+ * An append-only file holding the transactions of the ledgers evicted from memory.
+ * <p>
+ * Each transaction is stored as its timestamp (in epoch milliseconds) followed by its increment;
+ * ledgers keep the position of their transactions in the file.
+ * <p>
+ * The file is kept across restarts, so that ledgers saved with {@link Ledger#toIndex(java.io.DataOutput, int)}
+ * can be restored without reading their transactions. It is not part of the persisted state, though:
+ * the persisted transactions are in the snapshots and in the mutation log, and the file can be cleared
+ * (dropping every ledger referring to it) to rebuild it from them.
+ */
+public class LedgerFile implements Closeable {
+    /** Size in bytes of a stored transaction */
+    public static final int TRANSACTION_BYTES = Long.BYTES + Double.BYTES;
+
+    /** The channel of the file */
+    private final FileChannel channel;
+    /** Size in bytes of the file, i.e. the position of the next append */
+    private long end;
+
+    /**
+     * Opens the given file, creating it if it does not exist; new transactions are appended after the existing ones.
+     * @param file the file
+     * @throws IOException if the file cannot be opened
+     */
+    public LedgerFile(File file) throws IOException {
+        Objects.requireNonNull(file, "null file");
+        channel = FileChannel.open(
+            file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE
+        );
+        end = channel.size();
+    }
+
+    /**
+     * Returns the size of the file, including the transactions no ledger refers to anymore.
+     * @return the size in bytes of the file
+     */
+    public synchronized long size(){ return end; }
+
+    /**
+     * Truncates the file: no ledger must refer to it anymore.
+     * @throws IOException if some IO error occurs
+     */
+    public synchronized void clear() throws IOException {
+        channel.truncate(0);
+        end = 0;
+    }
+
+    /**
+     * Forces the appended transactions to the storage device.
+     * @throws IOException if some IO error occurs
+     */
+    public void sync() throws IOException { channel.force(false); }
+
+    /**
+     * Appends some transactions at the end of the file.
+     * @param timestamps the timestamps of the transactions
+     * @param increments the increments of the transactions
+     * @param from the index of the first transaction to append
+     * @param to the index following the last transaction to append
+     * @return the position of the first appended transaction
+     * @throws IOException if some IO error occurs
+     */
+    synchronized long append(long[] timestamps, double[] increments, int from, int to) throws IOException {
+        ByteBuffer buf = ByteBuffer.allocate((to - from) * TRANSACTION_BYTES);
+        for(int i = from; i < to; i++) buf.putLong(timestamps[i]).putDouble(increments[i]);
+        buf.flip();
+
+        long position = end;
+        while(buf.hasRemaining()) channel.write(buf, end + buf.position());
+        end += buf.limit();
+        return position;
+    }
+
+    /**
+     * Reads some transactions from the file.
+     * @param position the position of the first transaction
+     * @param count the number of transactions
+     * @param timestamps the array where the timestamps are stored
+     * @param increments the array where the increments are stored
+     * @param at the index where the first transaction is stored
+     * @throws IOException if some IO error occurs
+     */
+    void read(long position, int count, long[] timestamps, double[] increments, int at) throws IOException {
+        ByteBuffer buf = ByteBuffer.allocate(count * TRANSACTION_BYTES);
+        while(buf.hasRemaining())
+            if(channel.read(buf, position + buf.position()) < 0) throw new IOException("truncated ledger file");
+        buf.flip();
+
+        for(int i = 0; i < count; i++){
+            timestamps[at + i] = buf.getLong();
+            increments[at + i] = buf.getDouble();
+        }
+    }
+
+    /**
+     * Closes the file.
+     * @throws IOException if some IO error occurs
+     */
+    @Override
+    public void close() throws IOException { channel.close(); }
+}
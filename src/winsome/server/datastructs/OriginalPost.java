@@ -1,10 +1,11 @@
 package winsome.server.datastructs;
 
 import java.io.IOException;
+import java.time.Instant;
+import java.time.format.DateTimeParseException;
 import java.util.*;
 import java.util.Map.*;
 import java.util.concurrent.*;
-import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 
 import com.google.gson.stream.JsonReader;
@@ -26,66 +27,11 @@ public class OriginalPost extends Post {
         UP, 
         /** Downvote */
         DOWN;
-
-        /** Whether or not this vote has been counted by the Rewards Algorithm */
-        private AtomicBoolean visited;
-
-        private Vote(){ visited = new AtomicBoolean(false); }
-        private Vote(boolean visited){ this.visited = new AtomicBoolean(visited); }
-
-        /**
-         * Used by the Rewards Algorithm to mark this vote, if it hadn't already been marked.
-         * @return true if and only if this vote hadn't already been marked
-         */
-        public boolean visit(){ return visited.compareAndSet(false, true); }
-
-        /**
-         * Deserializes a Vote from a JSON stream.
-         * @param reader the given JSON stream
-         * @return the parsed Vote
-         * @throws IOException if some IO error occurs
-         * @throws InvalidJSONFileException if the stream did not contain a valid Vote
-         */
-        public static Vote fromJson(JsonReader reader) throws IOException, InvalidJSONFileException {
-            Objects.requireNonNull(reader, "json reader must not be null");
-            try { 
-                String vote = null; 
-                Boolean visited = false;
-
-                reader.beginObject();
-                while(reader.hasNext()){
-                    String property = reader.nextName();
-
-                    switch (property) {
-                        case "vote"     -> vote = reader.nextString();
-                        case "visited"  -> visited = reader.nextBoolean();
-                        default -> throw new InvalidJSONFileException("error while parsing vote in json file");
-                    }
-                }
-                reader.endObject();
-
-                Vote ans = Vote.valueOf(vote);
-                if(visited) ans.visit(); // setting the vote as visited
-
-                return ans;
-            }
-            catch(IllegalArgumentException | NullPointerException ex){ throw new InvalidJSONFileException("invalid vote"); }
-        }
-
-        /**
-         * Serializes this vote through a JSON stream.
-         * @param writer the given JSON stream
-         * @throws IOException if some IO error occurs
-         */
-        public void toJson(JsonWriter writer) throws IOException {
-            Objects.requireNonNull(writer, "json writer must not be null")
-                .beginObject()
-                .name("vote").value(this.toString())
-                .name("visited").value(this.visited.get())
-                .endObject();
-        }
     }
     
+    /** Number of iterations of the Rewards Algorithm started since the server was started */
+    private static final AtomicInteger rewardsClock = new AtomicInteger(0);
+
     /** This post's unique identifier */
     public final int id;
     /** This post's author */
@@ -94,6 +40,8 @@ public class OriginalPost extends Post {
     public final String title;
     /** This post's contents */
     public final String contents;
+    /** The timestamp at which this post was created */
+    public final Instant timestamp;
 
     /** Users who have rated this post */
     private final ConcurrentMap<String, Vote> votes;
@@ -101,9 +49,18 @@ public class OriginalPost extends Post {
     private final Collection<Comment> comments;
     /** Users who have rewinned this post */
     private final Set<String> rewinnerSet;
+
+    /** Voters whose vote has not been counted yet by the Rewards Algorithm, in insertion order */
+    private final ConcurrentLinkedQueue<String> pendingVotes;
+    /** Comments that have not been counted yet by the Rewards Algorithm, in insertion order */
+    private final ConcurrentLinkedQueue<Comment> pendingComments;
     
-    /** Keeps track of how many times the Rewards Algorithm has been run on this post */
-    private final AtomicInteger iterations;
+    /** 
+     * Value of the rewards clock at which this post would have had 0 iterations:
+     * the number of iterations of the Rewards Algorithm run on this post is 
+     * the current value of the clock minus this offset
+     */
+    private final int iterationsOffset;
 
     /**
      * Creates a new post.
@@ -121,10 +78,13 @@ public class OriginalPost extends Post {
         this.author = author;
         this.title = title;
         this.contents = contents;
+        this.timestamp = Instant.now();
         this.votes = new ConcurrentHashMap<>();
         this.comments = new ConcurrentLinkedQueue<>();
         this.rewinnerSet = ConcurrentHashMap.newKeySet();
-        this.iterations = new AtomicInteger(0);
+        this.pendingVotes = new ConcurrentLinkedQueue<>();
+        this.pendingComments = new ConcurrentLinkedQueue<>();
+        this.iterationsOffset = rewardsClock.get();
     }
 
     /**
@@ -137,27 +97,37 @@ public class OriginalPost extends Post {
      * @param author author of this post
      * @param title title of this post
      * @param contents contents of this post
+     * @param timestamp the timestamp at which this post was created
      * @param votes map with users who have voted this post as keys, and votes as values
      * @param comments queue of comments of the post
+     * @param pendingVotes queue of voters whose vote has not been counted yet
      * @param iterations number of iterations at the latest iteration of the Reward Algorithm
      */
-    private OriginalPost(
-        int id, String author, String title, String contents, 
+    public OriginalPost(
+        int id, String author, String title, String contents, Instant timestamp,
         ConcurrentHashMap<String, Vote> votes,
-        ConcurrentLinkedQueue<Comment> comments, int iterations
+        ConcurrentLinkedQueue<Comment> comments, 
+        ConcurrentLinkedQueue<String> pendingVotes, int iterations
     ) throws NullPointerException {
-        if(author == null || title == null || contents == null
-                || votes == null || comments == null) 
+        if(author == null || title == null || contents == null || timestamp == null
+                || votes == null || comments == null || pendingVotes == null) 
             throw new NullPointerException("null parameters in Post creation");
 
         this.id = id;
         this.author = author;
         this.title = title;
         this.contents = contents;
+        this.timestamp = timestamp;
         this.votes = votes;
         this.comments = comments;
         this.rewinnerSet = ConcurrentHashMap.newKeySet();
-        this.iterations = new AtomicInteger(iterations);
+        this.pendingVotes = pendingVotes;
+        this.pendingComments = new ConcurrentLinkedQueue<>();
+        this.iterationsOffset = rewardsClock.get() - iterations;
+
+        // comments not yet counted go back into the pending log
+        for(Comment comment : comments)
+            if(!comment.isVisited()) pendingComments.add(comment);
     }
 
     @Override
@@ -249,6 +219,7 @@ public class OriginalPost extends Post {
 
         if(votes.putIfAbsent(voter, Vote.UP) != null)
             throw new AlreadyVotedException("post had already been voted");
+        pendingVotes.add(voter);
     }
     
     @Override
@@ -257,13 +228,16 @@ public class OriginalPost extends Post {
 
         if(votes.putIfAbsent(voter, Vote.DOWN) != null)
             throw new AlreadyVotedException("post had already been voted");
+        pendingVotes.add(voter);
     }
 
     @Override
     public void addComment(String author, String contents) throws NullPointerException, PostOwnerException {
         if(author == null || contents == null) throw new NullPointerException("null parameter in comment creation");
         if(author.equals(this.author)) throw new PostOwnerException("author cannot add a comment to their own post");
-        comments.add(new Comment(author, contents));
+        Comment comment = new Comment(author, contents);
+        comments.add(comment);
+        pendingComments.add(comment);
     }
 
     // ------------------- To/From JSON ------------------- //
@@ -275,19 +249,22 @@ public class OriginalPost extends Post {
             .name("id").value(this.id)
             .name("author").value(this.author)
             .name("title").value(this.title)
-            .name("contents").value(this.contents);
+            .name("contents").value(this.contents)
+            .name("timestamp").value(this.timestamp.toString());
 
-
-        // serializing votes
+        // serializing votes: a vote is visited if and only if it is not in the pending log
+        Set<String> pending = new HashSet<>(pendingVotes);
         writer.name("votes")
             .beginArray();
         for(Entry<String, Vote> vote : votes.entrySet()){
             writer.beginObject();
 
             writer.name("voter").value(vote.getKey())
-                .name("vote");
-            vote.getValue()
-                .toJson(writer);
+                .name("vote")
+                .beginObject()
+                .name("vote").value(vote.getValue().toString())
+                .name("visited").value(!pending.contains(vote.getKey()))
+                .endObject();
 
             writer.endObject();
         }
@@ -301,7 +278,7 @@ public class OriginalPost extends Post {
 
         // serializing iterations
         writer.name("iterations")
-            .value(iterations.get());
+            .value(getIterations());
 
         writer.endObject();
     }
@@ -321,9 +298,11 @@ public class OriginalPost extends Post {
             String author   = null;
             String title    = null;
             String contents = null;
+            Instant timestamp = null;
             
             ConcurrentHashMap<String, Vote> votes   = new ConcurrentHashMap<>();
             ConcurrentLinkedQueue<Comment> comments = new ConcurrentLinkedQueue<>();
+            ConcurrentLinkedQueue<String> pendingVotes = new ConcurrentLinkedQueue<>();
             
             Integer iterations = null;
 
@@ -336,12 +315,14 @@ public class OriginalPost extends Post {
                     case "author"   -> author = reader.nextString();
                     case "title"    -> title = reader.nextString();
                     case "contents" -> contents = reader.nextString();
+                    case "timestamp" -> timestamp = Instant.parse(reader.nextString());
                     case "votes" -> {
                         // opening array of votes
                         reader.beginArray();
                         while(reader.hasNext()){
                             String voter = null;
                             Vote vote = null;
+                            boolean visited = false;
                             
                             // opening single vote
                             reader.beginObject();
@@ -350,14 +331,26 @@ public class OriginalPost extends Post {
 
                                 switch (innerProperty) {
                                     case "voter" -> voter = reader.nextString();
-                                    case "vote" -> vote = Vote.fromJson(reader);
+                                    case "vote" -> {
+                                        reader.beginObject();
+                                        while(reader.hasNext()){
+                                            switch (reader.nextName()) {
+                                                case "vote"    -> vote = Vote.valueOf(reader.nextString());
+                                                case "visited" -> visited = reader.nextBoolean();
+                                                default -> throw new InvalidJSONFileException("error while parsing vote in json file");
+                                            }
+                                        }
+                                        reader.endObject();
+                                    }
                                     default -> throw new InvalidJSONFileException("parameter does not represent a valid OriginalPost");
                                 }
                             }
                             reader.endObject();
                             // closing single vote
 
+                            if(vote == null) throw new InvalidJSONFileException("invalid vote");
                             votes.put(voter, vote);
+                            if(!visited) pendingVotes.add(voter);
                         }
                         reader.endArray();
                         // closing array of votes
@@ -374,32 +367,68 @@ public class OriginalPost extends Post {
             }
             reader.endObject();
             
-            return new OriginalPost(id, author, title, contents, votes, comments, iterations);
-        } catch (ClassCastException | IllegalStateException | NullPointerException | NumberFormatException ex){
+            // posts persisted before timestamps were recorded are aged from now on
+            if(timestamp == null) timestamp = Instant.now();
+            return new OriginalPost(id, author, title, contents, timestamp, votes, comments, pendingVotes, iterations);
+        } catch (ClassCastException | IllegalStateException | IllegalArgumentException | NullPointerException 
+                | DateTimeParseException ex){
             throw new InvalidJSONFileException("json reader does not represent a valid Post", ex);
         }
     }
 
+    /**
+     * Signals the start of a new iteration of the Rewards Algorithm.
+     * <p>
+     * Every original post counts the new iteration, 
+     * even if it is not reaped during it because it had no new votes or comments.
+     * @return the number of iterations started since the server was started
+     */
+    public static int startRewardsIteration(){ return rewardsClock.incrementAndGet(); }
+
+    /**
+     * Returns the number of iterations of the Rewards Algorithm started since the server was started.
+     * @return the current value of the rewards clock
+     */
+    public static int getRewardsIteration(){ return rewardsClock.get(); }
+
+    /**
+     * Returns how many iterations of the Rewards Algorithm have been run on this post.
+     * @return the number of iterations of the Rewards Algorithm run on this post
+     */
+    public int getIterations(){ return rewardsClock.get() - iterationsOffset; }
+
+    /**
+     * Checks whether this post has votes or comments not yet counted by the Rewards Algorithm.
+     * @return true if and only if there are pending votes or comments
+     */
+    public boolean hasPendingRewards(){ return !pendingVotes.isEmpty() || !pendingComments.isEmpty(); }
+
     /**
      * Computes the rewards generated by this post and updates its status.
+     * <p>
+     * Only the votes and comments added since the last call are visited,
+     * by draining the pending logs of this post.
      * @return the rewards generated by this post
      */
     public PostRewards reapRewards(){
         Set<String> curators = new HashSet<>();
 
-        // getting upvoters
-        int newVotes = 0;
-        for(Entry<String, Vote> entry : votes.entrySet()){
-            Vote vote = entry.getValue();
-            if(vote.visit()){
-                newVotes += (vote == Vote.UP) ? 1 : -1;
-                if(vote == Vote.UP) curators.add(entry.getKey());
-            }
+        // getting new voters
+        int newVotes = 0, visitedVotes = 0;
+        String voter;
+        while((voter = pendingVotes.poll()) != null){
+            visitedVotes++;
+            Vote vote = votes.get(voter);
+            newVotes += (vote == Vote.UP) ? 1 : -1;
+            if(vote == Vote.UP) curators.add(voter);
         }
 
-        // getting commenters
+        // getting new commenters
         Map<String, Integer> commentFreq = new HashMap<>();
-        for(Comment comment : comments){
+        int visitedComments = 0;
+        Comment comment;
+        while((comment = pendingComments.poll()) != null){
+            visitedComments++;
             if(comment.visit()){
                 commentFreq.merge(
                     comment.author, 
@@ -416,8 +445,25 @@ public class OriginalPost extends Post {
         for(int freq : commentFreq.values())
             commentReward += 2/(1 + Math.exp(-(freq + 1)));
         reward += Math.log(commentReward + 1);
-        reward /= iterations.incrementAndGet();
+        reward /= Math.max(getIterations(), 1);
+
+        return new PostRewards(reward, curators, visitedVotes, visitedComments);
+    }
+
+    /**
+     * Marks as counted the oldest votes and comments not yet counted by the Rewards Algorithm,
+     * without computing their reward.
+     * <p>
+     * It is used to replay a past call to {@link #reapRewards()}, 
+     * given the number of votes and comments it visited.
+     * @param votes the number of votes to mark
+     * @param comments the number of comments to mark
+     */
+    public void skipRewards(int votes, int comments){
+        for(int i = 0; i < votes && pendingVotes.poll() != null; i++);
 
-        return new PostRewards(reward, curators);
+        Comment comment;
+        for(int i = 0; i < comments && (comment = pendingComments.poll()) != null; i++)
+            comment.visit();
     }
 }
@@ -49,6 +49,16 @@ public abstract class Post {
         if(!isIDGeneratorInit()) throw new IllegalStateException("ID Generator has not been initialized yet");
         return idGenerator.getAndIncrement();
     }
+
+    /**
+     * Returns the ID the ID Generator will assign to the next Post, without consuming it.
+     * @return the next post ID
+     * @throws IllegalStateException if the generator has not been initialized yet
+     */
+    public static final int peekNextID() throws IllegalStateException {
+        if(!isIDGeneratorInit()) throw new IllegalStateException("ID Generator has not been initialized yet");
+        return idGenerator.get();
+    }
     
     /** 
      * Returns this post's unique identifier. 
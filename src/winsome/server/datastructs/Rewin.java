@@ -40,7 +40,15 @@ public class Rewin extends Post {
         this.rewinner = Objects.requireNonNull(rewinner, "the rewinner username must not be null");
     }
 
-    private Rewin(int id, Post post, String rewinner) {
+    /**
+     * Creates a rewin with the given ID, e.g. read from a snapshot.
+     * <p>
+     * Unlike {@link #Rewin(Post, String)}, the rewinner is not added to the rewinners of the post.
+     * @param id the id of the rewin
+     * @param post the rewinned post
+     * @param rewinner the username of the rewinner
+     */
+    public Rewin(int id, Post post, String rewinner) {
         this.id = id;
         rewinnedPost = Objects
             .requireNonNull(post, "the post to rewin must not be null")
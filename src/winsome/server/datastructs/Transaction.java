@@ -34,12 +34,12 @@ public class Transaction {
     /**
      * Creates a transaction object with a given timestamp.
      * <p>
-     * Useful for deserialization.
+     * Useful for deserialization, or to publish many transactions at once.
      * @param user the user involved
      * @param increment the increment in WinCoins
      * @param timestamp the timestamp of the transaction
      */
-    private Transaction(String user, double increment, Instant timestamp) {
+    public Transaction(String user, double increment, Instant timestamp) {
         if(user == null || timestamp == null) throw new NullPointerException("null argument");
 
         this.user = user;
@@ -0,0 +1,11 @@
+package winsome.server.exceptions;
+
+import java.io.IOException;
+
+/** An exception for corrupted or truncated snapshot files. */
+public class InvalidSnapshotException extends IOException {
+    public InvalidSnapshotException(){ super(); }
+    public InvalidSnapshotException(String msg){ super(msg); }
+    public InvalidSnapshotException(Throwable err){ super(err); }
+    public InvalidSnapshotException(String msg, Throwable err){ super(msg, err); }
+}
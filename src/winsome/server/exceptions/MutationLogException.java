@@ -0,0 +1,11 @@
+package winsome.server.exceptions;
+
+import java.io.IOException;
+
+/** An exception for mutations that could not be written into the mutation log. */
+public class MutationLogException extends IOException {
+    public MutationLogException(){ super(); }
+    public MutationLogException(String msg){ super(msg); }
+    public MutationLogException(Throwable err){ super(err); }
+    public MutationLogException(String msg, Throwable err){ super(msg, err); }
+}
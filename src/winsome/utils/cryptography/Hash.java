@@ -34,6 +34,13 @@ public class Hash implements Serializable {
         this.digest = Objects.requireNonNull(digest, "given digest is null");
     }
 
+    /**
+     * Returns the Hash with the given digest, e.g. read from a serialized user.
+     * @param digest the hashed string
+     * @return the Hash with the given digest
+     */
+    public static Hash fromDigest(String digest){ return new Hash(digest); }
+
     /**
      * Hashes a plain text string into a Hash.
      * 